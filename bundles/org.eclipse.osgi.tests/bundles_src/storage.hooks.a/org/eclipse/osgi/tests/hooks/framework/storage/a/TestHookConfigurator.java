@@ -15,6 +15,7 @@ package org.eclipse.osgi.tests.hooks.framework.storage.a;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
@@ -50,16 +51,17 @@ public class TestHookConfigurator implements HookConfigurator {
 			}
 
 			@Override
-			public void load(Object loadContext, DataInputStream is) {
+			public void load(Object loadContext, DataInputStream is) throws IOException {
 				if (TestHookConfigurator.failLoad) {
 					// will force a clean
 					throw new IllegalArgumentException();
 				}
+				TestHookConfigurator.loadedHookData = is.readUTF();
 			}
 
 			@Override
-			public void save(Object saveContext, DataOutputStream os) {
-				// Nothing.
+			public void save(Object saveContext, DataOutputStream os) throws IOException {
+				os.writeUTF(TestHookConfigurator.hookData);
 			}
 
 			@Override
@@ -127,6 +129,8 @@ public class TestHookConfigurator implements HookConfigurator {
 	public static volatile boolean deletingGenerationCalled;
 	public static volatile boolean adaptManifest;
 	public static volatile boolean replaceModuleBuilder;
+	public static volatile String hookData = "";
+	public static volatile String loadedHookData;
 
 	public void addHooks(HookRegistry hookRegistry) {
 		hookRegistry.addStorageHookFactory(new TestStorageHookFactory());
@@ -47,6 +47,7 @@ public class AutomatedTests extends TestCase {
 		TestSuite suite = new TestSuite(AutomatedTests.class.getName());
 		//		suite.addTest(new TestSuite(SimpleTests.class));
 		suite.addTest(org.eclipse.osgi.tests.container.AllTests.suite());
+		suite.addTest(org.eclipse.osgi.tests.storage.AllTests.suite());
 		suite.addTest(AllFrameworkHookTests.suite());
 		suite.addTest(new TestSuite(InstallTests.class));
 		suite.addTest(org.eclipse.osgi.tests.eclipseadaptor.AllTests.suite());
@@ -508,6 +508,32 @@ public class ClassLoadingBundleTests extends AbstractBundleTests {
 		}
 	}
 
+	public void testMissingClassAfterFragmentAttach() throws Exception {
+		Bundle hostA = installer.installBundle("fragment.test.attach.host.a"); //$NON-NLS-1$
+		assertTrue("Host resolve", installer.resolveBundles(new Bundle[] {hostA})); //$NON-NLS-1$
+
+		// probe for the fragment content more than once before the fragment is attached
+		for (int i = 0; i < 2; i++) {
+			try {
+				hostA.loadClass("fragment.test.attach.frag.b.Test"); //$NON-NLS-1$
+				fail("Expected class loading exception"); //$NON-NLS-1$
+			} catch (ClassNotFoundException e) {
+				// expected
+			}
+			assertNull("Found missing resource", hostA.getResource("fragment/test/attach/frag/b/Test.class")); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		Bundle fragB = installer.installBundle("fragment.test.attach.frag.b"); //$NON-NLS-1$
+		Bundle hostARequire = installer.installBundle("fragment.test.attach.host.a.require"); //$NON-NLS-1$
+		assertTrue("RequireA/Frag", installer.resolveBundles(new Bundle[] {hostARequire, fragB})); //$NON-NLS-1$
+		try {
+			hostA.loadClass("fragment.test.attach.frag.b.Test"); //$NON-NLS-1$
+		} catch (ClassNotFoundException e) {
+			fail("Unexpected class loading exception", e); //$NON-NLS-1$
+		}
+		assertNotNull("Missing resource", hostA.getResource("fragment/test/attach/frag/b/Test.class")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
 	public void testLegacyLazyStart() throws Exception {
 		Bundle legacy = installer.installBundle("legacy.lazystart"); //$NON-NLS-1$
 		Bundle legacyA = installer.installBundle("legacy.lazystart.a"); //$NON-NLS-1$
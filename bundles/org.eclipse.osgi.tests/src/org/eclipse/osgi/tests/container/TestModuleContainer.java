@@ -16,7 +16,9 @@ package org.eclipse.osgi.tests.container;
 import static java.util.jar.Attributes.Name.MANIFEST_VERSION;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -24,17 +26,21 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -66,6 +72,7 @@ import org.eclipse.osgi.container.ModuleContainerAdaptor.ModuleEvent;
 import org.eclipse.osgi.container.ModuleRequirement;
 import org.eclipse.osgi.container.ModuleRevision;
 import org.eclipse.osgi.container.ModuleRevisionBuilder;
+import org.eclipse.osgi.container.ModuleRevisionBuilder.GenericInfo;
 import org.eclipse.osgi.container.ModuleWire;
 import org.eclipse.osgi.container.ModuleWiring;
 import org.eclipse.osgi.container.builders.OSGiManifestBuilderFactory;
@@ -84,7 +91,9 @@ import org.eclipse.osgi.tests.container.dummys.DummyResolverHook;
 import org.eclipse.osgi.tests.container.dummys.DummyResolverHookFactory;
 import org.eclipse.osgi.util.ManifestElement;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
@@ -106,6 +115,9 @@ import org.osgi.resource.Namespace;
 
 public class TestModuleContainer extends AbstractTest {
 
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
 	private static DummyModuleDatabase resolvedModuleDatabase;
 
 	private void setupModuleDatabase() throws BundleException {
@@ -675,6 +687,49 @@ public class TestModuleContainer extends AbstractTest {
 		Assert.assertEquals("Wrong install events.", expected, actual);
 	}
 
+	@Test
+	public void testBulkInstall() throws BundleException, IOException {
+		DummyContainerAdaptor adaptor = createDummyAdaptor();
+		ModuleContainer container = adaptor.getContainer();
+		DummyModuleDatabase database = adaptor.getDatabase();
+
+		Module systemBundle = installDummyModule("system.bundle.MF", Constants.SYSTEM_BUNDLE_LOCATION, container);
+		Module c1 = installDummyModule("c1_v1.MF", "c1_v1", container);
+		// throw away installed events
+		database.getModuleEvents();
+		long timestamp = database.getRevisionsTimestamp();
+
+		Map<String, ModuleRevisionBuilder> builders = new LinkedHashMap<String, ModuleRevisionBuilder>();
+		builders.put("c1_v1", OSGiManifestBuilderFactory.createBuilder(getManifest("c1_v1.MF")));
+		builders.put("c2_v1", OSGiManifestBuilderFactory.createBuilder(getManifest("c2_v1.MF")));
+		builders.put("c3_v1", OSGiManifestBuilderFactory.createBuilder(getManifest("c3_v1.MF")));
+		Map<String, Module> installed = container.install(systemBundle, builders, null);
+		Assert.assertEquals("Wrong locations.", new ArrayList<String>(builders.keySet()), new ArrayList<String>(installed.keySet()));
+		Assert.assertEquals("Expected the existing module.", c1, installed.get("c1_v1"));
+		Module c2 = installed.get("c2_v1");
+		Module c3 = installed.get("c3_v1");
+		Assert.assertEquals("Wrong module.", c2, container.getModule("c2_v1"));
+		Assert.assertEquals("Wrong module.", c3, container.getModule("c3_v1"));
+		Assert.assertEquals("Expected a single database update.", timestamp + 1, database.getRevisionsTimestamp());
+
+		List<DummyModuleEvent> actual = database.getModuleEvents();
+		List<DummyModuleEvent> expected = Arrays.asList(new DummyModuleEvent(c2, ModuleEvent.INSTALLED, State.INSTALLED), new DummyModuleEvent(c3, ModuleEvent.INSTALLED, State.INSTALLED));
+		Assert.assertEquals("Wrong install events.", expected, actual);
+
+		// modules with the same name and version in one install collide
+		builders.clear();
+		builders.put("c4_a", OSGiManifestBuilderFactory.createBuilder(getManifest("c4_v1.MF")));
+		builders.put("c4_b", OSGiManifestBuilderFactory.createBuilder(getManifest("c4_v1.MF")));
+		try {
+			container.install(systemBundle, builders, null);
+			Assert.fail("Expected a collision.");
+		} catch (BundleException e) {
+			Assert.assertEquals("Wrong exception type.", BundleException.DUPLICATE_BUNDLE_ERROR, e.getType());
+		}
+		Assert.assertNull("Unexpected module.", container.getModule("c4_a"));
+		Assert.assertNull("Unexpected module.", container.getModule("c4_b"));
+	}
+
 	@Test
 	public void testEventsResolved() throws BundleException, IOException {
 		DummyContainerAdaptor adaptor = createDummyAdaptor();
@@ -1606,6 +1661,43 @@ public class TestModuleContainer extends AbstractTest {
 		Assert.assertEquals("Wrong number of reports.", 0, hook.getResolutionReports().size());
 	}
 
+	@Test
+	public void testDynamicImportMiss02() throws BundleException, IOException {
+		DummyContainerAdaptor adaptor = createDummyAdaptor();
+		ModuleContainer container = adaptor.getContainer();
+
+		Module systemBundle = installDummyModule("system.bundle.MF", Constants.SYSTEM_BUNDLE_LOCATION, container);
+		container.resolve(Arrays.asList(systemBundle), true);
+		Module dynamic = installHeadersModule(container, "dynamic", Constants.DYNAMICIMPORT_PACKAGE, "*");
+		Module exporter = installHeadersModule(container, "exporter", Constants.EXPORT_PACKAGE, "exported", Constants.IMPORT_PACKAGE, "needed");
+		container.resolve(null, false);
+		Assert.assertEquals("Exporter should not resolve.", State.INSTALLED, exporter.getState());
+
+		DummyResolverHookFactory factory = (DummyResolverHookFactory) adaptor.getResolverHookFactory();
+		DummyResolverHook hook = (DummyResolverHook) factory.getHook();
+		hook.getResolutionReports().clear();
+		Assert.assertNull("Unexpected Dynamic wire found.", container.resolveDynamic("exported", dynamic.getCurrentRevision()));
+		Assert.assertEquals("Wrong number of reports.", 1, hook.getResolutionReports().size());
+		long hits = container.getDynamicMissCacheHits();
+		long misses = container.getDynamicMissCacheMisses();
+
+		// the failure is remembered even though a capability is found for the package
+		hook.getResolutionReports().clear();
+		for (int i = 0; i < 10; i++) {
+			Assert.assertNull("Unexpected Dynamic wire found.", container.resolveDynamic("exported", dynamic.getCurrentRevision()));
+		}
+		Assert.assertEquals("Wrong number of reports.", 0, hook.getResolutionReports().size());
+		Assert.assertEquals("Wrong number of hits.", hits + 10, container.getDynamicMissCacheHits());
+		Assert.assertEquals("Wrong number of misses.", misses, container.getDynamicMissCacheMisses());
+
+		// installing the missing exporter allows the exporter to resolve
+		installHeadersModule(container, "needed", Constants.EXPORT_PACKAGE, "needed");
+		ModuleWire dynamicWire = container.resolveDynamic("exported", dynamic.getCurrentRevision());
+		Assert.assertNotNull("No dynamic wire found.", dynamicWire);
+		Assert.assertEquals("Wrong provider for the wire found.", exporter.getCurrentRevision(), dynamicWire.getProvider());
+		Assert.assertEquals("Wrong number of misses.", misses + 1, container.getDynamicMissCacheMisses());
+	}
+
 	@Test
 	public void testRequireBundleUses() throws BundleException, IOException {
 		DummyContainerAdaptor adaptor = createDummyAdaptor();
@@ -2497,6 +2589,481 @@ public class TestModuleContainer extends AbstractTest {
 		assertEquals("Wrong requirer attrs", attrs, requirerAttrs);
 	}
 
+	@Test
+	public void testPersistChanges() throws BundleException, IOException {
+		DummyContainerAdaptor adaptor = createDummyAdaptor();
+		ModuleContainer container = adaptor.getContainer();
+
+		installDummyModule("system.bundle.MF", Constants.SYSTEM_BUNDLE_LOCATION, Constants.SYSTEM_BUNDLE_SYMBOLICNAME, null, null, container);
+		Module c1 = installDummyModule("c1_v1.MF", "c1_v1", container);
+		Module c2 = installDummyModule("c2_v1.MF", "c2_v1", container);
+		ResolutionReport report = container.resolve(Arrays.asList(c1, c2), true);
+		assertNull("Error resolving.", report.getResolutionException());
+
+		ByteArrayOutputStream fullBytes = new ByteArrayOutputStream();
+		adaptor.getDatabase().store(new DataOutputStream(fullBytes), true);
+
+		// only a start level change; the stored wirings are still valid
+		c1.setStartLevel(3);
+		ByteArrayOutputStream changes1 = new ByteArrayOutputStream();
+		adaptor.getDatabase().storeChanges(new DataOutputStream(changes1));
+
+		DummyContainerAdaptor loaded = createDummyAdaptor();
+		loaded.getDatabase().load(new DataInputStream(new ByteArrayInputStream(fullBytes.toByteArray())));
+		loaded.getDatabase().loadChanges(new DataInputStream(new ByteArrayInputStream(changes1.toByteArray())));
+		Module loadedC1 = loaded.getContainer().getModule("c1_v1");
+		assertEquals("Wrong start level.", 3, loadedC1.getStartLevel());
+		assertEquals("Wrong state.", State.RESOLVED, loadedC1.getState());
+		assertEquals("Wrong timestamp.", adaptor.getDatabase().getTimestamp(), loaded.getDatabase().getTimestamp());
+
+		// install and uninstall modules; the wires provided to the uninstalled module are removed
+		Module c3 = installDummyModule("c3_v1.MF", "c3_v1", container);
+		container.uninstall(c2);
+		ByteArrayOutputStream changes2 = new ByteArrayOutputStream();
+		adaptor.getDatabase().storeChanges(new DataOutputStream(changes2));
+		assertTrue("Changes are not smaller than the full store.", changes2.size() < fullBytes.size());
+
+		loaded = createDummyAdaptor();
+		loaded.getDatabase().load(new DataInputStream(new ByteArrayInputStream(fullBytes.toByteArray())));
+		loaded.getDatabase().loadChanges(new DataInputStream(new ByteArrayInputStream(changes1.toByteArray())));
+		loaded.getDatabase().loadChanges(new DataInputStream(new ByteArrayInputStream(changes2.toByteArray())));
+		ModuleContainer loadedContainer = loaded.getContainer();
+		loadedC1 = loadedContainer.getModule("c1_v1");
+		assertEquals("Wrong start level.", 3, loadedC1.getStartLevel());
+		assertEquals("Wrong state.", State.RESOLVED, loadedC1.getState());
+		assertTrue("Found wires to the uninstalled module.", loadedC1.getCurrentRevision().getWiring().getProvidedModuleWires(null).isEmpty());
+		assertNull("Found uninstalled module.", loadedContainer.getModule("c2_v1"));
+		Module loadedC3 = loadedContainer.getModule("c3_v1");
+		assertNotNull("Missing installed module.", loadedC3);
+		assertEquals("Wrong id.", c3.getId(), loadedC3.getId());
+		assertEquals("Wrong next id.", adaptor.getDatabase().getNextId(), loaded.getDatabase().getNextId());
+		assertEquals("Wrong system last modified.", container.getModule(0).getLastModified(), loadedContainer.getModule(0).getLastModified());
+		assertEquals("Wrong revisions timestamp.", adaptor.getDatabase().getRevisionsTimestamp(), loaded.getDatabase().getRevisionsTimestamp());
+		assertEquals("Wrong timestamp.", adaptor.getDatabase().getTimestamp(), loaded.getDatabase().getTimestamp());
+	}
+
+	@Test
+	public void testPersistWiringChanges() throws BundleException, IOException {
+		DummyContainerAdaptor adaptor = createDummyAdaptor();
+		ModuleContainer container = adaptor.getContainer();
+
+		installDummyModule("system.bundle.MF", Constants.SYSTEM_BUNDLE_LOCATION, Constants.SYSTEM_BUNDLE_SYMBOLICNAME, null, null, container);
+		Module c1 = installDummyModule("c1_v1.MF", "c1_v1", container);
+		ResolutionReport report = container.resolve(Arrays.asList(c1), true);
+		assertNull("Error resolving.", report.getResolutionException());
+
+		ByteArrayOutputStream fullBytes = new ByteArrayOutputStream();
+		adaptor.getDatabase().store(new DataOutputStream(fullBytes), true);
+
+		// resolving a new module adds its wiring and updates the wiring of its provider
+		Module c3 = installDummyModule("c3_v1.MF", "c3_v1", container);
+		report = container.resolve(Arrays.asList(c3), true);
+		assertNull("Error resolving.", report.getResolutionException());
+		ByteArrayOutputStream changes1 = new ByteArrayOutputStream();
+		adaptor.getDatabase().storeChanges(new DataOutputStream(changes1));
+
+		DummyContainerAdaptor loaded = createDummyAdaptor();
+		loaded.getDatabase().load(new DataInputStream(new ByteArrayInputStream(fullBytes.toByteArray())));
+		ModuleWiring loadedC1Wiring = loaded.getContainer().getModule("c1_v1").getCurrentRevision().getWiring();
+		loaded.getDatabase().loadChanges(new DataInputStream(new ByteArrayInputStream(changes1.toByteArray())));
+		Module loadedC3 = loaded.getContainer().getModule("c3_v1");
+		assertEquals("Wrong state.", State.RESOLVED, loadedC3.getState());
+		assertSame("Wiring of the provider was replaced.", loadedC1Wiring, loaded.getContainer().getModule("c1_v1").getCurrentRevision().getWiring());
+		List<ModuleWire> required = loadedC3.getCurrentRevision().getWiring().getRequiredModuleWires(BundleNamespace.BUNDLE_NAMESPACE);
+		assertEquals("Wrong number of required wires.", 1, required.size());
+		List<ModuleWire> provided = loadedC1Wiring.getProvidedModuleWires(BundleNamespace.BUNDLE_NAMESPACE);
+		assertEquals("Wrong number of provided wires.", 1, provided.size());
+		assertSame("The provided wire is not the required wire.", required.get(0), provided.get(0));
+		assertEquals("Wrong wires.", getWires(container), getWires(loaded.getContainer()));
+
+		// updating the provider leaves a removal pending revision; no wirings are kept
+		container.update(c1, OSGiManifestBuilderFactory.createBuilder(getManifest("c1_v1.MF")), null);
+		ByteArrayOutputStream changes2 = new ByteArrayOutputStream();
+		adaptor.getDatabase().storeChanges(new DataOutputStream(changes2));
+
+		loaded.getDatabase().loadChanges(new DataInputStream(new ByteArrayInputStream(changes2.toByteArray())));
+		assertEquals("Wrong state.", State.INSTALLED, loaded.getContainer().getModule("c3_v1").getState());
+		assertTrue("Found wirings.", getWires(loaded.getContainer()).isEmpty());
+
+		// refreshing writes all of the wirings again
+		container.refresh(Arrays.asList(c1));
+		report = container.resolve(Arrays.asList(c1, c3), true);
+		assertNull("Error resolving.", report.getResolutionException());
+		ByteArrayOutputStream changes3 = new ByteArrayOutputStream();
+		adaptor.getDatabase().storeChanges(new DataOutputStream(changes3));
+
+		loaded.getDatabase().loadChanges(new DataInputStream(new ByteArrayInputStream(changes3.toByteArray())));
+		assertEquals("Wrong state.", State.RESOLVED, loaded.getContainer().getModule("c3_v1").getState());
+		assertEquals("Wrong wires.", getWires(container), getWires(loaded.getContainer()));
+		assertEquals("Wrong revisions timestamp.", adaptor.getDatabase().getRevisionsTimestamp(), loaded.getDatabase().getRevisionsTimestamp());
+	}
+
+	private static Map<String, String> getWires(ModuleContainer container) {
+		Map<String, String> wires = new HashMap<String, String>();
+		for (Module module : container.getModules()) {
+			ModuleWiring wiring = module.getCurrentRevision().getWiring();
+			if (wiring != null) {
+				List<String> moduleWires = new ArrayList<String>();
+				for (ModuleWire wire : wiring.getRequiredModuleWires(null)) {
+					moduleWires.add(wire.getRequirement() + " -> " + wire.getCapability());
+				}
+				for (ModuleWire wire : wiring.getProvidedModuleWires(null)) {
+					moduleWires.add(wire.getCapability() + " <- " + wire.getRequirement());
+				}
+				Collections.sort(moduleWires);
+				wires.put(module.getLocation(), moduleWires.toString());
+			}
+		}
+		return wires;
+	}
+
+	@Test
+	public void testInternedAttributes() throws BundleException {
+		ModuleRevisionBuilder builder1 = OSGiManifestBuilderFactory.createBuilder(getInternedManifest("interned.x1"));
+		ModuleRevisionBuilder builder2 = OSGiManifestBuilderFactory.createBuilder(getInternedManifest("interned.x2"));
+
+		GenericInfo export1 = getPackageInfo(builder1.getCapabilities());
+		GenericInfo export2 = getPackageInfo(builder2.getCapabilities());
+		assertNotSame("Expected different attributes.", export1.getAttributes(), export2.getAttributes());
+		assertSame("Expected shared directives.", export1.getDirectives(), export2.getDirectives());
+		assertSame("Expected shared version.", export1.getAttributes().get(PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE), export2.getAttributes().get(PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE));
+
+		GenericInfo import1 = getPackageInfo(builder1.getRequirements());
+		GenericInfo import2 = getPackageInfo(builder2.getRequirements());
+		assertSame("Expected shared directives.", import1.getDirectives(), import2.getDirectives());
+	}
+
+	@Test
+	public void testInternedAttributesPersistence() throws BundleException, IOException {
+		DummyContainerAdaptor adaptor = createDummyAdaptor();
+		ModuleContainer container = adaptor.getContainer();
+		installDummyModule("system.bundle.MF", Constants.SYSTEM_BUNDLE_LOCATION, Constants.SYSTEM_BUNDLE_SYMBOLICNAME, null, null, container);
+
+		// lists of zero or one elements are loaded as the empty and singleton lists
+		Map<String, Object> attrs = new HashMap<String, Object>();
+		attrs.put("empty", Collections.emptyList());
+		attrs.put("single", Collections.singletonList("a"));
+		attrs.put("multiple", Arrays.asList("a", "b"));
+		for (int i = 1; i <= 2; i++) {
+			ModuleRevisionBuilder builder = new ModuleRevisionBuilder();
+			builder.setSymbolicName("interned.list" + i);
+			builder.setVersion(Version.valueOf("1.0.0"));
+			builder.addCapability("interned.list", Collections.<String, String> emptyMap(), attrs);
+			container.install(null, builder.getSymbolicName(), builder, null);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		adaptor.getDatabase().store(new DataOutputStream(bytes), true);
+
+		adaptor = createDummyAdaptor();
+		container = adaptor.getContainer();
+		adaptor.getDatabase().load(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		Map<String, Object> loaded1 = container.getModule("interned.list1").getCurrentRevision().getCapabilities("interned.list").get(0).getAttributes();
+		Map<String, Object> loaded2 = container.getModule("interned.list2").getCurrentRevision().getCapabilities("interned.list").get(0).getAttributes();
+		assertEquals("Wrong attributes.", attrs, loaded1);
+		assertSame("Expected shared attributes.", loaded1, loaded2);
+	}
+
+	@Test
+	public void testSecondaryCapabilityIndexes() throws BundleException, IOException {
+		DummyContainerAdaptor adaptor = createDummyAdaptor();
+		ModuleContainer container = adaptor.getContainer();
+		installDummyModule("system.bundle.MF", Constants.SYSTEM_BUNDLE_LOCATION, container);
+
+		Map<Integer, Module> exporters = new HashMap<Integer, Module>();
+		for (int i = 1; i <= 20; i++) {
+			Map<String, String> manifest = new HashMap<String, String>();
+			manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+			manifest.put(Constants.BUNDLE_SYMBOLICNAME, "indexed.exporter");
+			manifest.put(Constants.BUNDLE_VERSION, i + ".0");
+			manifest.put(Constants.EXPORT_PACKAGE, "indexed.a; version=" + i + ".0");
+			manifest.put(Constants.PROVIDE_CAPABILITY, "indexed.cap; kind=k" + (i % 4) + "; version:Version=" + i + ".0");
+			exporters.put(i, installDummyModule(manifest, "indexed.exporter." + i, container));
+		}
+		Map<String, String> manifest = new HashMap<String, String>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "indexed.long");
+		manifest.put(Constants.PROVIDE_CAPABILITY, "indexed.cap; kind:Long=1; version:Version=1.0");
+		installDummyModule(manifest, "indexed.long", container);
+
+		manifest = new HashMap<String, String>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "indexed.importer");
+		manifest.put(Constants.IMPORT_PACKAGE, "indexed.a; version=\"[5.0,7.0)\"");
+		manifest.put(Constants.REQUIRE_BUNDLE, "indexed.exporter; bundle-version=\"(18.0,19.0]\"");
+		manifest.put(Constants.REQUIRE_CAPABILITY, "indexed.cap; filter:=\"(&(kind=k1)(version>=10))\", indexed.cap; filter:=\"(kind=1)\"");
+		Module importer = installDummyModule(manifest, "indexed.importer", container);
+		ModuleRevision revision = importer.getCurrentRevision();
+
+		ModuleRequirement importPackage = revision.getModuleRequirements(PackageNamespace.PACKAGE_NAMESPACE).get(0);
+		assertEquals("Wrong providers.", Arrays.asList("5.0.0", "6.0.0"), getProviderVersions(container, importPackage));
+		ModuleRequirement requireBundle = revision.getModuleRequirements(BundleNamespace.BUNDLE_NAMESPACE).get(0);
+		assertEquals("Wrong providers.", Arrays.asList("19.0.0"), getProviderVersions(container, requireBundle));
+		List<ModuleRequirement> requireCapabilities = revision.getModuleRequirements("indexed.cap");
+		assertEquals("Wrong providers.", Arrays.asList("13.0.0", "17.0.0"), getProviderVersions(container, requireCapabilities.get(0)));
+		assertEquals("Wrong providers.", Arrays.asList("0.0.0"), getProviderVersions(container, requireCapabilities.get(1)));
+
+		// the indexes must be updated when capabilities are removed
+		container.uninstall(exporters.get(6));
+		container.uninstall(exporters.get(13));
+		assertEquals("Wrong providers.", Arrays.asList("5.0.0"), getProviderVersions(container, importPackage));
+		assertEquals("Wrong providers.", Arrays.asList("17.0.0"), getProviderVersions(container, requireCapabilities.get(0)));
+	}
+
+	@Test
+	public void testIncrementalResolveUsesConflicts() throws BundleException, IOException {
+		DummyContainerAdaptor adaptor = createDummyAdaptor();
+		ModuleContainer container = adaptor.getContainer();
+		Module systemBundle = installDummyModule("system.bundle.MF", Constants.SYSTEM_BUNDLE_LOCATION, container);
+		container.resolve(Arrays.asList(systemBundle), true);
+
+		// resolve one at a time so the package spaces of the wired bundles are reused
+		Module q1 = installIncrementalModule(container, "q1", Constants.EXPORT_PACKAGE, "q; version=1.0");
+		Module q2 = installIncrementalModule(container, "q2", Constants.EXPORT_PACKAGE, "q; version=2.0");
+		installIncrementalModule(container, "a", Constants.EXPORT_PACKAGE, "a; uses:=q", Constants.IMPORT_PACKAGE, "q; version=\"[1,2)\"");
+		installIncrementalModule(container, "a2", Constants.EXPORT_PACKAGE, "a2; uses:=a", Constants.IMPORT_PACKAGE, "a");
+		Module conflict = installIncrementalModule(container, "conflict", Constants.IMPORT_PACKAGE, "a2, q; version=\"[2,3)\"");
+		assertEquals("Expected a uses conflict.", State.INSTALLED, conflict.getState());
+		Module ok = installIncrementalModule(container, "ok", Constants.IMPORT_PACKAGE, "a2, q; version=\"[1,3)\"");
+		assertEquals("Wrong state.", State.RESOLVED, ok.getState());
+		for (ModuleWire wire : ok.getCurrentRevision().getWiring().getRequiredModuleWires(PackageNamespace.PACKAGE_NAMESPACE)) {
+			if ("q".equals(wire.getCapability().getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE))) {
+				assertEquals("Wrong provider.", q1.getCurrentRevision(), wire.getProvider());
+			}
+		}
+
+		// a dynamic import changes the package space of a wired bundle
+		Module dynamic = installIncrementalModule(container, "dynamic", Constants.EXPORT_PACKAGE, "d; uses:=q", Constants.DYNAMICIMPORT_PACKAGE, "*");
+		installIncrementalModule(container, "d.user", Constants.IMPORT_PACKAGE, "d");
+		ModuleWire dynamicWire = container.resolveDynamic("q", dynamic.getCurrentRevision());
+		assertNotNull("No dynamic wire.", dynamicWire);
+		assertEquals("Wrong provider.", q2.getCurrentRevision(), dynamicWire.getProvider());
+		Module dynamicConflict = installIncrementalModule(container, "dynamic.conflict", Constants.IMPORT_PACKAGE, "d, q; version=\"[1,2)\"");
+		assertEquals("Expected a uses conflict.", State.INSTALLED, dynamicConflict.getState());
+	}
+
+	@Test
+	public void testIncrementalResolveAttachedFragment() throws BundleException, IOException {
+		DummyContainerAdaptor adaptor = createDummyAdaptor();
+		ModuleContainer container = adaptor.getContainer();
+		Module systemBundle = installDummyModule("system.bundle.MF", Constants.SYSTEM_BUNDLE_LOCATION, container);
+		container.resolve(Arrays.asList(systemBundle), true);
+
+		installIncrementalModule(container, "x2", Constants.EXPORT_PACKAGE, "x; version=2.0");
+		Module host = installIncrementalModule(container, "host", Constants.EXPORT_PACKAGE, "h");
+		installIncrementalModule(container, "requirer", Constants.REQUIRE_BUNDLE, "host", Constants.EXPORT_PACKAGE, "r; uses:=x");
+		Module before = installIncrementalModule(container, "before", Constants.IMPORT_PACKAGE, "r, x; version=\"[2,3)\"");
+		assertEquals("Wrong state.", State.RESOLVED, before.getState());
+
+		// the package x of the attached fragment is now part of the package space of the requirer
+		Module fragment = installIncrementalModule(container, "fragment", Constants.FRAGMENT_HOST, "host", Constants.EXPORT_PACKAGE, "x; version=1.0");
+		assertEquals("Fragment not attached.", State.RESOLVED, fragment.getState());
+		assertEquals("Wrong host.", host.getCurrentRevision(), fragment.getCurrentRevision().getWiring().getRequiredModuleWires(HostNamespace.HOST_NAMESPACE).get(0).getProvider());
+		Module conflict = installIncrementalModule(container, "conflict", Constants.IMPORT_PACKAGE, "r, x; version=\"[2,3)\"");
+		assertEquals("Expected a uses conflict.", State.INSTALLED, conflict.getState());
+		Module ok = installIncrementalModule(container, "ok", Constants.IMPORT_PACKAGE, "r, x; version=\"[1,2)\"");
+		assertEquals("Wrong state.", State.RESOLVED, ok.getState());
+	}
+
+	@Test
+	public void testResolutionResultCache() throws BundleException, IOException {
+		File cacheDirectory = tempFolder.newFolder("resolutionCache");
+		final Collection<String> filteredProviders = new ArrayList<String>();
+		List<String> wires = resolveWithResultCache(cacheDirectory, filteredProviders);
+		File cacheFile = getResolutionCacheFile(cacheDirectory);
+		assertNotNull("No result cached.", cacheFile);
+		assertTrue("Wrong provider: " + wires, wires.contains("importer:q->q2"));
+
+		// the cached result is used when the same revisions are installed again
+		assertEquals("Wrong wires from the cache.", wires, resolveWithResultCache(cacheDirectory, filteredProviders));
+		assertEquals("The cache file was written.", cacheFile, getResolutionCacheFile(cacheDirectory));
+
+		// the cached result must not be used if a resolver hook filters other providers
+		filteredProviders.add("q2");
+		assertTrue("Wrong provider.", resolveWithResultCache(cacheDirectory, filteredProviders).contains("importer:q->q1"));
+		assertNotSame("The cache file was not written.", cacheFile, getResolutionCacheFile(cacheDirectory));
+	}
+
+	@Test
+	public void testResolutionResultCacheInvalidWires() throws BundleException, IOException {
+		File cacheDirectory = tempFolder.newFolder("resolutionCache");
+		final Collection<String> filteredProviders = new ArrayList<String>();
+		List<String> wires = resolveWithResultCache(cacheDirectory, filteredProviders);
+
+		// wire every requirement to the first capability of the requiring revision
+		File cacheFile = getResolutionCacheFile(cacheDirectory);
+		assertNotNull("No result cached.", cacheFile);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(cacheFile.toPath())));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		// version
+		out.writeInt(in.readInt());
+		int numResults = in.readInt();
+		assertEquals("Wrong number of results.", 1, numResults);
+		out.writeInt(numResults);
+		out.writeUTF(in.readUTF());
+		byte[] result = new byte[in.readInt()];
+		in.readFully(result);
+		DataInputStream resultIn = new DataInputStream(new ByteArrayInputStream(result));
+		ByteArrayOutputStream resultBytes = new ByteArrayOutputStream();
+		DataOutputStream resultOut = new DataOutputStream(resultBytes);
+		int numResources = resultIn.readInt();
+		resultOut.writeInt(numResources);
+		for (int i = 0; i < numResources; i++) {
+			resultOut.writeInt(resultIn.readInt());
+			int numWires = resultIn.readInt();
+			resultOut.writeInt(numWires);
+			for (int j = 0; j < numWires; j++) {
+				int requirer = resultIn.readInt();
+				// requirer, requirement revision, requirement
+				resultOut.writeInt(requirer);
+				resultOut.writeInt(resultIn.readInt());
+				resultOut.writeInt(resultIn.readInt());
+				// provider, capability revision, capability
+				resultIn.readInt();
+				resultIn.readInt();
+				resultIn.readInt();
+				resultOut.writeInt(requirer);
+				resultOut.writeInt(requirer);
+				resultOut.writeInt(0);
+			}
+		}
+		// the providers are unchanged
+		for (int read = resultIn.read(); read != -1; read = resultIn.read()) {
+			resultOut.write(read);
+		}
+		resultOut.close();
+		out.writeInt(resultBytes.size());
+		out.write(resultBytes.toByteArray());
+		out.close();
+		Files.write(cacheFile.toPath(), bytes.toByteArray());
+
+		// the invalid wires are not used and the result is computed again
+		assertEquals("Wrong wires.", wires, resolveWithResultCache(cacheDirectory, filteredProviders));
+		assertNotSame("The cache file was not written.", cacheFile, getResolutionCacheFile(cacheDirectory));
+		assertEquals("Wrong wires from the cache.", wires, resolveWithResultCache(cacheDirectory, filteredProviders));
+	}
+
+	private static File getResolutionCacheFile(File cacheDirectory) {
+		File result = null;
+		int latest = -1;
+		for (String name : cacheDirectory.list()) {
+			if (name.startsWith("resolution.cache.")) {
+				int version = Integer.parseInt(name.substring("resolution.cache.".length()));
+				if (version > latest) {
+					latest = version;
+					result = new File(cacheDirectory, name);
+				}
+			}
+		}
+		return result;
+	}
+
+	private List<String> resolveWithResultCache(File cacheDirectory, final Collection<String> filteredProviders) throws BundleException, IOException {
+		ResolverHookFactory resolverHookFactory = new ResolverHookFactory() {
+			@Override
+			public ResolverHook begin(Collection<BundleRevision> triggers) {
+				return new ResolverHook() {
+					@Override
+					public void filterSingletonCollisions(BundleCapability singleton, Collection<BundleCapability> collisionCandidates) {
+						// nothing
+					}
+
+					@Override
+					public void filterResolvable(Collection<BundleRevision> candidates) {
+						// nothing
+					}
+
+					@Override
+					public void filterMatches(BundleRequirement requirement, Collection<BundleCapability> candidates) {
+						for (Iterator<BundleCapability> iCandidates = candidates.iterator(); iCandidates.hasNext();) {
+							if (filteredProviders.contains(iCandidates.next().getRevision().getSymbolicName())) {
+								iCandidates.remove();
+							}
+						}
+					}
+
+					@Override
+					public void end() {
+						// nothing
+					}
+				};
+			}
+		};
+		Map<String, String> configuration = new HashMap<String, String>();
+		configuration.put(EquinoxConfiguration.PROP_RESOLVER_RESULT_CACHE, cacheDirectory.getAbsolutePath());
+		DummyContainerAdaptor adaptor = new DummyContainerAdaptor(new DummyCollisionHook(false), configuration, resolverHookFactory);
+		ModuleContainer container = adaptor.getContainer();
+		installDummyModule("system.bundle.MF", Constants.SYSTEM_BUNDLE_LOCATION, container);
+		installHeadersModule(container, "q1", Constants.EXPORT_PACKAGE, "q; version=1.0");
+		installHeadersModule(container, "q2", Constants.EXPORT_PACKAGE, "q; version=2.0");
+		installHeadersModule(container, "a", Constants.EXPORT_PACKAGE, "a; uses:=q", Constants.IMPORT_PACKAGE, "q");
+		installHeadersModule(container, "a.fragment", Constants.FRAGMENT_HOST, "a", Constants.EXPORT_PACKAGE, "a.fragment");
+		installHeadersModule(container, "importer", Constants.IMPORT_PACKAGE, "a, a.fragment, q, missing; resolution:=optional");
+		ResolutionReport report = container.resolve(null, false);
+		assertNull("Failed to resolve.", report.getResolutionException());
+
+		List<String> wires = new ArrayList<String>();
+		for (Module module : container.getModules()) {
+			ModuleWiring wiring = module.getCurrentRevision().getWiring();
+			assertNotNull("Module is not resolved: " + module, wiring);
+			for (ModuleWire wire : wiring.getRequiredModuleWires(null)) {
+				wires.add(module.getCurrentRevision().getSymbolicName() + ':' + wire.getCapability().getAttributes().get(wire.getCapability().getNamespace()) + "->" + wire.getProvider().getSymbolicName());
+			}
+		}
+		Collections.sort(wires);
+		return wires;
+	}
+
+	private Module installIncrementalModule(ModuleContainer container, String symbolicName, String... headers) throws BundleException {
+		Module module = installHeadersModule(container, symbolicName, headers);
+		container.resolve(Arrays.asList(module), false);
+		return module;
+	}
+
+	private Module installHeadersModule(ModuleContainer container, String symbolicName, String... headers) throws BundleException {
+		Map<String, String> manifest = new HashMap<String, String>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, symbolicName);
+		for (int i = 0; i < headers.length; i += 2) {
+			manifest.put(headers[i], headers[i + 1]);
+		}
+		return installDummyModule(manifest, symbolicName, container);
+	}
+
+	private List<String> getProviderVersions(ModuleContainer container, ModuleRequirement requirement) {
+		List<String> versions = new ArrayList<String>();
+		for (BundleCapability provider : container.getFrameworkWiring().findProviders(requirement)) {
+			versions.add(provider.getRevision().getVersion().toString());
+		}
+		Collections.sort(versions, new Comparator<String>() {
+			@Override
+			public int compare(String v1, String v2) {
+				return Version.parseVersion(v1).compareTo(Version.parseVersion(v2));
+			}
+		});
+		return versions;
+	}
+
+	private Map<String, String> getInternedManifest(String symbolicName) {
+		Map<String, String> manifest = new HashMap<String, String>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, symbolicName);
+		manifest.put(Constants.EXPORT_PACKAGE, "interned.a; version=1.0; uses:=interned.b");
+		manifest.put(Constants.IMPORT_PACKAGE, "interned.b; version=\"[1.0,2.0)\"");
+		return manifest;
+	}
+
+	private GenericInfo getPackageInfo(List<GenericInfo> infos) {
+		for (GenericInfo info : infos) {
+			if (PackageNamespace.PACKAGE_NAMESPACE.equals(info.getNamespace())) {
+				return info;
+			}
+		}
+		fail("No package info found.");
+		return null;
+	}
+
 	@Test
 	public void testInvalidAttributes() throws IOException, BundleException {
 		DummyContainerAdaptor adaptor = createDummyAdaptor();
@@ -26,11 +26,14 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 import org.eclipse.osgi.framework.util.CaseInsensitiveDictionaryMap;
+import org.eclipse.osgi.internal.framework.FilterCache;
+import org.eclipse.osgi.internal.framework.FilterImpl;
 import org.eclipse.osgi.tests.util.MapDictionary;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
 
 public abstract class FilterTests extends TestCase {
 	public static Test suite() {
@@ -359,6 +362,48 @@ public abstract class FilterTests extends TestCase {
 		assertFalse("does match filter", f1.match(new DictionaryServiceReference(hash)));
 	}
 
+	public void testRepeatedMatchMixedTypes() throws InvalidSyntaxException {
+		Filter f1 = createFilter("(value>=3000000000)");
+		Filter f2 = createFilter("(value=1.2.3)");
+		Filter f3 = createFilter("(value~= A B C )");
+		Hashtable hash = new Hashtable();
+		for (int i = 0; i < 2; i++) {
+			hash.put("value", Integer.valueOf(5));
+			assertFalse("does match filter", f1.match(hash));
+			hash.put("value", Long.valueOf(3000000000L));
+			assertTrue("does not match filter", f1.match(hash));
+			hash.put("value", "4");
+			assertTrue("does not match filter", f1.match(hash));
+			hash.put("value", new Version("1.2.3"));
+			assertFalse("does match filter", f1.match(hash));
+			assertTrue("does not match filter", f2.match(hash));
+			hash.put("value", new Version("1.2.4"));
+			assertFalse("does match filter", f2.match(hash));
+			hash.put("value", Integer.valueOf(1));
+			assertFalse("does match filter", f2.match(hash));
+			hash.put("value", "abc");
+			assertTrue("does not match filter", f3.match(hash));
+			hash.put("value", Character.valueOf('a'));
+			assertFalse("does match filter", f3.match(hash));
+		}
+	}
+
+	public void testCachedFilterInstances() throws InvalidSyntaxException {
+		FilterCache cache = FilterImpl.getCache();
+		long hits = cache.getHits();
+		Filter f1 = createFilter("(&(cache.test=a)(cache.value>=1))");
+		Filter f2 = createFilter("(&(cache.test=a)(cache.value>=1))");
+		Filter f3 = createFilter(" ( & (cache.test=a) (cache.value>=1) ) ");
+		assertSame("filter not shared", f1, f2);
+		assertSame("normalized filter not shared", f1, f3);
+		assertTrue("no cache hits", cache.getHits() > hits);
+
+		Hashtable hash = new Hashtable();
+		hash.put("cache.test", "a");
+		hash.put("cache.value", Integer.valueOf(2));
+		assertTrue("does not match filter", f2.match(hash));
+	}
+
 	public void testNullValueMatch() throws InvalidSyntaxException {
 		Dictionary<String, Object> nullProps = new MapDictionary<String, Object>();
 		nullProps.put("test.null", null);
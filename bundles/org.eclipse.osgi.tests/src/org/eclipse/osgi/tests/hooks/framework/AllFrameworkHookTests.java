@@ -13,6 +13,7 @@
  *******************************************************************************/
 package org.eclipse.osgi.tests.hooks.framework;
 
+import junit.framework.JUnit4TestAdapter;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 
@@ -24,6 +25,7 @@ public class AllFrameworkHookTests {
 		suite.addTest(new TestSuite(BundleFileWrapperFactoryHookTests.class));
 		suite.addTest(new TestSuite(ContextFinderTests.class));
 		suite.addTest(new TestSuite(DevClassPathWithExtensionTests.class));
+		suite.addTest(new JUnit4TestAdapter(AppCDSHookTests.class));
 		return suite;
 	}
 }
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.hooks.framework;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.osgi.tests.storage.AbstractStorageTests;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+public class AppCDSHookTests extends AbstractStorageTests {
+	private static final String CLASS_LIST = "equinox.cds.classlist"; //$NON-NLS-1$
+	private static final String VERIFY_LOG = "equinox.cds.verify.log"; //$NON-NLS-1$
+	private static final String LOG_FILE = "osgi.logfile"; //$NON-NLS-1$
+	private static final String PACKAGE_PATH = AppCDSHookTests.class.getPackage().getName().replace('.', '/') + '/';
+
+	public static class Listed implements Runnable {
+		@Override
+		public void run() {
+			// nothing
+		}
+	}
+
+	public static class NotShared {
+		// defined but not loaded from an archive
+	}
+
+	@Test
+	public void testClassList() throws Exception {
+		File classList = new File(folder.getRoot(), "classes.lst"); //$NON-NLS-1$
+		Map<String, String> configuration = new HashMap<String, String>();
+		configuration.put(CLASS_LIST, classList.getAbsolutePath());
+		Bundle bundle = start(configuration).installBundle("a", new FileInputStream(createBundle("a.jar", headers("a"), Listed.class, NotShared.class))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		bundle.loadClass(Listed.class.getName());
+		stop();
+
+		List<String> lines = Files.readAllLines(classList.toPath(), StandardCharsets.UTF_8);
+		Assert.assertEquals("Wrong class list: " + lines, 3, lines.size()); //$NON-NLS-1$
+		Assert.assertEquals("Wrong super class.", "java/lang/Object id: 0", lines.get(0)); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals("Wrong interface.", "java/lang/Runnable id: 1", lines.get(1)); //$NON-NLS-1$ //$NON-NLS-2$
+		String prefix = PACKAGE_PATH + "AppCDSHookTests$Listed id: 2 super: 0 interfaces: 1 source: "; //$NON-NLS-1$
+		Assert.assertTrue("Wrong bundle class: " + lines.get(2), lines.get(2).startsWith(prefix)); //$NON-NLS-1$
+		File source = new File(lines.get(2).substring(prefix.length()));
+		Assert.assertTrue("Missing source: " + source, source.isFile()); //$NON-NLS-1$
+		Assert.assertTrue("Wrong source: " + source, source.getAbsolutePath().startsWith(new File(folder.getRoot(), "storage").getAbsolutePath())); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Test
+	public void testVerify() throws Exception {
+		File classLoadLog = new File(folder.getRoot(), "classload.log"); //$NON-NLS-1$
+		String listedName = Listed.class.getName();
+		String notSharedName = NotShared.class.getName();
+		String log = "[0.010s][info][class,load] java.lang.Object source: shared objects file\n" //$NON-NLS-1$
+				+ "[0.020s][info][class,load] " + listedName + " source: shared objects file\n" //$NON-NLS-1$ //$NON-NLS-2$
+				+ "[0.030s][info][class,load] " + notSharedName + " source: file:/bundle.jar\n"; //$NON-NLS-1$ //$NON-NLS-2$
+		Files.write(classLoadLog.toPath(), log.getBytes(StandardCharsets.UTF_8));
+		File logFile = new File(folder.getRoot(), "framework.log"); //$NON-NLS-1$
+		// verify mode does not need a class list
+		Map<String, String> configuration = new HashMap<String, String>();
+		configuration.put(VERIFY_LOG, classLoadLog.getAbsolutePath());
+		configuration.put(LOG_FILE, logFile.getAbsolutePath());
+		BundleContext context = start(configuration);
+		// the same class names are defined by two bundles
+		for (String name : new String[] {"a", "b"}) { //$NON-NLS-1$ //$NON-NLS-2$
+			Bundle bundle = context.installBundle(name, new FileInputStream(createBundle(name + ".jar", headers(name), Listed.class, NotShared.class))); //$NON-NLS-1$
+			bundle.loadClass(listedName);
+			bundle.loadClass(notSharedName);
+		}
+		stop();
+
+		String logged = new String(Files.readAllBytes(logFile.toPath()), StandardCharsets.UTF_8);
+		Assert.assertTrue("Wrong report: " + logged, logged.contains("Class data sharing: 1 of 2 bundle class names defined were loaded from the shared archive")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private BundleContext start(Map<String, String> configuration) throws Exception {
+		return start(new File(folder.getRoot(), "storage"), configuration); //$NON-NLS-1$
+	}
+}
@@ -16,11 +16,19 @@ package org.eclipse.osgi.tests.hooks.framework;
 import static org.junit.Assert.assertNotEquals;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 import org.eclipse.osgi.container.ModuleContainerAdaptor.ModuleEvent;
+import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.hookregistry.HookRegistry;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
 import org.eclipse.osgi.tests.bundles.SystemBundleTests;
@@ -28,7 +36,9 @@ import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
 import org.osgi.framework.launch.Framework;
+import org.osgi.framework.startlevel.BundleStartLevel;
 import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.FrameworkWiring;
 import org.osgi.resource.Capability;
 import org.osgi.service.packageadmin.PackageAdmin;
 
@@ -44,6 +54,8 @@ public class StorageHookTests extends AbstractFrameworkHookTests {
 	private static final String HOOK_CONFIGURATOR_FIELD_DELETING_CALLED = "deletingGenerationCalled";
 	private static final String HOOK_CONFIGURATOR_FIELD_ADAPT_MANIFEST = "adaptManifest";
 	private static final String HOOK_CONFIGURATOR_FIELD_REPLACE_BUILDER = "replaceModuleBuilder";
+	private static final String HOOK_CONFIGURATOR_FIELD_HOOK_DATA = "hookData";
+	private static final String HOOK_CONFIGURATOR_FIELD_LOADED_HOOK_DATA = "loadedHookData";
 
 	private Map<String, String> configuration;
 	private Framework framework;
@@ -222,6 +234,50 @@ public class StorageHookTests extends AbstractFrameworkHookTests {
 		assertEquals("Wrong number of capabilities.", 1, testCaps.size());
 	}
 
+	/*
+	 * Changes written to the framework info journal must survive a crash,
+	 * including uninstalls and the storage hook data of unchanged bundles.
+	 */
+	public void testJournalReplay() throws Exception {
+		configuration.put(EquinoxConfiguration.PROP_STORAGE_JOURNAL_LIMIT, "10");
+		configuration.put(EquinoxConfiguration.PROP_STATE_SAVE_DELAY_INTERVAL, "0");
+		framework = createFramework(configuration);
+		initAndStartFramework();
+		File bundlesBase = OSGiTestsActivator.getContext().getDataFile(getName() + ".bundles");
+		bundlesBase.mkdirs();
+		Bundle exporter = framework.getBundleContext().installBundle(createBundle(bundlesBase, "exporter", Constants.EXPORT_PACKAGE, "journal.exporter").toURI().toString());
+		Bundle importer = framework.getBundleContext().installBundle(createBundle(bundlesBase, "importer", Constants.IMPORT_PACKAGE, "journal.exporter").toURI().toString());
+		assertTrue("Bundles did not resolve.", framework.adapt(FrameworkWiring.class).resolveBundles(null));
+		long exporterId = exporter.getBundleId();
+		String importerLocation = importer.getLocation();
+
+		// writes the framework info in full; later changes go to the journal
+		restartFramework();
+		setHookData("journaled");
+		framework.getBundleContext().getBundle(exporterId).uninstall();
+		importer = framework.getBundleContext().getBundle(importerLocation);
+		importer.adapt(BundleStartLevel.class).setStartLevel(5);
+
+		// copy the storage area of the running framework as if it crashed
+		File storage = new File(configuration.get(Constants.FRAMEWORK_STORAGE));
+		File crashed = OSGiTestsActivator.getContext().getDataFile(getName() + ".crashed");
+		copy(storage, crashed);
+		stop(framework);
+		File exporterStorage = new File(crashed, "org.eclipse.osgi/" + exporterId);
+		assertTrue("Missing storage of the uninstalled bundle.", exporterStorage.exists());
+
+		setHookData("stopped");
+		configuration.put(Constants.FRAMEWORK_STORAGE, crashed.getAbsolutePath());
+		framework = createFramework(configuration);
+		initAndStartFramework();
+		assertNull("Found uninstalled bundle.", framework.getBundleContext().getBundle(exporterId));
+		assertFalse("Storage of the uninstalled bundle was not deleted.", exporterStorage.exists());
+		importer = framework.getBundleContext().getBundle(importerLocation);
+		assertNotNull("Missing importer.", importer);
+		assertEquals("Wrong start level.", 5, importer.adapt(BundleStartLevel.class).getStartLevel());
+		assertEquals("Wrong hook data.", "journaled", getLoadedHookData());
+	}
+
 	@SuppressWarnings("deprecation")
 	public void testFrameworkUtilHelper() throws Exception {
 		initAndStartFramework();
@@ -285,6 +341,35 @@ public class StorageHookTests extends AbstractFrameworkHookTests {
 		assertTrue("Storage hook deletingGeneration not called by framework", clazz.getField(HOOK_CONFIGURATOR_FIELD_DELETING_CALLED).getBoolean(null));
 	}
 
+	private static File createBundle(File outputDir, String name, String header, String value) throws IOException {
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.putValue("Manifest-Version", "1.0");
+		attributes.putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+		attributes.putValue(Constants.BUNDLE_SYMBOLICNAME, name);
+		attributes.putValue(header, value);
+		File file = new File(outputDir, name + ".jar");
+		JarOutputStream jos = new JarOutputStream(new FileOutputStream(file), manifest);
+		jos.close();
+		return file;
+	}
+
+	private static void copy(File source, File target) throws IOException {
+		if (source.isDirectory()) {
+			target.mkdirs();
+			for (String child : source.list()) {
+				copy(new File(source, child), new File(target, child));
+			}
+		} else {
+			Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private String getLoadedHookData() throws Exception {
+		Class<?> clazz = classLoader.loadClass(HOOK_CONFIGURATOR_CLASS);
+		return (String) clazz.getField(HOOK_CONFIGURATOR_FIELD_LOADED_HOOK_DATA).get(null);
+	}
+
 	private void initAndStartFramework() throws Exception {
 		initAndStart(framework);
 	}
@@ -302,6 +387,8 @@ public class StorageHookTests extends AbstractFrameworkHookTests {
 		clazz.getField(HOOK_CONFIGURATOR_FIELD_DELETING_CALLED).set(null, false);
 		clazz.getField(HOOK_CONFIGURATOR_FIELD_ADAPT_MANIFEST).set(null, false);
 		clazz.getField(HOOK_CONFIGURATOR_FIELD_FAIL_LOAD).set(null, false);
+		clazz.getField(HOOK_CONFIGURATOR_FIELD_HOOK_DATA).set(null, "");
+		clazz.getField(HOOK_CONFIGURATOR_FIELD_LOADED_HOOK_DATA).set(null, null);
 	}
 
 	private void restartFramework() throws Exception {
@@ -328,6 +415,11 @@ public class StorageHookTests extends AbstractFrameworkHookTests {
 		clazz.getField(HOOK_CONFIGURATOR_FIELD_REPLACE_BUILDER).set(null, value);
 	}
 
+	private void setHookData(String value) throws Exception {
+		Class<?> clazz = classLoader.loadClass(HOOK_CONFIGURATOR_CLASS);
+		clazz.getField(HOOK_CONFIGURATOR_FIELD_HOOK_DATA).set(null, value);
+	}
+
 	private void setFactoryHookFailLoad(boolean value) throws Exception {
 		Class<?> clazz = classLoader.loadClass(HOOK_CONFIGURATOR_CLASS);
 		clazz.getField(HOOK_CONFIGURATOR_FIELD_FAIL_LOAD).set(null, value);
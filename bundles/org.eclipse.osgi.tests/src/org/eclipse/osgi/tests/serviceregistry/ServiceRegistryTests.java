@@ -13,6 +13,7 @@
  *******************************************************************************/
 package org.eclipse.osgi.tests.serviceregistry;
 
+import java.util.Arrays;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.concurrent.CountDownLatch;
@@ -567,6 +568,129 @@ public class ServiceRegistryTests extends AbstractBundleTests {
 		}
 	}
 
+	public void testIndexedPropertyLookup() throws InvalidSyntaxException {
+		Runnable runIt = new Runnable() {
+			@Override
+			public void run() {
+				// nothing
+			}
+		};
+		String pid = getName() + ".pid"; //$NON-NLS-1$
+		Hashtable props = new Hashtable();
+		props.put(Constants.SERVICE_PID, pid);
+		props.put(Constants.SERVICE_RANKING, Integer.valueOf(10));
+		ServiceRegistration reg1 = getContext().registerService(Runnable.class.getName(), runIt, props);
+		props.put(Constants.SERVICE_PID, new String[] {"other", pid}); //$NON-NLS-1$
+		props.put(Constants.SERVICE_RANKING, Integer.valueOf(20));
+		ServiceRegistration reg2 = getContext().registerService(Runnable.class.getName(), runIt, props);
+		props.put(Constants.SERVICE_PID, Arrays.asList(pid, Integer.valueOf(1)));
+		props.put(Constants.SERVICE_RANKING, Integer.valueOf(30));
+		ServiceRegistration reg3 = getContext().registerService(Object.class.getName(), runIt, props);
+		try {
+			String filter = "(" + Constants.SERVICE_PID + "=" + pid + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			ServiceReference[] refs = getContext().getServiceReferences(Runnable.class.getName(), filter);
+			assertNotNull("Null references", refs); //$NON-NLS-1$
+			assertEquals("Wrong number of references", 2, refs.length); //$NON-NLS-1$
+			assertEquals("Wrong order", reg2.getReference(), refs[0]); //$NON-NLS-1$
+			assertEquals("Wrong order", reg1.getReference(), refs[1]); //$NON-NLS-1$
+
+			refs = getContext().getServiceReferences((String) null, filter);
+			assertNotNull("Null references", refs); //$NON-NLS-1$
+			assertEquals("Wrong number of references", 3, refs.length); //$NON-NLS-1$
+			assertEquals("Wrong order", reg3.getReference(), refs[0]); //$NON-NLS-1$
+
+			props.put(Constants.SERVICE_PID, "changed"); //$NON-NLS-1$
+			reg2.setProperties(props);
+			refs = getContext().getServiceReferences(Runnable.class.getName(), filter);
+			assertNotNull("Null references", refs); //$NON-NLS-1$
+			assertEquals("Wrong number of references", 1, refs.length); //$NON-NLS-1$
+			assertEquals("Wrong reference", reg1.getReference(), refs[0]); //$NON-NLS-1$
+			refs = getContext().getServiceReferences(Runnable.class.getName(), "(" + Constants.SERVICE_PID + "=changed)"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("Null references", refs); //$NON-NLS-1$
+			assertEquals("Wrong reference", reg2.getReference(), refs[0]); //$NON-NLS-1$
+
+			reg1.unregister();
+			reg1 = null;
+			assertNull("Unexpected references", getContext().getServiceReferences(Runnable.class.getName(), filter)); //$NON-NLS-1$
+		} finally {
+			if (reg1 != null)
+				reg1.unregister();
+			if (reg2 != null)
+				reg2.unregister();
+			if (reg3 != null)
+				reg3.unregister();
+		}
+	}
+
+	public void testObjectClassListenerDispatch() throws InvalidSyntaxException {
+		Runnable runIt = new Runnable() {
+			@Override
+			public void run() {
+				// nothing
+			}
+		};
+		final int[] results = new int[] {0, 0, 0, 0};
+		ServiceListener runnableListener = new ServiceListener() {
+			public void serviceChanged(ServiceEvent event) {
+				results[0]++;
+			}
+		};
+		ServiceListener objectListener = new ServiceListener() {
+			public void serviceChanged(ServiceEvent event) {
+				results[1]++;
+			}
+		};
+		ServiceListener orListener = new ServiceListener() {
+			public void serviceChanged(ServiceEvent event) {
+				results[2]++;
+			}
+		};
+		ServiceListener propListener = new ServiceListener() {
+			public void serviceChanged(ServiceEvent event) {
+				results[3]++;
+			}
+		};
+		BundleContext context = OSGiTestsActivator.getContext();
+		String testProp = getName().toLowerCase();
+		context.addServiceListener(runnableListener, "(&(objectClass=java.lang.Runnable)(" + testProp + "=true))"); //$NON-NLS-1$ //$NON-NLS-2$
+		context.addServiceListener(objectListener, "(&(objectClass=java.lang.Object)(" + testProp + "=true))"); //$NON-NLS-1$ //$NON-NLS-2$
+		context.addServiceListener(orListener, "(&(|(objectClass=java.lang.Object)(objectClass=java.lang.Runnable))(" + testProp + "=true))"); //$NON-NLS-1$ //$NON-NLS-2$
+		context.addServiceListener(propListener, "(" + testProp + "=true)"); //$NON-NLS-1$ //$NON-NLS-2$
+		ServiceRegistration reg = null;
+		try {
+			Hashtable props = new Hashtable();
+			props.put(testProp, Boolean.TRUE);
+			reg = context.registerService(Runnable.class.getName(), runIt, props);
+			assertEquals("Wrong number of events for Runnable listener", 1, results[0]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for Object listener", 0, results[1]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for OR listener", 1, results[2]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for property listener", 1, results[3]); //$NON-NLS-1$
+			clearResults(results);
+
+			// replace the Object listener with a Runnable listener
+			context.addServiceListener(objectListener, "(&(objectClass=java.lang.Runnable)(" + testProp + "=true))"); //$NON-NLS-1$ //$NON-NLS-2$
+			reg.unregister();
+			reg = null;
+			assertEquals("Wrong number of events for Runnable listener", 1, results[0]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for Object listener", 1, results[1]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for OR listener", 1, results[2]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for property listener", 1, results[3]); //$NON-NLS-1$
+			clearResults(results);
+
+			context.removeServiceListener(runnableListener);
+			reg = context.registerService(Runnable.class.getName(), runIt, props);
+			assertEquals("Wrong number of events for removed listener", 0, results[0]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for Object listener", 1, results[1]); //$NON-NLS-1$
+		} finally {
+			context.removeServiceListener(runnableListener);
+			context.removeServiceListener(objectListener);
+			context.removeServiceListener(orListener);
+			context.removeServiceListener(propListener);
+			if (reg != null)
+				reg.unregister();
+		}
+	}
+
 	private void clearResults(boolean[] results) {
 		for (int i = 0; i < results.length; i++)
 			results[i] = false;
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import org.eclipse.osgi.container.Module;
+import org.eclipse.osgi.launch.Equinox;
+import org.eclipse.osgi.storage.BundleInfo.Generation;
+import org.eclipse.osgi.storage.Storage;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+
+/**
+ * The base of the tests which run a framework on a storage area in a
+ * temporary folder.  The framework is stopped after each test.
+ */
+public abstract class AbstractStorageTests {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	protected Equinox equinox;
+
+	@After
+	public void stopFramework() throws Exception {
+		stop();
+	}
+
+	/**
+	 * Creates a framework which uses the storage area but does not initialize it.
+	 */
+	protected Equinox createFramework(File storageArea, Map<String, String> configuration) {
+		configuration.put(Constants.FRAMEWORK_STORAGE, storageArea.getAbsolutePath());
+		equinox = new Equinox(configuration);
+		return equinox;
+	}
+
+	protected BundleContext start(File storageArea, Map<String, String> configuration) throws Exception {
+		createFramework(storageArea, configuration).start();
+		return equinox.getBundleContext();
+	}
+
+	protected void stop() throws Exception {
+		if (equinox != null) {
+			equinox.stop();
+			equinox.waitForStop(10000);
+			equinox = null;
+		}
+	}
+
+	protected Storage getStorage() {
+		Generation systemGeneration = (Generation) equinox.adapt(Module.class).getCurrentRevision().getRevisionInfo();
+		return systemGeneration.getBundleInfo().getStorage();
+	}
+
+	/**
+	 * Returns the headers of a bundle with the symbolic name followed by the header
+	 * names and values.
+	 */
+	protected static Map<String, String> headers(String symbolicName, String... namesAndValues) {
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		headers.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		headers.put(Constants.BUNDLE_SYMBOLICNAME, symbolicName);
+		for (int i = 0; i < namesAndValues.length; i += 2) {
+			headers.put(namesAndValues[i], namesAndValues[i + 1]);
+		}
+		return headers;
+	}
+
+	/**
+	 * Creates a bundle jar in the temporary folder with the headers and the class files of the classes.
+	 */
+	protected File createBundle(String fileName, Map<String, String> headers, Class<?>... classes) throws IOException {
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0"); //$NON-NLS-1$
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			attributes.putValue(header.getKey(), header.getValue());
+		}
+		File file = new File(folder.getRoot(), fileName);
+		JarOutputStream jar = new JarOutputStream(new FileOutputStream(file), manifest);
+		try {
+			for (Class<?> clazz : classes) {
+				jar.putNextEntry(new ZipEntry(clazz.getName().replace('.', '/') + ".class")); //$NON-NLS-1$
+				jar.write(getClassBytes(clazz));
+				jar.closeEntry();
+			}
+		} finally {
+			jar.close();
+		}
+		return file;
+	}
+
+	protected static byte[] getClassBytes(Class<?> clazz) throws IOException {
+		InputStream in = clazz.getResourceAsStream(clazz.getName().substring(clazz.getName().lastIndexOf('.') + 1) + ".class"); //$NON-NLS-1$
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the latest version of a file managed by the storage manager of the
+	 * storage area, or null if the file is not managed.
+	 */
+	protected static File getManagedFile(File storageArea, String name) {
+		File root = new File(storageArea, "org.eclipse.osgi"); //$NON-NLS-1$
+		File result = null;
+		int latest = -1;
+		for (String fileName : root.list()) {
+			if (fileName.startsWith(name + '.')) {
+				int version = Integer.parseInt(fileName.substring(name.length() + 1));
+				if (version > latest) {
+					latest = version;
+					result = new File(root, fileName);
+				}
+			}
+		}
+		return result;
+	}
+}
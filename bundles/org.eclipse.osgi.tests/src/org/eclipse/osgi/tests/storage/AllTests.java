@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.storage;
+
+import junit.framework.*;
+
+public class AllTests {
+	public static Test suite() {
+		TestSuite suite = new TestSuite(AllTests.class.getName());
+		suite.addTest(new JUnit4TestAdapter(ZipBundleFileTests.class));
+		suite.addTest(new JUnit4TestAdapter(MappedZipBundleFileTests.class));
+		suite.addTest(new JUnit4TestAdapter(MRUBundleFileListTests.class));
+		suite.addTest(new JUnit4TestAdapter(StorageInstallTests.class));
+		suite.addTest(new JUnit4TestAdapter(FrameworkInfoTests.class));
+		suite.addTest(new JUnit4TestAdapter(ClassLoadProfileTests.class));
+		suite.addTest(new JUnit4TestAdapter(ClassNameLockTests.class));
+		return suite;
+	}
+}
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.storage;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.osgi.container.Module;
+import org.eclipse.osgi.storage.BundleInfo.Generation;
+import org.eclipse.osgi.storage.ClassLoadProfile;
+import org.eclipse.osgi.storage.Storage;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+
+public class ClassLoadProfileTests extends AbstractStorageTests {
+	private static final String CLASS_LOADER_PROFILE = "equinox.classloader.profile"; //$NON-NLS-1$
+	private static final String CLASS_LOADER_PROFILE_LIMIT = "equinox.classloader.profile.limit"; //$NON-NLS-1$
+	private static final String CLASS_LOADER_PROFILE_TIMEOUT = "equinox.classloader.profile.timeout"; //$NON-NLS-1$
+	private static final String CLASS_LOADER_PROFILE_PREFETCH_LIMIT = "equinox.classloader.profile.prefetch.limit"; //$NON-NLS-1$
+	// the activator and the classes it loads, in the order they are loaded
+	private static final Class<?>[] CLASSES = {Activator.class, Loaded1.class, Loaded2.class, Loaded3.class};
+
+	public static class Activator implements BundleActivator {
+		@Override
+		public void start(BundleContext context) {
+			new Loaded1();
+			new Loaded2();
+			new Loaded3();
+		}
+
+		@Override
+		public void stop(BundleContext context) {
+			// nothing
+		}
+	}
+
+	public static class Loaded1 {
+		// loaded by the activator
+	}
+
+	public static class Loaded2 {
+		// loaded by the activator
+	}
+
+	public static class Loaded3 {
+		// loaded by the activator
+	}
+
+	@Test
+	public void testRecordOnStart() throws Exception {
+		File storageArea = folder.newFolder("storage"); //$NON-NLS-1$
+		installActivatorBundle(storageArea);
+		Assert.assertEquals("Unexpected profile.", -1, getProfileSize(storageArea)); //$NON-NLS-1$
+
+		// the activator runs while starting and its classes are recorded
+		BundleContext context = start(storageArea, new HashMap<String, String>());
+		Assert.assertFalse("Still recording.", getStorage().getClassLoadProfile().isActive()); //$NON-NLS-1$
+		Assert.assertEquals("Wrong bundle state.", Bundle.ACTIVE, context.getBundle("a").getState()); //$NON-NLS-1$ //$NON-NLS-2$
+		stop();
+		Assert.assertEquals("Wrong number of classes recorded.", CLASSES.length, getProfileSize(storageArea)); //$NON-NLS-1$
+
+		// the classes read ahead are loaded and recorded again
+		context = start(storageArea, new HashMap<String, String>());
+		Assert.assertEquals("Wrong bundle state.", Bundle.ACTIVE, context.getBundle("a").getState()); //$NON-NLS-1$ //$NON-NLS-2$
+		stop();
+		Assert.assertEquals("Wrong number of classes recorded.", CLASSES.length, getProfileSize(storageArea)); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testRecordLimit() throws Exception {
+		File storageArea = folder.newFolder("storage"); //$NON-NLS-1$
+		installActivatorBundle(storageArea);
+		Map<String, String> configuration = new HashMap<String, String>();
+		configuration.put(CLASS_LOADER_PROFILE_LIMIT, "2"); //$NON-NLS-1$
+		BundleContext context = start(storageArea, configuration);
+		Assert.assertEquals("Wrong bundle state.", Bundle.ACTIVE, context.getBundle("a").getState()); //$NON-NLS-1$ //$NON-NLS-2$
+		stop();
+		Assert.assertEquals("Wrong number of classes recorded.", 2, getProfileSize(storageArea)); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testRecordTimeout() throws Exception {
+		File storageArea = folder.newFolder("storage"); //$NON-NLS-1$
+		installActivatorBundle(storageArea);
+		Map<String, String> configuration = new HashMap<String, String>();
+		configuration.put(CLASS_LOADER_PROFILE_TIMEOUT, "0"); //$NON-NLS-1$
+		BundleContext context = start(storageArea, configuration);
+		Assert.assertEquals("Wrong bundle state.", Bundle.ACTIVE, context.getBundle("a").getState()); //$NON-NLS-1$ //$NON-NLS-2$
+		stop();
+		Assert.assertEquals("Unexpected profile.", -1, getProfileSize(storageArea)); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testReadAhead() throws Exception {
+		File storageArea = folder.newFolder("storage"); //$NON-NLS-1$
+		installActivatorBundle(storageArea);
+		start(storageArea, new HashMap<String, String>());
+		stop();
+
+		createFramework(storageArea, profileConfiguration()).init();
+		ClassLoadProfile profile = getStorage().getClassLoadProfile();
+		Assert.assertTrue("Not recording.", profile.isActive()); //$NON-NLS-1$
+		Bundle a = equinox.getBundleContext().getBundle("a"); //$NON-NLS-1$
+		Generation generation = (Generation) a.adapt(Module.class).getCurrentRevision().getRevisionInfo();
+
+		// reading ahead goes on after the bundle has a class loader
+		a.loadClass(Loaded1.class.getName());
+		byte[] bytes = takePrefetched(profile, generation, Loaded2.class);
+		Assert.assertNotNull("Class not read ahead.", bytes); //$NON-NLS-1$
+		Assert.assertEquals("Wrong class bytes.", getClassBytes(Loaded2.class).length, bytes.length); //$NON-NLS-1$
+		Assert.assertNull("Class taken twice.", profile.takePrefetched(generation.getBundleFile(), getPath(Loaded2.class))); //$NON-NLS-1$
+		Assert.assertNotNull("Class not read ahead.", takePrefetched(profile, generation, Loaded3.class)); //$NON-NLS-1$
+
+		// nothing is held after starting
+		equinox.start();
+		Assert.assertFalse("Still recording.", profile.isActive()); //$NON-NLS-1$
+		Assert.assertFalse("Class still held.", profile.isPrefetched(generation.getBundleFile(), getPath(Activator.class))); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testReadAheadLimit() throws Exception {
+		File storageArea = folder.newFolder("storage"); //$NON-NLS-1$
+		installActivatorBundle(storageArea);
+		start(storageArea, new HashMap<String, String>());
+		stop();
+
+		// a single class is over the limit; the next class is read once it is taken
+		Map<String, String> configuration = profileConfiguration();
+		configuration.put(CLASS_LOADER_PROFILE_PREFETCH_LIMIT, "1"); //$NON-NLS-1$
+		createFramework(storageArea, configuration).init();
+		ClassLoadProfile profile = getStorage().getClassLoadProfile();
+		Generation generation = (Generation) equinox.getBundleContext().getBundle("a").adapt(Module.class).getCurrentRevision().getRevisionInfo(); //$NON-NLS-1$
+		for (Class<?> clazz : CLASSES) {
+			Assert.assertNotNull("Class not read ahead: " + clazz.getName(), takePrefetched(profile, generation, clazz)); //$NON-NLS-1$
+		}
+	}
+
+	/*
+	 * Waits for the bytes of a class to be read ahead and takes them.
+	 */
+	private static byte[] takePrefetched(ClassLoadProfile profile, Generation generation, Class<?> clazz) throws InterruptedException {
+		String path = getPath(clazz);
+		for (int i = 0; i < 100 && !profile.isPrefetched(generation.getBundleFile(), path); i++) {
+			Thread.sleep(100);
+		}
+		return profile.takePrefetched(generation.getBundleFile(), path);
+	}
+
+	private static String getPath(Class<?> clazz) {
+		return clazz.getName().replace('.', '/') + ".class"; //$NON-NLS-1$
+	}
+
+	private void installActivatorBundle(File storageArea) throws Exception {
+		BundleContext context = start(storageArea, new HashMap<String, String>());
+		File bundleFile = createBundle("a.jar", headers("a", Constants.IMPORT_PACKAGE, "org.osgi.framework", Constants.BUNDLE_ACTIVATOR, Activator.class.getName()), CLASSES); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		Bundle a = context.installBundle("a", new FileInputStream(bundleFile)); //$NON-NLS-1$
+		a.start();
+		stop();
+	}
+
+	private static Map<String, String> profileConfiguration() {
+		Map<String, String> configuration = new HashMap<String, String>();
+		configuration.put(CLASS_LOADER_PROFILE, Boolean.TRUE.toString());
+		return configuration;
+	}
+
+	/*
+	 * Returns the number of classes in the latest profile, or -1 if there is no profile.
+	 */
+	private static int getProfileSize(File storageArea) throws IOException {
+		File profile = getManagedFile(storageArea, Storage.CLASS_LOAD_PROFILE);
+		if (profile == null) {
+			return -1;
+		}
+		DataInputStream in = new DataInputStream(new FileInputStream(profile));
+		try {
+			// profile version
+			in.readInt();
+			return in.readInt();
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	protected BundleContext start(File storageArea, Map<String, String> configuration) throws Exception {
+		configuration.put(CLASS_LOADER_PROFILE, Boolean.TRUE.toString());
+		return super.start(storageArea, configuration);
+	}
+}
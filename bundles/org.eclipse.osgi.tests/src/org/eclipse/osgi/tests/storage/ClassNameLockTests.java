@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.hooks.weaving.WeavingHook;
+import org.osgi.framework.hooks.weaving.WovenClass;
+
+/**
+ * Tests the class name locks a parallel capable bundle class loader holds while
+ * defining classes.  A thread defining {@link Sub} holds its lock while the VM
+ * loads {@link Base}; a weaving hook keeps that thread waiting in the middle.
+ */
+public class ClassNameLockTests extends AbstractStorageTests {
+	public static class Base {
+		// the super class loaded while the lock of Sub is held
+	}
+
+	public static class Sub extends Base {
+		// the class defined by more than one thread
+	}
+
+	public static class Other {
+		// a class with a different name
+	}
+
+	private final CountDownLatch weavingBase = new CountDownLatch(1);
+	private final CountDownLatch releaseBase = new CountDownLatch(1);
+	private Bundle bundle;
+
+	@Before
+	public void setUp() throws Exception {
+		BundleContext context = start(folder.newFolder("storage"), new HashMap<String, String>()); //$NON-NLS-1$
+		context.registerService(WeavingHook.class, new WeavingHook() {
+			@Override
+			public void weave(WovenClass wovenClass) {
+				if (Base.class.getName().equals(wovenClass.getClassName())) {
+					weavingBase.countDown();
+					try {
+						releaseBase.await(30, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}, null);
+		File bundleFile = createBundle("a.jar", headers("a"), Base.class, Sub.class, Other.class); //$NON-NLS-1$ //$NON-NLS-2$
+		bundle = context.installBundle("a", new FileInputStream(bundleFile)); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testSameClassNameWaits() throws Exception {
+		LoadThread first = new LoadThread(Sub.class.getName());
+		Assert.assertTrue("Super class not loaded.", weavingBase.await(10, TimeUnit.SECONDS)); //$NON-NLS-1$
+
+		// a second thread waits for the lock held by the first
+		LoadThread second = new LoadThread(Sub.class.getName());
+		second.awaitWaiting();
+
+		// other class names are not blocked by the lock
+		LoadThread other = new LoadThread(Other.class.getName());
+		Assert.assertNotNull("Other class not loaded.", other.getResult()); //$NON-NLS-1$
+		Assert.assertTrue("Class loaded while locked.", second.isAlive()); //$NON-NLS-1$
+
+		releaseBase.countDown();
+		Class<?> clazz = first.getResult();
+		Assert.assertSame("Class defined twice.", clazz, second.getResult()); //$NON-NLS-1$
+		Assert.assertEquals("Wrong super class.", Base.class.getName(), clazz.getSuperclass().getName()); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testInterruptWhileWaiting() throws Exception {
+		LoadThread first = new LoadThread(Sub.class.getName());
+		Assert.assertTrue("Super class not loaded.", weavingBase.await(10, TimeUnit.SECONDS)); //$NON-NLS-1$
+		LoadThread second = new LoadThread(Sub.class.getName());
+		second.awaitWaiting();
+
+		// an interrupted waiter fails with an error which is not a LinkageError (see bug 490902)
+		second.interrupt();
+		second.join(10000);
+		Assert.assertNotNull("Expected an error.", second.error); //$NON-NLS-1$
+		Assert.assertEquals("Wrong error.", Error.class, second.error.getClass()); //$NON-NLS-1$
+		Assert.assertTrue("Wrong cause.", second.error.getCause() instanceof InterruptedException); //$NON-NLS-1$
+		Assert.assertTrue("Interrupt not kept.", second.interruptedAfter); //$NON-NLS-1$
+
+		// the class is still defined and can be loaded afterwards
+		releaseBase.countDown();
+		Class<?> clazz = first.getResult();
+		Assert.assertSame("Class defined twice.", clazz, bundle.loadClass(Sub.class.getName())); //$NON-NLS-1$
+	}
+
+	/*
+	 * Loads a class from the bundle.
+	 */
+	class LoadThread extends Thread {
+		private final String className;
+		volatile Class<?> result;
+		volatile Throwable error;
+		volatile boolean interruptedAfter;
+
+		LoadThread(String className) {
+			super("Load " + className); //$NON-NLS-1$
+			this.className = className;
+			start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				result = bundle.loadClass(className);
+			} catch (Throwable t) {
+				error = t;
+			}
+			interruptedAfter = isInterrupted();
+		}
+
+		Class<?> getResult() throws InterruptedException {
+			join(10000);
+			Assert.assertFalse("Class not loaded: " + className, isAlive()); //$NON-NLS-1$
+			if (error != null) {
+				throw new AssertionError(error);
+			}
+			return result;
+		}
+
+		void awaitWaiting() throws InterruptedException {
+			for (int i = 0; i < 100 && getState() != Thread.State.WAITING; i++) {
+				Thread.sleep(100);
+			}
+			Assert.assertEquals("Thread is not waiting.", Thread.State.WAITING, getState()); //$NON-NLS-1$
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
+import org.eclipse.osgi.storage.Storage;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.startlevel.BundleStartLevel;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+/**
+ * Tests the versions of the persisted framework info with and without
+ * all of the bundle headers cached, and the journal of the changes made
+ * after it was written.
+ */
+public class FrameworkInfoTests extends AbstractStorageTests {
+	private static final String CACHE_ALL_HEADERS = "equinox.storage.cache.all.headers"; //$NON-NLS-1$
+	private static final String TEST_HEADER = "X-Test-Header"; //$NON-NLS-1$
+	// the framework info version before all of the headers could be cached
+	private static final int NO_RAW_HEADERS_VERSION = 4;
+	private static final int RAW_HEADERS_VERSION = 5;
+
+	@Test
+	public void testCachedHeaders() throws Exception {
+		File storageArea = folder.newFolder("storage"); //$NON-NLS-1$
+		BundleContext context = start(storageArea, true);
+		long b1 = context.installBundle("b1", new FileInputStream(createBundle("b1.jar", "b1", "b1 value"))).getBundleId(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		stop();
+		Assert.assertEquals("Wrong framework info version.", RAW_HEADERS_VERSION, getFrameworkInfoVersion(storageArea)); //$NON-NLS-1$
+
+		context = start(storageArea, true);
+		Bundle bundle = context.getBundle(b1);
+		Assert.assertEquals("Wrong header.", "b1 value", bundle.getHeaders("").get(TEST_HEADER)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		Assert.assertEquals("Wrong header.", "b1", bundle.getHeaders("").get(Constants.BUNDLE_SYMBOLICNAME)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		stop();
+
+		// turning off the cache writes the framework info without the headers
+		context = start(storageArea, false);
+		Assert.assertEquals("Wrong header.", "b1 value", context.getBundle(b1).getHeaders("").get(TEST_HEADER)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		stop();
+		context = start(storageArea, true);
+		Assert.assertEquals("Wrong header.", "b1 value", context.getBundle(b1).getHeaders("").get(TEST_HEADER)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	@Test
+	public void testOldVersionWithInvalidBundle() throws Exception {
+		File storageArea = folder.newFolder("storage"); //$NON-NLS-1$
+		BundleContext context = start(storageArea, false);
+		long good = context.installBundle("good", new FileInputStream(createBundle("good.jar", "good", "good value"))).getBundleId(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		long bad = context.installBundle("bad", new FileInputStream(createBundle("bad.jar", "bad", "bad value"))).getBundleId(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		stop();
+		downgradeFrameworkInfo(storageArea);
+		Assert.assertEquals("Wrong framework info version.", NO_RAW_HEADERS_VERSION, getFrameworkInfoVersion(storageArea)); //$NON-NLS-1$
+
+		// replace the content of the bad bundle with a jar that has an invalid manifest
+		File badContent = new File(storageArea, "org.eclipse.osgi/" + bad + "/0/bundleFile"); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertTrue("Missing bundle content.", badContent.isFile()); //$NON-NLS-1$
+		long lastModified = badContent.lastModified();
+		JarOutputStream jar = new JarOutputStream(new FileOutputStream(badContent));
+		try {
+			jar.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF")); //$NON-NLS-1$
+			jar.write("Manifest-Version: 1.0\nno colon\n".getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+			jar.closeEntry();
+		} finally {
+			jar.close();
+		}
+		badContent.setLastModified(lastModified);
+
+		// the old version loads and the save on stop skips the headers of the bad bundle
+		context = start(storageArea, true);
+		Assert.assertNotNull("Missing bad bundle.", context.getBundle(bad)); //$NON-NLS-1$
+		Assert.assertEquals("Wrong header.", "good value", context.getBundle(good).getHeaders("").get(TEST_HEADER)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		// force a save on stop
+		context.getBundle(good).adapt(BundleStartLevel.class).setStartLevel(7);
+		stop();
+		Assert.assertEquals("Wrong framework info version.", RAW_HEADERS_VERSION, getFrameworkInfoVersion(storageArea)); //$NON-NLS-1$
+
+		context = start(storageArea, true);
+		Assert.assertNotNull("Missing bad bundle.", context.getBundle(bad)); //$NON-NLS-1$
+		Assert.assertEquals("Wrong start level.", 7, context.getBundle(good).adapt(BundleStartLevel.class).getStartLevel()); //$NON-NLS-1$
+		Assert.assertEquals("Wrong header.", "good value", context.getBundle(good).getHeaders("").get(TEST_HEADER)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	@Test
+	public void testJournal() throws Exception {
+		File storageArea = folder.newFolder("storage"); //$NON-NLS-1$
+		BundleContext context = start(storageArea, getJournalConfiguration());
+		long exporter = context.installBundle("exporter", new FileInputStream(createBundle("exporter.jar", headers("exporter", Constants.EXPORT_PACKAGE, "journal.a")))).getBundleId(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		stop();
+		File journal = new File(storageArea, "org.eclipse.osgi/" + Storage.FRAMEWORK_JOURNAL); //$NON-NLS-1$
+		Assert.assertFalse("Journal not discarded by the full save.", journal.exists()); //$NON-NLS-1$
+
+		context = start(storageArea, getJournalConfiguration());
+		Bundle importer = context.installBundle("importer", new FileInputStream(createBundle("importer.jar", headers("importer", Constants.IMPORT_PACKAGE, "journal.a")))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		Assert.assertTrue("Missing journal.", journal.isFile()); //$NON-NLS-1$
+		byte[] installed = Files.readAllBytes(journal.toPath());
+		Assert.assertTrue("Bundles not resolved.", equinox.adapt(FrameworkWiring.class).resolveBundles(null)); //$NON-NLS-1$
+		importer.adapt(BundleStartLevel.class).setStartLevel(5);
+		byte[] appended = Files.readAllBytes(journal.toPath());
+		Assert.assertTrue("Journal not appended.", appended.length > installed.length); //$NON-NLS-1$
+		Assert.assertArrayEquals("Journal records were rewritten.", installed, Arrays.copyOf(appended, installed.length)); //$NON-NLS-1$
+
+		// copy the storage area of the running framework as if it crashed
+		File crashed = folder.newFolder("crashed"); //$NON-NLS-1$
+		copy(storageArea, crashed);
+		stop();
+		context = start(crashed, getJournalConfiguration());
+		importer = context.getBundle(importer.getBundleId());
+		Assert.assertNotNull("Missing installed bundle.", importer); //$NON-NLS-1$
+		Assert.assertEquals("Wrong start level.", 5, importer.adapt(BundleStartLevel.class).getStartLevel()); //$NON-NLS-1$
+		Assert.assertEquals("Wiring not restored.", Bundle.RESOLVED, importer.getState()); //$NON-NLS-1$
+		List<BundleWire> wires = importer.adapt(BundleWiring.class).getRequiredWires(PackageNamespace.PACKAGE_NAMESPACE);
+		Assert.assertEquals("Wrong number of wires.", 1, wires.size()); //$NON-NLS-1$
+		Assert.assertEquals("Wrong provider.", exporter, wires.get(0).getProvider().getBundle().getBundleId()); //$NON-NLS-1$
+	}
+
+	private static Map<String, String> getJournalConfiguration() {
+		Map<String, String> configuration = new HashMap<String, String>();
+		configuration.put(EquinoxConfiguration.PROP_STORAGE_JOURNAL_LIMIT, "10"); //$NON-NLS-1$
+		// save each change as it happens
+		configuration.put(EquinoxConfiguration.PROP_STATE_SAVE_DELAY_INTERVAL, "0"); //$NON-NLS-1$
+		return configuration;
+	}
+
+	private BundleContext start(File storageArea, boolean cacheAllHeaders) throws Exception {
+		Map<String, String> configuration = new HashMap<String, String>();
+		configuration.put(CACHE_ALL_HEADERS, Boolean.toString(cacheAllHeaders));
+		return start(storageArea, configuration);
+	}
+
+	private static File getFrameworkInfo(File storageArea) {
+		File result = getManagedFile(storageArea, Storage.FRAMEWORK_INFO);
+		Assert.assertNotNull("No framework info found.", result); //$NON-NLS-1$
+		return result;
+	}
+
+	private static int getFrameworkInfoVersion(File storageArea) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(getFrameworkInfo(storageArea)));
+		try {
+			return in.readInt();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Rewrites the framework info without the persisted headers of each generation.
+	 */
+	private static void downgradeFrameworkInfo(File storageArea) throws IOException {
+		File frameworkInfo = getFrameworkInfo(storageArea);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(frameworkInfo.toPath())));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		Assert.assertEquals("Wrong framework info version.", RAW_HEADERS_VERSION, in.readInt()); //$NON-NLS-1$
+		out.writeInt(NO_RAW_HEADERS_VERSION);
+		// runtime version
+		out.writeUTF(in.readUTF());
+		int numCachedHeaders = in.readInt();
+		out.writeInt(numCachedHeaders);
+		for (int i = 0; i < numCachedHeaders; i++) {
+			out.writeUTF(in.readUTF());
+		}
+		int numInfos = in.readInt();
+		out.writeInt(numInfos);
+		for (int i = 0; i < numInfos; i++) {
+			// id, location, next generation id, generation id
+			out.writeLong(in.readLong());
+			out.writeUTF(in.readUTF());
+			out.writeLong(in.readLong());
+			out.writeLong(in.readLong());
+			// directory, reference, package info
+			for (int j = 0; j < 3; j++) {
+				out.writeBoolean(in.readBoolean());
+			}
+			// content path, last modified
+			out.writeUTF(in.readUTF());
+			out.writeLong(in.readLong());
+			for (int j = 0; j < numCachedHeaders; j++) {
+				out.writeUTF(in.readUTF());
+			}
+			// multi-release jar
+			out.writeBoolean(in.readBoolean());
+			Assert.assertEquals("Unexpected cached headers.", -1, in.readInt()); //$NON-NLS-1$
+		}
+		// the rest is unchanged
+		copy(in, out);
+		out.close();
+		OutputStream fileOut = new FileOutputStream(frameworkInfo);
+		try {
+			fileOut.write(bytes.toByteArray());
+		} finally {
+			fileOut.close();
+		}
+	}
+
+	private static void copy(File source, File target) throws IOException {
+		if (source.isDirectory()) {
+			target.mkdirs();
+			for (File child : source.listFiles()) {
+				copy(child, new File(target, child.getName()));
+			}
+		} else {
+			Files.copy(source.toPath(), target.toPath());
+		}
+	}
+
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[4096];
+		for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+			out.write(buffer, 0, read);
+		}
+	}
+
+	private File createBundle(String fileName, String symbolicName, String testValue) throws IOException {
+		return createBundle(fileName, headers(symbolicName, TEST_HEADER, testValue));
+	}
+}
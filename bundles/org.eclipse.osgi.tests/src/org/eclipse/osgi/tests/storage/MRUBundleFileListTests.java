@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.storage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.storage.bundlefile.BundleEntry;
+import org.eclipse.osgi.storage.bundlefile.BundleFile;
+import org.eclipse.osgi.storage.bundlefile.MRUBundleFileList;
+import org.eclipse.osgi.tests.container.dummys.DummyDebugOptions;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MRUBundleFileListTests {
+	private static final int LIMIT = 10;
+
+	private final Debug debug = new Debug(new DummyDebugOptions(Collections.<String, String> emptyMap()));
+	private final MRUBundleFileList mru = new MRUBundleFileList(LIMIT, debug);
+	private final BlockingQueue<TestBundleFile> closed = new LinkedBlockingQueue<>();
+
+	@After
+	public void tearDown() {
+		mru.shutdown();
+	}
+
+	@Test
+	public void testEvictionOrder() throws InterruptedException {
+		List<TestBundleFile> files = createFiles(LIMIT + 2);
+		for (int i = 0; i < LIMIT; i++) {
+			files.get(i).open();
+		}
+		Assert.assertNull("Closed a bundle file before the limit was reached.", closed.poll(100, TimeUnit.MILLISECONDS));
+
+		// all files were used since the last sweep; the oldest one is closed
+		files.get(LIMIT).open();
+		Assert.assertSame("Wrong bundle file closed.", files.get(0), closed.poll(5, TimeUnit.SECONDS));
+
+		// the sweep cleared the referenced bits; a used file gets a second chance
+		files.get(1).use();
+		files.get(LIMIT + 1).open();
+		Assert.assertSame("Wrong bundle file closed.", files.get(2), closed.poll(5, TimeUnit.SECONDS));
+		Assert.assertNull("Closed too many bundle files.", closed.poll(100, TimeUnit.MILLISECONDS));
+		Assert.assertTrue("Used bundle file was closed.", files.get(1).isOpen());
+	}
+
+	@Test
+	public void testCloseFreesSlot() throws InterruptedException {
+		List<TestBundleFile> files = createFiles(LIMIT + 1);
+		for (int i = 0; i < LIMIT; i++) {
+			files.get(i).open();
+		}
+		files.get(3).close();
+		// the closed file freed its slot so nothing is evicted
+		files.get(LIMIT).open();
+		Assert.assertNull("Closed a bundle file with a free slot.", closed.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testConcurrentOpenClose() throws Exception {
+		final List<TestBundleFile> files = createFiles(LIMIT * 4);
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		int numThreads = 8;
+		final CountDownLatch done = new CountDownLatch(numThreads);
+		for (int t = 0; t < numThreads; t++) {
+			final Random random = new Random(t);
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 20000; i++) {
+							TestBundleFile file = files.get(random.nextInt(files.size()));
+							if (random.nextInt(4) == 0) {
+								file.close();
+							} else {
+								file.open();
+							}
+						}
+					} catch (Throwable e) {
+						error.compareAndSet(null, e);
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "MRU test thread " + t).start();
+		}
+		Assert.assertTrue("Test threads did not finish.", done.await(60, TimeUnit.SECONDS));
+		Assert.assertNull("Unexpected error: " + error.get(), error.get());
+
+		// wait for the pending closes of evicted files
+		long end = System.currentTimeMillis() + 10000;
+		while (countOpen(files) > LIMIT && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue("Too many open bundle files: " + countOpen(files), countOpen(files) <= LIMIT);
+
+		// close everything; the list must have all its slots free again
+		for (TestBundleFile file : files) {
+			file.close();
+		}
+		Thread.sleep(100);
+		closed.clear();
+		List<TestBundleFile> fresh = createFiles(LIMIT + 1);
+		for (int i = 0; i < LIMIT; i++) {
+			fresh.get(i).open();
+		}
+		Assert.assertNull("Closed a bundle file with free slots.", closed.poll(100, TimeUnit.MILLISECONDS));
+		fresh.get(LIMIT).open();
+		Assert.assertNotNull("No bundle file closed at the limit.", closed.poll(5, TimeUnit.SECONDS));
+		Assert.assertNull("Closed too many bundle files.", closed.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	private List<TestBundleFile> createFiles(int num) {
+		List<TestBundleFile> result = new ArrayList<>(num);
+		for (int i = 0; i < num; i++) {
+			result.add(new TestBundleFile(new File("test" + i + ".jar"))); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return result;
+	}
+
+	private static int countOpen(List<TestBundleFile> files) {
+		int result = 0;
+		for (TestBundleFile file : files) {
+			if (file.isOpen()) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Follows the protocol of ZipBundleFile; the file is added to the list
+	 * when opened and removed when closed, both while holding its lock.
+	 */
+	class TestBundleFile extends BundleFile {
+		private boolean open;
+
+		TestBundleFile(File basefile) {
+			super(basefile);
+		}
+
+		synchronized boolean isOpen() {
+			return open;
+		}
+
+		synchronized void use() {
+			mru.use(this);
+		}
+
+		@Override
+		public synchronized void open() {
+			if (!open) {
+				mru.add(this);
+				open = true;
+			}
+			mru.use(this);
+		}
+
+		@Override
+		public synchronized void close() {
+			if (open) {
+				open = false;
+				if (!mru.remove(this)) {
+					// closed by the list
+					closed.add(this);
+				}
+			}
+		}
+
+		@Override
+		public File getFile(String path, boolean nativeCode) {
+			return null;
+		}
+
+		@Override
+		public BundleEntry getEntry(String path) {
+			return null;
+		}
+
+		@Override
+		public Enumeration<String> getEntryPaths(String path, boolean recurse) {
+			return null;
+		}
+
+		@Override
+		public boolean containsDir(String dir) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.storage.bundlefile.BundleEntry;
+import org.eclipse.osgi.storage.bundlefile.MappedZipBundleFile;
+import org.eclipse.osgi.tests.container.dummys.DummyDebugOptions;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedZipBundleFileTests {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Debug debug = new Debug(new DummyDebugOptions(Collections.<String, String> emptyMap()));
+
+	@Test
+	public void testStoredAndDeflatedEntries() throws IOException {
+		byte[] stored = "stored content".getBytes("UTF-8");
+		byte[] deflated = "deflated content deflated content deflated content".getBytes("UTF-8");
+		File zip = folder.newFile("entries.jar");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		try {
+			out.putNextEntry(new ZipEntry("META-INF/"));
+			out.closeEntry();
+			putStored(out, "a/stored.txt", stored);
+			out.putNextEntry(new ZipEntry("a/b/deflated.txt"));
+			out.write(deflated);
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+
+		MappedZipBundleFile bundleFile = new MappedZipBundleFile(zip, null, debug);
+		try {
+			BundleEntry storedEntry = bundleFile.getEntry("a/stored.txt");
+			Assert.assertNotNull("Missing stored entry.", storedEntry);
+			Assert.assertEquals("Wrong size.", stored.length, storedEntry.getSize());
+			Assert.assertArrayEquals("Wrong stored bytes.", stored, storedEntry.getBytes());
+			Assert.assertArrayEquals("Wrong stored stream.", stored, readAll(storedEntry.getInputStream()));
+
+			BundleEntry deflatedEntry = bundleFile.getEntry("/a/b/deflated.txt");
+			Assert.assertNotNull("Missing deflated entry.", deflatedEntry);
+			Assert.assertEquals("Wrong size.", deflated.length, deflatedEntry.getSize());
+			Assert.assertArrayEquals("Wrong deflated bytes.", deflated, deflatedEntry.getBytes());
+			Assert.assertArrayEquals("Wrong deflated stream.", deflated, readAll(deflatedEntry.getInputStream()));
+
+			Assert.assertNull("Found missing entry.", bundleFile.getEntry("a/missing.txt"));
+			Assert.assertTrue("Missing directory.", bundleFile.containsDir("a/b"));
+			Assert.assertFalse("Found missing directory.", bundleFile.containsDir("c"));
+			Assert.assertNotNull("Missing implied directory entry.", bundleFile.getEntry("a/"));
+			Assert.assertEquals("Wrong entry paths.", sorted("a/b/", "a/stored.txt"), sorted(bundleFile.getEntryPaths("a", false)));
+			Assert.assertEquals("Wrong recursive entry paths.", sorted("a/b/", "a/b/deflated.txt", "a/stored.txt"), sorted(bundleFile.getEntryPaths("a", true)));
+		} finally {
+			bundleFile.close();
+		}
+	}
+
+	@Test
+	public void testLargeEntries() throws IOException {
+		Random random = new Random(7);
+		byte[] large = new byte[4 * 1024 * 1024];
+		random.nextBytes(large);
+		byte[] compressible = new byte[4 * 1024 * 1024];
+		for (int i = 0; i < compressible.length; i++) {
+			compressible[i] = (byte) (i % 31);
+		}
+		File zip = folder.newFile("large.jar");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		try {
+			putStored(out, "large.bin", large);
+			out.putNextEntry(new ZipEntry("compressible.bin"));
+			out.write(compressible);
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+
+		MappedZipBundleFile bundleFile = new MappedZipBundleFile(zip, null, debug);
+		try {
+			Assert.assertArrayEquals("Wrong stored content.", large, bundleFile.getEntry("large.bin").getBytes());
+			Assert.assertArrayEquals("Wrong deflated content.", compressible, readAll(bundleFile.getEntry("compressible.bin").getInputStream()));
+		} finally {
+			bundleFile.close();
+		}
+	}
+
+	@Test
+	public void testZip64() throws IOException {
+		// more than 0xffff entries forces the zip64 format
+		File zip = folder.newFile("zip64.jar");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		try {
+			for (int i = 0; i <= 0xffff; i++) {
+				putStored(out, "e" + i, new byte[0]);
+			}
+		} finally {
+			out.close();
+		}
+		try {
+			new MappedZipBundleFile(zip, null, debug).close();
+			Assert.fail("Zip64 files are not supported.");
+		} catch (IOException e) {
+			// expected; a ZipBundleFile is used instead
+		}
+	}
+
+	@Test
+	public void testCorruptZip() throws IOException {
+		byte[] content = "some content".getBytes("UTF-8");
+		File zip = folder.newFile("corrupt.jar");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		try {
+			putStored(out, "a.txt", content);
+			putStored(out, "b.txt", content);
+		} finally {
+			out.close();
+		}
+		int length = (int) zip.length();
+
+		// not a zip file at all
+		File empty = folder.newFile("empty.jar");
+		assertInvalid(empty);
+
+		// truncated end header
+		File truncated = copy(zip, "truncated.jar", length - 10);
+		assertInvalid(truncated);
+
+		// central directory offset points past the end of the file
+		File badOffset = copy(zip, "badOffset.jar", length);
+		writeInt(badOffset, length - 6, 0x7ffffff0);
+		assertInvalid(badOffset);
+
+		// entry count larger than the central directory
+		File badCount = copy(zip, "badCount.jar", length);
+		writeShort(badCount, length - 12, 100);
+		assertInvalid(badCount);
+
+		// name length of the local header of the first entry points past the end of the file
+		File badLocal = copy(zip, "badLocal.jar", length);
+		writeShort(badLocal, 26, 0xfff0);
+		MappedZipBundleFile bundleFile = new MappedZipBundleFile(badLocal, null, debug);
+		try {
+			BundleEntry entry = bundleFile.getEntry("a.txt");
+			Assert.assertNotNull("Missing entry.", entry);
+			try {
+				entry.getBytes();
+				Assert.fail("Expected an IOException reading a corrupt entry.");
+			} catch (IOException e) {
+				// expected
+			}
+			// the other entry is still readable
+			Assert.assertArrayEquals("Wrong content.", content, bundleFile.getEntry("b.txt").getBytes());
+		} finally {
+			bundleFile.close();
+		}
+	}
+
+	private void assertInvalid(File zip) {
+		try {
+			new MappedZipBundleFile(zip, null, debug).close();
+			Assert.fail("Expected an IOException for " + zip.getName());
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static void putStored(ZipOutputStream out, String name, byte[] content) throws IOException {
+		ZipEntry entry = new ZipEntry(name);
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(content.length);
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		entry.setCrc(crc.getValue());
+		out.putNextEntry(entry);
+		out.write(content);
+		out.closeEntry();
+	}
+
+	private File copy(File zip, String name, int length) throws IOException {
+		File result = folder.newFile(name);
+		RandomAccessFile in = new RandomAccessFile(zip, "r");
+		try {
+			byte[] content = new byte[length];
+			in.readFully(content);
+			FileOutputStream out = new FileOutputStream(result);
+			try {
+				out.write(content);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		return result;
+	}
+
+	private static void writeShort(File file, int pos, int value) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(pos);
+			raf.write(value & 0xff);
+			raf.write((value >> 8) & 0xff);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void writeInt(File file, int pos, int value) throws IOException {
+		writeShort(file, pos, value & 0xffff);
+		writeShort(file, pos + 2, (value >> 16) & 0xffff);
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		return out.toByteArray();
+	}
+
+	private static List<String> sorted(String... paths) {
+		List<String> result = new ArrayList<>();
+		Collections.addAll(result, paths);
+		Collections.sort(result);
+		return result;
+	}
+
+	private static List<String> sorted(Enumeration<String> paths) {
+		List<String> result = Collections.list(paths);
+		Collections.sort(result);
+		return result;
+	}
+}
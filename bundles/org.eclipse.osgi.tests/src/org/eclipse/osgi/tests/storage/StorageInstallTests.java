@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.osgi.container.Module;
+import org.eclipse.osgi.storage.BundleInfo.Generation;
+import org.eclipse.osgi.storage.Storage;
+import org.eclipse.osgi.storage.bundlefile.MappedZipBundleFile;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+
+public class StorageInstallTests extends AbstractStorageTests {
+	private Storage storage;
+
+	@Before
+	public void setUp() throws Exception {
+		Map<String, String> configuration = new HashMap<String, String>();
+		configuration.put(Constants.FRAMEWORK_BSNVERSION, Constants.FRAMEWORK_BSNVERSION_SINGLE);
+		// force the install threads to be used for small batches
+		configuration.put("equinox.install.thread.count", "2"); //$NON-NLS-1$ //$NON-NLS-2$
+		createFramework(folder.newFolder("storage"), configuration).init(); //$NON-NLS-1$
+		storage = getStorage();
+	}
+
+	@Test
+	public void testBulkInstall() throws Exception {
+		BundleContext context = equinox.getBundleContext();
+		Bundle existing = context.installBundle("existing", createBundle("existing.jar", "existing", "1.0.0").toURI().toURL().openStream()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+		Map<String, URLConnection> contents = new LinkedHashMap<String, URLConnection>();
+		contents.put("b1", getConnection(createBundle("b1.jar", "b1", "1.0.0"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		contents.put("existing", getConnection(createBundle("existing2.jar", "existing", "2.0.0"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		contents.put("b2", getConnection(createBundle("b2.jar", "b2", "1.0.0"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		contents.put("b3", getConnection(createBundle("b3.jar", "b3", "1.0.0"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		Map<String, Generation> installed = storage.install(equinox.adapt(Module.class), contents);
+
+		Assert.assertEquals("Wrong locations.", new ArrayList<String>(contents.keySet()), new ArrayList<String>(installed.keySet())); //$NON-NLS-1$
+		Assert.assertEquals("Expected the existing bundle.", existing.getBundleId(), installed.get("existing").getBundleInfo().getBundleId()); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals("Existing bundle changed.", Version.parseVersion("1.0.0"), existing.getVersion()); //$NON-NLS-1$ //$NON-NLS-2$
+		for (String location : Arrays.asList("b1", "b2", "b3")) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			Bundle bundle = context.getBundle(location);
+			Assert.assertNotNull("Missing bundle: " + location, bundle); //$NON-NLS-1$
+			Assert.assertEquals("Wrong bundle id.", bundle.getBundleId(), installed.get(location).getBundleInfo().getBundleId()); //$NON-NLS-1$
+			Assert.assertEquals("Wrong symbolic name.", location, bundle.getSymbolicName()); //$NON-NLS-1$
+			Assert.assertNotNull("Missing bundle entry.", bundle.getEntry("META-INF/MANIFEST.MF")); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	@Test
+	public void testBulkInstallFailure() throws Exception {
+		BundleContext context = equinox.getBundleContext();
+		int bundleCount = context.getBundles().length;
+		List<String> bundleDirs = getBundleDirs();
+
+		Map<String, URLConnection> contents = new LinkedHashMap<String, URLConnection>();
+		contents.put("b1", getConnection(createBundle("b1.jar", "b1", "1.0.0"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		// an invalid bundle version fails the manifest parsing in the middle of the batch
+		contents.put("bad", getConnection(createBundle("bad.jar", "bad", "not.a.version"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		contents.put("b2", getConnection(createBundle("b2.jar", "b2", "1.0.0"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		try {
+			storage.install(equinox.adapt(Module.class), contents);
+			Assert.fail("Expected an install failure."); //$NON-NLS-1$
+		} catch (BundleException e) {
+			// expected
+		}
+		Assert.assertEquals("Wrong number of bundles.", bundleCount, context.getBundles().length); //$NON-NLS-1$
+		for (String location : contents.keySet()) {
+			Assert.assertNull("Unexpected bundle: " + location, context.getBundle(location)); //$NON-NLS-1$
+		}
+		Assert.assertEquals("Staged content was not removed.", bundleDirs, getBundleDirs()); //$NON-NLS-1$
+
+		// a collision between two bundles of the batch fails after all of them are staged
+		contents.clear();
+		contents.put("b1", getConnection(createBundle("b1.jar", "b1", "1.0.0"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		contents.put("b1.copy", getConnection(createBundle("b1.copy.jar", "b1", "1.0.0"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		try {
+			storage.install(equinox.adapt(Module.class), contents);
+			Assert.fail("Expected a collision."); //$NON-NLS-1$
+		} catch (BundleException e) {
+			Assert.assertEquals("Wrong exception type.", BundleException.DUPLICATE_BUNDLE_ERROR, e.getType()); //$NON-NLS-1$
+		}
+		Assert.assertEquals("Wrong number of bundles.", bundleCount, context.getBundles().length); //$NON-NLS-1$
+		Assert.assertEquals("Staged content was not removed.", bundleDirs, getBundleDirs()); //$NON-NLS-1$
+
+		// the failures leave the storage usable
+		contents.clear();
+		contents.put("b1", getConnection(createBundle("b1.jar", "b1", "1.0.0"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		Assert.assertEquals("Wrong number of installs.", 1, storage.install(equinox.adapt(Module.class), contents).size()); //$NON-NLS-1$
+		Assert.assertNotNull("Missing bundle.", context.getBundle("b1")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Test
+	public void testBulkUpdateFailure() throws Exception {
+		BundleContext context = equinox.getBundleContext();
+		Bundle b1 = context.installBundle("b1", createBundle("b1.jar", "b1", "1.0.0").toURI().toURL().openStream()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		Bundle b2 = context.installBundle("b2", createBundle("b2.jar", "b2", "1.0.0").toURI().toURL().openStream()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		Bundle b3 = context.installBundle("b3", createBundle("b3.jar", "b3", "1.0.0").toURI().toURL().openStream()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+		Map<Module, URLConnection> contents = new LinkedHashMap<Module, URLConnection>();
+		contents.put(b1.adapt(Module.class), getConnection(createBundle("b1_v2.jar", "b1", "2.0.0"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		// updating b2 to the name and version of b3 collides in the middle of the batch
+		contents.put(b2.adapt(Module.class), getConnection(createBundle("b2_v2.jar", "b3", "1.0.0"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		contents.put(b3.adapt(Module.class), getConnection(createBundle("b3_v2.jar", "b3", "2.0.0"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		try {
+			storage.update(contents);
+			Assert.fail("Expected a collision."); //$NON-NLS-1$
+		} catch (BundleException e) {
+			Assert.assertEquals("Wrong exception type.", BundleException.DUPLICATE_BUNDLE_ERROR, e.getType()); //$NON-NLS-1$
+		}
+		// the updates before the failure remain
+		Assert.assertEquals("Wrong version.", Version.parseVersion("2.0.0"), b1.getVersion()); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals("Wrong version.", Version.parseVersion("1.0.0"), b2.getVersion()); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals("Wrong symbolic name.", "b2", b2.getSymbolicName()); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals("Wrong version.", Version.parseVersion("1.0.0"), b3.getVersion()); //$NON-NLS-1$ //$NON-NLS-2$
+		// the new content of the modules which were not updated is removed
+		for (Bundle bundle : Arrays.asList(b2, b3)) {
+			File bundleRoot = storage.getFile(Long.toString(bundle.getBundleId()), false);
+			Assert.assertEquals("Staged content was not removed: " + Arrays.toString(bundleRoot.list()), 1, bundleRoot.list().length); //$NON-NLS-1$
+		}
+		b2.update(createBundle("b2_v3.jar", "b2", "3.0.0").toURI().toURL().openStream()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		Assert.assertEquals("Wrong version.", Version.parseVersion("3.0.0"), b2.getVersion()); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Test
+	public void testInstallAsync() throws Exception {
+		BundleContext context = equinox.getBundleContext();
+		Module origin = equinox.adapt(Module.class);
+		Map<String, Future<Generation>> futures = new LinkedHashMap<String, Future<Generation>>();
+		for (int i = 0; i < 10; i++) {
+			String name = "async" + i; //$NON-NLS-1$
+			futures.put(name, storage.installAsync(origin, name, getConnection(createBundle(name + ".jar", name, "1.0.0")))); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		Future<Generation> bad = storage.installAsync(origin, "bad", getConnection(createBundle("bad.jar", "bad", "not.a.version"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		File notAJar = folder.newFile("notAJar.jar"); //$NON-NLS-1$
+		Files.write(notAJar.toPath(), new byte[] {1, 2, 3});
+		Future<Generation> invalid = storage.installAsync(origin, "invalid", getConnection(notAJar)); //$NON-NLS-1$
+
+		for (Map.Entry<String, Future<Generation>> entry : futures.entrySet()) {
+			Generation generation = entry.getValue().get(30, TimeUnit.SECONDS);
+			Bundle bundle = context.getBundle(entry.getKey());
+			Assert.assertNotNull("Missing bundle: " + entry.getKey(), bundle); //$NON-NLS-1$
+			Assert.assertEquals("Wrong bundle id.", bundle.getBundleId(), generation.getBundleInfo().getBundleId()); //$NON-NLS-1$
+			Assert.assertEquals("Wrong symbolic name.", entry.getKey(), bundle.getSymbolicName()); //$NON-NLS-1$
+		}
+		for (Future<Generation> failed : Arrays.asList(bad, invalid)) {
+			try {
+				failed.get(30, TimeUnit.SECONDS);
+				Assert.fail("Expected an install failure."); //$NON-NLS-1$
+			} catch (ExecutionException e) {
+				Assert.assertTrue("Wrong cause: " + e.getCause(), e.getCause() instanceof BundleException); //$NON-NLS-1$
+			}
+		}
+		Assert.assertNull("Unexpected bundle.", context.getBundle("bad")); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertNull("Unexpected bundle.", context.getBundle("invalid")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Test
+	public void testInstallAfterClose() throws Exception {
+		Module origin = equinox.adapt(Module.class);
+		File bundleFile = createBundle("b1.jar", "b1", "1.0.0"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		stop();
+		try {
+			storage.installAsync(origin, "b1", getConnection(bundleFile)); //$NON-NLS-1$
+			Assert.fail("Expected the install to be rejected."); //$NON-NLS-1$
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		Map<String, URLConnection> contents = new LinkedHashMap<String, URLConnection>();
+		contents.put("b1", getConnection(bundleFile)); //$NON-NLS-1$
+		contents.put("b2", getConnection(createBundle("b2.jar", "b2", "1.0.0"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		try {
+			storage.install(origin, contents);
+			Assert.fail("Expected the install to be rejected."); //$NON-NLS-1$
+		} catch (BundleException e) {
+			Assert.assertTrue("Wrong cause: " + e.getCause(), e.getCause() instanceof IllegalStateException); //$NON-NLS-1$
+		}
+	}
+
+	@Test
+	public void testMappedContent() throws Exception {
+		stop();
+		Map<String, String> configuration = new HashMap<String, String>();
+		configuration.put("equinox.bundlefile.mapped", Boolean.TRUE.toString()); //$NON-NLS-1$
+		createFramework(folder.newFolder("mapped"), configuration).init(); //$NON-NLS-1$
+
+		// content copied into the storage area is mapped
+		Bundle b1 = equinox.getBundleContext().installBundle("b1", createBundle("b1.jar", "b1", "1.0.0").toURI().toURL().openStream()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		Generation generation = (Generation) b1.adapt(Module.class).getCurrentRevision().getRevisionInfo();
+		Assert.assertTrue("Content is not mapped.", generation.getBundleFile() instanceof MappedZipBundleFile); //$NON-NLS-1$
+		Assert.assertNotNull("Missing bundle entry.", b1.getEntry("META-INF/MANIFEST.MF")); //$NON-NLS-1$ //$NON-NLS-2$
+
+		// the old generation is deleted or marked for delete if the mapping holds on to its content
+		File oldContent = generation.getContent();
+		b1.update(createBundle("b1_v2.jar", "b1", "2.0.0").toURI().toURL().openStream()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		Assert.assertEquals("Wrong version.", Version.parseVersion("2.0.0"), b1.getVersion()); //$NON-NLS-1$ //$NON-NLS-2$
+		File oldGenerationDir = oldContent.getParentFile();
+		Assert.assertTrue("Old generation not deleted.", !oldGenerationDir.exists() || new File(oldGenerationDir, Storage.DELETE_FLAG).exists()); //$NON-NLS-1$
+	}
+
+	private List<String> getBundleDirs() {
+		List<String> result = new ArrayList<String>();
+		for (String name : storage.getFile("", false).list()) { //$NON-NLS-1$
+			if (name.matches("\\d+")) { //$NON-NLS-1$
+				result.add(name);
+			}
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	private static URLConnection getConnection(File file) throws IOException {
+		return file.toURI().toURL().openConnection();
+	}
+
+	private File createBundle(String fileName, String symbolicName, String version) throws IOException {
+		return createBundle(fileName, headers(symbolicName, Constants.BUNDLE_VERSION, version));
+	}
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.storage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.storage.bundlefile.BundleEntry;
+import org.eclipse.osgi.storage.bundlefile.ZipBundleFile;
+import org.eclipse.osgi.tests.container.dummys.DummyDebugOptions;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ZipBundleFileTests {
+	private static final String[] WITH_DIRS = {"a/", "a/b/", "a/b/c.txt", "a/d.txt", "e.txt"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	private static final String[] WITHOUT_DIRS = {"a/b/c.txt", "a/d.txt", "e.txt"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Debug debug = new Debug(new DummyDebugOptions(Collections.<String, String> emptyMap()));
+
+	@Test
+	public void testGetEntry() throws IOException {
+		for (String[] entries : new String[][] {WITH_DIRS, WITHOUT_DIRS}) {
+			ZipBundleFile bundleFile = createBundleFile(entries);
+			try {
+				BundleEntry entry = bundleFile.getEntry("a/b/c.txt"); //$NON-NLS-1$
+				Assert.assertNotNull("Missing entry.", entry); //$NON-NLS-1$
+				Assert.assertArrayEquals("Wrong content.", "a/b/c.txt".getBytes("UTF-8"), entry.getBytes()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				Assert.assertNotNull("Missing entry with leading slash.", bundleFile.getEntry("/e.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+				Assert.assertNull("Unexpected entry.", bundleFile.getEntry("a/x.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+				Assert.assertNull("Unexpected entry.", bundleFile.getEntry("a/b/c")); //$NON-NLS-1$ //$NON-NLS-2$
+			} finally {
+				bundleFile.close();
+			}
+		}
+	}
+
+	@Test
+	public void testGetDirectoryEntry() throws IOException {
+		for (String[] entries : new String[][] {WITH_DIRS, WITHOUT_DIRS}) {
+			ZipBundleFile bundleFile = createBundleFile(entries);
+			try {
+				// directories are found whether or not the jar has entries for them
+				BundleEntry entry = bundleFile.getEntry("a/b/"); //$NON-NLS-1$
+				Assert.assertNotNull("Missing directory entry.", entry); //$NON-NLS-1$
+				Assert.assertEquals("Wrong directory name.", "a/b/", entry.getName()); //$NON-NLS-1$ //$NON-NLS-2$
+				Assert.assertNotNull("Missing root entry.", bundleFile.getEntry("/")); //$NON-NLS-1$ //$NON-NLS-2$
+				Assert.assertNull("Unexpected directory entry.", bundleFile.getEntry("a/x/")); //$NON-NLS-1$ //$NON-NLS-2$
+
+				Assert.assertTrue("Missing directory.", bundleFile.containsDir("a")); //$NON-NLS-1$ //$NON-NLS-2$
+				Assert.assertTrue("Missing directory.", bundleFile.containsDir("/a/b/")); //$NON-NLS-1$ //$NON-NLS-2$
+				Assert.assertTrue("Missing root directory.", bundleFile.containsDir("")); //$NON-NLS-1$ //$NON-NLS-2$
+				Assert.assertFalse("Unexpected directory.", bundleFile.containsDir("a/d")); //$NON-NLS-1$ //$NON-NLS-2$
+				Assert.assertFalse("Unexpected directory.", bundleFile.containsDir("x")); //$NON-NLS-1$ //$NON-NLS-2$
+			} finally {
+				bundleFile.close();
+			}
+		}
+		// a directory without a trailing slash is only found by its own entry
+		ZipBundleFile bundleFile = createBundleFile(WITH_DIRS);
+		try {
+			BundleEntry entry = bundleFile.getEntry("a/b"); //$NON-NLS-1$
+			Assert.assertNotNull("Missing directory entry.", entry); //$NON-NLS-1$
+			Assert.assertEquals("Wrong directory name.", "a/b/", entry.getName()); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			bundleFile.close();
+		}
+	}
+
+	@Test
+	public void testGetEntryPaths() throws IOException {
+		for (String[] entries : new String[][] {WITH_DIRS, WITHOUT_DIRS}) {
+			ZipBundleFile bundleFile = createBundleFile(entries);
+			try {
+				assertPaths(Arrays.asList("a/", "e.txt"), bundleFile.getEntryPaths("", false)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				assertPaths(Arrays.asList("a/", "e.txt"), bundleFile.getEntryPaths("/", false)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				assertPaths(Arrays.asList("a/b/", "a/d.txt"), bundleFile.getEntryPaths("a", false)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				assertPaths(Arrays.asList("a/b/", "a/d.txt"), bundleFile.getEntryPaths("/a/", false)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				assertPaths(Arrays.asList("a/b/c.txt"), bundleFile.getEntryPaths("a/b", false)); //$NON-NLS-1$ //$NON-NLS-2$
+				Assert.assertNull("Unexpected paths.", bundleFile.getEntryPaths("x", false)); //$NON-NLS-1$ //$NON-NLS-2$
+				Assert.assertNull("Unexpected paths.", bundleFile.getEntryPaths("e.txt", false)); //$NON-NLS-1$ //$NON-NLS-2$
+			} finally {
+				bundleFile.close();
+			}
+		}
+	}
+
+	@Test
+	public void testGetEntryPathsRecurse() throws IOException {
+		for (String[] entries : new String[][] {WITH_DIRS, WITHOUT_DIRS}) {
+			ZipBundleFile bundleFile = createBundleFile(entries);
+			try {
+				assertPaths(Arrays.asList("a/", "a/b/", "a/b/c.txt", "a/d.txt", "e.txt"), bundleFile.getEntryPaths("", true)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+				assertPaths(Arrays.asList("a/b/", "a/b/c.txt", "a/d.txt"), bundleFile.getEntryPaths("a", true)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				Assert.assertNull("Unexpected paths.", bundleFile.getEntryPaths("a/x", true)); //$NON-NLS-1$ //$NON-NLS-2$
+			} finally {
+				bundleFile.close();
+			}
+		}
+	}
+
+	@Test
+	public void testEntriesAfterClose() throws IOException {
+		ZipBundleFile bundleFile = createBundleFile(WITHOUT_DIRS);
+		Assert.assertNotNull("Missing entry.", bundleFile.getEntry("a/d.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+		bundleFile.close();
+
+		// the index is kept; existing entries reopen the zip file
+		Assert.assertNull("Unexpected entry.", bundleFile.getEntry("a/x.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertPaths(Arrays.asList("a/b/", "a/d.txt"), bundleFile.getEntryPaths("a", false)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		BundleEntry entry = bundleFile.getEntry("a/d.txt"); //$NON-NLS-1$
+		Assert.assertNotNull("Missing entry.", entry); //$NON-NLS-1$
+		Assert.assertArrayEquals("Wrong content.", "a/d.txt".getBytes("UTF-8"), entry.getBytes()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		bundleFile.close();
+	}
+
+	private static void assertPaths(List<String> expected, Enumeration<String> paths) {
+		Assert.assertNotNull("No paths found.", paths); //$NON-NLS-1$
+		Assert.assertEquals("Wrong paths.", expected, Collections.list(paths)); //$NON-NLS-1$
+	}
+
+	/*
+	 * Creates a bundle file for a zip file with the entries; the content of a file entry is its name.
+	 */
+	private ZipBundleFile createBundleFile(String[] entries) throws IOException {
+		File zip = folder.newFile();
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		try {
+			for (String entry : entries) {
+				out.putNextEntry(new ZipEntry(entry));
+				if (!entry.endsWith("/")) { //$NON-NLS-1$
+					out.write(entry.getBytes("UTF-8")); //$NON-NLS-1$
+				}
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+		return new ZipBundleFile(zip, null, null, debug);
+	}
+}
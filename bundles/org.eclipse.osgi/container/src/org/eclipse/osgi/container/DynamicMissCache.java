@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.container;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of failed dynamic package resolutions keyed by the requiring revision
+ * and the package name.
+ * <p>
+ * Packages for which no capability is found are remembered by the wiring of the
+ * requiring revision until a capability for the package is added.  Other failures,
+ * for example because of uses constraints or unresolvable providers, are recorded
+ * by this cache along with the revisions timestamp of the module database the
+ * failed resolution was computed from.  Any install, update, uninstall or resolve
+ * operation changes the timestamp which drops all the recorded failures, because
+ * a new or newly resolved exporter may allow a dynamic resolution to succeed.
+ * The number of recorded failures is bounded; all failures are dropped once the
+ * bound is reached.
+ *
+ * @ThreadSafe
+ */
+final class DynamicMissCache {
+	private static final int MAX_SIZE = 4096;
+
+	private final ConcurrentMap<MissKey, Boolean> failures = new ConcurrentHashMap<>();
+	private volatile long timestamp = -1;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Returns true if a dynamic resolution of the package for the requirer is
+	 * known to fail at the specified timestamp.
+	 * @param wiring the wiring of the requiring revision
+	 * @param packageName the package name
+	 * @param currentTimestamp the current revisions timestamp of the module database
+	 * @return true if the dynamic resolution is known to fail
+	 */
+	boolean isMiss(ModuleWiring wiring, String packageName, long currentTimestamp) {
+		if (wiring.isDynamicPackageMiss(packageName) || (currentTimestamp == timestamp && failures.containsKey(new MissKey(wiring.getRevision(), packageName)))) {
+			hits.incrementAndGet();
+			return true;
+		}
+		misses.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Records a failed dynamic resolution of the package for the requirer.  The failure
+	 * is ignored if the module database has changed since the specified timestamp.
+	 * @param requirer the requiring revision
+	 * @param packageName the package name
+	 * @param resolveTimestamp the revisions timestamp the failed resolution was computed from
+	 * @param currentTimestamp the current revisions timestamp of the module database
+	 */
+	void addMiss(ModuleRevision requirer, String packageName, long resolveTimestamp, long currentTimestamp) {
+		if (resolveTimestamp != currentTimestamp) {
+			return;
+		}
+		synchronized (this) {
+			if (resolveTimestamp != timestamp || failures.size() >= MAX_SIZE) {
+				failures.clear();
+				timestamp = resolveTimestamp;
+			}
+			failures.put(new MissKey(requirer, packageName), Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * Returns the number of lookups which found a failed dynamic resolution.
+	 * @return the number of cache hits
+	 */
+	long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups which did not find a failed dynamic resolution.
+	 * @return the number of cache misses
+	 */
+	long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of failures currently recorded.  The failures may
+	 * include failures recorded for a timestamp which is no longer current.
+	 * @return the number of failures recorded
+	 */
+	int size() {
+		return failures.size();
+	}
+
+	private static final class MissKey {
+		private final ModuleRevision requirer;
+		private final String packageName;
+		private final int hash;
+
+		MissKey(ModuleRevision requirer, String packageName) {
+			this.requirer = requirer;
+			this.packageName = packageName;
+			this.hash = 31 * System.identityHashCode(requirer) + packageName.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof MissKey)) {
+				return false;
+			}
+			MissKey other = (MissKey) obj;
+			return requirer == other.requirer && packageName.equals(other.packageName);
+		}
+	}
+}
@@ -17,15 +17,18 @@ import java.io.Closeable;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Semaphore;
@@ -122,6 +125,11 @@ public final class ModuleContainer implements DebugOptionsListener {
 	 */
 	private final ModuleResolver moduleResolver;
 
+	/**
+	 * Remembers failed dynamic package resolutions until the revisions or wirings change
+	 */
+	private final DynamicMissCache dynamicMissCache = new DynamicMissCache();
+
 	/**
 	 * Holds the system module while it is being refreshed
 	 */
@@ -270,32 +278,14 @@ public final class ModuleContainer implements DebugOptionsListener {
 				if (existingLocation == null) {
 					// Collect existing current revisions with the same name and version as the revision we want to install
 					// This is to perform the collision check below
-					List<ModuleCapability> sameIdentity = moduleDatabase.findCapabilities(getIdentityRequirement(name, builder.getVersion()));
-					if (!sameIdentity.isEmpty()) {
-						collisionCandidates = new ArrayList<>(1);
-						for (ModuleCapability identity : sameIdentity) {
-							ModuleRevision equinoxRevision = identity.getRevision();
-							if (!equinoxRevision.isCurrent())
-								continue; // only pay attention to current revisions
-							// need to prevent duplicates here; this is in case a revisions object contains multiple revision objects.
-							if (!collisionCandidates.contains(equinoxRevision.getRevisions().getModule()))
-								collisionCandidates.add(equinoxRevision.getRevisions().getModule());
-						}
-					}
+					collisionCandidates = getCollisionCandidates(null, name, builder.getVersion());
 				}
 			} finally {
 				moduleDatabase.readUnlock();
 			}
 			// Check that the existing location is visible from the origin module
 			if (existingLocation != null) {
-				if (origin != null) {
-					Bundle bundle = origin.getBundle();
-					BundleContext context = bundle == null ? null : bundle.getBundleContext();
-					if (context != null && context.getBundle(existingLocation.getId()) == null) {
-						Bundle b = existingLocation.getBundle();
-						throw new BundleException(NLS.bind(Msg.ModuleContainer_NameCollisionWithLocation, new Object[] {b.getSymbolicName(), b.getVersion(), location}), BundleException.REJECTED_BY_HOOK);
-					}
-				}
+				checkExistingLocation(origin, existingLocation, location);
 				return existingLocation;
 			}
 			// Check that the bundle does not collide with other bundles with the same name and version
@@ -320,6 +310,164 @@ public final class ModuleContainer implements DebugOptionsListener {
 		}
 	}
 
+	/**
+	 * Installs new modules for each of the specified locations.  This is equivalent
+	 * to calling {@link #install(Module, String, ModuleRevisionBuilder, Object)} for
+	 * each location except that all of the new modules are added to the container
+	 * with a single update of the module database.
+	 * <p>
+	 * If a module is already installed at one of the locations then that module is
+	 * returned for the location and the builder for the location is ignored.  The
+	 * new modules are either all installed or none of them are installed.
+	 * @param origin the module performing the install, may be {@code null}.
+	 * @param builders the builders used to create the new modules, keyed by location.
+	 * @param revisionInfos the revision infos for the new revisions, keyed by location.
+	 * May be {@code null}.
+	 * @return the installed modules keyed by location in the iteration order of the builders
+	 * @throws BundleException if some error occurs installing the modules
+	 * @since 3.14
+	 */
+	public Map<String, Module> install(Module origin, Map<String, ModuleRevisionBuilder> builders, Map<String, ?> revisionInfos) throws BundleException {
+		Map<String, ModuleRevisionBuilder> adaptedBuilders = new LinkedHashMap<>(builders.size());
+		// lock the locations and names in a consistent order
+		Set<String> names = new TreeSet<>();
+		for (Map.Entry<String, ModuleRevisionBuilder> entry : builders.entrySet()) {
+			ModuleRevisionBuilder builder = entry.getValue();
+			long id = builder.getId();
+			Object revisionInfo = revisionInfos == null ? null : revisionInfos.get(entry.getKey());
+			ModuleRevisionBuilder adaptBuilder = getAdaptor().adaptModuleRevisionBuilder(ModuleEvent.INSTALLED, origin, builder, revisionInfo);
+			if (adaptBuilder != null) {
+				// be sure to restore the id from the original builder
+				adaptBuilder.setInternalId(id);
+				builder = adaptBuilder;
+			}
+			adaptedBuilders.put(entry.getKey(), builder);
+			if (builder.getSymbolicName() != null) {
+				names.add(builder.getSymbolicName());
+			}
+		}
+		Set<String> locations = new TreeSet<>(adaptedBuilders.keySet());
+		List<String> lockedLocations = new ArrayList<>(locations.size());
+		List<String> lockedNames = new ArrayList<>(names.size());
+		try {
+			// Attempt to lock the locations and names
+			try {
+				for (String location : locations) {
+					if (!locationLocks.tryLock(location, 5, TimeUnit.SECONDS)) {
+						throw new BundleException("Failed to obtain location lock for installation: " + location, BundleException.STATECHANGE_ERROR, new ThreadInfoReport(locationLocks.getLockInfo(location))); //$NON-NLS-1$
+					}
+					lockedLocations.add(location);
+				}
+				for (String name : names) {
+					if (!nameLocks.tryLock(name, 5, TimeUnit.SECONDS)) {
+						throw new BundleException("Failed to obtain symbolic name lock for installation: " + name, BundleException.STATECHANGE_ERROR, new ThreadInfoReport(nameLocks.getLockInfo(name))); //$NON-NLS-1$
+					}
+					lockedNames.add(name);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new BundleException("Failed to obtain id locks for installation.", BundleException.STATECHANGE_ERROR, e); //$NON-NLS-1$
+			}
+
+			Map<String, Module> existingLocations = new HashMap<>();
+			Map<String, Collection<Module>> collisionCandidates = new HashMap<>();
+			moduleDatabase.readLock();
+			try {
+				for (Map.Entry<String, ModuleRevisionBuilder> entry : adaptedBuilders.entrySet()) {
+					Module existingLocation = moduleDatabase.getModule(entry.getKey());
+					if (existingLocation != null) {
+						existingLocations.put(entry.getKey(), existingLocation);
+					} else {
+						ModuleRevisionBuilder builder = entry.getValue();
+						collisionCandidates.put(entry.getKey(), getCollisionCandidates(null, builder.getSymbolicName(), builder.getVersion()));
+					}
+				}
+			} finally {
+				moduleDatabase.readUnlock();
+			}
+
+			Map<String, ModuleRevisionBuilder> toInstall = new LinkedHashMap<>();
+			Set<List<Object>> installingIdentities = new HashSet<>();
+			for (Map.Entry<String, ModuleRevisionBuilder> entry : adaptedBuilders.entrySet()) {
+				String location = entry.getKey();
+				Module existingLocation = existingLocations.get(location);
+				if (existingLocation != null) {
+					// Check that the existing location is visible from the origin module
+					checkExistingLocation(origin, existingLocation, location);
+					continue;
+				}
+				ModuleRevisionBuilder builder = entry.getValue();
+				// Check that the module does not collide with other modules with the same name and version
+				// This is from the perspective of the origin module
+				Collection<Module> candidates = collisionCandidates.get(location);
+				if (origin != null && !candidates.isEmpty()) {
+					adaptor.getModuleCollisionHook().filterCollisions(ModuleCollisionHook.INSTALLING, origin, candidates);
+				}
+				// Also check for modules with the same name and version in this install
+				String name = builder.getSymbolicName();
+				if (!candidates.isEmpty() || (name != null && !installingIdentities.add(Arrays.<Object> asList(name, builder.getVersion())))) {
+					throw new BundleException(NLS.bind(Msg.ModuleContainer_NameCollision, name, builder.getVersion()), BundleException.DUPLICATE_BUNDLE_ERROR);
+				}
+				toInstall.put(location, builder);
+			}
+
+			Map<String, Module> installed = moduleDatabase.install(toInstall, revisionInfos);
+
+			Map<String, Module> result = new LinkedHashMap<>(adaptedBuilders.size());
+			for (String location : adaptedBuilders.keySet()) {
+				Module module = installed.get(location);
+				if (module != null) {
+					adaptor.publishModuleEvent(ModuleEvent.INSTALLED, module, origin);
+				} else {
+					module = existingLocations.get(location);
+				}
+				result.put(location, module);
+			}
+			return result;
+		} finally {
+			for (String location : lockedLocations)
+				locationLocks.unlock(location);
+			for (String name : lockedNames)
+				nameLocks.unlock(name);
+		}
+	}
+
+	private void checkExistingLocation(Module origin, Module existingLocation, String location) throws BundleException {
+		if (origin != null) {
+			Bundle bundle = origin.getBundle();
+			BundleContext context = bundle == null ? null : bundle.getBundleContext();
+			if (context != null && context.getBundle(existingLocation.getId()) == null) {
+				Bundle b = existingLocation.getBundle();
+				throw new BundleException(NLS.bind(Msg.ModuleContainer_NameCollisionWithLocation, new Object[] {b.getSymbolicName(), b.getVersion(), location}), BundleException.REJECTED_BY_HOOK);
+			}
+		}
+	}
+
+	/**
+	 * Returns the modules with a current revision with the specified name and version.
+	 * The database read lock must be held when calling this method.
+	 * @param updating the module being updated which is excluded, may be {@code null}
+	 */
+	private Collection<Module> getCollisionCandidates(Module updating, String name, Version version) {
+		List<ModuleCapability> sameIdentity = moduleDatabase.findCapabilities(getIdentityRequirement(name, version));
+		if (sameIdentity.isEmpty()) {
+			return Collections.emptyList();
+		}
+		Collection<Module> collisionCandidates = new ArrayList<>(1);
+		for (ModuleCapability identity : sameIdentity) {
+			ModuleRevision equinoxRevision = identity.getRevision();
+			if (!equinoxRevision.isCurrent())
+				continue; // only pay attention to current revisions
+			Module m = equinoxRevision.getRevisions().getModule();
+			if (m.equals(updating))
+				continue; // don't worry about the updating modules revisions
+			// need to prevent duplicates here; this is in case a revisions object contains multiple revision objects.
+			if (!collisionCandidates.contains(m))
+				collisionCandidates.add(m);
+		}
+		return collisionCandidates;
+	}
+
 	/**
 	 * Updates the specified module with a new revision.  The specified
 	 * builder is used to create a new {@link ModuleRevision revision} 
@@ -357,22 +505,7 @@ public final class ModuleContainer implements DebugOptionsListener {
 			try {
 				// Collect existing bundles with the same name and version as the bundle we want to install
 				// This is to perform the collision check below
-				List<ModuleCapability> sameIdentity = moduleDatabase.findCapabilities(getIdentityRequirement(name, builder.getVersion()));
-				if (!sameIdentity.isEmpty()) {
-					collisionCandidates = new ArrayList<>(1);
-					for (ModuleCapability identity : sameIdentity) {
-						ModuleRevision equinoxRevision = identity.getRevision();
-						if (!equinoxRevision.isCurrent())
-							continue;
-						Module m = equinoxRevision.getRevisions().getModule();
-						if (m.equals(module))
-							continue; // don't worry about the updating modules revisions
-						// need to prevent duplicates here; this is in case a revisions object contains multiple revision objects.
-						if (!collisionCandidates.contains(m))
-							collisionCandidates.add(m);
-					}
-				}
-
+				collisionCandidates = getCollisionCandidates(module, name, builder.getVersion());
 			} finally {
 				moduleDatabase.readUnlock();
 			}
@@ -567,6 +700,16 @@ public final class ModuleContainer implements DebugOptionsListener {
 		Map<ModuleRevision, ModuleWiring> deltaWiring;
 		Collection<Module> modulesResolved;
 		long timestamp;
+		moduleDatabase.readLock();
+		try {
+			// avoid the resolution lock if the dynamic resolution is known to fail
+			ModuleWiring wiring = revision.getWiring();
+			if (wiring == null || dynamicMissCache.isMiss(wiring, dynamicPkgName, moduleDatabase.getRevisionsTimestamp())) {
+				return null;
+			}
+		} finally {
+			moduleDatabase.readUnlock();
+		}
 		try (Permits resolutionPermits = _resolutionLock.acquire(ResolutionLock.MAX_RESOLUTION_PERMITS)) {
 			do {
 				result = null;
@@ -638,6 +781,9 @@ public final class ModuleContainer implements DebugOptionsListener {
 							// save the miss for the package name
 							wiring.addDynamicPackageMiss(dynamicPkgName);
 						}
+					} else {
+						// save the failure until the revisions or wirings change
+						dynamicMissCache.addMiss(revision, dynamicPkgName, timestamp, moduleDatabase.getRevisionsTimestamp());
 					}
 					return null; // nothing to do
 				}
@@ -659,6 +805,29 @@ public final class ModuleContainer implements DebugOptionsListener {
 		return result;
 	}
 
+	/**
+	 * Returns the number of dynamic package resolution requests which were answered
+	 * without resolving because a previous dynamic resolution of the package failed
+	 * and the revisions and wirings did not change since.
+	 * @return the number of dynamic package resolution requests known to fail
+	 * @see #resolveDynamic(String, ModuleRevision)
+	 * @since 3.14
+	 */
+	public long getDynamicMissCacheHits() {
+		return dynamicMissCache.getHits();
+	}
+
+	/**
+	 * Returns the number of dynamic package resolution requests for resolved revisions
+	 * which were not known to fail.
+	 * @return the number of dynamic package resolution requests not known to fail
+	 * @see #resolveDynamic(String, ModuleRevision)
+	 * @since 3.14
+	 */
+	public long getDynamicMissCacheMisses() {
+		return dynamicMissCache.getMisses();
+	}
+
 	private ModuleWire findExistingDynamicWire(ModuleWiring wiring, String dynamicPkgName) {
 		if (wiring == null) {
 			return null;
@@ -801,7 +970,9 @@ public final class ModuleContainer implements DebugOptionsListener {
 					ModuleWiring current = wiringCopy.get(deltaEntry.getKey());
 					if (current != null) {
 						// need to update the provided capabilities, provided and required wires for currently resolved
-						current.setCapabilities(deltaEntry.getValue().getModuleCapabilities(null));
+						List<ModuleCapability> capabilities = deltaEntry.getValue().getModuleCapabilities(null);
+						moduleResolver.updatingWiring(current, capabilities);
+						current.setCapabilities(capabilities);
 						current.setProvidedWires(deltaEntry.getValue().getProvidedModuleWires(null));
 						current.setRequiredWires(deltaEntry.getValue().getRequiredModuleWires(null));
 						deltaEntry.setValue(current); // set the real wiring into the delta
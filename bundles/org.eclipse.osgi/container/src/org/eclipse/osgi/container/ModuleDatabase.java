@@ -25,6 +25,8 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -37,7 +39,7 @@ import org.eclipse.osgi.container.Module.State;
 import org.eclipse.osgi.container.ModuleContainerAdaptor.ContainerEvent;
 import org.eclipse.osgi.container.ModuleRevisionBuilder.GenericInfo;
 import org.eclipse.osgi.container.namespaces.EquinoxModuleDataNamespace;
-import org.eclipse.osgi.framework.util.ObjectPool;
+import org.eclipse.osgi.internal.container.AttributeInterner;
 import org.eclipse.osgi.internal.container.Capabilities;
 import org.eclipse.osgi.internal.container.ComputeNodeOrder;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
@@ -139,6 +141,47 @@ public class ModuleDatabase {
 	 */
 	private final ReentrantReadWriteLock monitor = new ReentrantReadWriteLock(false);
 
+	/**
+	 * Guards the changes recorded since this database was last stored.
+	 * Stores only hold the read lock so the changes need their own monitor.
+	 */
+	private final Object changesMonitor = new Object();
+
+	/**
+	 * The ids of the modules which were installed or updated since this
+	 * database was last stored.
+	 */
+	/* @GuardedBy("changesMonitor") */
+	private final Set<Long> changedRevisions = new HashSet<>();
+
+	/**
+	 * The ids of the modules which were uninstalled since this database
+	 * was last stored.
+	 */
+	/* @GuardedBy("changesMonitor") */
+	private final Set<Long> removedModules = new HashSet<>();
+
+	/**
+	 * The ids of the modules which had their settings or start level
+	 * changed since this database was last stored.
+	 */
+	/* @GuardedBy("changesMonitor") */
+	private final Set<Long> changedSettings = new HashSet<>();
+
+	/**
+	 * The revisions which had their wiring added or updated since this database
+	 * was last stored.
+	 */
+	/* @GuardedBy("changesMonitor") */
+	private final Set<ModuleRevision> changedWirings = new HashSet<>();
+
+	/**
+	 * Indicates that wirings were removed or not stored since this database was
+	 * last stored; the next changes must include all of the wirings.
+	 */
+	/* @GuardedBy("changesMonitor") */
+	private boolean allWiringsChanged = false;
+
 	static enum Sort {
 		BY_DEPENDENCY, BY_START_LEVEL, BY_ID;
 		/**
@@ -233,6 +276,8 @@ public class ModuleDatabase {
 			long currentTime = System.currentTimeMillis();
 			module.setlastModified(currentTime);
 			setSystemLastModified(currentTime);
+			// recorded first; incrementing the timestamps may save the database
+			revisionChanged(id);
 			incrementTimestamps(true);
 			return module;
 		} finally {
@@ -240,6 +285,63 @@ public class ModuleDatabase {
 		}
 	}
 
+	/**
+	 * Installs new revisions using the specified builders keyed by location.
+	 * All of the new modules are added with a single increment of the timestamps.
+	 * <p>
+	 * A write operation protected by the {@link #writeLock() write} lock.
+	 * @param builders the builders to use to create the new revisions keyed by location
+	 * @param revisionInfos the revision infos for the new revisions keyed by location, may be {@code null}.
+	 * @return the installed modules keyed by location
+	 */
+	final Map<String, Module> install(Map<String, ModuleRevisionBuilder> builders, Map<String, ?> revisionInfos) {
+		writeLock();
+		try {
+			// assign and check all the ids before loading any of the modules
+			Map<String, Long> ids = new HashMap<>(builders.size());
+			for (Map.Entry<String, ModuleRevisionBuilder> entry : builders.entrySet()) {
+				String location = entry.getKey();
+				long id = Constants.SYSTEM_BUNDLE_LOCATION.equals(location) ? 0 : entry.getValue().getId();
+				if (id == -1) {
+					// the id is not set by the builder; get and increment the next ID
+					id = getAndIncrementNextId();
+				}
+				if (getModule(id) != null) {
+					throw new IllegalStateException("Duplicate module id: " + id + " used by module: " + getModule(id)); //$NON-NLS-1$//$NON-NLS-2$
+				}
+				if (ids.containsValue(id)) {
+					throw new IllegalStateException("Duplicate module id: " + id); //$NON-NLS-1$
+				}
+				if (modulesByLocations.containsKey(location)) {
+					throw new IllegalArgumentException("Location is already used: " + location); //$NON-NLS-1$
+				}
+				ids.put(location, id);
+			}
+
+			Map<String, Module> result = new LinkedHashMap<>(builders.size());
+			long currentTime = System.currentTimeMillis();
+			for (Map.Entry<String, ModuleRevisionBuilder> entry : builders.entrySet()) {
+				String location = entry.getKey();
+				ModuleRevisionBuilder builder = entry.getValue();
+				long id = ids.get(location);
+				int startlevel = Constants.SYSTEM_BUNDLE_LOCATION.equals(location) ? 0 : getInitialModuleStartLevel();
+				EnumSet<Settings> settings = getActivationPolicySettings(builder);
+				Object revisionInfo = revisionInfos == null ? null : revisionInfos.get(location);
+				Module module = load(location, builder, revisionInfo, id, settings, startlevel);
+				module.setlastModified(currentTime);
+				revisionChanged(id);
+				result.put(location, module);
+			}
+			if (!result.isEmpty()) {
+				setSystemLastModified(currentTime);
+				incrementTimestamps(true);
+			}
+			return result;
+		} finally {
+			writeUnlock();
+		}
+	}
+
 	private EnumSet<Settings> getActivationPolicySettings(ModuleRevisionBuilder builder) {
 		// do not do this for fragment bundles
 		if ((builder.getTypes() & BundleRevision.TYPE_FRAGMENT) != 0) {
@@ -321,6 +423,7 @@ public class ModuleDatabase {
 			long currentTime = System.currentTimeMillis();
 			module.setlastModified(currentTime);
 			setSystemLastModified(currentTime);
+			moduleRemoved(module.getId());
 			incrementTimestamps(true);
 		} finally {
 			writeUnlock();
@@ -354,6 +457,7 @@ public class ModuleDatabase {
 			long currentTime = System.currentTimeMillis();
 			module.setlastModified(currentTime);
 			setSystemLastModified(currentTime);
+			revisionChanged(module.getId());
 			incrementTimestamps(true);
 		} finally {
 			writeUnlock();
@@ -420,6 +524,8 @@ public class ModuleDatabase {
 				for (ModuleWiring moduleWiring : toRemoveWirings) {
 					moduleWiring.invalidate();
 				}
+				// the provided wires of the remaining wirings changed also
+				allWiringsChanged();
 			}
 		}
 	}
@@ -522,6 +628,7 @@ public class ModuleDatabase {
 		try {
 			wirings.clear();
 			wirings.putAll(newWiring);
+			allWiringsChanged();
 			incrementTimestamps(true);
 		} finally {
 			writeUnlock();
@@ -540,6 +647,7 @@ public class ModuleDatabase {
 		writeLock();
 		try {
 			wirings.putAll(deltaWiring);
+			wiringsChanged(deltaWiring.keySet());
 			incrementTimestamps(true);
 		} finally {
 			writeUnlock();
@@ -758,6 +866,48 @@ public class ModuleDatabase {
 		adaptor.updatedDatabase();
 	}
 
+	private void revisionChanged(long id) {
+		synchronized (changesMonitor) {
+			changedRevisions.add(id);
+		}
+	}
+
+	private void moduleRemoved(long id) {
+		synchronized (changesMonitor) {
+			changedRevisions.remove(id);
+			changedSettings.remove(id);
+			removedModules.add(id);
+		}
+	}
+
+	private void settingsChanged(long id) {
+		synchronized (changesMonitor) {
+			changedSettings.add(id);
+		}
+	}
+
+	private void wiringsChanged(Collection<ModuleRevision> revisions) {
+		synchronized (changesMonitor) {
+			changedWirings.addAll(revisions);
+		}
+	}
+
+	private void allWiringsChanged() {
+		synchronized (changesMonitor) {
+			allWiringsChanged = true;
+		}
+	}
+
+	private void clearChanges() {
+		synchronized (changesMonitor) {
+			changedRevisions.clear();
+			removedModules.clear();
+			changedSettings.clear();
+			changedWirings.clear();
+			allWiringsChanged = false;
+		}
+	}
+
 	private void setSystemLastModified(long currentTime) {
 		// sanity check
 		checkWrite();
@@ -881,12 +1031,90 @@ public class ModuleDatabase {
 	public final void store(DataOutputStream out, boolean persistWirings) throws IOException {
 		readLock();
 		try {
-			Persistence.store(this, out, persistWirings);
+			clearChanges();
+			if (!Persistence.store(this, out, persistWirings)) {
+				// the next changes must include all of the wirings
+				allWiringsChanged();
+			}
 		} finally {
 			readUnlock();
 		}
 	}
 
+	/**
+	 * Writes the changes made to this database since it was last stored in a format
+	 * suitable for using the {@link #loadChanges(DataInputStream)} method.  Only the
+	 * modules which have been installed, updated or uninstalled, the modules which
+	 * have had their settings or start level changed and the wirings which have been
+	 * added or updated are written.  All of the wirings are written if any wiring was
+	 * removed.  As with {@link #store(DataOutputStream, boolean)} no wirings are written
+	 * if there are {@link #getRemovalPending() removal pending} revisions.  After this
+	 * method returns the changes are considered stored and are not written again by
+	 * the next call to this method.
+	 * <p>
+	 * This method acquires the {@link #readLock() read} lock while writing the
+	 * changes.
+	 * <p>
+	 * After the changes have been written, the output stream is flushed.
+	 * The output stream remains open after this method returns.
+	 * @param out the data output stream.
+	 * @throws IOException if writing the changes to the specified output stream throws an IOException
+	 * @since 3.14
+	 */
+	public final void storeChanges(DataOutputStream out) throws IOException {
+		readLock();
+		try {
+			Set<Long> unload;
+			Set<Long> revisions;
+			Set<Long> settings;
+			Collection<ModuleRevision> changedWiringRevisions;
+			synchronized (changesMonitor) {
+				unload = new HashSet<>(removedModules);
+				unload.addAll(changedRevisions);
+				revisions = new HashSet<>(changedRevisions);
+				settings = new HashSet<>(changedSettings);
+				// the system module last modified changes along with every other module
+				settings.add(Long.valueOf(0));
+				settings.removeAll(changedRevisions);
+				changedWiringRevisions = allWiringsChanged ? null : new ArrayList<>(changedWirings);
+			}
+			clearChanges();
+			if (!Persistence.storeChanges(this, out, unload, revisions, settings, changedWiringRevisions)) {
+				// the wirings were dropped; the next changes must include all of them
+				allWiringsChanged();
+			}
+		} finally {
+			readUnlock();
+		}
+	}
+
+	/**
+	 * Applies changes written by the {@link #storeChanges(DataOutputStream)} method
+	 * to this database.  The changes must be loaded in the order they were written
+	 * and after this database has been {@link #load(DataInputStream) loaded} from the
+	 * data the changes were written against.  The wirings included in the changes
+	 * are added or updated.  If the changes were written while there were removal
+	 * pending revisions then all of the loaded wirings are discarded.
+	 * <p>
+	 * Since this method modifies this database it is considered a write operation.
+	 * This method acquires the {@link #writeLock() write} lock while loading
+	 * the changes into this database.
+	 * <p>
+	 * The specified stream remains open after this method returns.
+	 * @param in the data input stream.
+	 * @throws IOException if an error occurred when reading from the input stream.
+	 * @since 3.14
+	 */
+	public final void loadChanges(DataInputStream in) throws IOException {
+		writeLock();
+		try {
+			Persistence.loadChanges(this, in);
+			clearChanges();
+		} finally {
+			writeUnlock();
+		}
+	}
+
 	/**
 	 * Loads information into this database from the input data stream.  This data
 	 * base must be empty and never been modified (the {@link #getRevisionsTimestamp() timestamp} is zero).
@@ -908,6 +1136,8 @@ public class ModuleDatabase {
 			if (allTimeStamp.get() != constructionTime)
 				throw new IllegalStateException("Can only load into a empty database."); //$NON-NLS-1$
 			Persistence.load(this, in);
+			// loading the wirings is not a change
+			clearChanges();
 		} finally {
 			writeUnlock();
 		}
@@ -919,6 +1149,7 @@ public class ModuleDatabase {
 			EnumSet<Settings> existing = moduleSettings.get(module.getId());
 			if (!settings.equals(existing)) {
 				moduleSettings.put(module.getId(), EnumSet.copyOf(settings));
+				settingsChanged(module.getId());
 				incrementTimestamps(false);
 			}
 		} finally {
@@ -931,6 +1162,7 @@ public class ModuleDatabase {
 		try {
 			module.checkValid();
 			module.storeStartLevel(startlevel);
+			settingsChanged(module.getId());
 			incrementTimestamps(false);
 		} finally {
 			writeUnlock();
@@ -998,26 +1230,307 @@ public class ModuleDatabase {
 			}
 		}
 
-		public static void store(ModuleDatabase moduleDatabase, DataOutputStream out, boolean persistWirings) throws IOException {
+		public static boolean store(ModuleDatabase moduleDatabase, DataOutputStream out, boolean persistWirings) throws IOException {
 			out.writeInt(VERSION);
 			out.writeLong(moduleDatabase.getRevisionsTimestamp());
 			out.writeLong(moduleDatabase.getTimestamp());
 			out.writeLong(moduleDatabase.getNextId());
 			out.writeInt(moduleDatabase.getInitialModuleStartLevel());
 
+			Map<ModuleRevision, ModuleWiring> wirings = moduleDatabase.wirings;
+			Map<Object, Integer> objectTable = writeModules(moduleDatabase.getModules(), wirings.values(), moduleDatabase, out);
+
+			Collection<ModuleRevision> removalPendings = moduleDatabase.getRemovalPending();
+			// only persist wirings if there are no removals pending
+			persistWirings &= removalPendings.isEmpty();
+			out.writeBoolean(persistWirings);
+			if (!persistWirings) {
+				return false;
+			}
+
+			// prime the object table with all the required wires which reference the modules
+			out.writeInt(wirings.size());
+			for (ModuleWiring wiring : wirings.values()) {
+				List<ModuleWire> requiredWires = wiring.getPersistentRequiredWires();
+				out.writeInt(requiredWires.size());
+				for (ModuleWire wire : requiredWires) {
+					writeWire(wire, out, objectTable);
+				}
+			}
+
+			// now write all the info about each wiring using only indexes from the objectTable
+			for (ModuleWiring wiring : wirings.values()) {
+				writeWiring(wiring, out, objectTable);
+			}
+
+			out.flush();
+			return true;
+		}
+
+		/*
+		 * Returns false if the wirings were not written because of removal pending revisions.
+		 * The changed wiring revisions are null if all of the wirings are to be written.
+		 */
+		public static boolean storeChanges(ModuleDatabase moduleDatabase, DataOutputStream out, Collection<Long> unload, Collection<Long> revisions, Collection<Long> settings, Collection<ModuleRevision> changedWiringRevisions) throws IOException {
+			out.writeInt(VERSION);
+			out.writeLong(moduleDatabase.getRevisionsTimestamp());
+			out.writeLong(moduleDatabase.getTimestamp());
+			out.writeLong(moduleDatabase.getNextId());
+			out.writeInt(moduleDatabase.getInitialModuleStartLevel());
+
+			// the ids of the modules to remove before loading the changed modules
+			out.writeInt(unload.size());
+			for (Long id : unload) {
+				out.writeLong(id);
+			}
+
+			// only persist wirings if there are no removals pending
+			boolean persistWirings = moduleDatabase.getRemovalPending().isEmpty();
+			Collection<ModuleWiring> wirings;
+			if (!persistWirings) {
+				wirings = Collections.emptyList();
+			} else if (changedWiringRevisions == null) {
+				wirings = moduleDatabase.wirings.values();
+			} else {
+				wirings = new ArrayList<>(changedWiringRevisions.size());
+				for (ModuleRevision revision : changedWiringRevisions) {
+					ModuleWiring wiring = moduleDatabase.wirings.get(revision);
+					if (wiring != null) {
+						wirings.add(wiring);
+					}
+				}
+			}
+
+			// the installed and updated modules
+			List<Module> modules = new ArrayList<>(revisions.size());
+			for (Long id : revisions) {
+				Module module = moduleDatabase.modulesById.get(id);
+				if (module != null && module.getCurrentRevision() != null) {
+					modules.add(module);
+				}
+			}
+			Map<Object, Integer> objectTable = writeModules(modules, wirings, moduleDatabase, out);
+
+			// the modules with only settings or start level changes
+			List<Module> changedSettings = new ArrayList<>(settings.size());
+			for (Long id : settings) {
+				Module module = moduleDatabase.modulesById.get(id);
+				if (module != null) {
+					changedSettings.add(module);
+				}
+			}
+			out.writeInt(changedSettings.size());
+			for (Module module : changedSettings) {
+				out.writeLong(module.getId());
+				EnumSet<Settings> moduleSettings = moduleDatabase.moduleSettings.get(module.getId());
+				out.writeInt(moduleSettings == null ? 0 : moduleSettings.size());
+				if (moduleSettings != null) {
+					for (Settings setting : moduleSettings) {
+						out.writeUTF(setting.name());
+					}
+				}
+				out.writeInt(module.getStartLevel());
+				out.writeLong(module.getLastModified());
+			}
+
+			out.writeBoolean(persistWirings);
+			if (persistWirings) {
+				out.writeBoolean(changedWiringRevisions == null);
+				writeWiringChanges(wirings, out, objectTable);
+			}
+
+			out.flush();
+			return persistWirings;
+		}
+
+		/*
+		 * Writes the wirings along with all of the wires they provide and require.  The
+		 * revisions of the modules which were not written with the changes are referenced
+		 * by the id of their module.
+		 */
+		private static void writeWiringChanges(Collection<ModuleWiring> wirings, DataOutputStream out, Map<Object, Integer> objectTable) throws IOException {
+			Set<ModuleWire> wires = new LinkedHashSet<>();
+			Set<ModuleRevision> referenced = new LinkedHashSet<>();
+			for (ModuleWiring wiring : wirings) {
+				referenced.add(wiring.getRevision());
+				for (ModuleCapability capability : wiring.getModuleCapabilities(null)) {
+					referenced.add(capability.getRevision());
+				}
+				for (ModuleRequirement requirement : wiring.getPersistentRequirements()) {
+					referenced.add(requirement.getRevision());
+				}
+				wires.addAll(wiring.getPersistentProvidedWires());
+				wires.addAll(wiring.getPersistentRequiredWires());
+			}
+			for (ModuleWire wire : wires) {
+				referenced.add(wire.getProvider());
+				referenced.add(wire.getRequirer());
+				referenced.add(wire.getCapability().getRevision());
+				referenced.add(wire.getRequirement().getRevision());
+			}
+			referenced.removeAll(objectTable.keySet());
+
+			out.writeInt(referenced.size());
+			for (ModuleRevision revision : referenced) {
+				out.writeInt(addToWriteTable(revision, objectTable));
+				out.writeLong(revision.getRevisions().getModule().getId());
+				// the capabilities and requirements follow the revision in the table
+				for (ModuleCapability capability : revision.getModuleCapabilities(null)) {
+					addToWriteTable(capability, objectTable);
+				}
+				for (ModuleRequirement requirement : revision.getModuleRequirements(null)) {
+					addToWriteTable(requirement, objectTable);
+				}
+			}
+
+			out.writeInt(wires.size());
+			for (ModuleWire wire : wires) {
+				writeWire(wire, out, objectTable);
+			}
+
+			out.writeInt(wirings.size());
+			for (ModuleWiring wiring : wirings) {
+				writeWiring(wiring, out, objectTable);
+			}
+		}
+
+		public static void loadChanges(ModuleDatabase moduleDatabase, DataInputStream in) throws IOException {
+			int version = in.readInt();
+			if (version > VERSION || VERSION / 1000 != version / 1000)
+				throw new IllegalArgumentException("The version of the persistent framework data is not compatible: " + version + " expecting: " + VERSION); //$NON-NLS-1$ //$NON-NLS-2$
+			long revisionsTimeStamp = in.readLong();
+			long allTimeStamp = in.readLong();
+			moduleDatabase.nextId.set(in.readLong());
+			moduleDatabase.setInitialModuleStartLevel(in.readInt());
+
+			boolean unloadedWirings = false;
+			int numUnload = in.readInt();
+			for (int i = 0; i < numUnload; i++) {
+				Module module = moduleDatabase.modulesById.get(in.readLong());
+				if (module != null) {
+					for (ModuleRevision revision : module.getRevisions().getModuleRevisions()) {
+						module.getRevisions().removeRevision(revision);
+						moduleDatabase.removeCapabilities(revision);
+						unloadedWirings |= moduleDatabase.wirings.remove(revision) != null;
+					}
+					moduleDatabase.modulesByLocations.remove(module.getLocation());
+					moduleDatabase.modulesById.remove(module.getId());
+					moduleDatabase.moduleSettings.remove(module.getId());
+				}
+			}
+
+			List<Object> objectTable = readModules(moduleDatabase, in, version);
+
+			int numSettings = in.readInt();
+			for (int i = 0; i < numSettings; i++) {
+				Module module = moduleDatabase.modulesById.get(in.readLong());
+				int numModuleSettings = in.readInt();
+				EnumSet<Settings> settings = EnumSet.noneOf(Settings.class);
+				for (int j = 0; j < numModuleSettings; j++) {
+					settings.add(Settings.valueOf(in.readUTF()));
+				}
+				int startlevel = in.readInt();
+				long lastModified = in.readLong();
+				if (module == null) {
+					continue;
+				}
+				if (module.getId() != 0) {
+					// same as a full load; the system module only keeps its last modified
+					if (settings.isEmpty()) {
+						moduleDatabase.moduleSettings.remove(module.getId());
+					} else {
+						moduleDatabase.moduleSettings.put(module.getId(), settings);
+					}
+					module.restoreSettings(settings);
+					module.storeStartLevel(startlevel);
+				}
+				module.setlastModified(lastModified);
+			}
+
+			boolean allWirings = false;
+			if (in.readBoolean()) {
+				allWirings = in.readBoolean();
+				readWiringChanges(moduleDatabase, in, objectTable, allWirings);
+			}
+			if (!allWirings && unloadedWirings) {
+				// the wires provided to the unloaded wirings are not known; the modules are resolved again
+				for (ModuleRevision revision : moduleDatabase.wirings.keySet()) {
+					revision.getRevisions().getModule().setState(State.INSTALLED);
+				}
+				moduleDatabase.wirings.clear();
+			}
+
+			moduleDatabase.revisionsTimeStamp.set(revisionsTimeStamp);
+			moduleDatabase.allTimeStamp.set(allTimeStamp);
+		}
+
+		private static void readWiringChanges(ModuleDatabase moduleDatabase, DataInputStream in, List<Object> objectTable, boolean allWirings) throws IOException {
+			int numReferenced = in.readInt();
+			for (int i = 0; i < numReferenced; i++) {
+				int index = in.readInt();
+				long id = in.readLong();
+				Module module = moduleDatabase.modulesById.get(id);
+				ModuleRevision revision = module == null ? null : module.getCurrentRevision();
+				if (revision == null)
+					throw new IllegalArgumentException("The wiring changes do not apply to module: " + id); //$NON-NLS-1$
+				addToReadTable(revision, index++, objectTable);
+				for (ModuleCapability capability : revision.getModuleCapabilities(null)) {
+					addToReadTable(capability, index++, objectTable);
+				}
+				for (ModuleRequirement requirement : revision.getModuleRequirements(null)) {
+					addToReadTable(requirement, index++, objectTable);
+				}
+			}
+
+			// the wires of the loaded wirings are reused so both ends keep sharing them
+			Map<ModuleRevision, ModuleWiring> loaded = moduleDatabase.wirings;
+			int numWires = in.readInt();
+			for (int i = 0; i < numWires; i++) {
+				readWire(in, objectTable, loaded);
+			}
+
+			Map<ModuleRevision, ModuleWiring> changed = new HashMap<>();
+			int numWirings = in.readInt();
+			for (int i = 0; i < numWirings; i++) {
+				ModuleWiring wiring = readWiring(in, objectTable);
+				changed.put(wiring.getRevision(), wiring);
+			}
+
+			if (allWirings) {
+				for (Iterator<ModuleRevision> iRevisions = loaded.keySet().iterator(); iRevisions.hasNext();) {
+					ModuleRevision revision = iRevisions.next();
+					if (!changed.containsKey(revision)) {
+						revision.getRevisions().getModule().setState(State.INSTALLED);
+						iRevisions.remove();
+					}
+				}
+			}
+			for (ModuleWiring wiring : changed.values()) {
+				ModuleWiring current = loaded.get(wiring.getRevision());
+				if (current != null) {
+					// same as resolving an already resolved revision
+					current.setCapabilities(wiring.getModuleCapabilities(null));
+					current.setProvidedWires(wiring.getProvidedModuleWires(null));
+					current.setRequiredWires(wiring.getRequiredModuleWires(null));
+				} else {
+					loaded.put(wiring.getRevision(), wiring);
+					wiring.getRevision().getRevisions().getModule().setState(State.RESOLVED);
+				}
+			}
+		}
+
+		private static Map<Object, Integer> writeModules(List<Module> modules, Collection<ModuleWiring> wirings, ModuleDatabase moduleDatabase, DataOutputStream out) throws IOException {
 			// prime the object table with all the strings, versions and maps
 			Set<String> allStrings = new HashSet<>();
 			Set<Version> allVersions = new HashSet<>();
 			Set<Map<String, ?>> allMaps = new HashSet<>();
 
 			// first gather all the strings, versions and maps from the modules
-			List<Module> modules = moduleDatabase.getModules();
 			for (Module module : modules) {
 				getStringsVersionsAndMaps(module, moduleDatabase, allStrings, allVersions, allMaps);
 			}
 			// outside of the modules the wirings have 'substituted' packages strings
-			Map<ModuleRevision, ModuleWiring> wirings = moduleDatabase.wirings;
-			for (ModuleWiring wiring : wirings.values()) {
+			for (ModuleWiring wiring : wirings) {
 				Collection<String> substituted = wiring.getSubstitutedNames();
 				for (String pkgName : substituted) {
 					allStrings.add(pkgName);
@@ -1050,31 +1563,7 @@ public class ModuleDatabase {
 			for (Module module : modules) {
 				writeModule(module, moduleDatabase, out, objectTable);
 			}
-
-			Collection<ModuleRevision> removalPendings = moduleDatabase.getRemovalPending();
-			// only persist wirings if there are no removals pending
-			persistWirings &= removalPendings.isEmpty();
-			out.writeBoolean(persistWirings);
-			if (!persistWirings) {
-				return;
-			}
-
-			// prime the object table with all the required wires which reference the modules
-			out.writeInt(wirings.size());
-			for (ModuleWiring wiring : wirings.values()) {
-				List<ModuleWire> requiredWires = wiring.getPersistentRequiredWires();
-				out.writeInt(requiredWires.size());
-				for (ModuleWire wire : requiredWires) {
-					writeWire(wire, out, objectTable);
-				}
-			}
-
-			// now write all the info about each wiring using only indexes from the objectTable
-			for (ModuleWiring wiring : wirings.values()) {
-				writeWiring(wiring, out, objectTable);
-			}
-
-			out.flush();
+			return objectTable;
 		}
 
 		private static void getStringsVersionsAndMaps(Module module, ModuleDatabase moduleDatabase, Set<String> allStrings, Set<Version> allVersions, Set<Map<String, ?>> allMaps) {
@@ -1148,26 +1637,7 @@ public class ModuleDatabase {
 			moduleDatabase.nextId.set(in.readLong());
 			moduleDatabase.setInitialModuleStartLevel(in.readInt());
 
-			List<Object> objectTable = new ArrayList<>();
-
-			if (version >= 2) {
-				int numStrings = in.readInt();
-				for (int i = 0; i < numStrings; i++) {
-					readIndexedString(in, objectTable);
-				}
-				int numVersions = in.readInt();
-				for (int i = 0; i < numVersions; i++) {
-					readIndexedVersion(in, objectTable);
-				}
-				int numMaps = in.readInt();
-				for (int i = 0; i < numMaps; i++) {
-					readIndexedMap(in, objectTable);
-				}
-			}
-			int numModules = in.readInt();
-			for (int i = 0; i < numModules; i++) {
-				readModule(moduleDatabase, in, objectTable, version);
-			}
+			List<Object> objectTable = readModules(moduleDatabase, in, version);
 
 			moduleDatabase.revisionsTimeStamp.set(revisionsTimeStamp);
 			moduleDatabase.allTimeStamp.set(allTimeStamp);
@@ -1179,7 +1649,7 @@ public class ModuleDatabase {
 			for (int i = 0; i < numWirings; i++) {
 				int numWires = in.readInt();
 				for (int j = 0; j < numWires; j++) {
-					readWire(in, objectTable);
+					readWire(in, objectTable, Collections.<ModuleRevision, ModuleWiring> emptyMap());
 				}
 			}
 
@@ -1202,6 +1672,30 @@ public class ModuleDatabase {
 			moduleDatabase.allTimeStamp.set(allTimeStamp);
 		}
 
+		private static List<Object> readModules(ModuleDatabase moduleDatabase, DataInputStream in, int version) throws IOException {
+			List<Object> objectTable = new ArrayList<>();
+
+			if (version >= 2) {
+				int numStrings = in.readInt();
+				for (int i = 0; i < numStrings; i++) {
+					readIndexedString(in, objectTable);
+				}
+				int numVersions = in.readInt();
+				for (int i = 0; i < numVersions; i++) {
+					readIndexedVersion(in, objectTable);
+				}
+				int numMaps = in.readInt();
+				for (int i = 0; i < numMaps; i++) {
+					readIndexedMap(in, objectTable);
+				}
+			}
+			int numModules = in.readInt();
+			for (int i = 0; i < numModules; i++) {
+				readModule(moduleDatabase, in, objectTable, version);
+			}
+			return objectTable;
+		}
+
 		private static void writeModule(Module module, ModuleDatabase moduleDatabase, DataOutputStream out, Map<Object, Integer> objectTable) throws IOException {
 			ModuleRevision current = module.getCurrentRevision();
 			if (current == null)
@@ -1318,7 +1812,7 @@ public class ModuleDatabase {
 			out.writeInt(requirer);
 		}
 
-		private static void readWire(DataInputStream in, List<Object> objectTable) throws IOException {
+		private static void readWire(DataInputStream in, List<Object> objectTable, Map<ModuleRevision, ModuleWiring> loaded) throws IOException {
 			int wireIndex = in.readInt();
 
 			ModuleCapability capability = (ModuleCapability) objectTable.get(in.readInt());
@@ -1329,11 +1823,25 @@ public class ModuleDatabase {
 			if (capability == null || provider == null || requirement == null || requirer == null)
 				throw new NullPointerException("Could not find the expected indexes"); //$NON-NLS-1$
 
-			ModuleWire result = new ModuleWire(capability, provider, requirement, requirer);
+			ModuleWire result = findWire(loaded.get(requirer), capability, provider, requirement);
+			if (result == null) {
+				result = new ModuleWire(capability, provider, requirement, requirer);
+			}
 
 			addToReadTable(result, wireIndex, objectTable);
 		}
 
+		private static ModuleWire findWire(ModuleWiring requirerWiring, ModuleCapability capability, ModuleRevision provider, ModuleRequirement requirement) {
+			if (requirerWiring != null) {
+				for (ModuleWire wire : requirerWiring.getRequiredModuleWires(null)) {
+					if (wire.getCapability() == capability && wire.getProvider() == provider && wire.getRequirement() == requirement) {
+						return wire;
+					}
+				}
+			}
+			return null;
+		}
+
 		private static void writeWiring(ModuleWiring wiring, DataOutputStream out, Map<Object, Integer> objectTable) throws IOException {
 			Integer revisionIndex = objectTable.get(wiring.getRevision());
 			if (revisionIndex == null)
@@ -1484,7 +1992,7 @@ public class ModuleDatabase {
 		}
 
 		private static void readIndexedMap(DataInputStream in, List<Object> objectTable) throws IOException {
-			Map<String, Object> result = readMap(in, objectTable);
+			Map<String, Object> result = AttributeInterner.intern(readMap(in, objectTable));
 			addToReadTable(result, in.readInt(), objectTable);
 		}
 
@@ -1634,16 +2142,16 @@ public class ModuleDatabase {
 		}
 
 		private static Version readIndexedVersion(DataInputStream in, List<Object> objectTable) throws IOException {
-			Version version = readVersion0(in, objectTable, false);
+			Version version = readVersion0(in, objectTable);
 			addToReadTable(version, in.readInt(), objectTable);
 			return version;
 		}
 
 		private static Version readVersion(DataInputStream in, List<Object> objectTable) throws IOException {
-			return readVersion0(in, objectTable, true);
+			return readVersion0(in, objectTable);
 		}
 
-		private static Version readVersion0(DataInputStream in, List<Object> objectTable, boolean intern) throws IOException {
+		private static Version readVersion0(DataInputStream in, List<Object> objectTable) throws IOException {
 			byte type = in.readByte();
 			if (type == INDEX) {
 				int index = in.readInt();
@@ -1656,7 +2164,7 @@ public class ModuleDatabase {
 			int serviceComponent = in.readInt();
 			String qualifierComponent = readString(in, objectTable);
 			Version version = new Version(majorComponent, minorComponent, serviceComponent, qualifierComponent);
-			return intern ? ObjectPool.intern(version) : version;
+			return AttributeInterner.intern(version);
 		}
 
 		private static void writeString(String string, DataOutputStream out, Map<Object, Integer> objectTable) throws IOException {
@@ -1684,16 +2192,16 @@ public class ModuleDatabase {
 		}
 
 		static private String readIndexedString(DataInputStream in, List<Object> objectTable) throws IOException {
-			String string = readString0(in, objectTable, false);
+			String string = readString0(in, objectTable);
 			addToReadTable(string, in.readInt(), objectTable);
 			return string;
 		}
 
 		static private String readString(DataInputStream in, List<Object> objectTable) throws IOException {
-			return readString0(in, objectTable, true);
+			return readString0(in, objectTable);
 		}
 
-		static private String readString0(DataInputStream in, List<Object> objectTable, boolean intern) throws IOException {
+		static private String readString0(DataInputStream in, List<Object> objectTable) throws IOException {
 			byte type = in.readByte();
 			if (type == INDEX) {
 				int index = in.readInt();
@@ -1712,7 +2220,7 @@ public class ModuleDatabase {
 				string = in.readUTF();
 			}
 
-			return intern ? ObjectPool.intern(string) : string;
+			return AttributeInterner.intern(string);
 		}
 	}
 }
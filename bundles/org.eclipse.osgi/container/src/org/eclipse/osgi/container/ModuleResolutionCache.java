@@ -0,0 +1,451 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.container;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.eclipse.osgi.storagemanager.ManagedOutputStream;
+import org.eclipse.osgi.storagemanager.StorageManager;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+
+/**
+ * A cache of resolution results which is stored in a directory managed by a
+ * {@link StorageManager}.  A result is looked up
+ * with a fingerprint of the revisions known to a resolve operation, the wirings of
+ * the resolved revisions, the revisions to resolve and the resolver configuration.
+ * Revisions, requirements and capabilities are stored by their index so that a
+ * result can be reused by another framework instance which installed the same
+ * revisions, for example after a clean start.
+ * <p>
+ * Along with the wires of a result the providers found for each requirement are
+ * stored.  A result must only be reused if the same providers are found again,
+ * which also checks that resolver hooks filter the providers in the same way.
+ * Each cached wire must also connect one of the providers found again.
+ */
+final class ModuleResolutionCache {
+	static final String CACHE_FILE = "resolution.cache"; //$NON-NLS-1$
+	private static final int VERSION = 2;
+	private static final int MAX_RESULTS = 16;
+	private static final char[] HEX = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+	private final File directory;
+	private final String lockMode;
+	/* @GuardedBy("this") */
+	private Map<String, byte[]> results;
+
+	ModuleResolutionCache(File directory, String lockMode) {
+		this.directory = directory;
+		this.lockMode = lockMode;
+	}
+
+	File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Creates the key of a resolve operation.
+	 * @param unresolved the unresolved revisions
+	 * @param wirings the wirings of the resolved revisions
+	 * @param triggers the revisions which triggered the resolve operation
+	 * @param triggersMandatory true if the triggers must resolve
+	 * @param optionals the revisions which are optionally resolved
+	 * @param disabled the unresolved revisions which must not resolve
+	 * @param batchSize the revision batch size of the resolver
+	 * @return the key or {@code null} if the revisions cannot be told apart
+	 */
+	static Key createKey(Collection<ModuleRevision> unresolved, Map<ModuleRevision, ModuleWiring> wirings, Collection<ModuleRevision> triggers, boolean triggersMandatory, Collection<ModuleRevision> optionals, Collection<ModuleRevision> disabled, int batchSize) {
+		Set<ModuleRevision> all = new LinkedHashSet<>(wirings.keySet());
+		all.addAll(unresolved);
+		final Map<ModuleRevision, String> descriptions = new HashMap<>();
+		for (ModuleRevision revision : all) {
+			descriptions.put(revision, getDescription(revision));
+		}
+		List<ModuleRevision> revisions = new ArrayList<>(all);
+		Collections.sort(revisions, new Comparator<ModuleRevision>() {
+			@Override
+			public int compare(ModuleRevision r1, ModuleRevision r2) {
+				return descriptions.get(r1).compareTo(descriptions.get(r2));
+			}
+		});
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256"); //$NON-NLS-1$
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+		Key key = new Key(revisions);
+		update(digest, "version: " + VERSION + " batch size: " + batchSize + " mandatory: " + triggersMandatory); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		String previous = null;
+		for (ModuleRevision revision : revisions) {
+			String description = descriptions.get(revision);
+			if (description.equals(previous)) {
+				// the same revision content is installed more than once
+				return null;
+			}
+			previous = description;
+			update(digest, description);
+		}
+		try {
+			for (ModuleRevision revision : revisions) {
+				ModuleWiring wiring = wirings.get(revision);
+				if (wiring == null) {
+					continue;
+				}
+				StringBuilder builder = new StringBuilder("wiring: ").append(key.getIndex(revision)); //$NON-NLS-1$
+				for (ModuleCapability capability : wiring.getModuleCapabilities(null)) {
+					builder.append(" c ").append(key.getIndex(capability.getRevision())).append(':').append(key.getIndex(capability)); //$NON-NLS-1$
+				}
+				for (ModuleWire wire : wiring.getRequiredModuleWires(null)) {
+					builder.append(" w ").append(key.getIndex(wire.getRequirement().getRevision())).append(':').append(key.getIndex(wire.getRequirement())); //$NON-NLS-1$
+					builder.append("->").append(key.getIndex(wire.getProvider())).append(':').append(key.getIndex(wire.getCapability().getRevision())).append(':').append(key.getIndex(wire.getCapability())); //$NON-NLS-1$
+				}
+				update(digest, builder.toString());
+			}
+			update(digest, "triggers: " + key.getIndexes(triggers)); //$NON-NLS-1$
+			update(digest, "optionals: " + key.getIndexes(optionals)); //$NON-NLS-1$
+			update(digest, "disabled: " + key.getIndexes(disabled)); //$NON-NLS-1$
+		} catch (IOException e) {
+			// a wiring refers to a revision that is not known
+			return null;
+		}
+		key.fingerprint = toHex(digest.digest());
+		return key;
+	}
+
+	private static String getDescription(ModuleRevision revision) {
+		StringBuilder builder = new StringBuilder(revision.getRevisions().getModule().getLocation());
+		for (ModuleCapability capability : revision.getModuleCapabilities(null)) {
+			builder.append("\n c ").append(capability.getNamespace()); //$NON-NLS-1$
+			appendSorted(builder, capability.getAttributes());
+			appendSorted(builder, capability.getDirectives());
+		}
+		for (ModuleRequirement requirement : revision.getModuleRequirements(null)) {
+			builder.append("\n r ").append(requirement.getNamespace()); //$NON-NLS-1$
+			appendSorted(builder, requirement.getAttributes());
+			appendSorted(builder, requirement.getDirectives());
+		}
+		return builder.toString();
+	}
+
+	/*
+	 * Appends the entries sorted by key so that the description does not depend on
+	 * the iteration order of the map.  The type of each value is included because
+	 * matching depends on it.
+	 */
+	private static void appendSorted(StringBuilder builder, Map<String, ?> map) {
+		for (Map.Entry<String, ?> entry : new TreeMap<>(map).entrySet()) {
+			Object value = entry.getValue();
+			builder.append("; ").append(entry.getKey()).append(':').append(value.getClass().getSimpleName()).append('=').append(value); //$NON-NLS-1$
+		}
+	}
+
+	private static void update(MessageDigest digest, String value) {
+		digest.update(value.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Returns the cached result for the specified key.
+	 * @param key the key of the resolve operation
+	 * @return the cached result or {@code null} if no result is cached for the key
+	 * @throws IOException if the cache file cannot be read
+	 */
+	Result get(Key key) throws IOException {
+		byte[] bytes;
+		synchronized (this) {
+			bytes = getResults().get(key.fingerprint);
+		}
+		if (bytes == null) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+			Map<Resource, List<Wire>> wires = new HashMap<>();
+			int numResources = in.readInt();
+			for (int i = 0; i < numResources; i++) {
+				ModuleRevision revision = key.getRevision(in.readInt());
+				int numWires = in.readInt();
+				List<Wire> requiredWires = new ArrayList<>(numWires);
+				for (int j = 0; j < numWires; j++) {
+					ModuleRevision requirer = key.getRevision(in.readInt());
+					ModuleRequirement requirement = key.getRequirement(in.readInt(), in.readInt());
+					ModuleRevision provider = key.getRevision(in.readInt());
+					ModuleCapability capability = key.getCapability(in.readInt(), in.readInt());
+					requiredWires.add(new ModuleWire(capability, provider, requirement, requirer));
+				}
+				wires.put(revision, requiredWires);
+			}
+			Map<ModuleRequirement, List<ModuleCapability>> providers = new LinkedHashMap<>();
+			int numRequirements = in.readInt();
+			for (int i = 0; i < numRequirements; i++) {
+				ModuleRequirement requirement = key.getRequirement(in.readInt(), in.readInt());
+				int numCapabilities = in.readInt();
+				List<ModuleCapability> capabilities = new ArrayList<>(numCapabilities);
+				for (int j = 0; j < numCapabilities; j++) {
+					capabilities.add(key.getCapability(in.readInt(), in.readInt()));
+				}
+				providers.put(requirement, capabilities);
+			}
+			return new Result(wires, providers);
+		} catch (IOException | IndexOutOfBoundsException e) {
+			// the cached result does not fit the revisions
+			return null;
+		}
+	}
+
+	/**
+	 * Caches the result of a resolve operation and writes the cache file.
+	 * The result is not cached if it refers to revisions, requirements or capabilities
+	 * not known by the key.
+	 * @param key the key of the resolve operation
+	 * @param wires the resolution result
+	 * @param providers the providers found for each requirement
+	 * @return true if the result is cached
+	 * @throws IOException if the cache file cannot be written
+	 */
+	boolean put(Key key, Map<Resource, List<Wire>> wires, Map<Requirement, List<ModuleCapability>> providers) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(wires.size());
+			for (Map.Entry<Resource, List<Wire>> entry : wires.entrySet()) {
+				out.writeInt(key.getIndex(entry.getKey()));
+				out.writeInt(entry.getValue().size());
+				for (Wire wire : entry.getValue()) {
+					out.writeInt(key.getIndex(wire.getRequirer()));
+					writeRequirement(key, wire.getRequirement(), out);
+					out.writeInt(key.getIndex(wire.getProvider()));
+					writeCapability(key, wire.getCapability(), out);
+				}
+			}
+			out.writeInt(providers.size());
+			for (Map.Entry<Requirement, List<ModuleCapability>> entry : providers.entrySet()) {
+				writeRequirement(key, entry.getKey(), out);
+				out.writeInt(entry.getValue().size());
+				for (ModuleCapability capability : entry.getValue()) {
+					writeCapability(key, capability, out);
+				}
+			}
+		} catch (IOException e) {
+			// the result refers to something not known by the key
+			return false;
+		}
+		synchronized (this) {
+			Map<String, byte[]> current = getResults();
+			current.remove(key.fingerprint);
+			current.put(key.fingerprint, bytes.toByteArray());
+			for (Iterator<String> iFingerprints = current.keySet().iterator(); current.size() > MAX_RESULTS;) {
+				iFingerprints.next();
+				iFingerprints.remove();
+			}
+			save(current);
+		}
+		return true;
+	}
+
+	private static void writeRequirement(Key key, Requirement requirement, DataOutputStream out) throws IOException {
+		if (!(requirement instanceof ModuleRequirement)) {
+			throw new IOException("Unknown requirement: " + requirement); //$NON-NLS-1$
+		}
+		out.writeInt(key.getIndex(((ModuleRequirement) requirement).getRevision()));
+		out.writeInt(key.getIndex(requirement));
+	}
+
+	private static void writeCapability(Key key, Capability capability, DataOutputStream out) throws IOException {
+		if (!(capability instanceof ModuleCapability)) {
+			throw new IOException("Unknown capability: " + capability); //$NON-NLS-1$
+		}
+		out.writeInt(key.getIndex(((ModuleCapability) capability).getRevision()));
+		out.writeInt(key.getIndex(capability));
+	}
+
+	private Map<String, byte[]> getResults() throws IOException {
+		if (results != null) {
+			return results;
+		}
+		results = new LinkedHashMap<>();
+		if (!directory.isDirectory()) {
+			return results;
+		}
+		StorageManager storageManager = openStorageManager();
+		try {
+			InputStream cacheStream = storageManager.getInputStream(CACHE_FILE);
+			if (cacheStream == null) {
+				return results;
+			}
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(cacheStream))) {
+				if (in.readInt() != VERSION) {
+					return results;
+				}
+				int numResults = in.readInt();
+				for (int i = 0; i < numResults; i++) {
+					String fingerprint = in.readUTF();
+					byte[] bytes = new byte[in.readInt()];
+					in.readFully(bytes);
+					results.put(fingerprint, bytes);
+				}
+			} catch (IOException e) {
+				results.clear();
+				throw e;
+			}
+		} finally {
+			storageManager.close();
+		}
+		return results;
+	}
+
+	private void save(Map<String, byte[]> current) throws IOException {
+		StorageManager storageManager = openStorageManager();
+		try {
+			ManagedOutputStream mos = storageManager.getOutputStream(CACHE_FILE);
+			boolean success = false;
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(mos));
+				out.writeInt(VERSION);
+				out.writeInt(current.size());
+				for (Map.Entry<String, byte[]> result : current.entrySet()) {
+					out.writeUTF(result.getKey());
+					out.writeInt(result.getValue().length);
+					out.write(result.getValue());
+				}
+				out.close();
+				success = true;
+			} finally {
+				if (!success) {
+					mos.abort();
+				}
+			}
+		} finally {
+			storageManager.close();
+		}
+	}
+
+	private StorageManager openStorageManager() throws IOException {
+		StorageManager storageManager = new StorageManager(directory, lockMode);
+		storageManager.open(true);
+		return storageManager;
+	}
+
+	/**
+	 * The key of a resolve operation.  The key indexes the revisions known to
+	 * the resolve operation along with their requirements and capabilities.
+	 */
+	static final class Key {
+		final List<ModuleRevision> revisions;
+		private final Map<Object, Integer> indexes = new IdentityHashMap<>();
+		String fingerprint;
+
+		Key(List<ModuleRevision> revisions) {
+			this.revisions = revisions;
+			for (int i = 0; i < revisions.size(); i++) {
+				ModuleRevision revision = revisions.get(i);
+				indexes.put(revision, i);
+				List<ModuleCapability> capabilities = revision.getModuleCapabilities(null);
+				for (int j = 0; j < capabilities.size(); j++) {
+					indexes.put(capabilities.get(j), j);
+				}
+				List<ModuleRequirement> requirements = revision.getModuleRequirements(null);
+				for (int j = 0; j < requirements.size(); j++) {
+					indexes.put(requirements.get(j), j);
+				}
+			}
+		}
+
+		int getIndex(Object indexed) throws IOException {
+			Integer index = indexes.get(indexed);
+			if (index == null) {
+				throw new IOException("Not indexed: " + indexed); //$NON-NLS-1$
+			}
+			return index;
+		}
+
+		String getIndexes(Collection<ModuleRevision> indexed) throws IOException {
+			int[] result = new int[indexed.size()];
+			int i = 0;
+			for (ModuleRevision revision : indexed) {
+				result[i++] = getIndex(revision);
+			}
+			Arrays.sort(result);
+			return Arrays.toString(result);
+		}
+
+		ModuleRevision getRevision(int index) {
+			return revisions.get(index);
+		}
+
+		ModuleRequirement getRequirement(int revisionIndex, int index) {
+			return getRevision(revisionIndex).getModuleRequirements(null).get(index);
+		}
+
+		ModuleCapability getCapability(int revisionIndex, int index) {
+			return getRevision(revisionIndex).getModuleCapabilities(null).get(index);
+		}
+	}
+
+	/**
+	 * A cached resolution result.
+	 */
+	static final class Result {
+		private final Map<Resource, List<Wire>> wires;
+		private final Map<ModuleRequirement, List<ModuleCapability>> providers;
+
+		Result(Map<Resource, List<Wire>> wires, Map<ModuleRequirement, List<ModuleCapability>> providers) {
+			this.wires = wires;
+			this.providers = providers;
+		}
+
+		Map<Resource, List<Wire>> getWires() {
+			return wires;
+		}
+
+		Map<ModuleRequirement, List<ModuleCapability>> getProviders() {
+			return providers;
+		}
+	}
+}
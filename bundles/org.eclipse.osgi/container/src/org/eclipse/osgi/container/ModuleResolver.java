@@ -13,6 +13,8 @@
  *******************************************************************************/
 package org.eclipse.osgi.container;
 
+import java.io.File;
+import java.io.IOException;
 import java.security.Permission;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -29,6 +31,7 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
@@ -37,13 +40,16 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import org.apache.felix.resolver.Logger;
+import org.apache.felix.resolver.PackageSpaceCache;
 import org.apache.felix.resolver.ResolutionError;
 import org.apache.felix.resolver.ResolverImpl;
+import org.eclipse.osgi.container.ModuleContainerAdaptor.ContainerEvent;
 import org.eclipse.osgi.container.ModuleRequirement.DynamicModuleRequirement;
 import org.eclipse.osgi.container.namespaces.EquinoxFragmentNamespace;
 import org.eclipse.osgi.internal.container.InternalUtils;
 import org.eclipse.osgi.internal.debug.Debug;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
+import org.eclipse.osgi.internal.location.LocationHelper;
 import org.eclipse.osgi.internal.framework.EquinoxContainer;
 import org.eclipse.osgi.internal.messages.Msg;
 import org.eclipse.osgi.report.resolution.ResolutionReport;
@@ -100,6 +106,10 @@ final class ModuleResolver {
 	private static final int DEFAULT_BATCH_TIMEOUT = (int) TimeUnit.MINUTES.toMillis(2);
 	final int resolverRevisionBatchSize;
 	final int resolverBatchTimeout;
+	// the package spaces of resolved revisions reused by later resolve operations
+	final PackageSpaceCache packageSpaceCache;
+	// the resolution results reused by resolve operations of the same revisions
+	final ModuleResolutionCache resolutionCache;
 
 	void setDebugOptions() {
 		DebugOptions options = adaptor.getDebugOptions();
@@ -136,7 +146,10 @@ final class ModuleResolver {
 		this.resolverRevisionBatchSize = parseInteger(batchSizeConfig, DEFAULT_BATCH_SIZE, 1);
 		String batchTimeoutConfig = this.adaptor.getProperty(EquinoxConfiguration.PROP_RESOLVER_BATCH_TIMEOUT);
 		this.resolverBatchTimeout = parseInteger(batchTimeoutConfig, DEFAULT_BATCH_TIMEOUT, BATCH_MIN_TIMEOUT);
-
+		String packageSpaceCacheConfig = this.adaptor.getProperty(EquinoxConfiguration.PROP_RESOLVER_PACKAGE_SPACE_CACHE);
+		this.packageSpaceCache = packageSpaceCacheConfig == null || Boolean.parseBoolean(packageSpaceCacheConfig) ? new PackageSpaceCache() : null;
+		String resolutionCacheConfig = this.adaptor.getProperty(EquinoxConfiguration.PROP_RESOLVER_RESULT_CACHE);
+		this.resolutionCache = resolutionCacheConfig == null ? null : new ModuleResolutionCache(new File(resolutionCacheConfig), this.adaptor.getProperty(LocationHelper.PROP_OSGI_LOCKING));
 	}
 
 	private static int parseInteger(String sInteger, int defaultValue, int minValue) {
@@ -166,6 +179,9 @@ final class ModuleResolver {
 	 * @throws ResolutionException
 	 */
 	ModuleResolutionReport resolveDelta(Collection<ModuleRevision> triggers, boolean triggersMandatory, Collection<ModuleRevision> unresolved, Map<ModuleRevision, ModuleWiring> wiringCopy, ModuleDatabase moduleDatabase) {
+		if (packageSpaceCache != null) {
+			packageSpaceCache.retainAll(wiringCopy.keySet());
+		}
 		ResolveProcess resolveProcess = new ResolveProcess(unresolved, triggers, triggersMandatory, wiringCopy, moduleDatabase);
 		return resolveProcess.resolve();
 	}
@@ -175,6 +191,20 @@ final class ModuleResolver {
 		return resolveProcess.resolve();
 	}
 
+	/**
+	 * Called before the capabilities of an existing wiring are updated with a
+	 * wiring delta.  The cached package spaces of the wiring and of the revisions
+	 * wired to it are dropped if the capabilities change, for example when a
+	 * fragment is attached to a resolved host.
+	 * @param wiring the existing wiring
+	 * @param capabilities the updated capabilities of the wiring
+	 */
+	void updatingWiring(ModuleWiring wiring, List<ModuleCapability> capabilities) {
+		if (packageSpaceCache != null && !capabilities.equals(wiring.getModuleCapabilities(null))) {
+			packageSpaceCache.invalidate(wiring.getRevision());
+		}
+	}
+
 	Map<ModuleRevision, ModuleWiring> generateDelta(Map<Resource, List<Wire>> result, Map<ModuleRevision, ModuleWiring> wiringCopy) {
 		Map<ModuleRevision, Map<ModuleCapability, List<ModuleWire>>> provided = new HashMap<>();
 		Map<ModuleRevision, List<ModuleWire>> required = new HashMap<>();
@@ -597,6 +627,13 @@ final class ModuleResolver {
 		 * has occurred.
 		 */
 		private final Map<Resource, Map<Requirement, Set<Capability>>> unresolvedProviders = new HashMap<>();
+		/*
+		 * The key used to look up and store the result in the resolution cache
+		 * and the providers found for each requirement while the result is computed.
+		 * The providers are only recorded if the result can be cached.
+		 */
+		private ModuleResolutionCache.Key resolutionCacheKey = null;
+		private volatile Map<Requirement, List<ModuleCapability>> foundProviders = null;
 
 		ResolveProcess(Collection<ModuleRevision> unresolved, Collection<ModuleRevision> triggers, boolean triggersMandatory, Map<ModuleRevision, ModuleWiring> wirings, ModuleDatabase moduleDatabase) {
 			this.unresolved = unresolved;
@@ -672,6 +709,36 @@ final class ModuleResolver {
 		}
 
 		List<Capability> filterProviders(Requirement requirement, List<ModuleCapability> candidates, boolean filterResolvedHosts) {
+			filterCandidates(requirement, candidates, filterResolvedHosts);
+			Map<Requirement, List<ModuleCapability>> currentFoundProviders = foundProviders;
+			if (currentFoundProviders != null && filterResolvedHosts) {
+				currentFoundProviders.put(requirement, sortProviders(new ArrayList<>(candidates)));
+			}
+
+			if (candidates.isEmpty()) {
+				if (!wirings.containsKey(requirement.getResource()) || isDynamic(requirement)) {
+					reportBuilder.addEntry(requirement.getResource(), Entry.Type.MISSING_CAPABILITY, requirement);
+					String resolution = requirement.getDirectives().get(Namespace.REQUIREMENT_RESOLUTION_DIRECTIVE);
+					if ((resolution == null || Namespace.RESOLUTION_MANDATORY.equals(resolution))) {
+						transitivelyResolveFailures.add(requirement.getResource());
+					}
+				}
+			} else {
+				computeUnresolvedProviders(requirement, candidates);
+			}
+
+			filterFailedToResolve(candidates);
+
+			Collections.sort(candidates, this);
+			return InternalUtils.asListCapability(candidates);
+		}
+
+		private List<ModuleCapability> sortProviders(List<ModuleCapability> providers) {
+			Collections.sort(providers, this);
+			return providers;
+		}
+
+		private void filterCandidates(Requirement requirement, List<ModuleCapability> candidates, boolean filterResolvedHosts) {
 			ListIterator<ModuleCapability> iCandidates = candidates.listIterator();
 			filterDisabled(iCandidates);
 			removeNonEffectiveCapabilities(iCandidates);
@@ -703,23 +770,6 @@ final class ModuleResolver {
 
 			// filter resolved hosts after calling hooks to allow hooks to see the host capability
 			filterResolvedHosts(requirement, candidates, filterResolvedHosts);
-
-			if (candidates.isEmpty()) {
-				if (!wirings.containsKey(requirement.getResource()) || isDynamic(requirement)) {
-					reportBuilder.addEntry(requirement.getResource(), Entry.Type.MISSING_CAPABILITY, requirement);
-					String resolution = requirement.getDirectives().get(Namespace.REQUIREMENT_RESOLUTION_DIRECTIVE);
-					if ((resolution == null || Namespace.RESOLUTION_MANDATORY.equals(resolution))) {
-						transitivelyResolveFailures.add(requirement.getResource());
-					}
-				}
-			} else {
-				computeUnresolvedProviders(requirement, candidates);
-			}
-
-			filterFailedToResolve(candidates);
-
-			Collections.sort(candidates, this);
-			return InternalUtils.asListCapability(candidates);
 		}
 
 		private void filterFailedToResolve(List<ModuleCapability> candidates) {
@@ -969,11 +1019,13 @@ final class ModuleResolver {
 					}
 					if (dynamicReq != null) {
 						result = resolveDynamic();
-					} else {
+					} else if ((result = resolveFromCache()) == null) {
 						result = new HashMap<>();
 						Map<Resource, List<Wire>> dynamicAttachWirings = resolveNonPayLoadFragments();
 						applyInterimResultToWiringCopy(dynamicAttachWirings);
 						if (!dynamicAttachWirings.isEmpty()) {
+							// fragments attached to resolved hosts are not cached
+							foundProviders = null;
 							// be sure to remove the revisions from the optional and triggers 
 							// so they no longer attempt to be resolved
 							Set<Resource> fragmentResources = dynamicAttachWirings.keySet();
@@ -1001,6 +1053,9 @@ final class ModuleResolver {
 						printWirings(result);
 					}
 					report = reportBuilder.build(result, re);
+					if (foundProviders != null) {
+						storeInCache(result, re, logger);
+					}
 					if (DEBUG_REPORT) {
 						if (report.getResolutionException() != null) {
 							Debug.printStackTrace(report.getResolutionException());
@@ -1023,6 +1078,137 @@ final class ModuleResolver {
 			}
 		}
 
+		/*
+		 * Returns the cached result of this resolve operation or null if no result is cached.
+		 * A cached result is only used if the same providers are found for the
+		 * requirements, in the same order, as when the result was computed and every
+		 * cached wire connects one of those providers.  If no result is cached, or the
+		 * cached result does not fit, then the providers found are recorded so that
+		 * the computed result can be cached.
+		 */
+		private Map<Resource, List<Wire>> resolveFromCache() {
+			if (resolutionCache == null) {
+				return null;
+			}
+			resolutionCacheKey = ModuleResolutionCache.createKey(unresolved, wirings, triggers, triggersMandatory, optionals, disabled, resolverRevisionBatchSize);
+			if (resolutionCacheKey == null) {
+				return null;
+			}
+			ModuleResolutionCache.Result cached;
+			try {
+				cached = resolutionCache.get(resolutionCacheKey);
+			} catch (IOException e) {
+				adaptor.publishContainerEvent(ContainerEvent.WARNING, moduleDatabase.getModule(0), e);
+				cached = null;
+			}
+			foundProviders = new ConcurrentHashMap<>();
+			if (cached == null) {
+				return null;
+			}
+			List<ModuleRequirement> missing = new ArrayList<>();
+			for (Map.Entry<ModuleRequirement, List<ModuleCapability>> cachedProviders : cached.getProviders().entrySet()) {
+				ModuleRequirement requirement = cachedProviders.getKey();
+				List<ModuleCapability> candidates = moduleDatabase.findCapabilities(requirement);
+				filterCandidates(requirement, candidates, true);
+				if (!sortProviders(candidates).equals(cachedProviders.getValue())) {
+					if (DEBUG_ROOTS) {
+						Debug.println("Resolver: cached result not used, the providers changed for requirement: " + requirement); //$NON-NLS-1$
+					}
+					return null;
+				}
+				if (candidates.isEmpty()) {
+					missing.add(requirement);
+				}
+			}
+			Map<Resource, List<Wire>> result = cached.getWires();
+			String mismatch = checkCachedWires(result, cached.getProviders());
+			if (mismatch != null) {
+				if (DEBUG_ROOTS) {
+					Debug.println("Resolver: cached result not used, " + mismatch); //$NON-NLS-1$
+				}
+				return null;
+			}
+			foundProviders = null;
+			for (ModuleRequirement requirement : missing) {
+				if (!wirings.containsKey(requirement.getResource()) || isDynamic(requirement)) {
+					reportBuilder.addEntry(requirement.getResource(), Entry.Type.MISSING_CAPABILITY, requirement);
+				}
+			}
+			if (DEBUG_ROOTS) {
+				Debug.println("Resolver: resolved " + result.size() + " bundles from the cache " + resolutionCache.getDirectory()); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			return result;
+		}
+
+		/*
+		 * Checks each cached wire against the providers which are found now.  Only revisions
+		 * which are allowed to resolve may be wired.  The requirement of a wire must have been
+		 * checked and its capability must be one of the providers found for the requirement.
+		 * The requirer and provider of a wire must be the revisions which declare the
+		 * requirement and capability or hosts the declaring fragments are wired to.
+		 * Returns a description of the first mismatch found or null if all wires fit.
+		 */
+		private String checkCachedWires(Map<Resource, List<Wire>> result, Map<ModuleRequirement, List<ModuleCapability>> providers) {
+			Set<ModuleRevision> resolvable = new HashSet<>(unresolved);
+			resolvable.removeAll(disabled);
+			for (Map.Entry<Resource, List<Wire>> resolved : result.entrySet()) {
+				if (!resolvable.contains(resolved.getKey())) {
+					return "the revision must not resolve: " + resolved.getKey(); //$NON-NLS-1$
+				}
+				for (Wire wire : resolved.getValue()) {
+					ModuleWire moduleWire = (ModuleWire) wire;
+					List<ModuleCapability> found = providers.get(moduleWire.getRequirement());
+					if (found == null || !found.contains(moduleWire.getCapability())) {
+						return "the provider is not found for the wire: " + wire; //$NON-NLS-1$
+					}
+					if (moduleWire.getRequirer() != resolved.getKey() || !isHostedBy(moduleWire.getRequirement().getRevision(), moduleWire.getRequirer(), result) || !isHostedBy(moduleWire.getCapability().getRevision(), moduleWire.getProvider(), result)) {
+						return "the wire does not connect the declaring revisions: " + wire; //$NON-NLS-1$
+					}
+					if (!wirings.containsKey(moduleWire.getProvider()) && !result.containsKey(moduleWire.getProvider())) {
+						return "the provider is not resolved for the wire: " + wire; //$NON-NLS-1$
+					}
+				}
+			}
+			return null;
+		}
+
+		private boolean isHostedBy(ModuleRevision declaring, ModuleRevision host, Map<Resource, List<Wire>> result) {
+			if (declaring == host) {
+				return true;
+			}
+			List<Wire> declaringWires = result.get(declaring);
+			if (declaringWires == null) {
+				ModuleWiring declaringWiring = wirings.get(declaring);
+				declaringWires = declaringWiring == null ? Collections.<Wire> emptyList() : InternalUtils.asListWire(declaringWiring.getRequiredModuleWires(HostNamespace.HOST_NAMESPACE));
+			}
+			for (Wire wire : declaringWires) {
+				if (HostNamespace.HOST_NAMESPACE.equals(wire.getRequirement().getNamespace()) && wire.getProvider() == host) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/*
+		 * Stores the result of this resolve operation in the cache if all the revisions
+		 * which are not disabled resolved without errors.
+		 */
+		private void storeInCache(Map<Resource, List<Wire>> result, ResolutionException re, ResolveLogger logger) {
+			if (result == null || re != null || !logger.getUsesConstraintViolations().isEmpty()) {
+				return;
+			}
+			for (ModuleRevision revision : unresolved) {
+				if (!disabled.contains(revision) && !result.containsKey(revision)) {
+					return;
+				}
+			}
+			try {
+				resolutionCache.put(resolutionCacheKey, result, foundProviders);
+			} catch (IOException e) {
+				adaptor.publishContainerEvent(ContainerEvent.WARNING, moduleDatabase.getModule(0), e);
+			}
+		}
+
 		private void printWirings(Map<Resource, List<Wire>> wires) {
 			StringBuilder builder = new StringBuilder("RESOLVER: Wirings for resolved bundles:"); //$NON-NLS-1$
 			if (wires == null) {
@@ -1115,7 +1301,7 @@ final class ModuleResolver {
 			Map<Resource, List<Wire>> interimResults = null;
 			try {
 				transitivelyResolveFailures.addAll(revisions);
-				interimResults = new ResolverImpl(logger, this).resolve(this);
+				interimResults = new ResolverImpl(logger, this, packageSpaceCache).resolve(this);
 				applyInterimResultToWiringCopy(interimResults);
 				if (DEBUG_ROOTS) {
 					Debug.println("Resolver: resolved " + interimResults.size() + " bundles."); //$NON-NLS-1$ //$NON-NLS-2$
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.internal.cds;
+
+import java.io.File;
+import org.eclipse.osgi.internal.hookregistry.HookConfigurator;
+import org.eclipse.osgi.internal.hookregistry.HookRegistry;
+
+/**
+ * Configures the hooks which support application class data sharing (AppCDS)
+ * of bundle classes on VMs other than J9.  The hooks are only added if a class
+ * list file is configured with the {@value #CLASS_LIST} property or a class load
+ * log is configured with the {@value #VERIFY_LOG} property.
+ * <p>
+ * By default the bundle classes defined are recorded and written to the class list
+ * when the framework stops.  The class list can then be used to dump an archive,
+ * for example with HotSpot:
+ * <pre>
+ * java -Xshare:dump -XX:SharedClassListFile=&lt;class list&gt; -XX:SharedArchiveFile=&lt;archive&gt; -cp &lt;class path&gt;
+ * </pre>
+ * If {@value #VERIFY_LOG} is set then no class list is written and {@value #CLASS_LIST}
+ * is not needed.  Instead it names the
+ * class load log of a VM started with the archive, for example with HotSpot:
+ * <pre>
+ * java -XX:SharedArchiveFile=&lt;archive&gt; -Xlog:class+load=info:file=&lt;class load log&gt; -cp &lt;class path&gt;
+ * </pre>
+ * When the framework stops the number of bundle class names defined which the VM
+ * loaded from the archive is reported.
+ */
+public class AppCDSHookConfigurator implements HookConfigurator {
+	static final String CLASS_LIST = "equinox.cds.classlist"; //$NON-NLS-1$
+	static final String VERIFY_LOG = "equinox.cds.verify.log"; //$NON-NLS-1$
+
+	@Override
+	public void addHooks(HookRegistry hookRegistry) {
+		String classList = hookRegistry.getConfiguration().getProperty(CLASS_LIST);
+		String verifyLog = hookRegistry.getConfiguration().getProperty(VERIFY_LOG);
+		if (verifyLog != null) {
+			new AppCDSHookImpls(hookRegistry.getContainer(), null, new File(verifyLog)).registerHooks(hookRegistry);
+		} else if (classList != null) {
+			new AppCDSHookImpls(hookRegistry.getContainer(), new File(classList), null).registerHooks(hookRegistry);
+		}
+	}
+}
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.internal.cds;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import org.eclipse.osgi.framework.log.FrameworkLogEntry;
+import org.eclipse.osgi.internal.framework.EquinoxContainer;
+import org.eclipse.osgi.internal.hookregistry.ActivatorHookFactory;
+import org.eclipse.osgi.internal.hookregistry.ClassLoaderHook;
+import org.eclipse.osgi.internal.hookregistry.HookRegistry;
+import org.eclipse.osgi.internal.loader.classpath.ClasspathEntry;
+import org.eclipse.osgi.internal.loader.classpath.ClasspathManager;
+import org.eclipse.osgi.storage.bundlefile.BundleEntry;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Records the bundle classes defined in the class list format used to dump an
+ * AppCDS archive, or verifies the bundle classes defined against such a class list.
+ * <p>
+ * Bundle classes are defined by custom class loaders.  In the class list each of
+ * these classes is given an id and names the ids of its super class and interfaces
+ * along with the jar file it is loaded from.  A class can only be listed if it was
+ * loaded unmodified from the root of a jar file and its super class and interfaces
+ * are listed before it.  Classes loaded by the built-in class loaders are listed
+ * by name and id only.
+ * <p>
+ * In verify mode nothing is listed.  Instead the class load log written by the VM
+ * is read when the framework stops and the bundle class names defined which the VM
+ * reports as loaded from the shared archive are counted.  The log does not tell the
+ * class loaders apart so a name defined by several bundles is counted once.
+ */
+public class AppCDSHookImpls extends ClassLoaderHook implements ActivatorHookFactory {
+	private static final String CLASS_EXT = ".class"; //$NON-NLS-1$
+	private static final String ID = " id: "; //$NON-NLS-1$
+	private static final String SUPER = " super: "; //$NON-NLS-1$
+	private static final String INTERFACES = " interfaces:"; //$NON-NLS-1$
+	private static final String SOURCE = " source: "; //$NON-NLS-1$
+	private static final String SHARED_SOURCE = SOURCE + "shared objects file"; //$NON-NLS-1$
+
+	private final EquinoxContainer container;
+	// the class list to write, or null in verify mode
+	private final File classListFile;
+	// the class load log of the VM to verify against, or null to record the class list
+	private final File classLoadLog;
+
+	// the keys are weak so the classes of a closed class loader can be unloaded
+	/* @GuardedBy("this") */
+	private final Map<Class<?>, Integer> ids = new WeakHashMap<>();
+	/* @GuardedBy("this") */
+	private int nextId = 0;
+	/* @GuardedBy("this") */
+	private final List<String> classList = new ArrayList<>();
+	// the names of the bundle classes defined in verify mode
+	/* @GuardedBy("this") */
+	private final Set<String> defined = new HashSet<>();
+
+	AppCDSHookImpls(EquinoxContainer container, File classListFile, File classLoadLog) {
+		this.container = container;
+		this.classListFile = classListFile;
+		this.classLoadLog = classLoadLog;
+	}
+
+	@Override
+	public void recordClassDefine(String name, Class<?> clazz, byte[] classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager manager) {
+		if (clazz == null) {
+			return;
+		}
+		if (classLoadLog != null) {
+			synchronized (this) {
+				defined.add(name);
+			}
+			return;
+		}
+		String source = getSource(name, classbytes, classpathEntry, entry, manager);
+		if (source == null) {
+			return;
+		}
+		synchronized (this) {
+			// interfaces are listed with java.lang.Object as the super class
+			Integer superId = getId(clazz.isInterface() ? Object.class : clazz.getSuperclass());
+			if (superId == null) {
+				return;
+			}
+			Class<?>[] interfaces = clazz.getInterfaces();
+			int[] interfaceIds = new int[interfaces.length];
+			for (int i = 0; i < interfaces.length; i++) {
+				Integer interfaceId = getId(interfaces[i]);
+				if (interfaceId == null) {
+					return;
+				}
+				interfaceIds[i] = interfaceId;
+			}
+			int id = nextId++;
+			ids.put(clazz, id);
+			StringBuilder line = new StringBuilder(name.replace('.', '/')).append(ID).append(id).append(SUPER).append(superId);
+			if (interfaceIds.length > 0) {
+				line.append(INTERFACES);
+				for (int interfaceId : interfaceIds) {
+					line.append(' ').append(interfaceId);
+				}
+			}
+			line.append(SOURCE).append(source);
+			classList.add(line.toString());
+		}
+	}
+
+	/*
+	 * Returns the path of the jar file the class can be loaded from when the archive
+	 * is dumped, or null if the class cannot be listed.
+	 */
+	private static String getSource(String name, byte[] classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager manager) {
+		File baseFile = classpathEntry.getBundleFile().getBaseFile();
+		if (baseFile == null || !baseFile.isFile() || manager.getGeneration().isMRJar()) {
+			// only classes at the root of a jar file can be listed
+			return null;
+		}
+		if (!entry.getName().equals(name.replace('.', '/').concat(CLASS_EXT))) {
+			return null;
+		}
+		// the archived class is only used if the class bytes are the same; classes
+		// which were changed in size while loading, for example by weaving, are not listed
+		if (entry.getSize() != classbytes.length) {
+			return null;
+		}
+		return baseFile.getAbsolutePath();
+	}
+
+	/*
+	 * Returns the id of a class, listing it first if it is loaded by a built-in class loader.
+	 * Returns null if the class is not listed.
+	 */
+	private Integer getId(Class<?> clazz) {
+		Integer id = ids.get(clazz);
+		if (id == null && isBuiltIn(clazz.getClassLoader())) {
+			id = nextId++;
+			ids.put(clazz, id);
+			classList.add(clazz.getName().replace('.', '/') + ID + id);
+		}
+		return id;
+	}
+
+	private static boolean isBuiltIn(ClassLoader loader) {
+		if (loader == null) {
+			return true;
+		}
+		ClassLoader systemLoader = ClassLoader.getSystemClassLoader();
+		return loader == systemLoader || loader == systemLoader.getParent();
+	}
+
+	/*
+	 * Returns the number of the defined bundle classes the class load log reports
+	 * as loaded from the shared archive.
+	 */
+	private int countShared() {
+		Set<String> notFound = new HashSet<>(defined);
+		int numShared = 0;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(classLoadLog), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// [<decorations>] <class name> source: shared objects file
+				int sourceIndex = line.indexOf(SHARED_SOURCE);
+				if (sourceIndex > 0) {
+					String name = line.substring(Math.max(line.lastIndexOf(' ', sourceIndex - 1), line.lastIndexOf(']', sourceIndex - 1)) + 1, sourceIndex);
+					if (notFound.remove(name)) {
+						numShared++;
+					}
+				}
+			}
+		} catch (IOException e) {
+			container.getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.WARNING, "Error reading the class load log: " + classLoadLog, e); //$NON-NLS-1$
+		}
+		return numShared;
+	}
+
+	void complete() {
+		synchronized (this) {
+			if (classLoadLog != null) {
+				String report = "Class data sharing: " + countShared() + " of " + defined.size() + " bundle class names defined were loaded from the shared archive according to " + classLoadLog + "."; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				container.getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.INFO, report, null);
+				return;
+			}
+			File parent = classListFile.getParentFile();
+			if (parent != null) {
+				parent.mkdirs();
+			}
+			try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(classListFile), StandardCharsets.UTF_8))) {
+				for (String line : classList) {
+					writer.write(line);
+					writer.write('\n');
+				}
+			} catch (IOException e) {
+				container.getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.WARNING, "Error writing the class list: " + classListFile, e); //$NON-NLS-1$
+			}
+		}
+	}
+
+	@Override
+	public BundleActivator createActivator() {
+		return new BundleActivator() {
+			@Override
+			public void start(BundleContext context) {
+				// nothing
+			}
+
+			@Override
+			public void stop(BundleContext context) {
+				complete();
+			}
+		};
+	}
+
+	void registerHooks(HookRegistry hookRegistry) {
+		hookRegistry.addClassLoaderHook(this);
+		hookRegistry.addActivatorHookFactory(this);
+	}
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.container;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.osgi.framework.util.ObjectPool;
+import org.osgi.framework.Version;
+
+/**
+ * Canonicalizes the attribute and directive maps of capabilities and requirements
+ * along with the strings and versions they contain.  Equal maps and values built
+ * for different module revisions are replaced with one shared instance which is
+ * held by the {@link ObjectPool} for as long as it is referenced.
+ * <p>
+ * Only immutable maps may be interned.  A map is only interned if all of its
+ * values are of a type which is immutable ({@link String}, {@link Version},
+ * {@link Long}, {@link Double} or an unmodifiable, empty or singleton {@link List}
+ * of these).
+ * <p>
+ * The number of duplicates replaced and an estimate of the heap they would have
+ * used is recorded and available with {@link #getReport()}.
+ */
+public final class AttributeInterner {
+	private static final Class<?> UNMODIFIABLE_RANDOM_LIST_CLASS = Collections.unmodifiableList(new ArrayList<>(0)).getClass();
+	private static final Class<?> UNMODIFIABLE_SEQUENTIAL_LIST_CLASS = Collections.unmodifiableList(new LinkedList<>()).getClass();
+	private static final Class<?> EMPTY_LIST_CLASS = Collections.emptyList().getClass();
+	private static final Class<?> SINGLETON_LIST_CLASS = Collections.singletonList(null).getClass();
+
+	private static final AtomicLong stringDuplicates = new AtomicLong();
+	private static final AtomicLong versionDuplicates = new AtomicLong();
+	private static final AtomicLong mapDuplicates = new AtomicLong();
+	private static final AtomicLong savedBytes = new AtomicLong();
+
+	private AttributeInterner() {
+		// no instances
+	}
+
+	/**
+	 * Returns the canonical instance of the specified string.
+	 * @param string the string, may be {@code null}
+	 * @return the canonical string
+	 */
+	public static String intern(String string) {
+		if (string == null) {
+			return null;
+		}
+		String result = ObjectPool.intern(string);
+		if (result != string) {
+			stringDuplicates.incrementAndGet();
+			savedBytes.addAndGet(sizeOf(string));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the canonical instance of the specified version.
+	 * @param version the version, may be {@code null}
+	 * @return the canonical version
+	 */
+	public static Version intern(Version version) {
+		if (version == null) {
+			return null;
+		}
+		Version result = ObjectPool.intern(version);
+		if (result != version) {
+			versionDuplicates.incrementAndGet();
+			savedBytes.addAndGet(sizeOf(version));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns an unmodifiable copy of the specified map where the keys and values
+	 * have been interned.  The copy itself is interned if all of its values are
+	 * immutable; otherwise an unmodifiable copy is returned which is not shared.
+	 * @param map the map to copy
+	 * @return the canonical copy of the map
+	 */
+	public static <V> Map<String, V> copyAndIntern(Map<String, V> map) {
+		int size = map.size();
+		if (size == 0) {
+			return Collections.emptyMap();
+		}
+		boolean immutable = true;
+		Map<String, Object> copy = new HashMap<>(size);
+		for (Map.Entry<String, V> entry : map.entrySet()) {
+			Object value = internValue(entry.getValue());
+			immutable &= isImmutable(value);
+			copy.put(intern(entry.getKey()), value);
+		}
+		Map<String, Object> result;
+		if (size == 1) {
+			Map.Entry<String, Object> entry = copy.entrySet().iterator().next();
+			result = Collections.singletonMap(entry.getKey(), entry.getValue());
+		} else {
+			result = Collections.unmodifiableMap(copy);
+		}
+		@SuppressWarnings("unchecked")
+		Map<String, V> typed = (Map<String, V>) result;
+		return immutable ? intern(typed) : typed;
+	}
+
+	/**
+	 * Returns the canonical instance of the specified unmodifiable map.  The
+	 * map is returned as is if any of its values are not immutable.
+	 * @param map an unmodifiable map
+	 * @return the canonical map
+	 */
+	public static <V> Map<String, V> intern(Map<String, V> map) {
+		int size = map.size();
+		if (size == 0) {
+			return map;
+		}
+		for (V value : map.values()) {
+			if (!isImmutable(value)) {
+				return map;
+			}
+		}
+		Map<String, V> result = ObjectPool.intern(map);
+		if (result != map) {
+			mapDuplicates.incrementAndGet();
+			savedBytes.addAndGet(sizeOf(map));
+		}
+		return result;
+	}
+
+	private static Object internValue(Object value) {
+		if (value instanceof String) {
+			return intern((String) value);
+		}
+		if (value instanceof Version) {
+			return intern((Version) value);
+		}
+		if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			List<Object> copy = new ArrayList<>(list.size());
+			for (Object element : list) {
+				copy.add(internValue(element));
+			}
+			return Collections.unmodifiableList(copy);
+		}
+		return value;
+	}
+
+	private static boolean isImmutable(Object value) {
+		if (value instanceof String || value instanceof Version || value instanceof Long || value instanceof Double) {
+			return true;
+		}
+		if (value instanceof List) {
+			Class<?> listClass = value.getClass();
+			if (listClass != UNMODIFIABLE_RANDOM_LIST_CLASS && listClass != UNMODIFIABLE_SEQUENTIAL_LIST_CLASS && listClass != EMPTY_LIST_CLASS && listClass != SINGLETON_LIST_CLASS) {
+				return false;
+			}
+			for (Object element : (List<?>) value) {
+				if (!isImmutable(element)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/*
+	 * The following are rough estimates of the shallow heap used by an object
+	 * on a 64-bit VM with compressed references.  They are only used for reporting.
+	 */
+
+	private static long sizeOf(String string) {
+		// object header and fields, plus the character array
+		return 24 + 16 + 2 * string.length();
+	}
+
+	private static long sizeOf(Version version) {
+		// object header and fields; the qualifier is accounted for when interned
+		return 40;
+	}
+
+	private static long sizeOf(Map<?, ?> map) {
+		int size = map.size();
+		if (size == 1) {
+			// the singleton map
+			return 32;
+		}
+		int tableSize = Integer.highestOneBit(Math.max(1, (int) (size / 0.75f)) * 2 - 1);
+		// the unmodifiable wrapper, the hash map, its table and its nodes
+		return 16 + 48 + 16 + 4 * tableSize + 32 * size;
+	}
+
+	/**
+	 * Returns a report of the number of duplicates which have been replaced with
+	 * a canonical instance and an estimate of the heap saved by doing so.
+	 * @return the report
+	 */
+	public static String getReport() {
+		return "Interned duplicates: strings=" + stringDuplicates.get() + ", versions=" + versionDuplicates.get() + ", maps=" + mapDuplicates.get() + "; estimated bytes saved=" + savedBytes.get(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2012, 2016 IBM Corporation and others.
+ * Copyright (c) 2012, 2019 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -14,6 +14,7 @@
 package org.eclipse.osgi.internal.container;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.eclipse.osgi.container.ModuleCapability;
@@ -22,20 +23,40 @@ import org.eclipse.osgi.internal.framework.FilterImpl;
 import org.eclipse.osgi.util.ManifestElement;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
 import org.osgi.framework.namespace.*;
 import org.osgi.resource.*;
 
 public class Capabilities {
 	static class NamespaceSet {
+		// the fewest candidates which are narrowed down with a secondary index before being matched
+		private static final int SECONDARY_INDEX_THRESHOLD = 8;
+		// the most attribute indexes created for a namespace
+		private static final int MAX_ATTRIBUTE_INDEXES = 8;
+
 		private final String name;
+		private final String versionAttr;
 		private final Map<String, Set<ModuleCapability>> indexes = new HashMap<>();
 		private final Set<ModuleCapability> all = new HashSet<>();
 		private final Set<ModuleCapability> nonStringIndexes = new HashSet<>(0);
+		// Secondary indexes are created on demand when finding capabilities, which may be done
+		// concurrently.  They are only updated when capabilities are added or removed.
+		private final Map<String, VersionIndex> versionIndexes = new ConcurrentHashMap<>();
+		private final Map<String, AttributeIndex> attributeIndexes = new ConcurrentHashMap<>();
 		private final boolean matchMandatory;
 
 		NamespaceSet(String name) {
 			this.name = name;
 			this.matchMandatory = PackageNamespace.PACKAGE_NAMESPACE.equals(name) || BundleNamespace.BUNDLE_NAMESPACE.equals(name) || HostNamespace.HOST_NAMESPACE.equals(name);
+			if (PackageNamespace.PACKAGE_NAMESPACE.equals(name)) {
+				this.versionAttr = PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE;
+			} else if (BundleNamespace.BUNDLE_NAMESPACE.equals(name) || HostNamespace.HOST_NAMESPACE.equals(name)) {
+				this.versionAttr = AbstractWiringNamespace.CAPABILITY_BUNDLE_VERSION_ATTRIBUTE;
+			} else {
+				// by convention generic capabilities use the version attribute
+				this.versionAttr = IdentityNamespace.CAPABILITY_VERSION_ATTRIBUTE;
+			}
 		}
 
 		void addCapability(ModuleCapability capability) {
@@ -43,23 +64,16 @@ public class Capabilities {
 				throw new IllegalArgumentException("Invalid namespace: " + capability.getNamespace() + ": expecting: " + name); //$NON-NLS-1$ //$NON-NLS-2$
 			}
 			all.add(capability);
+			for (AttributeIndex attributeIndex : attributeIndexes.values()) {
+				attributeIndex.add(capability);
+			}
 			// by convention we index by the namespace attribute
 			Object index = capability.getAttributes().get(name);
 			if (index == null) {
 				return;
 			}
-			Collection<?> indexCollection = null;
-			if (index instanceof Collection) {
-				indexCollection = (Collection<?>) index;
-			} else if (index.getClass().isArray()) {
-				indexCollection = Arrays.asList((Object[]) index);
-			}
-			if (indexCollection == null) {
-				addIndex(index, capability);
-			} else {
-				for (Object indexKey : indexCollection) {
-					addIndex(indexKey, capability);
-				}
+			for (Object indexKey : getIndexKeys(index)) {
+				addIndex(indexKey, capability);
 			}
 		}
 
@@ -73,6 +87,10 @@ public class Capabilities {
 					indexes.put((String) indexKey, capabilities);
 				}
 				capabilities.add(capability);
+				VersionIndex versionIndex = versionIndexes.get(indexKey);
+				if (versionIndex != null) {
+					versionIndex.add(capability);
+				}
 			}
 		}
 
@@ -81,23 +99,16 @@ public class Capabilities {
 				throw new IllegalArgumentException("Invalid namespace: " + capability.getNamespace() + ": expecting: " + name); //$NON-NLS-1$//$NON-NLS-2$
 			}
 			all.remove(capability);
+			for (AttributeIndex attributeIndex : attributeIndexes.values()) {
+				attributeIndex.remove(capability);
+			}
 			// by convention we index by the namespace attribute
 			Object index = capability.getAttributes().get(name);
 			if (index == null) {
 				return;
 			}
-			Collection<?> indexCollection = null;
-			if (index instanceof Collection) {
-				indexCollection = (Collection<?>) index;
-			} else if (index.getClass().isArray()) {
-				indexCollection = Arrays.asList((Object[]) index);
-			}
-			if (indexCollection == null) {
-				removeIndex(index, capability);
-			} else {
-				for (Object indexKey : indexCollection) {
-					removeIndex(indexKey, capability);
-				}
+			for (Object indexKey : getIndexKeys(index)) {
+				removeIndex(indexKey, capability);
 			}
 		}
 
@@ -109,6 +120,10 @@ public class Capabilities {
 				if (capabilities != null) {
 					capabilities.remove(capability);
 				}
+				VersionIndex versionIndex = versionIndexes.get(indexKey);
+				if (versionIndex != null) {
+					versionIndex.remove(capability);
+				}
 			}
 		}
 
@@ -134,13 +149,13 @@ public class Capabilities {
 			} else {
 				String indexKey = f.getPrimaryKeyValue(name);
 				if (indexKey == null) {
-					result = match(f, all, synthetic);
+					result = match(f, getAttributeIndexed(f), synthetic);
 				} else {
 					Set<ModuleCapability> indexed = indexes.get(indexKey);
 					if (indexed == null) {
 						result = new ArrayList<>(0);
 					} else {
-						result = match(f, indexed, synthetic);
+						result = match(f, getVersionIndexed(f, indexKey, indexed), synthetic);
 					}
 					if (!nonStringIndexes.isEmpty()) {
 						List<ModuleCapability> nonStringResult = match(f, nonStringIndexes, synthetic);
@@ -155,7 +170,69 @@ public class Capabilities {
 			return result;
 		}
 
-		private List<ModuleCapability> match(Filter f, Set<ModuleCapability> candidates, boolean synthetic) {
+		/*
+		 * Narrows down the capabilities with the primary key to those within the
+		 * version range required by the filter.
+		 */
+		private Collection<ModuleCapability> getVersionIndexed(FilterImpl f, String indexKey, Set<ModuleCapability> indexed) {
+			if (indexed.size() < SECONDARY_INDEX_THRESHOLD) {
+				return indexed;
+			}
+			VersionRange range = f.getVersionRange(versionAttr);
+			if (range == null) {
+				return indexed;
+			}
+			VersionIndex versionIndex = versionIndexes.get(indexKey);
+			if (versionIndex == null) {
+				synchronized (versionIndexes) {
+					versionIndex = versionIndexes.get(indexKey);
+					if (versionIndex == null) {
+						versionIndex = new VersionIndex(versionAttr);
+						for (ModuleCapability capability : indexed) {
+							versionIndex.add(capability);
+						}
+						versionIndexes.put(indexKey, versionIndex);
+					}
+				}
+			}
+			return versionIndex.find(range);
+		}
+
+		/*
+		 * Narrows down all the capabilities to those with an attribute value
+		 * required by the filter, using the attribute which narrows down the most.
+		 */
+		private Collection<ModuleCapability> getAttributeIndexed(FilterImpl f) {
+			if (all.size() < SECONDARY_INDEX_THRESHOLD) {
+				return all;
+			}
+			Collection<ModuleCapability> result = all;
+			for (Map.Entry<String, String> required : f.getRequiredAttributeValues().entrySet()) {
+				AttributeIndex attributeIndex = attributeIndexes.get(required.getKey());
+				if (attributeIndex == null) {
+					synchronized (attributeIndexes) {
+						attributeIndex = attributeIndexes.get(required.getKey());
+						if (attributeIndex == null) {
+							if (attributeIndexes.size() >= MAX_ATTRIBUTE_INDEXES) {
+								continue;
+							}
+							attributeIndex = new AttributeIndex(required.getKey());
+							for (ModuleCapability capability : all) {
+								attributeIndex.add(capability);
+							}
+							attributeIndexes.put(required.getKey(), attributeIndex);
+						}
+					}
+				}
+				Collection<ModuleCapability> candidates = attributeIndex.find(required.getValue());
+				if (candidates.size() < result.size()) {
+					result = candidates;
+				}
+			}
+			return result;
+		}
+
+		private List<ModuleCapability> match(Filter f, Collection<ModuleCapability> candidates, boolean synthetic) {
 			List<ModuleCapability> result = new ArrayList<>(1);
 			for (ModuleCapability candidate : candidates) {
 				if (matches(f, candidate, !synthetic && matchMandatory)) {
@@ -166,6 +243,141 @@ public class Capabilities {
 		}
 	}
 
+	/**
+	 * Indexes capabilities by the version value of an attribute.  Capabilities
+	 * with a value of the attribute that is not a version are always candidates.
+	 */
+	static class VersionIndex {
+		private final String versionAttr;
+		private final NavigableMap<Version, Set<ModuleCapability>> versions = new TreeMap<>();
+		private final Set<ModuleCapability> nonVersions = new HashSet<>(0);
+
+		VersionIndex(String versionAttr) {
+			this.versionAttr = versionAttr;
+		}
+
+		void add(ModuleCapability capability) {
+			Object version = capability.getAttributes().get(versionAttr);
+			if (!(version instanceof Version)) {
+				nonVersions.add(capability);
+				return;
+			}
+			Set<ModuleCapability> capabilities = versions.get(version);
+			if (capabilities == null) {
+				capabilities = new HashSet<>(1);
+				versions.put((Version) version, capabilities);
+			}
+			capabilities.add(capability);
+		}
+
+		void remove(ModuleCapability capability) {
+			Object version = capability.getAttributes().get(versionAttr);
+			if (!(version instanceof Version)) {
+				nonVersions.remove(capability);
+				return;
+			}
+			Set<ModuleCapability> capabilities = versions.get(version);
+			if (capabilities != null) {
+				capabilities.remove(capability);
+				if (capabilities.isEmpty()) {
+					versions.remove(version);
+				}
+			}
+		}
+
+		Collection<ModuleCapability> find(VersionRange range) {
+			List<ModuleCapability> result = new ArrayList<>(nonVersions);
+			if (range.isEmpty()) {
+				return result;
+			}
+			boolean leftInclusive = range.getLeftType() == VersionRange.LEFT_CLOSED;
+			NavigableMap<Version, Set<ModuleCapability>> inRange;
+			if (range.getRight() == null) {
+				inRange = versions.tailMap(range.getLeft(), leftInclusive);
+			} else {
+				inRange = versions.subMap(range.getLeft(), leftInclusive, range.getRight(), range.getRightType() == VersionRange.RIGHT_CLOSED);
+			}
+			for (Set<ModuleCapability> capabilities : inRange.values()) {
+				result.addAll(capabilities);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Indexes capabilities by the string values of an attribute.  Capabilities
+	 * with a value of the attribute that is not a string are always candidates.
+	 */
+	static class AttributeIndex {
+		private final String attr;
+		private final Map<String, Set<ModuleCapability>> values = new HashMap<>();
+		private final Set<ModuleCapability> nonStringValues = new HashSet<>(0);
+
+		AttributeIndex(String attr) {
+			this.attr = attr;
+		}
+
+		void add(ModuleCapability capability) {
+			Object attrValue = capability.getAttributes().get(attr);
+			if (attrValue == null) {
+				return;
+			}
+			for (Object value : getIndexKeys(attrValue)) {
+				if (!(value instanceof String)) {
+					nonStringValues.add(capability);
+				} else {
+					Set<ModuleCapability> capabilities = values.get(value);
+					if (capabilities == null) {
+						capabilities = new HashSet<>(1);
+						values.put((String) value, capabilities);
+					}
+					capabilities.add(capability);
+				}
+			}
+		}
+
+		void remove(ModuleCapability capability) {
+			Object attrValue = capability.getAttributes().get(attr);
+			if (attrValue == null) {
+				return;
+			}
+			for (Object value : getIndexKeys(attrValue)) {
+				if (!(value instanceof String)) {
+					nonStringValues.remove(capability);
+				} else {
+					Set<ModuleCapability> capabilities = values.get(value);
+					if (capabilities != null) {
+						capabilities.remove(capability);
+						if (capabilities.isEmpty()) {
+							values.remove(value);
+						}
+					}
+				}
+			}
+		}
+
+		Collection<ModuleCapability> find(String value) {
+			Set<ModuleCapability> capabilities = values.get(value);
+			if (nonStringValues.isEmpty()) {
+				return capabilities == null ? Collections.<ModuleCapability> emptySet() : capabilities;
+			}
+			Set<ModuleCapability> result = new HashSet<>(nonStringValues);
+			if (capabilities != null) {
+				result.addAll(capabilities);
+			}
+			return result;
+		}
+	}
+
+	static Collection<?> getIndexKeys(Object index) {
+		if (index instanceof Collection) {
+			return (Collection<?>) index;
+		} else if (index instanceof Object[]) {
+			return Arrays.asList((Object[]) index);
+		}
+		return Collections.singleton(index);
+	}
+
 	public static final Pattern MANDATORY_ATTR = Pattern.compile("\\(([^(=<>]+)\\s*[=<>]\\s*[^)]+\\)"); //$NON-NLS-1$
 	public static final String SYNTHETIC_REQUIREMENT = "org.eclipse.osgi.container.synthetic"; //$NON-NLS-1$
 
@@ -136,6 +136,8 @@ public class EquinoxConfiguration implements EnvironmentInfo {
 
 	public final boolean CLASS_CERTIFICATE;
 	public final boolean PARALLEL_CAPABLE;
+	public final int CLASS_LOADER_MISSING_CACHE_SIZE;
+	public final boolean CLASS_LOADER_MISSING_RESOURCES;
 
 	private final Map<Throwable, Integer> exceptions = new LinkedHashMap<>(0);
 
@@ -202,10 +204,21 @@ public class EquinoxConfiguration implements EnvironmentInfo {
 
 	public static final String PROP_EQUINOX_SECURITY = "eclipse.security"; //$NON-NLS-1$
 	public static final String PROP_FILE_LIMIT = "osgi.bundlefile.limit"; //$NON-NLS-1$
+	public static final String PROP_BUNDLE_FILE_MAPPED = "equinox.bundlefile.mapped"; //$NON-NLS-1$
 
 	public final static String PROP_CLASS_CERTIFICATE_SUPPORT = "osgi.support.class.certificate"; //$NON-NLS-1$
 	public final static String PROP_CLASS_LOADER_TYPE = "osgi.classloader.type"; //$NON-NLS-1$
 	public final static String CLASS_LOADER_TYPE_PARALLEL = "parallel"; //$NON-NLS-1$
+	public static final String PROP_CLASS_LOADER_MISSING_CACHE_SIZE = "equinox.classloader.missing.cache.size"; //$NON-NLS-1$
+	public static final String CLASS_LOADER_MISSING_CACHE_SIZE_DEFAULT = "1000"; //$NON-NLS-1$
+	public static final String PROP_CLASS_LOADER_MISSING_RESOURCES = "equinox.classloader.missing.resources"; //$NON-NLS-1$
+	public static final String PROP_CLASS_LOADER_PROFILE = "equinox.classloader.profile"; //$NON-NLS-1$
+	public static final String PROP_CLASS_LOADER_PROFILE_LIMIT = "equinox.classloader.profile.limit"; //$NON-NLS-1$
+	public static final String PROP_CLASS_LOADER_PROFILE_TIMEOUT = "equinox.classloader.profile.timeout"; //$NON-NLS-1$
+	public static final String PROP_CLASS_LOADER_PROFILE_PREFETCH_LIMIT = "equinox.classloader.profile.prefetch.limit"; //$NON-NLS-1$
+
+	public static final String PROP_STORAGE_JOURNAL_LIMIT = "equinox.storage.journal.limit"; //$NON-NLS-1$
+	public static final String PROP_STORAGE_CACHE_ALL_HEADERS = "equinox.storage.cache.all.headers"; //$NON-NLS-1$
 
 	public static final String PROP_FORCED_RESTART = "osgi.forcedRestart"; //$NON-NLS-1$
 	public static final String PROP_IGNORE_USER_CONFIGURATION = "eclipse.ignoreUserConfiguration"; //$NON-NLS-1$
@@ -222,13 +235,18 @@ public class EquinoxConfiguration implements EnvironmentInfo {
 	public static final String PROP_MODULE_AUTO_START_ON_RESOLVE = "osgi.module.auto.start.on.resolve"; //$NON-NLS-1$
 	public static final String PROP_ALLOW_RESTRICTED_PROVIDES = "osgi.equinox.allow.restricted.provides"; //$NON-NLS-1$
 	public static final String PROP_LOG_HISTORY_MAX = "equinox.log.history.max"; //$NON-NLS-1$
+	public static final String PROP_SERVICE_REGISTRY_INDEXED_PROPERTIES = "equinox.serviceregistry.indexed.properties"; //$NON-NLS-1$
+	public static final String SERVICE_REGISTRY_INDEXED_PROPERTIES_DEFAULT = "service.pid,component.name"; //$NON-NLS-1$
 
 	@Deprecated
 	public static final String PROP_RESOLVER_THREAD_COUNT = "equinox.resolver.thead.count"; //$NON-NLS-1$
 	public static final String PROP_EQUINOX_RESOLVER_THREAD_COUNT = "equinox.resolver.thread.count"; //$NON-NLS-1$
 	public static final String PROP_EQUINOX_START_LEVEL_THREAD_COUNT = "equinox.start.level.thread.count"; //$NON-NLS-1$
+	public static final String PROP_EQUINOX_INSTALL_THREAD_COUNT = "equinox.install.thread.count"; //$NON-NLS-1$
 	public static final String PROP_RESOLVER_REVISION_BATCH_SIZE = "equinox.resolver.revision.batch.size"; //$NON-NLS-1$
 	public static final String PROP_RESOLVER_BATCH_TIMEOUT = "equinox.resolver.batch.timeout"; //$NON-NLS-1$
+	public static final String PROP_RESOLVER_PACKAGE_SPACE_CACHE = "equinox.resolver.package.space.cache"; //$NON-NLS-1$
+	public static final String PROP_RESOLVER_RESULT_CACHE = "equinox.resolver.result.cache"; //$NON-NLS-1$
 
 	public static final String PROP_SYSTEM_PROVIDE_HEADER = "equinox.system.provide.header"; //$NON-NLS-1$
 	public static final String SYSTEM_PROVIDE_HEADER_ORIGINAL = "original"; //$NON-NLS-1$
@@ -612,6 +630,17 @@ public class EquinoxConfiguration implements EnvironmentInfo {
 		CLASS_CERTIFICATE = Boolean.valueOf(getConfiguration(PROP_CLASS_CERTIFICATE_SUPPORT, "true")).booleanValue(); //$NON-NLS-1$
 		PARALLEL_CAPABLE = CLASS_LOADER_TYPE_PARALLEL.equals(getConfiguration(PROP_CLASS_LOADER_TYPE));
 
+		int missingCacheSize;
+		try {
+			missingCacheSize = Integer.parseInt(getConfiguration(PROP_CLASS_LOADER_MISSING_CACHE_SIZE, CLASS_LOADER_MISSING_CACHE_SIZE_DEFAULT));
+		} catch (NumberFormatException e) {
+			missingCacheSize = Integer.parseInt(CLASS_LOADER_MISSING_CACHE_SIZE_DEFAULT);
+		}
+		// content on the class path may change while in development mode
+		CLASS_LOADER_MISSING_CACHE_SIZE = devMode ? 0 : Math.max(0, missingCacheSize);
+		// resources are often probed for optional content; only remember their misses when asked to
+		CLASS_LOADER_MISSING_RESOURCES = Boolean.valueOf(getConfiguration(PROP_CLASS_LOADER_MISSING_RESOURCES, "false")).booleanValue(); //$NON-NLS-1$
+
 		// A specified osgi.dev property but unspecified osgi.checkConfiguration
 		// property implies osgi.checkConfiguration = true.
 		inCheckConfigurationMode = Boolean.valueOf(getConfiguration(PROP_CHECK_CONFIGURATION, Boolean.toString(devMode)));
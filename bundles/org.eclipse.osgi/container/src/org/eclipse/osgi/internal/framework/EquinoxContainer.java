@@ -17,6 +17,7 @@ import java.io.IOException;
 import java.security.AccessController;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.osgi.framework.eventmgr.ListenerQueue;
 import org.eclipse.osgi.framework.log.FrameworkLogEntry;
 import org.eclipse.osgi.framework.util.SecureAction;
@@ -52,6 +53,7 @@ public class EquinoxContainer implements ThreadFactory, Runnable {
 	private final boolean bootDelegateAll;
 	private final boolean isProcessClassRecursionSupportedByAll;
 	private final EquinoxEventPublisher eventPublisher;
+	private final AtomicLong classLoaderContentStamp = new AtomicLong();
 
 	private final Object monitor = new Object();
 
@@ -154,6 +156,25 @@ public class EquinoxContainer implements ThreadFactory, Runnable {
 		return false;
 	}
 
+	/**
+	 * Returns a stamp which changes each time new content may have become
+	 * available to existing bundle class loaders, for example when fragments
+	 * are attached to a resolved host or when the content of a bundle could
+	 * not be read.
+	 * @return the current class loader content stamp
+	 */
+	public long getClassLoaderContentStamp() {
+		return classLoaderContentStamp.get();
+	}
+
+	/**
+	 * Indicates that new content may have become available to existing bundle
+	 * class loaders.
+	 */
+	public void classLoaderContentChanged() {
+		classLoaderContentStamp.incrementAndGet();
+	}
+
 	public boolean isProcessClassRecursionSupportedByAll() {
 		return isProcessClassRecursionSupportedByAll;
 	}
@@ -218,6 +218,9 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 
 	@Override
 	public void publishContainerEvent(ContainerEvent type, Module module, Throwable error, FrameworkListener... listeners) {
+		if (type == ContainerEvent.STARTED) {
+			storage.frameworkStarted();
+		}
 		EquinoxEventPublisher publisher = container.getEventPublisher();
 		if (publisher != null) {
 			publisher.publishFrameworkEvent(getType(type), module.getBundle(), error, listeners);
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.internal.framework;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of parsed filters keyed by filter string.
+ * <p>
+ * Filters are held with weak references so the cache never keeps a filter
+ * alive that is no longer used by anyone else.  A parsed filter is stored
+ * under both the string it was parsed from and its normalized string so that
+ * filter strings which only differ in white space share a single instance.
+ * The number of entries is bounded; once the bound is reached new filters are
+ * simply not cached until some of the cached filters have been collected.
+ * <p>
+ * FilterImpl objects are immutable so a cached instance may be handed out to
+ * any number of callers.
+ *
+ * @ThreadSafe
+ */
+public final class FilterCache {
+	static final int DEFAULT_MAX_SIZE = 1024;
+
+	private final int maxSize;
+	private final ConcurrentMap<String, FilterReference> filters = new ConcurrentHashMap<>();
+	private final ReferenceQueue<FilterImpl> queue = new ReferenceQueue<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	FilterCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns the cached filter for the specified filter string or {@code null}
+	 * if the filter is not cached.
+	 * @param filterString the filter string
+	 * @return the cached filter or {@code null}
+	 */
+	FilterImpl get(String filterString) {
+		purge();
+		FilterReference ref = filters.get(filterString);
+		FilterImpl filter = ref == null ? null : ref.get();
+		if (filter == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return filter;
+	}
+
+	/**
+	 * Caches the specified filter which was parsed from the specified filter string.
+	 * If an equal filter is already cached then the cached filter is returned
+	 * instead of the specified filter.
+	 * @param filterString the filter string the filter was parsed from
+	 * @param filter the parsed filter
+	 * @return the filter to use
+	 */
+	FilterImpl put(String filterString, FilterImpl filter) {
+		String normalized = filter.toString();
+		FilterImpl result = putIfAbsent(normalized, filter);
+		if (!normalized.equals(filterString)) {
+			putIfAbsent(filterString, result);
+		}
+		return result;
+	}
+
+	private FilterImpl putIfAbsent(String key, FilterImpl filter) {
+		FilterReference newRef = null;
+		while (true) {
+			FilterReference existing = filters.get(key);
+			if (existing != null) {
+				FilterImpl existingFilter = existing.get();
+				if (existingFilter != null) {
+					return existingFilter;
+				}
+			} else if (filters.size() >= maxSize) {
+				return filter;
+			}
+			if (newRef == null) {
+				newRef = new FilterReference(key, filter, queue);
+			}
+			if (existing == null ? filters.putIfAbsent(key, newRef) == null : filters.replace(key, existing, newRef)) {
+				return filter;
+			}
+		}
+	}
+
+	private void purge() {
+		FilterReference ref;
+		while ((ref = (FilterReference) queue.poll()) != null) {
+			filters.remove(ref.key, ref);
+		}
+	}
+
+	/**
+	 * Returns the number of lookups which found a cached filter.
+	 * @return the number of cache hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups which did not find a cached filter.
+	 * @return the number of cache misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of entries currently in the cache.  The entries
+	 * may include filters which have been collected but not yet purged.
+	 * @return the number of entries in the cache
+	 */
+	public int size() {
+		purge();
+		return filters.size();
+	}
+
+	private static final class FilterReference extends WeakReference<FilterImpl> {
+		final String key;
+
+		FilterReference(String key, FilterImpl filter, ReferenceQueue<FilterImpl> queue) {
+			super(filter, queue);
+			this.key = key;
+		}
+	}
+}
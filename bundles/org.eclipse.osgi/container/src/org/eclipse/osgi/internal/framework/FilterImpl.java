@@ -147,7 +147,23 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 	}
 
 	public static FilterImpl newInstance(String filterString, boolean debug) throws InvalidSyntaxException {
-		return new Parser(filterString, debug).parse();
+		if (debug || filterString == null) {
+			// debug filters print while matching; never share them
+			return new Parser(filterString, debug).parse();
+		}
+		FilterImpl filter = cache.get(filterString);
+		if (filter != null) {
+			return filter;
+		}
+		return cache.put(filterString, new Parser(filterString, false).parse());
+	}
+
+	/**
+	 * Returns the cache of parsed filters used by {@link #newInstance(String)}.
+	 * @return the filter cache
+	 */
+	public static FilterCache getCache() {
+		return cache;
 	}
 
 	/**
@@ -477,6 +493,9 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 
 	/* non public fields and methods for the Filter implementation */
 
+	/** cache of parsed non-debug filters */
+	private static final FilterCache cache = new FilterCache(FilterCache.DEFAULT_MAX_SIZE);
+
 	/** filter operation */
 	private final int op;
 	private static final int EQUAL = 1;
@@ -499,6 +518,27 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 	/* normalized filter string for topLevel Filter object */
 	private transient volatile String filterString;
 
+	/**
+	 * Cache of the filter operand coerced to the types of the values it has been
+	 * compared to. The operand is indexed by the OPERAND_* type constants and
+	 * {@link #INVALID_OPERAND} is used to record that the operand cannot be coerced
+	 * to a type. Only immutable values are cached so the array may be shared by
+	 * racing threads; the worst case is that a value is coerced more than once.
+	 */
+	private transient volatile Object[] operands;
+	private static final int OPERAND_INTEGER = 0;
+	private static final int OPERAND_LONG = 1;
+	private static final int OPERAND_BYTE = 2;
+	private static final int OPERAND_SHORT = 3;
+	private static final int OPERAND_CHARACTER = 4;
+	private static final int OPERAND_FLOAT = 5;
+	private static final int OPERAND_DOUBLE = 6;
+	private static final int OPERAND_BOOLEAN = 7;
+	private static final int OPERAND_VERSION = 8;
+	private static final int OPERAND_APPROX = 9;
+	private static final int OPERAND_COUNT = 10;
+	private static final Object INVALID_OPERAND = new Object();
+
 	FilterImpl(int operation, String attr, Object value, boolean debug) {
 		this.op = operation;
 		this.attr = attr;
@@ -545,6 +585,58 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 		return encoded ? new String(output, 0, cursor) : value;
 	}
 
+	/**
+	 * Returns the operand coerced to the specified type. The coerced operand
+	 * is computed on first use and cached for subsequent evaluations.
+	 * 
+	 * @param type The OPERAND_* type to coerce the operand to.
+	 * @param value2 The operand string.
+	 * @return The coerced operand or <code>null</code> if the operand cannot be
+	 * coerced to the specified type.
+	 */
+	private Object getOperand(int type, Object value2) {
+		Object[] cache = operands;
+		if (cache == null) {
+			operands = cache = new Object[OPERAND_COUNT];
+		}
+		Object result = cache[type];
+		if (result == null) {
+			result = coerceOperand(type, (String) value2);
+			cache[type] = result;
+		}
+		return (result == INVALID_OPERAND) ? null : result;
+	}
+
+	private static Object coerceOperand(int type, String value2) {
+		try {
+			switch (type) {
+				case OPERAND_INTEGER :
+					return Integer.valueOf(value2.trim());
+				case OPERAND_LONG :
+					return Long.valueOf(value2.trim());
+				case OPERAND_BYTE :
+					return Byte.valueOf(value2.trim());
+				case OPERAND_SHORT :
+					return Short.valueOf(value2.trim());
+				case OPERAND_CHARACTER :
+					return Character.valueOf(value2.charAt(0));
+				case OPERAND_FLOAT :
+					return Float.valueOf(value2.trim());
+				case OPERAND_DOUBLE :
+					return Double.valueOf(value2.trim());
+				case OPERAND_BOOLEAN :
+					return Boolean.valueOf(value2.trim());
+				case OPERAND_VERSION :
+					return Version.valueOf(value2.trim());
+				case OPERAND_APPROX :
+					return approxString(value2);
+			}
+		} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+			// fall through to mark the operand invalid for the type
+		}
+		return INVALID_OPERAND;
+	}
+
 	private boolean compare(int operation, Object value1, Object value2) {
 		if (value1 == null) {
 			if (debug) {
@@ -794,7 +886,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 				}
 
 				string = approxString(string);
-				String string2 = approxString((String) value2);
+				String string2 = (String) getOperand(OPERAND_APPROX, value2);
 
 				return string.equalsIgnoreCase(string2);
 			}
@@ -823,12 +915,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		int intval2;
-		try {
-			intval2 = Integer.parseInt(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Integer operand = (Integer) getOperand(OPERAND_INTEGER, value2);
+		if (operand == null) {
 			return false;
 		}
+		int intval2 = operand.intValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -867,12 +958,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		long longval2;
-		try {
-			longval2 = Long.parseLong(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Long operand = (Long) getOperand(OPERAND_LONG, value2);
+		if (operand == null) {
 			return false;
 		}
+		long longval2 = operand.longValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -911,12 +1001,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		byte byteval2;
-		try {
-			byteval2 = Byte.parseByte(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Byte operand = (Byte) getOperand(OPERAND_BYTE, value2);
+		if (operand == null) {
 			return false;
 		}
+		byte byteval2 = operand.byteValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -955,12 +1044,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		short shortval2;
-		try {
-			shortval2 = Short.parseShort(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Short operand = (Short) getOperand(OPERAND_SHORT, value2);
+		if (operand == null) {
 			return false;
 		}
+		short shortval2 = operand.shortValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -999,12 +1087,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		char charval2;
-		try {
-			charval2 = ((String) value2).charAt(0);
-		} catch (IndexOutOfBoundsException e) {
+		Character operand = (Character) getOperand(OPERAND_CHARACTER, value2);
+		if (operand == null) {
 			return false;
 		}
+		char charval2 = operand.charValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -1043,7 +1130,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		boolean boolval2 = Boolean.valueOf(((String) value2).trim()).booleanValue();
+		boolean boolval2 = ((Boolean) getOperand(OPERAND_BOOLEAN, value2)).booleanValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -1082,12 +1169,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		float floatval2;
-		try {
-			floatval2 = Float.parseFloat(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Float operand = (Float) getOperand(OPERAND_FLOAT, value2);
+		if (operand == null) {
 			return false;
 		}
+		float floatval2 = operand.floatValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -1126,12 +1212,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		double doubleval2;
-		try {
-			doubleval2 = Double.parseDouble(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Double operand = (Double) getOperand(OPERAND_DOUBLE, value2);
+		if (operand == null) {
 			return false;
 		}
+		double doubleval2 = operand.doubleValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -1212,7 +1297,10 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 		try {
-			Version version = Version.valueOf(((String) value2).trim());
+			Version version = (Version) getOperand(OPERAND_VERSION, value2);
+			if (version == null) {
+				return false;
+			}
 
 			switch (operation) {
 				case EQUAL : {
@@ -1407,6 +1495,79 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 		return null;
 	}
 
+	/**
+	 * Returns the values which attributes are required to equal for the filter to evaluate to true.
+	 * Only simple filters and the attrs of a base '&amp;' clause, including nested '&amp;' clauses,
+	 * are considered.  Only the first value of an attr is returned.
+	 * @return The required attr values keyed by attr, which is empty if none could be determined.
+	 */
+	public Map<String, String> getRequiredAttributeValues() {
+		switch (op) {
+			case EQUAL :
+				if (value instanceof String)
+					return Collections.singletonMap(attr, (String) value);
+				break;
+			case AND :
+				Map<String, String> result = new HashMap<>();
+				addRequiredAttributeValues(result);
+				return result;
+		}
+		return Collections.emptyMap();
+	}
+
+	private void addRequiredAttributeValues(Map<String, String> result) {
+		for (FilterImpl clause : (FilterImpl[]) value) {
+			if (clause.op == AND) {
+				clause.addRequiredAttributeValues(result);
+			} else if (clause.op == EQUAL && (clause.value instanceof String) && !result.containsKey(clause.attr)) {
+				result.put(clause.attr, (String) clause.value);
+			}
+		}
+	}
+
+	/**
+	 * Returns a range which the version value of an attr must be within for the filter to evaluate to true.
+	 * Only simple filters and the clauses of a base '&amp;' clause, including nested '&amp;' clauses, which
+	 * compare the attr or negate such a comparison are considered.  The range may therefore include versions the filter does not match.
+	 * <p>
+	 * (&amp;(version&gt;=1.0)(!(version&gt;=2.0))) returns [1.0,2.0)
+	 * @param versionAttr the version attr
+	 * @return The version range or null if none could be determined.
+	 */
+	public VersionRange getVersionRange(String versionAttr) {
+		if (op != AND)
+			return getClauseVersionRange(versionAttr);
+		VersionRange result = null;
+		for (FilterImpl clause : (FilterImpl[]) value) {
+			VersionRange range = clause.getVersionRange(versionAttr);
+			if (range != null)
+				result = result == null ? range : result.intersection(range);
+		}
+		return result;
+	}
+
+	private VersionRange getClauseVersionRange(String versionAttr) {
+		boolean not = op == NOT;
+		FilterImpl clause = not ? (FilterImpl) value : this;
+		if (!versionAttr.equals(clause.attr) || !(clause.value instanceof String))
+			return null;
+		Version version;
+		try {
+			version = Version.valueOf(((String) clause.value).trim());
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		switch (clause.op) {
+			case EQUAL :
+				return not ? null : new VersionRange(VersionRange.LEFT_CLOSED, version, version, VersionRange.RIGHT_CLOSED);
+			case GREATER :
+				return not ? new VersionRange(VersionRange.LEFT_CLOSED, Version.emptyVersion, version, VersionRange.RIGHT_OPEN) : new VersionRange(VersionRange.LEFT_CLOSED, version, null, VersionRange.RIGHT_OPEN);
+			case LESS :
+				return not ? new VersionRange(VersionRange.LEFT_OPEN, version, null, VersionRange.RIGHT_OPEN) : new VersionRange(VersionRange.LEFT_CLOSED, Version.emptyVersion, version, VersionRange.RIGHT_CLOSED);
+		}
+		return null;
+	}
+
 	public List<FilterImpl> getChildren() {
 		if (value instanceof FilterImpl[]) {
 			return new ArrayList<>(Arrays.asList((FilterImpl[]) value));
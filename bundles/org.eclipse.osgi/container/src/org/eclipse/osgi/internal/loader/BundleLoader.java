@@ -29,7 +29,10 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.eclipse.osgi.container.Module;
@@ -48,7 +51,6 @@ import org.eclipse.osgi.internal.framework.EquinoxContainer;
 import org.eclipse.osgi.internal.hookregistry.ClassLoaderHook;
 import org.eclipse.osgi.internal.loader.buddy.PolicyHandler;
 import org.eclipse.osgi.internal.loader.sources.MultiSourcePackage;
-import org.eclipse.osgi.internal.loader.sources.NullPackageSource;
 import org.eclipse.osgi.internal.loader.sources.PackageSource;
 import org.eclipse.osgi.internal.loader.sources.SingleSourcePackage;
 import org.eclipse.osgi.storage.BundleInfo.Generation;
@@ -104,8 +106,12 @@ public class BundleLoader extends ModuleLoader {
 	private final Collection<String> exportedPackages;
 	private final BundleLoaderSources exportSources;
 
-	/* cache of required package sources. Key is packagename, value is PackageSource */
-	private final Map<String, PackageSource> requiredSources = new HashMap<>();
+	/* flattened required package sources. Key is packagename, value is PackageSource */
+	private volatile RequiredSources requiredSources;
+	/* incremented each time the packages provided by the required bundles may have changed */
+	private final AtomicLong requiredSourcesStamp = new AtomicLong();
+	/* the loaders whose flattened required package sources depend on the packages of this loader */
+	private final Map<BundleLoader, Boolean> requiredSourcesDependents = Collections.synchronizedMap(new WeakHashMap<BundleLoader, Boolean>());
 	/* cache of imported packages. Key is packagename, Value is PackageSource */
 	private final Map<String, PackageSource> importedSources = new HashMap<>();
 	private final List<ModuleWire> requiredBundleWires;
@@ -129,6 +135,20 @@ public class BundleLoader extends ModuleLoader {
 	private final AtomicBoolean triggerClassLoaded = new AtomicBoolean(false);
 	private final AtomicBoolean firstUseOfInvalidLoader = new AtomicBoolean(false);
 
+	/*
+	 * Names of classes and resources that could not be found in the imports,
+	 * required bundles, local class path or dynamic imports of this loader.
+	 * The value is true if the search must terminate at that point (the package
+	 * is imported) or false if the search continues with the post hooks.
+	 * Cleared when the container class loader content stamp changes.
+	 * Resource names are only remembered if configured to.
+	 */
+	private final int missingCacheSize;
+	private final boolean missingResourcesEnabled;
+	private final Map<String, Boolean> missingClasses = new ConcurrentHashMap<>();
+	private final Map<String, Boolean> missingResources = new ConcurrentHashMap<>();
+	private volatile long missingStamp;
+
 	/**
 	 * Returns the package name from the specified class name.
 	 * The returned package is dot seperated.
@@ -170,6 +190,9 @@ public class BundleLoader extends ModuleLoader {
 		this.container = container;
 		this.debug = container.getConfiguration().getDebug();
 		this.parent = parent;
+		this.missingCacheSize = container.getConfiguration().CLASS_LOADER_MISSING_CACHE_SIZE;
+		this.missingResourcesEnabled = container.getConfiguration().CLASS_LOADER_MISSING_RESOURCES;
+		this.missingStamp = container.getClassLoaderContentStamp();
 
 		// init the provided packages set
 		exportSources = new BundleLoaderSources(this);
@@ -309,6 +332,23 @@ public class BundleLoader extends ModuleLoader {
 		addFragmentExports(wiring.getModuleCapabilities(PackageNamespace.PACKAGE_NAMESPACE));
 		loadClassLoaderFragments(fragments);
 		clearManifestLocalizationCache();
+		container.classLoaderContentChanged();
+		requiredContentChanged();
+	}
+
+	/*
+	 * Discards the flattened required package sources of the loaders which
+	 * depend on the packages of this loader.
+	 */
+	private void requiredContentChanged() {
+		BundleLoader[] dependents;
+		synchronized (requiredSourcesDependents) {
+			dependents = requiredSourcesDependents.keySet().toArray(new BundleLoader[0]);
+			requiredSourcesDependents.clear();
+		}
+		for (BundleLoader dependent : dependents) {
+			dependent.requiredSourcesStamp.incrementAndGet();
+		}
 	}
 
 	protected void clearManifestLocalizationCache() {
@@ -448,6 +488,60 @@ public class BundleLoader extends ModuleLoader {
 		}
 		if (result != null)
 			return result;
+		// 3-6) search the wires and local class path unless a previous search failed
+		long stamp = getMissingStamp();
+		Boolean missing = missingClasses.get(name);
+		if (missing != null) {
+			// still need to check for a class defined directly with the class loader
+			result = getModuleClassLoader().publicFindLoaded(name);
+			if (result == null && missing.booleanValue())
+				throw new ClassNotFoundException(name + " cannot be found by " + this); //$NON-NLS-1$
+		} else {
+			try {
+				result = findClassFromWires(name, pkgName);
+			} catch (ClassNotFoundException e) {
+				// an exception with a cause is a lazy activation error; never remember those
+				if (e.getCause() == null)
+					addMissing(missingClasses, name, pkgName, stamp, true);
+				throw e;
+			}
+			if (result == null)
+				addMissing(missingClasses, name, pkgName, stamp, false);
+		}
+		if (result == null)
+			try {
+				result = (Class<?>) searchHooks(name, POST_CLASS);
+			} catch (ClassNotFoundException e) {
+				throw e;
+			} catch (FileNotFoundException e) {
+				// will not happen
+			}
+		// do buddy policy loading
+		if (result == null && policy != null)
+			result = policy.doBuddyClassLoading(name);
+		if (result != null)
+			return result;
+		// hack to support backwards compatibility for bootdelegation
+		// or last resort; do class context trick to work around VM bugs
+		if (parent != null && !bootDelegation && ((checkParent && container.getConfiguration().compatibilityBootDelegation) || isRequestFromVM())) {
+			// we don't need to continue if a CNFE is thrown here.
+			try {
+				return parent.loadClass(name);
+			} catch (ClassNotFoundException e) {
+				// we want to generate our own exception below
+			}
+		}
+		throw new ClassNotFoundException(name + " cannot be found by " + this); //$NON-NLS-1$
+	}
+
+	/*
+	 * Searches the imported packages, required bundles, local class path and
+	 * dynamic imports for a class.  Returns null if the class is not found and
+	 * the search should continue.  Throws ClassNotFoundException if the search
+	 * must terminate without finding the class.
+	 */
+	private Class<?> findClassFromWires(String name, String pkgName) throws ClassNotFoundException {
+		Class<?> result = null;
 		// 3) search the imported packages
 		PackageSource source = findImportedSource(pkgName, null);
 		if (source != null) {
@@ -486,30 +580,37 @@ public class BundleLoader extends ModuleLoader {
 			}
 		}
 
-		if (result == null)
-			try {
-				result = (Class<?>) searchHooks(name, POST_CLASS);
-			} catch (ClassNotFoundException e) {
-				throw e;
-			} catch (FileNotFoundException e) {
-				// will not happen
-			}
-		// do buddy policy loading
-		if (result == null && policy != null)
-			result = policy.doBuddyClassLoading(name);
-		if (result != null)
-			return result;
-		// hack to support backwards compatibility for bootdelegation
-		// or last resort; do class context trick to work around VM bugs
-		if (parent != null && !bootDelegation && ((checkParent && container.getConfiguration().compatibilityBootDelegation) || isRequestFromVM())) {
-			// we don't need to continue if a CNFE is thrown here.
-			try {
-				return parent.loadClass(name);
-			} catch (ClassNotFoundException e) {
-				// we want to generate our own exception below
-			}
-		}
-		throw new ClassNotFoundException(name + " cannot be found by " + this); //$NON-NLS-1$
+		return null;
+	}
+
+	/*
+	 * Returns the current class loader content stamp, clearing the missing
+	 * class and resource names if new content has become available.
+	 */
+	private long getMissingStamp() {
+		long stamp = container.getClassLoaderContentStamp();
+		if (stamp != missingStamp) {
+			missingClasses.clear();
+			missingResources.clear();
+			missingStamp = stamp;
+		}
+		return stamp;
+	}
+
+	/*
+	 * Remembers that a class or resource was not found by a search started at
+	 * the specified stamp.  Packages which are dynamically imported are never
+	 * remembered because a provider may be installed at any time.  A search
+	 * which could not read the content of a bundle changes the stamp, so the
+	 * miss is not remembered.
+	 */
+	private void addMissing(Map<String, Boolean> missing, String name, String pkgName, long stamp, boolean terminal) {
+		if (missingCacheSize == 0 || isDynamicallyImported(pkgName))
+			return;
+		if (missing.size() >= missingCacheSize)
+			missing.clear();
+		if (stamp == container.getClassLoaderContentStamp())
+			missing.put(name, Boolean.valueOf(terminal));
 	}
 
 	@SuppressWarnings("unchecked")
@@ -634,6 +735,52 @@ public class BundleLoader extends ModuleLoader {
 		}
 		if (result != null)
 			return result;
+		// 3-6) search the wires and local class path unless a previous search failed
+		long stamp = getMissingStamp();
+		Boolean missing = missingResourcesEnabled ? missingResources.get(name) : null;
+		if (missing != null) {
+			if (missing.booleanValue())
+				return null;
+		} else {
+			try {
+				result = findResourceFromWires(name, pkgName);
+			} catch (FileNotFoundException e) {
+				if (missingResourcesEnabled)
+					addMissing(missingResources, name, pkgName, stamp, true);
+				return null;
+			}
+			if (result == null && missingResourcesEnabled)
+				addMissing(missingResources, name, pkgName, stamp, false);
+		}
+		if (result == null)
+			try {
+				result = (URL) searchHooks(name, POST_RESOURCE);
+			} catch (FileNotFoundException e) {
+				return null;
+			} catch (ClassNotFoundException e) {
+				// will not happen
+			}
+		// do buddy policy loading
+		if (result == null && policy != null)
+			result = policy.doBuddyResourceLoading(name);
+		if (result != null)
+			return result;
+		// hack to support backwards compatibility for bootdelegation
+		// or last resort; do class context trick to work around VM bugs
+		if (parent != null && !bootDelegation && (container.getConfiguration().compatibilityBootDelegation || isRequestFromVM()))
+			// we don't need to continue if the resource is not found here
+			return parent.getResource(name);
+		return result;
+	}
+
+	/*
+	 * Searches the imported packages, required bundles, local class path and
+	 * dynamic imports for a resource.  Returns null if the resource is not found
+	 * and the search should continue.  Throws FileNotFoundException if the search
+	 * must terminate without finding the resource.
+	 */
+	private URL findResourceFromWires(String name, String pkgName) throws FileNotFoundException {
+		URL result = null;
 		// 3) search the imported packages
 		PackageSource source = findImportedSource(pkgName, null);
 		if (source != null) {
@@ -641,7 +788,10 @@ public class BundleLoader extends ModuleLoader {
 				Debug.println("BundleLoader[" + this + "] loading from import package: " + source); //$NON-NLS-1$ //$NON-NLS-2$
 			}
 			// 3) found import source terminate search at the source
-			return source.getResource(name);
+			result = source.getResource(name);
+			if (result == null)
+				throw new FileNotFoundException(name);
+			return result;
 		}
 		// 4) search the required bundles
 		source = findRequiredSource(pkgName, null);
@@ -660,30 +810,16 @@ public class BundleLoader extends ModuleLoader {
 		// 6) attempt to find a dynamic import source; only do this if a required source was not found
 		if (source == null) {
 			source = findDynamicSource(pkgName);
-			if (source != null)
+			if (source != null) {
 				// must return the result of the dynamic import and do not continue
-				return source.getResource(name);
+				result = source.getResource(name);
+				if (result == null)
+					throw new FileNotFoundException(name);
+				return result;
+			}
 		}
 
-		if (result == null)
-			try {
-				result = (URL) searchHooks(name, POST_RESOURCE);
-			} catch (FileNotFoundException e) {
-				return null;
-			} catch (ClassNotFoundException e) {
-				// will not happen
-			}
-		// do buddy policy loading
-		if (result == null && policy != null)
-			result = policy.doBuddyResourceLoading(name);
-		if (result != null)
-			return result;
-		// hack to support backwards compatibility for bootdelegation
-		// or last resort; do class context trick to work around VM bugs
-		if (parent != null && !bootDelegation && (container.getConfiguration().compatibilityBootDelegation || isRequestFromVM()))
-			// we don't need to continue if the resource is not found here
-			return parent.getResource(name);
-		return result;
+		return null;
 	}
 
 	/**
@@ -978,7 +1114,7 @@ public class BundleLoader extends ModuleLoader {
 		return (BundleLoader) provider.getModuleLoader();
 	}
 
-	final void addProvidedPackageNames(String packageName, List<String> result, boolean subPackages, Collection<BundleLoader> visited) {
+	final void addProvidedPackageNames(String packageName, Collection<String> result, boolean subPackages, Collection<BundleLoader> visited) {
 		if (visited.contains(this))
 			return;
 		visited.add(this);
@@ -1116,6 +1252,8 @@ public class BundleLoader extends ModuleLoader {
 
 		if (dynamicImports.size() > 0) {
 			addDynamicImportPackage(dynamicImports.toArray(new String[dynamicImports.size()]));
+			// previous misses may now be found with the new dynamic imports
+			container.classLoaderContentChanged();
 
 			Map<String, String> dynamicImportMap = new HashMap<>();
 			dynamicImportMap.put(Constants.DYNAMICIMPORT_PACKAGE, importSpec.toString());
@@ -1195,13 +1333,79 @@ public class BundleLoader extends ModuleLoader {
 		if (requiredBundleWires.isEmpty()) {
 			return null;
 		}
-		synchronized (requiredSources) {
-			PackageSource result = requiredSources.get(pkgName);
-			if (result != null)
-				return result.isNullSource() ? null : result;
+		long stamp = requiredSourcesStamp.get();
+		RequiredSources current = requiredSources;
+		if (current != null && current.stamp == stamp) {
+			return current.sources.get(pkgName);
+		}
+		if (visited != null) {
+			// in the middle of searching another loader; do not flatten while the graph is being walked
+			return createRequiredSource(pkgName, visited);
+		}
+		long contentStamp = container.getClassLoaderContentStamp();
+		current = createRequiredSources(stamp);
+		// register with the required loaders so that a change to their packages discards the flattened sources
+		Set<BundleLoader> requiredLoaders = new HashSet<>();
+		addRequiredLoaders(requiredLoaders);
+		for (BundleLoader requiredLoader : requiredLoaders) {
+			requiredLoader.requiredSourcesDependents.put(this, Boolean.TRUE);
+		}
+		if (contentStamp == container.getClassLoaderContentStamp()) {
+			// only publish if no fragments were attached while flattening
+			requiredSources = current;
+		}
+		return current.sources.get(pkgName);
+	}
+
+	/*
+	 * Adds all the loaders which are reachable through the Require-Bundle wires.
+	 */
+	private void addRequiredLoaders(Set<BundleLoader> requiredLoaders) {
+		for (ModuleWire bundleWire : requiredBundleWires) {
+			BundleLoader loader = getProviderLoader(bundleWire);
+			if (loader != null && requiredLoaders.add(loader)) {
+				loader.addRequiredLoaders(requiredLoaders);
+			}
+		}
+	}
+
+	/*
+	 * Flattens the packages provided by the required bundles into a single map
+	 * so that later lookups do not have to walk the Require-Bundle graph.
+	 */
+	private RequiredSources createRequiredSources(long stamp) {
+		Collection<String> packageNames = getRequiredPackageNames();
+		Map<String, PackageSource> sources = new HashMap<>(packageNames.size());
+		for (String packageName : packageNames) {
+			PackageSource source = createRequiredSource(packageName, new HashSet<BundleLoader>());
+			if (source != null) {
+				sources.put(packageName, source);
+			}
+		}
+		if (debug.DEBUG_LOADER) {
+			Debug.println("BundleLoader[" + this + "] flattened required bundle packages: " + sources.size()); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return new RequiredSources(stamp, Collections.unmodifiableMap(sources));
+	}
+
+	/*
+	 * Gets the names of the packages provided by the required bundles.
+	 */
+	private Collection<String> getRequiredPackageNames() {
+		// use sets; large Require-Bundle graphs provide many packages
+		Collection<String> packageNames = new LinkedHashSet<>();
+		Collection<BundleLoader> visited = new HashSet<>();
+		visited.add(this); // always add ourselves so we do not recurse back to ourselves
+		for (ModuleWire bundleWire : requiredBundleWires) {
+			BundleLoader loader = getProviderLoader(bundleWire);
+			if (loader != null) {
+				loader.addProvidedPackageNames(DEFAULT_PACKAGE, packageNames, true, visited);
+			}
 		}
-		if (visited == null)
-			visited = new ArrayList<>();
+		return packageNames;
+	}
+
+	private PackageSource createRequiredSource(String pkgName, Collection<BundleLoader> visited) {
 		if (!visited.contains(this))
 			visited.add(this); // always add ourselves so we do not recurse back to ourselves
 		List<PackageSource> result = new ArrayList<>(3);
@@ -1211,24 +1415,16 @@ public class BundleLoader extends ModuleLoader {
 				loader.addExportedProvidersFor(pkgName, result, visited);
 			}
 		}
-		// found some so cache the result for next time and return
-		PackageSource source;
 		if (result.size() == 0) {
-			// did not find it in our required bundles lets record the failure
-			// so we do not have to do the search again for this package.
-			source = NullPackageSource.getNullPackageSource(pkgName);
+			// did not find it in our required bundles
+			return null;
 		} else if (result.size() == 1) {
 			// if there is just one source, remember just the single source 
-			source = result.get(0);
-		} else {
-			// if there was more than one source, build a multisource and cache that.
-			PackageSource[] srcs = result.toArray(new PackageSource[result.size()]);
-			source = createMultiSource(pkgName, srcs);
+			return result.get(0);
 		}
-		synchronized (requiredSources) {
-			requiredSources.put(source.getId(), source);
-		}
-		return source.isNullSource() ? null : source;
+		// if there was more than one source, build a multisource
+		PackageSource[] srcs = result.toArray(new PackageSource[result.size()]);
+		return createMultiSource(pkgName, srcs);
 	}
 
 	/*
@@ -1266,4 +1462,14 @@ public class BundleLoader extends ModuleLoader {
 	public boolean isTriggerSet() {
 		return triggerClassLoaded.get();
 	}
+
+	private static final class RequiredSources {
+		final long stamp;
+		final Map<String, PackageSource> sources;
+
+		RequiredSources(long stamp, Map<String, PackageSource> sources) {
+			this.stamp = stamp;
+			this.sources = sources;
+		}
+	}
 }
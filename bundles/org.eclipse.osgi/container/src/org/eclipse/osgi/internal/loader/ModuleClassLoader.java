@@ -21,6 +21,8 @@ import java.net.URL;
 import java.security.*;
 import java.security.cert.Certificate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.eclipse.osgi.container.ModuleRevision;
 import org.eclipse.osgi.internal.debug.Debug;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
@@ -84,7 +86,33 @@ public abstract class ModuleClassLoader extends ClassLoader implements BundleRef
 		}
 	}
 
-	private final Map<String, Thread> classNameLocks = new HashMap<>(5);
+	/**
+	 * A lock held by a thread while defining a class name.  Threads waiting
+	 * for the same class name wait on the lock itself so that releasing it
+	 * only wakes up the threads interested in that class name.
+	 */
+	private static final class ClassNameLock {
+		final Thread owner;
+		/* @GuardedBy("this") */
+		private boolean released = false;
+
+		ClassNameLock(Thread owner) {
+			this.owner = owner;
+		}
+
+		synchronized void await() throws InterruptedException {
+			while (!released) {
+				wait();
+			}
+		}
+
+		synchronized void release() {
+			released = true;
+			notifyAll();
+		}
+	}
+
+	private final ConcurrentMap<String, ClassNameLock> classNameLocks = new ConcurrentHashMap<>(16, 0.75f, 1);
 	private final Object pkgLock = new Object();
 
 	/**
@@ -404,39 +432,44 @@ public abstract class ModuleClassLoader extends ClassLoader implements BundleRef
 	}
 
 	private boolean lockClassName(String classname) {
-		synchronized (classNameLocks) {
-			Object lockingThread = classNameLocks.get(classname);
-			Thread current = Thread.currentThread();
-			if (lockingThread == current)
-				return false;
-			boolean previousInterruption = Thread.interrupted();
-			try {
-				while (true) {
+		Thread current = Thread.currentThread();
+		ClassNameLock lockingThread = classNameLocks.get(classname);
+		if (lockingThread != null && lockingThread.owner == current)
+			return false;
+		ClassNameLock lock = null;
+		boolean previousInterruption = Thread.interrupted();
+		try {
+			while (true) {
+				if (lockingThread == null) {
+					if (lock == null) {
+						lock = new ClassNameLock(current);
+					}
+					lockingThread = classNameLocks.putIfAbsent(classname, lock);
 					if (lockingThread == null) {
-						classNameLocks.put(classname, current);
 						return true;
 					}
-
-					classNameLocks.wait();
-					lockingThread = classNameLocks.get(classname);
-				}
-			} catch (InterruptedException e) {
-				previousInterruption = true;
-				// must not throw LinkageError or ClassNotFoundException here because that will cause all threads
-				// to fail to load the class (see bug 490902)
-				throw new Error("Interrupted while waiting for classname lock: " + classname, e); //$NON-NLS-1$
-			} finally {
-				if (previousInterruption) {
-					current.interrupt();
 				}
+
+				lockingThread.await();
+				lockingThread = classNameLocks.get(classname);
+			}
+		} catch (InterruptedException e) {
+			previousInterruption = true;
+			// must not throw LinkageError or ClassNotFoundException here because that will cause all threads
+			// to fail to load the class (see bug 490902)
+			throw new Error("Interrupted while waiting for classname lock: " + classname, e); //$NON-NLS-1$
+		} finally {
+			if (previousInterruption) {
+				current.interrupt();
 			}
 		}
 	}
 
 	private void unlockClassName(String classname) {
-		synchronized (classNameLocks) {
-			classNameLocks.remove(classname);
-			classNameLocks.notifyAll();
+		// remove before release so the woken threads do not find the released lock
+		ClassNameLock lock = classNameLocks.remove(classname);
+		if (lock != null) {
+			lock.release();
 		}
 	}
 
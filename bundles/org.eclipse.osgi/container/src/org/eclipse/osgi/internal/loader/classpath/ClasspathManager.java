@@ -42,6 +42,7 @@ import org.eclipse.osgi.internal.loader.ModuleClassLoader.DefineClassResult;
 import org.eclipse.osgi.internal.messages.Msg;
 import org.eclipse.osgi.internal.weaving.WeavingHookConfigurator;
 import org.eclipse.osgi.storage.BundleInfo.Generation;
+import org.eclipse.osgi.storage.ClassLoadProfile;
 import org.eclipse.osgi.storage.NativeCodeFinder;
 import org.eclipse.osgi.storage.Storage;
 import org.eclipse.osgi.storage.bundlefile.BundleEntry;
@@ -70,6 +71,7 @@ public class ClasspathManager {
 	private final ModuleClassLoader classloader;
 	private final HookRegistry hookRegistry;
 	private final Debug debug;
+	private final ClassLoadProfile classLoadProfile;
 
 	// TODO Note that PDE has internal dependency on this field type/name (bug 267238)
 	private final ClasspathEntry[] entries;
@@ -89,6 +91,7 @@ public class ClasspathManager {
 		EquinoxConfiguration configuration = generation.getBundleInfo().getStorage().getConfiguration();
 		this.debug = configuration.getDebug();
 		this.hookRegistry = configuration.getHookRegistry();
+		this.classLoadProfile = generation.getBundleInfo().getStorage().getClassLoadProfile();
 		this.generation = generation;
 		this.classloader = classloader;
 		String[] cp = getClassPath(generation.getRevision());
@@ -622,9 +625,13 @@ public class ClasspathManager {
 		if (entry == null)
 			return null;
 
-		byte[] classbytes;
+		// only classes from the root bundle file of the host are profiled
+		boolean profiled = classLoadProfile.isActive() && classpathEntry.getBundleFile() == generation.getBundleFile() && !generation.isMRJar();
+		byte[] classbytes = profiled ? classLoadProfile.takePrefetched(classpathEntry.getBundleFile(), filename) : null;
 		try {
-			classbytes = entry.getBytes();
+			if (classbytes == null || classbytes.length != entry.getSize()) {
+				classbytes = entry.getBytes();
+			}
 		} catch (IOException e) {
 			if (debug.DEBUG_LOADER)
 				Debug.println("  IOException reading " + filename + " from " + classpathEntry.getBundleFile()); //$NON-NLS-1$ //$NON-NLS-2$
@@ -636,7 +643,11 @@ public class ClasspathManager {
 		}
 
 		try {
-			return defineClass(name, classbytes, classpathEntry, entry, hooks);
+			Class<?> result = defineClass(name, classbytes, classpathEntry, entry, hooks);
+			if (profiled && result != null) {
+				classLoadProfile.record(generation, filename);
+			}
+			return result;
 		} catch (Error e) {
 			if (debug.DEBUG_LOADER)
 				Debug.println("  error defining class " + name); //$NON-NLS-1$
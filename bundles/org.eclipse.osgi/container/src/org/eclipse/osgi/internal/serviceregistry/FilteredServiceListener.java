@@ -194,6 +194,15 @@ class FilteredServiceListener implements ServiceListener, ListenerHook.ListenerI
 		return removed;
 	}
 
+	/**
+	 * Returns the objectClass required by the filter of this listener.
+	 * @return The objectClass required by the filter or <code>null</code> if
+	 * the listener may receive events for services of any objectClass.
+	 */
+	String getObjectClass() {
+		return objectClass;
+	}
+
 	/** 
 	 * Mark the service listener registration as removed.
 	 */
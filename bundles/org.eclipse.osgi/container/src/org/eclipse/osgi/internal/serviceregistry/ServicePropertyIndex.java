@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.internal.serviceregistry;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An index of published services by the value of a single service property.
+ * <p>
+ * Only {@code String} values (including arrays and collections of {@code String})
+ * are indexed by value since a filter equality clause on a {@code String} value
+ * is an exact string comparison.  Registrations with any other value type for
+ * the property must be compared using the filter type coercion rules and are
+ * therefore always returned as candidates.
+ * <p>
+ * All lists held by the index are sorted in the natural order of
+ * ServiceRegistrationImpl and are sets in that there must be no two
+ * entries in a list which are equal.  The lists are immutable snapshots
+ * which are replaced on modification so that lookups do not require a lock.
+ * Modifications must be guarded by the service registry lock.
+ *
+ * @ThreadSafe
+ */
+class ServicePropertyIndex {
+	/** The service property key this index is for. */
+	private final String key;
+	/** Registrations by the String value of the indexed property. */
+	private final ConcurrentMap<String, List<ServiceRegistrationImpl<?>>> byValue = new ConcurrentHashMap<>();
+	/** Registrations which have a value for the indexed property which cannot be indexed. */
+	private volatile List<ServiceRegistrationImpl<?>> unindexed = Collections.emptyList();
+
+	ServicePropertyIndex(String key) {
+		this.key = key;
+	}
+
+	/**
+	 * Returns the service property key this index is for.
+	 * @return the service property key
+	 */
+	String getKey() {
+		return key;
+	}
+
+	/**
+	 * Adds the registration to the index using the specified properties.
+	 * @param registration the registration to add
+	 * @param properties the properties of the registration
+	 */
+	void add(ServiceRegistrationImpl<?> registration, Map<String, Object> properties) {
+		Object value = properties.get(key);
+		if (value == null) {
+			return;
+		}
+		Collection<String> values = getIndexValues(value);
+		if (values == null) {
+			unindexed = ServiceRegistry.insertRegistration(unindexed, registration);
+			return;
+		}
+		for (String v : values) {
+			byValue.put(v, ServiceRegistry.insertRegistration(byValue.get(v), registration));
+		}
+	}
+
+	/**
+	 * Removes the registration from the index using the specified properties.
+	 * The properties must be the same properties used to add the registration.
+	 * @param registration the registration to remove
+	 * @param properties the properties used to add the registration
+	 */
+	void remove(ServiceRegistrationImpl<?> registration, Map<String, Object> properties) {
+		Object value = properties.get(key);
+		if (value == null) {
+			return;
+		}
+		Collection<String> values = getIndexValues(value);
+		if (values == null) {
+			unindexed = ServiceRegistry.removeRegistration(unindexed, registration);
+			return;
+		}
+		for (String v : values) {
+			List<ServiceRegistrationImpl<?>> registrations = ServiceRegistry.removeRegistration(byValue.get(v), registration);
+			if (registrations.isEmpty()) {
+				byValue.remove(v);
+			} else {
+				byValue.put(v, registrations);
+			}
+		}
+	}
+
+	/**
+	 * Returns a sorted list of the registrations which may have the specified
+	 * value for the indexed property.  The result may contain registrations which
+	 * do not match the value and must still be checked against the filter.
+	 * The result must not be modified.
+	 * @param value the property value
+	 * @return a sorted list of candidate registrations.
+	 */
+	List<ServiceRegistrationImpl<?>> lookup(String value) {
+		List<ServiceRegistrationImpl<?>> registrations = byValue.get(value);
+		List<ServiceRegistrationImpl<?>> unindexedSnapshot = unindexed;
+		if (registrations == null) {
+			return unindexedSnapshot;
+		}
+		if (unindexedSnapshot.isEmpty()) {
+			return registrations;
+		}
+		// merge the two sorted lists
+		List<ServiceRegistrationImpl<?>> result = new ArrayList<>(registrations.size() + unindexedSnapshot.size());
+		Iterator<ServiceRegistrationImpl<?>> iter1 = registrations.iterator();
+		Iterator<ServiceRegistrationImpl<?>> iter2 = unindexedSnapshot.iterator();
+		ServiceRegistrationImpl<?> next1 = iter1.next();
+		ServiceRegistrationImpl<?> next2 = iter2.next();
+		while (next1 != null || next2 != null) {
+			if (next2 == null || (next1 != null && next1.compareTo(next2) <= 0)) {
+				result.add(next1);
+				next1 = iter1.hasNext() ? iter1.next() : null;
+			} else {
+				result.add(next2);
+				next2 = iter2.hasNext() ? iter2.next() : null;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the String values to index the specified property value by, or
+	 * {@code null} if the value cannot be indexed.
+	 */
+	private static Collection<String> getIndexValues(Object value) {
+		if (value instanceof String) {
+			return Collections.singletonList((String) value);
+		}
+		if (value instanceof String[]) {
+			Collection<String> result = new LinkedHashSet<>();
+			for (String element : (String[]) value) {
+				if (element != null) {
+					result.add(element);
+				}
+			}
+			return result;
+		}
+		if (value instanceof Collection<?>) {
+			Collection<String> result = new LinkedHashSet<>();
+			for (Object element : (Collection<?>) value) {
+				if (element == null) {
+					continue;
+				}
+				if (!(element instanceof String)) {
+					return null;
+				}
+				result.add((String) element);
+			}
+			return result;
+		}
+		return null;
+	}
+}
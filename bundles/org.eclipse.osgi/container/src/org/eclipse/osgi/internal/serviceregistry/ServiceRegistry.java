@@ -16,14 +16,19 @@ package org.eclipse.osgi.internal.serviceregistry;
 
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.eclipse.osgi.container.Module;
 import org.eclipse.osgi.container.ModuleRevision;
 import org.eclipse.osgi.framework.eventmgr.*;
 import org.eclipse.osgi.internal.debug.Debug;
 import org.eclipse.osgi.internal.framework.BundleContextImpl;
+import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.framework.EquinoxContainer;
+import org.eclipse.osgi.internal.framework.FilterImpl;
 import org.eclipse.osgi.internal.messages.Msg;
 import org.eclipse.osgi.storage.BundleInfo.Generation;
+import org.eclipse.osgi.util.ManifestElement;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.*;
 import org.osgi.framework.hooks.service.*;
@@ -48,16 +53,20 @@ public class ServiceRegistry {
 	 * The {@literal List<ServiceRegistrationImpl<?>>}s are both sorted 
 	 * in the natural order of ServiceRegistrationImpl and also are sets in that
 	 * there must be no two entries in a List which are equal.
+	 * The Lists are immutable snapshots which are replaced on modification
+	 * so they may be read without holding the registry lock.
 	 */
-	/* @GuardedBy("this") */
-	private final Map<String, List<ServiceRegistrationImpl<?>>> publishedServicesByClass;
+	/* modifications @GuardedBy("this") */
+	private final ConcurrentMap<String, List<ServiceRegistrationImpl<?>>> publishedServicesByClass;
 
 	/** All published services. 
 	 * The List is both sorted in the natural order of ServiceRegistrationImpl and also is a
 	 * set in that there must be no two entries in the List which are equal.
+	 * The List is an immutable snapshot which is replaced on modification
+	 * so it may be read without holding the registry lock.
 	 */
-	/* @GuardedBy("this") */
-	private final List<ServiceRegistrationImpl<?>> allPublishedServices;
+	/* modifications @GuardedBy("this") */
+	private volatile List<ServiceRegistrationImpl<?>> allPublishedServices;
 
 	/** Published services by BundleContextImpl.  
 	 * The {@literal List<ServiceRegistrationImpl<?>>}s are NOT sorted 
@@ -67,6 +76,13 @@ public class ServiceRegistry {
 	/* @GuardedBy("this") */
 	private final Map<BundleContextImpl, List<ServiceRegistrationImpl<?>>> publishedServicesByContext;
 
+	/** Published services indexed by the values of commonly filtered service properties.
+	 * Used to find candidate services for filters which require a specific value for
+	 * one of the indexed properties.
+	 */
+	/* modifications @GuardedBy("this") */
+	private final ServicePropertyIndex[] publishedServicesByProperty;
+
 	/** next free service id. */
 	/* @GuardedBy("this") */
 	private long serviceid;
@@ -77,6 +93,13 @@ public class ServiceRegistry {
 	/* @GuardedBy("serviceEventListeners") */
 	private final Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> serviceEventListeners;
 
+	/** Active Service Listeners indexed by the objectClass required by their filter.
+	 * Listeners which do not require a specific objectClass are indexed by the <code>null</code> key.
+	 * {@literal Map<String,Map<BundleContextImpl,CopyOnWriteIdentityMap<ServiceListener,FilteredServiceListener>>>}.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private final Map<String, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> serviceEventListenersByClass;
+
 	/** initial capacity of the main data structure */
 	private static final int initialCapacity = 50;
 	/** initial capacity of the nested data structure */
@@ -94,10 +117,16 @@ public class ServiceRegistry {
 		this.container = container;
 		this.debug = container.getConfiguration().getDebug();
 		serviceid = 1;
-		publishedServicesByClass = new HashMap<>(initialCapacity);
+		publishedServicesByClass = new ConcurrentHashMap<>(initialCapacity);
 		publishedServicesByContext = new HashMap<>(initialCapacity);
-		allPublishedServices = new ArrayList<>(initialCapacity);
+		allPublishedServices = Collections.emptyList();
 		serviceEventListeners = new HashMap<>(initialCapacity);
+		serviceEventListenersByClass = new HashMap<>(initialCapacity);
+		String[] indexedProperties = ManifestElement.getArrayFromList(container.getConfiguration().getConfiguration(EquinoxConfiguration.PROP_SERVICE_REGISTRY_INDEXED_PROPERTIES, EquinoxConfiguration.SERVICE_REGISTRY_INDEXED_PROPERTIES_DEFAULT), ","); //$NON-NLS-1$
+		publishedServicesByProperty = new ServicePropertyIndex[indexedProperties.length];
+		for (int i = 0; i < indexedProperties.length; i++) {
+			publishedServicesByProperty[i] = new ServicePropertyIndex(indexedProperties[i]);
+		}
 		Module systemModule = container.getStorage().getModuleContainer().getModule(0);
 		systemBundleContext = (BundleContextImpl) systemModule.getBundle().getBundleContext();
 		systemBundleContext.provisionServicesInUseMap();
@@ -722,6 +751,10 @@ public class ServiceRegistry {
 				serviceEventListeners.put(context, listeners);
 			}
 			oldFilteredListener = listeners.put(listener, filteredListener);
+			if (oldFilteredListener != null) {
+				removeIndexedServiceListener(context, listener, oldFilteredListener);
+			}
+			addIndexedServiceListener(context, listener, filteredListener);
 		}
 
 		if (oldFilteredListener != null) {
@@ -753,6 +786,9 @@ public class ServiceRegistry {
 				return; // this context has no listeners to begin with
 			}
 			oldFilteredListener = listeners.remove(listener);
+			if (oldFilteredListener != null) {
+				removeIndexedServiceListener(context, listener, oldFilteredListener);
+			}
 		}
 
 		if (oldFilteredListener == null) {
@@ -772,6 +808,11 @@ public class ServiceRegistry {
 		Map<ServiceListener, FilteredServiceListener> removedListenersMap;
 		synchronized (serviceEventListeners) {
 			removedListenersMap = serviceEventListeners.remove(context);
+			if (removedListenersMap != null) {
+				for (Map.Entry<ServiceListener, FilteredServiceListener> entry : removedListenersMap.entrySet()) {
+					removeIndexedServiceListener(context, entry.getKey(), entry.getValue());
+				}
+			}
 		}
 		if ((removedListenersMap == null) || removedListenersMap.isEmpty()) {
 			return;
@@ -783,6 +824,58 @@ public class ServiceRegistry {
 		notifyListenerHooks(asListenerInfos(removedListeners), false);
 	}
 
+	/**
+	 * Add a Service Listener to the objectClass index.
+	 * 
+	 * @param context Context of bundle adding listener.
+	 * @param listener Service Listener to be added.
+	 * @param filteredListener The filtered listener for the Service Listener.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private void addIndexedServiceListener(BundleContextImpl context, ServiceListener listener, FilteredServiceListener filteredListener) {
+		assert Thread.holdsLock(serviceEventListeners);
+		String objectClass = filteredListener.getObjectClass();
+		Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> listenersByContext = serviceEventListenersByClass.get(objectClass);
+		if (listenersByContext == null) {
+			listenersByContext = new HashMap<>(initialSubCapacity);
+			serviceEventListenersByClass.put(objectClass, listenersByContext);
+		}
+		CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> listeners = listenersByContext.get(context);
+		if (listeners == null) {
+			listeners = new CopyOnWriteIdentityMap<>();
+			listenersByContext.put(context, listeners);
+		}
+		listeners.put(listener, filteredListener);
+	}
+
+	/**
+	 * Remove a Service Listener from the objectClass index.
+	 * 
+	 * @param context Context of bundle removing listener.
+	 * @param listener Service Listener to be removed.
+	 * @param filteredListener The filtered listener for the Service Listener to be removed.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private void removeIndexedServiceListener(BundleContextImpl context, ServiceListener listener, FilteredServiceListener filteredListener) {
+		assert Thread.holdsLock(serviceEventListeners);
+		String objectClass = filteredListener.getObjectClass();
+		Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> listenersByContext = serviceEventListenersByClass.get(objectClass);
+		if (listenersByContext == null) {
+			return;
+		}
+		CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> listeners = listenersByContext.get(context);
+		if (listeners == null) {
+			return;
+		}
+		listeners.remove(listener);
+		if (listeners.isEmpty()) {
+			listenersByContext.remove(context);
+			if (listenersByContext.isEmpty()) {
+				serviceEventListenersByClass.remove(objectClass);
+			}
+		}
+	}
+
 	/**
 	 * Coerce the generic type of a collection from Collection<FilteredServiceListener>
 	 * to Collection<ListenerInfo>
@@ -814,6 +907,12 @@ public class ServiceRegistry {
 	}
 
 	void publishServiceEventPrivileged(final ServiceEvent event) {
+		if (!hasServiceEventHooks()) {
+			/* no hooks can shrink the listeners; only queue the listeners which can match the event */
+			publishServiceEventIndexed(event);
+			return;
+		}
+
 		/* Build the listener snapshot */
 		Map<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>> listenerSnapshot;
 		Set<Map.Entry<ServiceListener, FilteredServiceListener>> systemServiceListenersOrig = null;
@@ -866,6 +965,63 @@ public class ServiceRegistry {
 		queue.dispatchEventSynchronous(SERVICEEVENT, event);
 	}
 
+	/**
+	 * Returns true if any EventHook or EventListenerHook services are registered.
+	 * When hooks are registered they must be called with all the listeners.
+	 * 
+	 * @return true if any service event hooks are registered.
+	 */
+	private boolean hasServiceEventHooks() {
+		return publishedServicesByClass.containsKey(eventHookName) || publishedServicesByClass.containsKey(eventListenerHookName);
+	}
+
+	/**
+	 * Deliver a ServiceEvent only to the listeners which do not require an objectClass
+	 * and the listeners which require one of the objectClasses of the service.
+	 * This must only be used when there are no service event hooks registered.
+	 * 
+	 * @param event The ServiceEvent to deliver.
+	 */
+	private void publishServiceEventIndexed(final ServiceEvent event) {
+		String[] classes = ((ServiceReferenceImpl<?>) event.getServiceReference()).getClasses();
+		ListenerQueue<ServiceListener, FilteredServiceListener, ServiceEvent> queue = null;
+		synchronized (serviceEventListeners) {
+			queue = queueIndexedServiceListeners(queue, null);
+			for (String clazz : classes) {
+				queue = queueIndexedServiceListeners(queue, clazz);
+			}
+		}
+		if (queue == null) {
+			return;
+		}
+		queue.dispatchEventSynchronous(SERVICEEVENT, event);
+	}
+
+	/**
+	 * Queue the listeners which are indexed by the specified objectClass.
+	 * 
+	 * @param queue The queue to use or <code>null</code> if a queue has not been created yet.
+	 * @param objectClass The objectClass index key.
+	 * @return The queue or <code>null</code> if no listeners have been queued.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private ListenerQueue<ServiceListener, FilteredServiceListener, ServiceEvent> queueIndexedServiceListeners(ListenerQueue<ServiceListener, FilteredServiceListener, ServiceEvent> queue, String objectClass) {
+		assert Thread.holdsLock(serviceEventListeners);
+		Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> listenersByContext = serviceEventListenersByClass.get(objectClass);
+		if (listenersByContext == null) {
+			return queue;
+		}
+		for (Map.Entry<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> entry : listenersByContext.entrySet()) {
+			if (queue == null) {
+				queue = container.newListenerQueue();
+			}
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			EventDispatcher<ServiceListener, FilteredServiceListener, ServiceEvent> dispatcher = (EventDispatcher) entry.getKey();
+			queue.queueListeners(entry.getValue().entrySet(), dispatcher);
+		}
+		return queue;
+	}
+
 	/**
 	 * Coerce the generic type of a collection from Collection<BundleContextImpl>
 	 * to Collection<BundleContext>
@@ -907,24 +1063,18 @@ public class ServiceRegistry {
 		contextServices.add(registration);
 
 		// Add the ServiceRegistrationImpl to the list of Services published by Class Name.
-		int insertIndex;
 		for (String clazz : registration.getClasses()) {
-			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-
-			if (services == null) {
-				services = new ArrayList<>(initialSubCapacity);
-				publishedServicesByClass.put(clazz, services);
-			}
-
-			// The list is sorted, so we must find the proper location to insert
-			insertIndex = -Collections.binarySearch(services, registration) - 1;
-			services.add(insertIndex, registration);
+			publishedServicesByClass.put(clazz, insertRegistration(publishedServicesByClass.get(clazz), registration));
 		}
 
 		// Add the ServiceRegistrationImpl to the list of all published Services.
-		// The list is sorted, so we must find the proper location to insert
-		insertIndex = -Collections.binarySearch(allPublishedServices, registration) - 1;
-		allPublishedServices.add(insertIndex, registration);
+		allPublishedServices = insertRegistration(allPublishedServices, registration);
+
+		// Add the ServiceRegistrationImpl to the property indexes.
+		Map<String, Object> properties = registration.getProperties();
+		for (ServicePropertyIndex index : publishedServicesByProperty) {
+			index.add(registration, properties);
+		}
 	}
 
 	/**
@@ -932,30 +1082,30 @@ public class ServiceRegistry {
 	 * 
 	 * @param context The BundleContext of the bundle registering the service.
 	 * @param registration The modified ServiceRegistration.
+	 * @param previousProperties The properties of the registration before it was modified.
 	 */
 	/* @GuardedBy("this") */
-	void modifyServiceRegistration(BundleContextImpl context, ServiceRegistrationImpl<?> registration) {
+	void modifyServiceRegistration(BundleContextImpl context, ServiceRegistrationImpl<?> registration, Map<String, Object> previousProperties) {
 		assert Thread.holdsLock(this);
 		// The list of Services published by BundleContextImpl is not sorted, so
 		// we do not need to modify it.
 
 		// Remove the ServiceRegistrationImpl from the list of Services published by Class Name
 		// and then add at the correct index.
-		int insertIndex;
 		for (String clazz : registration.getClasses()) {
-			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-			services.remove(registration);
-			// The list is sorted, so we must find the proper location to insert
-			insertIndex = -Collections.binarySearch(services, registration) - 1;
-			services.add(insertIndex, registration);
+			publishedServicesByClass.put(clazz, insertRegistration(publishedServicesByClass.get(clazz), registration));
 		}
 
 		// Remove the ServiceRegistrationImpl from the list of all published Services
 		// and then add at the correct index.
-		allPublishedServices.remove(registration);
-		// The list is sorted, so we must find the proper location to insert
-		insertIndex = -Collections.binarySearch(allPublishedServices, registration) - 1;
-		allPublishedServices.add(insertIndex, registration);
+		allPublishedServices = insertRegistration(allPublishedServices, registration);
+
+		// Re-index the ServiceRegistrationImpl using the new properties.
+		Map<String, Object> properties = registration.getProperties();
+		for (ServicePropertyIndex index : publishedServicesByProperty) {
+			index.remove(registration, previousProperties);
+			index.add(registration, properties);
+		}
 	}
 
 	/**
@@ -975,58 +1125,153 @@ public class ServiceRegistry {
 
 		// Remove the ServiceRegistrationImpl from the list of Services published by Class Name.
 		for (String clazz : registration.getClasses()) {
-			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-			services.remove(registration);
+			List<ServiceRegistrationImpl<?>> services = removeRegistration(publishedServicesByClass.get(clazz), registration);
 			if (services.isEmpty()) { // remove empty list
 				publishedServicesByClass.remove(clazz);
+			} else {
+				publishedServicesByClass.put(clazz, services);
 			}
 		}
 
 		// Remove the ServiceRegistrationImpl from the list of all published Services.
-		allPublishedServices.remove(registration);
+		allPublishedServices = removeRegistration(allPublishedServices, registration);
+
+		// Remove the ServiceRegistrationImpl from the property indexes.
+		Map<String, Object> properties = registration.getProperties();
+		for (ServicePropertyIndex index : publishedServicesByProperty) {
+			index.remove(registration, properties);
+		}
+	}
+
+	/**
+	 * Returns a new immutable snapshot of the sorted registration list with the specified
+	 * registration inserted at the proper location.  If the snapshot already contains
+	 * the registration it is first removed so that the registration is moved to the
+	 * proper location according to its current ranking.
+	 * 
+	 * @param snapshot The current snapshot or <code>null</code> if there is none.
+	 * @param registration The registration to insert.
+	 * @return A new immutable snapshot.
+	 */
+	static List<ServiceRegistrationImpl<?>> insertRegistration(List<ServiceRegistrationImpl<?>> snapshot, ServiceRegistrationImpl<?> registration) {
+		List<ServiceRegistrationImpl<?>> copy;
+		if (snapshot == null) {
+			copy = new ArrayList<>(1);
+		} else {
+			copy = new ArrayList<>(snapshot.size() + 1);
+			copy.addAll(snapshot);
+			copy.remove(registration);
+		}
+		// The list is sorted, so we must find the proper location to insert
+		int insertIndex = -Collections.binarySearch(copy, registration) - 1;
+		copy.add(insertIndex, registration);
+		return Collections.unmodifiableList(copy);
+	}
+
+	/**
+	 * Returns a new immutable snapshot of the registration list without the specified
+	 * registration.
+	 * 
+	 * @param snapshot The current snapshot or <code>null</code> if there is none.
+	 * @param registration The registration to remove.
+	 * @return A new immutable snapshot or the current snapshot if it does not contain the registration.
+	 */
+	static List<ServiceRegistrationImpl<?>> removeRegistration(List<ServiceRegistrationImpl<?>> snapshot, ServiceRegistrationImpl<?> registration) {
+		if (snapshot == null) {
+			return Collections.emptyList();
+		}
+		int index = snapshot.indexOf(registration);
+		if (index < 0) {
+			return snapshot;
+		}
+		if (snapshot.size() == 1) {
+			return Collections.emptyList();
+		}
+		List<ServiceRegistrationImpl<?>> copy = new ArrayList<>(snapshot);
+		copy.remove(index);
+		return Collections.unmodifiableList(copy);
 	}
 
 	/**
 	 * Lookup Service Registrations in the data structure by class name and filter.
+	 * This method does not hold the registry lock; it reads the current immutable
+	 * snapshots of the published services.
 	 * 
 	 * @param clazz The class name with which the service was registered or
 	 *        <code>null</code> for all services.
 	 * @param filter The filter criteria.
-	 * @return List<ServiceRegistrationImpl>
+	 * @return An unmodifiable List<ServiceRegistrationImpl>
 	 */
 	private List<ServiceRegistrationImpl<?>> lookupServiceRegistrations(String clazz, Filter filter) {
-		List<ServiceRegistrationImpl<?>> result;
-		synchronized (this) {
-			if (clazz == null) { /* all services */
-				result = allPublishedServices;
-			} else {
-				/* services registered under the class name */
-				result = publishedServicesByClass.get(clazz);
+		if (filter instanceof FilterImpl) {
+			/* use the property indexes to find candidates if the filter allows it */
+			List<ServiceRegistrationImpl<?>> candidates = lookupIndexedServiceRegistrations((FilterImpl) filter);
+			if (candidates != null) {
+				return filterServiceRegistrations(candidates, clazz, filter);
 			}
+		}
 
-			if ((result == null) || result.isEmpty()) {
-				List<ServiceRegistrationImpl<?>> empty = Collections.<ServiceRegistrationImpl<?>> emptyList();
-				return empty;
-			}
+		List<ServiceRegistrationImpl<?>> result;
+		if (clazz == null) { /* all services */
+			result = allPublishedServices;
+		} else {
+			/* services registered under the class name */
+			result = publishedServicesByClass.get(clazz);
+		}
 
-			result = new LinkedList<>(result); /* make a new list since we don't want to change the real list */
+		if ((result == null) || result.isEmpty()) {
+			List<ServiceRegistrationImpl<?>> empty = Collections.<ServiceRegistrationImpl<?>> emptyList();
+			return empty;
 		}
 
 		if (filter == null) {
-			return result;
+			return result; /* the snapshot is immutable, no need to copy */
+		}
+
+		return filterServiceRegistrations(result, null, filter);
+	}
+
+	/**
+	 * Lookup candidate Service Registrations using the property indexes.
+	 * 
+	 * @param filter The filter criteria.
+	 * @return A sorted list of candidate registrations which must still be
+	 *         matched against the filter, or <code>null</code> if the filter
+	 *         does not require a value for any of the indexed properties.
+	 */
+	private List<ServiceRegistrationImpl<?>> lookupIndexedServiceRegistrations(FilterImpl filter) {
+		for (ServicePropertyIndex index : publishedServicesByProperty) {
+			String value = filter.getPrimaryKeyValue(index.getKey());
+			if (value != null) {
+				return index.lookup(value);
+			}
 		}
+		return null;
+	}
 
-		for (Iterator<ServiceRegistrationImpl<?>> iter = result.iterator(); iter.hasNext();) {
-			ServiceRegistrationImpl<?> registration = iter.next();
+	/**
+	 * Return the Service Registrations from the candidates which match the class name and filter.
+	 * 
+	 * @param candidates The candidate Service Registrations. The list is not modified.
+	 * @param clazz The class name with which the service must have been registered or
+	 *        <code>null</code> if the candidates are already restricted by class name.
+	 * @param filter The filter criteria.
+	 * @return A new List<ServiceRegistrationImpl>
+	 */
+	private static List<ServiceRegistrationImpl<?>> filterServiceRegistrations(List<ServiceRegistrationImpl<?>> candidates, String clazz, Filter filter) {
+		List<ServiceRegistrationImpl<?>> result = new ArrayList<>(clazz == null ? candidates.size() : initialSubCapacity);
+		for (ServiceRegistrationImpl<?> registration : candidates) {
+			if (clazz != null && !Arrays.asList(registration.getClasses()).contains(clazz)) {
+				continue;
+			}
 			ServiceReferenceImpl<?> reference;
 			try {
 				reference = registration.getReferenceImpl();
 			} catch (IllegalStateException e) {
-				iter.remove(); /* service was unregistered after we left the synchronized block above */
-				continue;
+				continue; /* service was unregistered after the snapshot was taken */
 			}
-			if (!filter.match(reference)) {
-				iter.remove();
+			if (filter.match(reference)) {
+				result.add(registration);
 			}
 		}
 		return result;
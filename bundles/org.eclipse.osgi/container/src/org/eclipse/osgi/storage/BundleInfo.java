@@ -78,14 +78,17 @@ public final class BundleInfo {
 		private List<StorageHook<?, ?>> storageHooks;
 		private long lastModified;
 		private boolean isMRJar;
+		// the checksum of the storage hook data when this generation was last saved; -1 if unknown
+		private long savedHookData = -1;
 
 		Generation(long generationId) {
 			this.generationId = generationId;
 			this.cachedHeaders = new CachedManifest(this, Collections.<String, String> emptyMap());
 		}
 
-		Generation(long generationId, File content, boolean isDirectory, boolean isReference, boolean hasPackageInfo, Map<String, String> cached, long lastModified, boolean isMRJar) {
+		Generation(long generationId, File content, boolean isDirectory, boolean isReference, boolean hasPackageInfo, Map<String, String> cached, Map<String, String> rawHeaders, long lastModified, boolean isMRJar) {
 			this.generationId = generationId;
+			this.rawHeaders = rawHeaders;
 			this.content = content;
 			this.isDirectory = isDirectory;
 			this.isReference = isReference;
@@ -166,6 +169,17 @@ public final class BundleInfo {
 			}
 		}
 
+		/**
+		 * Returns the raw headers of this generation only if they have already
+		 * been read or restored from the persisted framework info.
+		 * @return the raw headers or {@code null} if they have not been read
+		 */
+		Map<String, String> getLoadedRawHeaders() {
+			synchronized (genMonitor) {
+				return rawHeaders;
+			}
+		}
+
 		public Dictionary<String, String> getHeaders(String locale) {
 			ManifestLocalization current = getManifestLocalization();
 			return current.getHeaders(locale);
@@ -255,6 +269,25 @@ public final class BundleInfo {
 			lastModified = Storage.secureAction.lastModified(content);
 		}
 
+		/**
+		 * Returns true if the storage hook data of this generation or the next generation id
+		 * of its bundle changed since this generation was last {@link #setSaved(long) saved}.
+		 * @param hookDataChecksum the checksum of the current storage hook data
+		 * @return true if this generation changed since it was last saved
+		 */
+		boolean isDirty(long hookDataChecksum) {
+			synchronized (this.genMonitor) {
+				return savedHookData != hookDataChecksum || BundleInfo.this.isDirty();
+			}
+		}
+
+		void setSaved(long hookDataChecksum) {
+			synchronized (this.genMonitor) {
+				savedHookData = hookDataChecksum;
+			}
+			BundleInfo.this.setSaved();
+		}
+
 		void setStorageHooks(List<StorageHook<?, ?>> storageHooks, boolean install) {
 			synchronized (this.genMonitor) {
 				this.storageHooks = storageHooks;
@@ -441,6 +474,8 @@ public final class BundleInfo {
 	private final long bundleId;
 	private final String location;
 	private long nextGenerationId;
+	// the next generation id when this bundle info was last saved
+	private long savedNextGenerationId;
 	private final Object infoMonitor = new Object();
 	private LockSet<Long> generationLocks;
 
@@ -449,6 +484,7 @@ public final class BundleInfo {
 		this.bundleId = bundleId;
 		this.location = location;
 		this.nextGenerationId = nextGenerationId;
+		this.savedNextGenerationId = nextGenerationId;
 	}
 
 	public long getBundleId() {
@@ -488,9 +524,9 @@ public final class BundleInfo {
 		}
 	}
 
-	Generation restoreGeneration(long generationId, File content, boolean isDirectory, boolean isReference, boolean hasPackageInfo, Map<String, String> cached, long lastModified, boolean isMRJar) {
+	Generation restoreGeneration(long generationId, File content, boolean isDirectory, boolean isReference, boolean hasPackageInfo, Map<String, String> cached, Map<String, String> rawHeaders, long lastModified, boolean isMRJar) {
 		synchronized (this.infoMonitor) {
-			Generation restoredGeneration = new Generation(generationId, content, isDirectory, isReference, hasPackageInfo, cached, lastModified, isMRJar);
+			Generation restoredGeneration = new Generation(generationId, content, isDirectory, isReference, hasPackageInfo, cached, rawHeaders, lastModified, isMRJar);
 			return restoredGeneration;
 		}
 	}
@@ -521,6 +557,26 @@ public final class BundleInfo {
 		}
 	}
 
+	boolean isDirty() {
+		synchronized (this.infoMonitor) {
+			return nextGenerationId != savedNextGenerationId;
+		}
+	}
+
+	void setSaved() {
+		synchronized (this.infoMonitor) {
+			savedNextGenerationId = nextGenerationId;
+		}
+	}
+
+	void restoreNextGenerationId(long restored) {
+		synchronized (this.infoMonitor) {
+			if (restored > nextGenerationId) {
+				nextGenerationId = restored;
+			}
+		}
+	}
+
 	public File getDataFile(String path) {
 		File dataRoot = getStorage().getFile(getBundleId() + "/" + Storage.BUNDLE_DATA_DIR, false); //$NON-NLS-1$
 		if (!Storage.secureAction.isDirectory(dataRoot) && (storage.isReadOnly() || !(Storage.secureAction.mkdirs(dataRoot) || Storage.secureAction.isDirectory(dataRoot)))) {
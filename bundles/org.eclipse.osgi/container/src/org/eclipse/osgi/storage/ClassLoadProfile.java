@@ -0,0 +1,452 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
+import org.eclipse.osgi.storage.BundleInfo.Generation;
+import org.eclipse.osgi.storage.bundlefile.BundleEntry;
+import org.eclipse.osgi.storage.bundlefile.BundleFile;
+import org.eclipse.osgi.storagemanager.ManagedOutputStream;
+import org.eclipse.osgi.storagemanager.StorageManager;
+
+/**
+ * Records the classes loaded from the content of each bundle while the framework
+ * is starting and uses the recording of the previous launch to read the bytes of
+ * those classes ahead of the class loaders.
+ * <p>
+ * The recorded classes are read in the order they were loaded by a small pool of
+ * background threads.  A class loader takes the bytes of a class that was read
+ * ahead instead of reading them from the bundle file itself, which lets the reading
+ * and decompression of the content overlap with the activation of the bundles.
+ * Each recorded class is read ahead until a class loader has taken it or has loaded
+ * it without waiting for it.  While the bytes held are over the configured limit the
+ * threads wait for class loaders to take some of them.
+ * <p>
+ * Recording stops once the framework has started, once the configured number of classes
+ * is recorded or once the configured time has passed, whichever comes first.  The recording
+ * is then written to the storage area and anything left over that was read ahead is discarded.
+ * <p>
+ * Each recorded class is tied to the generation of the bundle it was loaded from;
+ * the classes of a bundle are dropped from the profile when the bundle is updated.
+ */
+public final class ClassLoadProfile {
+	private static final int PROFILE_VERSION = 1;
+	// the most classes recorded for a launch by default
+	private static final int RECORD_LIMIT_DEFAULT = 100000;
+	// the most milliseconds spent recording a launch by default
+	private static final long RECORD_TIMEOUT_DEFAULT = 120000;
+	// the most bytes held that were read ahead but not yet taken by a class loader by default
+	private static final long PREFETCH_LIMIT_DEFAULT = 64 * 1024 * 1024;
+	// the value of a recorded class that is waiting to be read ahead
+	private static final byte[] PENDING = new byte[0];
+
+	private final String profileName;
+	private final Debug debug;
+	private final boolean enabled;
+	private final int recordLimit;
+	private final long recordTimeout;
+	private final long recordStart;
+	private final long prefetchLimit;
+	private volatile boolean active;
+	/* @GuardedBy("this") */
+	private List<ProfileEntry> recorded = new ArrayList<>();
+	/* @GuardedBy("this") */
+	private ScheduledThreadPoolExecutor prefetchExecutor;
+	// the recorded classes which are not taken yet; either PENDING or the bytes read ahead
+	private final ConcurrentMap<PrefetchKey, byte[]> prefetched = new ConcurrentHashMap<>();
+	private final AtomicLong prefetchedBytes = new AtomicLong();
+	// notified when bytes are taken or reading ahead stops
+	private final Object prefetchMonitor = new Object();
+	private final AtomicLong hits = new AtomicLong();
+
+	ClassLoadProfile(String profileName, EquinoxConfiguration configuration) {
+		this.profileName = profileName;
+		this.debug = configuration.getDebug();
+		this.enabled = Boolean.parseBoolean(configuration.getConfiguration(EquinoxConfiguration.PROP_CLASS_LOADER_PROFILE));
+		this.recordLimit = (int) getLong(configuration, EquinoxConfiguration.PROP_CLASS_LOADER_PROFILE_LIMIT, RECORD_LIMIT_DEFAULT);
+		this.recordTimeout = TimeUnit.MILLISECONDS.toNanos(getLong(configuration, EquinoxConfiguration.PROP_CLASS_LOADER_PROFILE_TIMEOUT, RECORD_TIMEOUT_DEFAULT));
+		this.recordStart = System.nanoTime();
+		this.prefetchLimit = getLong(configuration, EquinoxConfiguration.PROP_CLASS_LOADER_PROFILE_PREFETCH_LIMIT, PREFETCH_LIMIT_DEFAULT);
+		this.active = enabled;
+	}
+
+	private static long getLong(EquinoxConfiguration configuration, String key, long defaultValue) {
+		try {
+			String prop = configuration.getConfiguration(key);
+			if (prop != null) {
+				return Long.parseLong(prop);
+			}
+		} catch (NumberFormatException e) {
+			// use the default
+		}
+		return defaultValue;
+	}
+
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns true while the framework is starting and classes are being recorded.
+	 * @return true if classes are being recorded
+	 */
+	public boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Records that a class was loaded from the root bundle file of a generation.
+	 * Recording stops if the class is over the limit of classes or the time
+	 * for recording is up.
+	 * @param generation the generation the class was loaded from
+	 * @param path the path of the class entry
+	 */
+	public void record(Generation generation, String path) {
+		if (!active) {
+			return;
+		}
+		if (System.nanoTime() - recordStart >= recordTimeout) {
+			stop();
+			return;
+		}
+		boolean full;
+		synchronized (this) {
+			if (!active) {
+				return;
+			}
+			if (recorded.size() < recordLimit) {
+				recorded.add(new ProfileEntry(generation.getBundleInfo().getBundleId(), generation.getGenerationId(), path));
+			}
+			full = recorded.size() >= recordLimit;
+		}
+		if (full) {
+			stop();
+		}
+	}
+
+	/**
+	 * Takes the bytes of an entry which were read ahead.  If the entry is recorded
+	 * but not read ahead yet then it is no longer read ahead; the caller reads it.
+	 * @param bundleFile the bundle file of the entry
+	 * @param path the path of the entry
+	 * @return the bytes of the entry or {@code null} if they were not read ahead
+	 */
+	public byte[] takePrefetched(BundleFile bundleFile, String path) {
+		if (!active) {
+			return null;
+		}
+		byte[] bytes = prefetched.remove(new PrefetchKey(bundleFile, path));
+		if (bytes == null || bytes == PENDING) {
+			return null;
+		}
+		if (prefetchedBytes.addAndGet(-bytes.length) < prefetchLimit) {
+			synchronized (prefetchMonitor) {
+				prefetchMonitor.notifyAll();
+			}
+		}
+		hits.incrementAndGet();
+		return bytes;
+	}
+
+	/**
+	 * Returns true if the bytes of an entry were read ahead and are not taken yet.
+	 * @param bundleFile the bundle file of the entry
+	 * @param path the path of the entry
+	 * @return true if the bytes of the entry are held
+	 */
+	public boolean isPrefetched(BundleFile bundleFile, String path) {
+		byte[] bytes = prefetched.get(new PrefetchKey(bundleFile, path));
+		return bytes != null && bytes != PENDING;
+	}
+
+	/**
+	 * Reads the profile recorded by the previous launch and starts reading the
+	 * recorded classes of the specified generations ahead of the class loaders.
+	 * Classes recorded for other generations of a bundle are ignored.
+	 * @param storageManager the storage manager to read the profile from
+	 * @param generations the current generations keyed by bundle id
+	 */
+	void prefetch(StorageManager storageManager, Map<Long, Generation> generations) {
+		if (!active) {
+			return;
+		}
+		final Queue<PrefetchKey> toPrefetch = new ConcurrentLinkedQueue<>();
+		for (ProfileEntry entry : load(storageManager)) {
+			Generation generation = generations.get(entry.bundleId);
+			if (generation != null && generation.getGenerationId() == entry.generationId && !generation.isMRJar()) {
+				PrefetchKey key = new PrefetchKey(generation.getBundleFile(), entry.path);
+				if (prefetched.put(key, PENDING) == null) {
+					toPrefetch.add(key);
+				}
+			}
+		}
+		if (toPrefetch.isEmpty()) {
+			return;
+		}
+		if (debug.DEBUG_STORAGE) {
+			Debug.println("Reading ahead " + toPrefetch.size() + " classes from the class load profile."); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		// reading is mostly waiting on the disk; a few threads are enough to keep ahead of the class loaders
+		int threadCnt = Math.min(4, Runtime.getRuntime().availableProcessors());
+		ThreadFactory threadFactory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Equinox class prefetch thread"); //$NON-NLS-1$
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		};
+		// one more thread for the scheduled stop since the readers may all be waiting for room
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threadCnt + 1, threadFactory);
+		synchronized (this) {
+			if (!active) {
+				executor.shutdown();
+				return;
+			}
+			prefetchExecutor = executor;
+		}
+		Runnable prefetcher = new Runnable() {
+			@Override
+			public void run() {
+				PrefetchKey key;
+				while (awaitPrefetchRoom() && (key = toPrefetch.poll()) != null) {
+					if (prefetched.get(key) != PENDING) {
+						// a class loader already loaded the class itself
+						continue;
+					}
+					try {
+						BundleEntry entry = key.bundleFile.getEntry(key.path);
+						if (entry == null) {
+							prefetched.remove(key, PENDING);
+							continue;
+						}
+						byte[] bytes = entry.getBytes();
+						prefetchedBytes.addAndGet(bytes.length);
+						if (!prefetched.replace(key, PENDING, bytes)) {
+							// a class loader loaded the class while it was read
+							prefetchedBytes.addAndGet(-bytes.length);
+						} else if (!active) {
+							// stopped while reading; do not hold on to the bytes
+							prefetched.clear();
+						}
+					} catch (IOException e) {
+						// the class loader will read the entry itself
+						prefetched.remove(key, PENDING);
+					}
+				}
+			}
+		};
+		for (int i = 0; i < threadCnt; i++) {
+			executor.execute(prefetcher);
+		}
+		// do not hold on to the bytes read ahead past the time for recording
+		executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				stop();
+			}
+		}, Math.max(0, recordTimeout - (System.nanoTime() - recordStart)), TimeUnit.NANOSECONDS);
+	}
+
+	/*
+	 * Waits while the bytes held are over the limit.  Returns false if reading ahead stopped.
+	 */
+	private boolean awaitPrefetchRoom() {
+		synchronized (prefetchMonitor) {
+			while (active && prefetchedBytes.get() >= prefetchLimit) {
+				try {
+					prefetchMonitor.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return active;
+	}
+
+	private List<ProfileEntry> load(StorageManager storageManager) {
+		List<ProfileEntry> entries = new ArrayList<>();
+		DataInputStream in = null;
+		try {
+			InputStream profileStream = storageManager.getInputStream(profileName);
+			if (profileStream == null) {
+				return entries;
+			}
+			in = new DataInputStream(new BufferedInputStream(profileStream));
+			if (in.readInt() != PROFILE_VERSION) {
+				return entries;
+			}
+			int numEntries = in.readInt();
+			for (int i = 0; i < numEntries; i++) {
+				entries.add(new ProfileEntry(in.readLong(), in.readLong(), in.readUTF()));
+			}
+		} catch (IOException e) {
+			// use the complete entries of a damaged profile
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// nothing
+				}
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Stops recording and reading ahead once the framework has started.  The classes
+	 * recorded for the specified generations are written to the profile for the next launch,
+	 * including when recording stopped early.
+	 * @param storageManager the storage manager to write the profile to
+	 * @param generations the current generations keyed by bundle id
+	 * @throws IOException if an error occurs writing the profile
+	 */
+	void startupComplete(StorageManager storageManager, Map<Long, Generation> generations) throws IOException {
+		stop();
+		List<ProfileEntry> entries = takeRecorded();
+		if (entries == null) {
+			return;
+		}
+		List<ProfileEntry> current = new ArrayList<>(entries.size());
+		for (ProfileEntry entry : entries) {
+			Generation generation = generations.get(entry.bundleId);
+			if (generation != null && generation.getGenerationId() == entry.generationId) {
+				current.add(entry);
+			}
+		}
+		if (current.isEmpty() && storageManager.getId(profileName) == -1) {
+			// nothing to write or replace
+			return;
+		}
+		ManagedOutputStream mos = storageManager.getOutputStream(profileName);
+		boolean success = false;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(mos));
+			out.writeInt(PROFILE_VERSION);
+			out.writeInt(current.size());
+			for (ProfileEntry entry : current) {
+				out.writeLong(entry.bundleId);
+				out.writeLong(entry.generationId);
+				out.writeUTF(entry.path);
+			}
+			out.close();
+			success = true;
+		} finally {
+			if (!success) {
+				mos.abort();
+			}
+		}
+	}
+
+	/**
+	 * Stops recording and reading ahead without writing the profile.
+	 */
+	void close() {
+		stop();
+		takeRecorded();
+	}
+
+	/*
+	 * Returns the recorded classes, or null if they were already taken.
+	 */
+	private synchronized List<ProfileEntry> takeRecorded() {
+		List<ProfileEntry> entries = recorded;
+		recorded = null;
+		return entries;
+	}
+
+	/*
+	 * Stops recording and reading ahead.  The recorded classes are kept until taken.
+	 */
+	private void stop() {
+		ScheduledThreadPoolExecutor executor;
+		synchronized (this) {
+			if (!active) {
+				return;
+			}
+			active = false;
+			executor = prefetchExecutor;
+			prefetchExecutor = null;
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		prefetched.clear();
+		prefetchedBytes.set(0);
+		synchronized (prefetchMonitor) {
+			prefetchMonitor.notifyAll();
+		}
+		if (debug.DEBUG_STORAGE) {
+			Debug.println("Class load profile: " + hits.get() + " classes were read ahead before being loaded."); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	private static final class ProfileEntry {
+		final long bundleId;
+		final long generationId;
+		final String path;
+
+		ProfileEntry(long bundleId, long generationId, String path) {
+			this.bundleId = bundleId;
+			this.generationId = generationId;
+			this.path = path;
+		}
+	}
+
+	private static final class PrefetchKey {
+		final BundleFile bundleFile;
+		final String path;
+
+		PrefetchKey(BundleFile bundleFile, String path) {
+			this.bundleFile = bundleFile;
+			this.path = path;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(bundleFile) * 31 + path.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof PrefetchKey)) {
+				return false;
+			}
+			PrefetchKey other = (PrefetchKey) obj;
+			return bundleFile == other.bundleFile && path.equals(other.path);
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A journal of the changes made to the framework since the framework info
+ * was last written in full.
+ * <p>
+ * The journal is a file next to the framework info which records are appended
+ * to; the records already written are never rewritten.  The journal starts with
+ * the database timestamp of the framework info it was written against so that it
+ * is ignored once the framework info has been written in full again.  Each record
+ * is written with its length and checksum; a record which cannot be verified is
+ * ignored along with anything after it.  Once the journal has reached its record
+ * limit, or cannot be trusted, the framework info must be written in full again
+ * which discards the journal.
+ * <p>
+ * The lock of the configuration area makes the framework the only writer of the
+ * journal.  This class is not thread safe; the storage save monitor guards access
+ * to it.
+ */
+final class FrameworkInfoJournal {
+	private static final int JOURNAL_VERSION = 3;
+	// the version and timestamp
+	private static final int HEADER_LENGTH = 4 + 8;
+	// the length and checksum of a record
+	private static final int RECORD_HEADER_LENGTH = 4 + 8;
+
+	private final File journalFile;
+	private final int recordLimit;
+	// the number of records which apply to the framework info with the base timestamp
+	private int numRecords;
+	// the timestamp of the framework info this journal applies to; -1 if unknown
+	private long base = -1;
+	// true if the journal file starts with the base timestamp and only has intact records
+	private boolean appendable;
+
+	/**
+	 * Creates a journal using the specified file.
+	 * @param journalFile the journal file
+	 * @param recordLimit the number of records allowed before the framework info must be
+	 * written in full.  A value less than one disables appending to the journal.
+	 */
+	FrameworkInfoJournal(File journalFile, int recordLimit) {
+		this.journalFile = journalFile;
+		this.recordLimit = recordLimit;
+	}
+
+	/**
+	 * Reads the complete records of this journal which apply to the framework
+	 * info with the specified timestamp.
+	 * @param timestamp the database timestamp of the loaded framework info,
+	 * or -1 if no framework info was loaded
+	 * @return the records in the order they were appended
+	 */
+	List<byte[]> read(long timestamp) {
+		base = -1;
+		numRecords = 0;
+		appendable = false;
+		if (timestamp == -1) {
+			return Collections.emptyList();
+		}
+		if (!Storage.secureAction.exists(journalFile)) {
+			base = timestamp;
+			return Collections.emptyList();
+		}
+		List<byte[]> records = new ArrayList<>();
+		DataInputStream in = null;
+		try {
+			long length = Storage.secureAction.length(journalFile);
+			in = new DataInputStream(new BufferedInputStream(Storage.secureAction.getFileInputStream(journalFile)));
+			if (in.readInt() != JOURNAL_VERSION || in.readLong() != timestamp) {
+				// written against some other framework info
+				return Collections.emptyList();
+			}
+			long position = HEADER_LENGTH;
+			CRC32 crc = new CRC32();
+			while (position < length) {
+				int recordLength = in.readInt();
+				long checksum = in.readLong();
+				if (recordLength < 0 || position + RECORD_HEADER_LENGTH + recordLength > length) {
+					break;
+				}
+				byte[] record = new byte[recordLength];
+				in.readFully(record);
+				crc.reset();
+				crc.update(record);
+				if (crc.getValue() != checksum) {
+					break;
+				}
+				records.add(record);
+				position += RECORD_HEADER_LENGTH + recordLength;
+			}
+			if (position == length) {
+				// all records are intact; the journal may be appended to
+				base = timestamp;
+				numRecords = records.size();
+				appendable = true;
+			}
+		} catch (IOException e) {
+			// a damaged journal; only use the complete records
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// nothing
+				}
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Returns true if a record can be appended to this journal instead of writing
+	 * the framework info in full.
+	 * @return true if a record can be appended
+	 */
+	boolean canAppend() {
+		return isEnabled() && base != -1 && numRecords < recordLimit;
+	}
+
+	/**
+	 * Returns true if records are appended to this journal.
+	 * @return true if this journal is enabled
+	 */
+	boolean isEnabled() {
+		return recordLimit > 0;
+	}
+
+	/**
+	 * Returns true if this journal has records which are not included in the
+	 * framework info.
+	 * @return true if this journal has records
+	 */
+	boolean hasRecords() {
+		return numRecords > 0;
+	}
+
+	/**
+	 * Appends a record to the end of this journal.  If the record cannot be written then
+	 * nothing more can be appended until the journal is {@link #reset(long) reset}.
+	 * @param record the record
+	 * @throws IOException if an error occurs writing the record
+	 */
+	void append(byte[] record) throws IOException {
+		boolean success = false;
+		try {
+			// a journal without a usable header is replaced
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Storage.secureAction.getFileOutputStream(journalFile, appendable)));
+			try {
+				if (!appendable) {
+					out.writeInt(JOURNAL_VERSION);
+					out.writeLong(base);
+				}
+				CRC32 crc = new CRC32();
+				crc.update(record);
+				out.writeInt(record.length);
+				out.writeLong(crc.getValue());
+				out.write(record);
+			} finally {
+				out.close();
+			}
+			appendable = true;
+			numRecords++;
+			success = true;
+		} finally {
+			if (!success) {
+				invalidate();
+			}
+		}
+	}
+
+	/**
+	 * Discards this journal after the framework info has been written in full.
+	 * @param timestamp the database timestamp of the written framework info
+	 */
+	void reset(long timestamp) {
+		numRecords = 0;
+		base = timestamp;
+		appendable = false;
+		// a journal which is not deleted does not apply to the new framework info and is ignored
+		journalFile.delete();
+	}
+
+	/**
+	 * Marks this journal as unusable until it is {@link #reset(long) reset}.
+	 */
+	void invalidate() {
+		base = -1;
+		appendable = false;
+	}
+}
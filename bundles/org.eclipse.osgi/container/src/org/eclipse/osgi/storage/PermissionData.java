@@ -130,6 +130,12 @@ public class PermissionData {
 		if (PERMDATA_VERSION == version) {
 			DataInputStream temp = new DataInputStream(new ByteArrayInputStream(bytes));
 			try {
+				// replace any data read previously
+				defaultInfos = null;
+				condPermInfos = null;
+				synchronized (locations) {
+					locations.clear();
+				}
 				// read the default permissions first
 				int numPerms = temp.readInt();
 				if (numPerms > 0) {
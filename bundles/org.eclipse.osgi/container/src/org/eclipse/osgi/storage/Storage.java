@@ -28,6 +28,8 @@ import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.AccessControlContext;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
@@ -41,6 +43,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -48,7 +51,18 @@ import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
 import org.eclipse.core.runtime.adaptor.EclipseStarter;
 import org.eclipse.osgi.container.Module;
 import org.eclipse.osgi.container.ModuleCapability;
@@ -63,9 +77,11 @@ import org.eclipse.osgi.container.ModuleWiring;
 import org.eclipse.osgi.container.builders.OSGiManifestBuilderFactory;
 import org.eclipse.osgi.container.namespaces.EclipsePlatformNamespace;
 import org.eclipse.osgi.framework.log.FrameworkLogEntry;
+import org.eclipse.osgi.framework.util.CaseInsensitiveDictionaryMap;
 import org.eclipse.osgi.framework.util.FilePath;
 import org.eclipse.osgi.framework.util.ObjectPool;
 import org.eclipse.osgi.framework.util.SecureAction;
+import org.eclipse.osgi.internal.container.AttributeInterner;
 import org.eclipse.osgi.internal.debug.Debug;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.framework.EquinoxContainer;
@@ -88,6 +104,7 @@ import org.eclipse.osgi.storage.bundlefile.BundleFileWrapper;
 import org.eclipse.osgi.storage.bundlefile.BundleFileWrapperChain;
 import org.eclipse.osgi.storage.bundlefile.DirBundleFile;
 import org.eclipse.osgi.storage.bundlefile.MRUBundleFileList;
+import org.eclipse.osgi.storage.bundlefile.MappedZipBundleFile;
 import org.eclipse.osgi.storage.bundlefile.NestedDirBundleFile;
 import org.eclipse.osgi.storage.bundlefile.ZipBundleFile;
 import org.eclipse.osgi.storage.url.reference.Handler;
@@ -134,12 +151,15 @@ public class Storage {
 
 	}
 
-	public static final int VERSION = 4;
+	public static final int VERSION = 5;
 	private static final int MR_JAR_VERSION = 4;
+	private static final int RAW_HEADERS_VERSION = 5;
 	private static final int LOWEST_VERSION_SUPPORTED = 3;
 	public static final String BUNDLE_DATA_DIR = "data"; //$NON-NLS-1$
 	public static final String BUNDLE_FILE_NAME = "bundleFile"; //$NON-NLS-1$
 	public static final String FRAMEWORK_INFO = "framework.info"; //$NON-NLS-1$
+	public static final String FRAMEWORK_JOURNAL = "framework.journal"; //$NON-NLS-1$
+	public static final String CLASS_LOAD_PROFILE = "class.profile"; //$NON-NLS-1$
 	public static final String ECLIPSE_SYSTEMBUNDLE = "Eclipse-SystemBundle"; //$NON-NLS-1$
 	public static final String DELETE_FLAG = ".delete"; //$NON-NLS-1$
 	public static final String LIB_TEMP = "libtemp"; //$NON-NLS-1$
@@ -161,9 +181,28 @@ public class Storage {
 	private final EquinoxContainerAdaptor adaptor;
 	private final ModuleDatabase moduleDatabase;
 	private final ModuleContainer moduleContainer;
+	private final ClassLoadProfile classLoadProfile;
 	private final Object saveMonitor = new Object();
 	private long lastSavedTimestamp = -1;
+	/* @GuardedBy("saveMonitor") */
+	private final FrameworkInfoJournal journal;
+	/* @GuardedBy("saveMonitor") */
+	private Map<Long, Generation> savedGenerations = Collections.emptyMap();
+	/* @GuardedBy("saveMonitor") */
+	private int deferSaves = 0;
+	/* @GuardedBy("saveMonitor") */
+	private boolean savePending = false;
 	private final MRUBundleFileList mruList;
+	private final int installThreadCnt;
+	private final Object installMonitor = new Object();
+	/* @GuardedBy("installMonitor") */
+	private ExecutorService installExecutor;
+	/* @GuardedBy("installMonitor") */
+	private boolean installClosed = false;
+	// storage hooks are not required to be thread safe; they are created for one new generation at a time
+	private final Object storageHooksMonitor = new Object();
+	private final boolean mappedBundleFiles;
+	private final boolean cacheAllHeaders;
 	private final FrameworkExtensionInstaller extensionInstaller;
 	private final List<String> cachedHeaderKeys = Arrays.asList(Constants.BUNDLE_SYMBOLICNAME, Constants.BUNDLE_ACTIVATIONPOLICY, "Service-Component"); //$NON-NLS-1$
 	private final boolean allowRestrictedProvides;
@@ -177,6 +216,7 @@ public class Storage {
 		storage.checkSystemBundle();
 		storage.refreshStaleBundles();
 		storage.installExtensions();
+		storage.prefetchClasses();
 		// TODO hack to make sure all bundles are in UNINSTALLED state before system bundle init is called
 		storage.getModuleContainer().setInitialModuleStates();
 		return storage;
@@ -202,6 +242,9 @@ public class Storage {
 		runtimeVersion = javaVersion;
 		javaSpecVersion = javaSpecVersionProp;
 		mruList = new MRUBundleFileList(getBundleFileLimit(container.getConfiguration()), container.getConfiguration().getDebug());
+		installThreadCnt = getInstallThreadCount(container.getConfiguration());
+		mappedBundleFiles = Boolean.parseBoolean(container.getConfiguration().getConfiguration(EquinoxConfiguration.PROP_BUNDLE_FILE_MAPPED));
+		cacheAllHeaders = Boolean.parseBoolean(container.getConfiguration().getConfiguration(EquinoxConfiguration.PROP_STORAGE_CACHE_ALL_HEADERS));
 		equinoxContainer = container;
 		extensionInstaller = new FrameworkExtensionInstaller(container.getConfiguration());
 		allowRestrictedProvides = Boolean.parseBoolean(container.getConfiguration().getConfiguration(EquinoxConfiguration.PROP_ALLOW_RESTRICTED_PROVIDES));
@@ -230,6 +273,8 @@ public class Storage {
 		}
 		Location parent = this.osgiLocation.getParentLocation();
 		parentRoot = parent == null ? null : new File(parent.getURL().getPath());
+		journal = new FrameworkInfoJournal(new File(childRoot, FRAMEWORK_JOURNAL), getJournalLimit(container.getConfiguration()));
+		classLoadProfile = new ClassLoadProfile(CLASS_LOAD_PROFILE, container.getConfiguration());
 
 		if (container.getConfiguration().getConfiguration(Constants.FRAMEWORK_STORAGE) == null) {
 			// Set the derived value if not already set as part of configuration.
@@ -256,7 +301,10 @@ public class Storage {
 			this.moduleContainer = new ModuleContainer(this.adaptor, this.moduleDatabase);
 			if (data != null) {
 				try {
+					// loading the database takes the generations from the map
+					List<Generation> loaded = new ArrayList<>(generations.values());
 					moduleDatabase.load(data);
+					loadJournal(generations, loaded);
 					lastSavedTimestamp = moduleDatabase.getTimestamp();
 				} catch (IllegalArgumentException e) {
 					equinoxContainer.getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.WARNING, "Incompatible version.  Starting with empty framework.", e); //$NON-NLS-1$
@@ -265,8 +313,15 @@ public class Storage {
 					cleanOSGiStorage(osgiLocation, childRoot);
 					// should free up the generations map
 					generations.clear();
+					journal.invalidate();
 				}
 			}
+			List<Generation> current = getCurrentGenerations();
+			savedGenerations = getGenerationsById(current);
+			setSaved(current);
+			if (getConfiguration().getDebug().DEBUG_STORAGE) {
+				Debug.println("Loaded framework info. " + AttributeInterner.getReport()); //$NON-NLS-1$
+			}
 		} finally {
 			if (data != null) {
 				try {
@@ -294,6 +349,99 @@ public class Storage {
 		return propValue;
 	}
 
+	private int getJournalLimit(EquinoxConfiguration configuration) {
+		try {
+			String prop = configuration.getConfiguration(EquinoxConfiguration.PROP_STORAGE_JOURNAL_LIMIT);
+			if (prop != null)
+				return Integer.parseInt(prop);
+		} catch (NumberFormatException e) {
+			// journal is disabled by default
+		}
+		return 0;
+	}
+
+	private void loadJournal(Map<Long, Generation> generations, List<Generation> loaded) throws IOException {
+		List<byte[]> records = journal.read(moduleDatabase.getTimestamp());
+		if (records.isEmpty()) {
+			return;
+		}
+		for (byte[] record : records) {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+			Map<Long, Generation> changed = loadGenerations(in);
+			loaded.addAll(changed.values());
+			// the generations must be available before the module database asks for them
+			generations.putAll(changed);
+			loadDirtyGenerations(in);
+			if (in.readBoolean()) {
+				permissionData.readPermissionData(in);
+			}
+			moduleDatabase.loadChanges(in);
+		}
+		// the generations of uninstalled modules are never taken from the map
+		generations.clear();
+		purgeGenerations(loaded);
+		if (getConfiguration().getDebug().DEBUG_STORAGE) {
+			Debug.println("Applied " + records.size() + " framework info journal records."); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	/*
+	 * Applies the journaled state of the generations which were already current
+	 * but had their storage hook data or next generation id changed when the
+	 * journal record was written.
+	 */
+	private void loadDirtyGenerations(DataInputStream in) throws IOException {
+		Map<Long, Generation> current = getGenerationsById(getCurrentGenerations());
+		int numDirty = in.readInt();
+		List<Generation> dirty = new ArrayList<>(numDirty);
+		for (int i = 0; i < numDirty; i++) {
+			long bundleId = in.readLong();
+			long nextGenerationId = in.readLong();
+			Generation generation = current.get(bundleId);
+			if (generation == null) {
+				throw new IllegalArgumentException("The framework info journal does not apply to bundle: " + bundleId); //$NON-NLS-1$
+			}
+			generation.getBundleInfo().restoreNextGenerationId(nextGenerationId);
+			dirty.add(generation);
+		}
+		loadStorageHookData(dirty, in);
+	}
+
+	/*
+	 * Deletes the generations which were replaced or uninstalled by the journaled changes.
+	 * The changes may have been recorded before the modules were refreshed; after the
+	 * restart nothing refers to the old generations to clean them up.
+	 */
+	private void purgeGenerations(List<Generation> loaded) {
+		Map<Long, Generation> current = getGenerationsById(getCurrentGenerations());
+		for (Generation generation : loaded) {
+			Generation currentGeneration = current.get(generation.getBundleInfo().getBundleId());
+			if (currentGeneration == null) {
+				generation.delete();
+				generation.getBundleInfo().delete();
+			} else if (currentGeneration.getGenerationId() != generation.getGenerationId()) {
+				generation.delete();
+			}
+		}
+	}
+
+	private void prefetchClasses() {
+		if (!classLoadProfile.isActive()) {
+			return;
+		}
+		StorageManager childStorageManager = null;
+		try {
+			childStorageManager = getChildStorageManager();
+			classLoadProfile.prefetch(childStorageManager, getGenerationsById(getCurrentGenerations()));
+		} catch (IOException e) {
+			// the classes are not read ahead
+		} finally {
+			if (childStorageManager != null) {
+				childStorageManager.close();
+			}
+		}
+	}
+
 	private void installExtensions() {
 		Module systemModule = moduleContainer.getModule(0);
 		ModuleRevision systemRevision = systemModule == null ? null : systemModule.getCurrentRevision();
@@ -451,8 +599,18 @@ public class Storage {
 	}
 
 	public void close() {
+		// stop accepting installs before the final save
+		ExecutorService executor;
+		synchronized (installMonitor) {
+			installClosed = true;
+			executor = installExecutor;
+			installExecutor = null;
+		}
+		if (executor != null) {
+			executor.shutdown();
+		}
 		try {
-			save();
+			save(true);
 		} catch (IOException e) {
 			getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.ERROR, "Error saving on shutdown", e); //$NON-NLS-1$
 		}
@@ -473,8 +631,12 @@ public class Storage {
 				generation.close();
 			}
 		}
+		classLoadProfile.close();
 		mruList.shutdown();
 		adaptor.shutdownExecutors();
+		if (getConfiguration().getDebug().DEBUG_STORAGE) {
+			Debug.println("Closed storage. " + AttributeInterner.getReport()); //$NON-NLS-1$
+		}
 	}
 
 	private boolean needUpdate(ModuleRevision currentRevision, ModuleRevisionBuilder newBuilder) {
@@ -525,6 +687,32 @@ public class Storage {
 		return moduleDatabase;
 	}
 
+	public ClassLoadProfile getClassLoadProfile() {
+		return classLoadProfile;
+	}
+
+	/**
+	 * Called once the framework has reached its beginning start level.  Stops
+	 * recording the classes loaded and writes the class load profile.
+	 */
+	public void frameworkStarted() {
+		if (isReadOnly() || !classLoadProfile.isEnabled()) {
+			classLoadProfile.close();
+			return;
+		}
+		StorageManager childStorageManager = null;
+		try {
+			childStorageManager = getChildStorageManager();
+			classLoadProfile.startupComplete(childStorageManager, getGenerationsById(getCurrentGenerations()));
+		} catch (IOException e) {
+			getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.WARNING, "Error saving the class load profile", e); //$NON-NLS-1$
+		} finally {
+			if (childStorageManager != null) {
+				childStorageManager.close();
+			}
+		}
+	}
+
 	public ModuleContainerAdaptor getAdaptor() {
 		return adaptor;
 	}
@@ -628,6 +816,10 @@ public class Storage {
 	}
 
 	public Generation install(Module origin, String bundleLocation, URLConnection content) throws BundleException {
+		return install(origin, bundleLocation, content, null);
+	}
+
+	private Generation install(Module origin, String bundleLocation, URLConnection content, ExecutorService executor) throws BundleException {
 		if (osgiLocation.isReadOnly()) {
 			throw new BundleException("The framework storage area is read only.", BundleException.INVALID_OPERATION); //$NON-NLS-1$
 		}
@@ -653,16 +845,7 @@ public class Storage {
 			} catch (IOException e) {
 				// ignore
 			}
-			if (origin != null) {
-				// Check that the existing location is visible from the origin module
-				Bundle bundle = origin.getBundle();
-				BundleContext context = bundle == null ? null : bundle.getBundleContext();
-				if (context != null && context.getBundle(existingLocation.getId()) == null) {
-					Bundle b = existingLocation.getBundle();
-					throw new BundleException(NLS.bind(Msg.ModuleContainer_NameCollisionWithLocation, new Object[] {b.getSymbolicName(), b.getVersion(), bundleLocation}), BundleException.REJECTED_BY_HOOK);
-				}
-			}
-			return (Generation) existingLocation.getCurrentRevision().getRevisionInfo();
+			return getExistingGeneration(origin, existingLocation, bundleLocation);
 		}
 
 		boolean isReference = in instanceof ReferenceInputStream;
@@ -675,11 +858,18 @@ public class Storage {
 
 			File contentFile = getContentFile(staged, isReference, nextID, generation.getGenerationId());
 			generation.setContent(contentFile, isReference);
-			// Check that we can open the bundle file
-			generation.getBundleFile().open();
-			setStorageHooks(generation);
-
-			ModuleRevisionBuilder builder = getBuilder(generation);
+			ModuleRevisionBuilder builder;
+			if (executor == null) {
+				// Check that we can open the bundle file
+				generation.getBundleFile().open();
+				setStorageHooks(generation);
+				builder = getBuilder(generation);
+			} else {
+				builder = openAndGetBuilder(generation, executor);
+				synchronized (storageHooksMonitor) {
+					setStorageHooks(generation);
+				}
+			}
 			builder.setId(nextID);
 
 			Module m = moduleContainer.install(origin, bundleLocation, builder, generation);
@@ -701,21 +891,320 @@ public class Storage {
 				generation.delete();
 				generation.getBundleInfo().delete();
 			}
-			if (t instanceof SecurityException) {
-				// TODO hack from ModuleContainer
-				// if the cause is a bundle exception then throw that
-				if (t.getCause() instanceof BundleException) {
-					throw (BundleException) t.getCause();
+			throw getInstallException(t);
+		} finally {
+			if (generation != null) {
+				generation.getBundleInfo().unlockGeneration(generation);
+			}
+		}
+	}
+
+	/**
+	 * Installs new bundles for each of the specified locations.  This is equivalent to
+	 * calling {@link #install(Module, String, URLConnection)} for each location except
+	 * that the content of the bundles is staged and their manifests are parsed concurrently
+	 * and then the new modules are installed into the container with a single update
+	 * of the module database.  Either all of the new bundles are installed or none are.
+	 * <p>
+	 * The content connections are read and the bundle files are opened on the install
+	 * threads, so any bundle file wrapper hooks are called on those threads.  Storage
+	 * hooks and module revision builder adaptations are only called on the calling thread.
+	 * @param origin the module performing the install
+	 * @param contents the content of the bundles to install keyed by location
+	 * @return the generations of the installed bundles keyed by location in the
+	 * iteration order of the contents
+	 * @throws BundleException if an error occurs installing the bundles
+	 */
+	public Map<String, Generation> install(Module origin, Map<String, URLConnection> contents) throws BundleException {
+		if (osgiLocation.isReadOnly()) {
+			throw new BundleException("The framework storage area is read only.", BundleException.INVALID_OPERATION); //$NON-NLS-1$
+		}
+		Map<String, Generation> result = new LinkedHashMap<>(contents.size());
+		Map<String, StagedGeneration> staging = new LinkedHashMap<>();
+		boolean installed = false;
+		try {
+			for (Map.Entry<String, URLConnection> entry : contents.entrySet()) {
+				String location = entry.getKey();
+				Module existingLocation = moduleContainer.getModule(location);
+				if (existingLocation != null) {
+					result.put(location, getExistingGeneration(origin, existingLocation, location));
+				} else {
+					// the generations are created and locked by this thread
+					BundleInfo info = new BundleInfo(this, moduleDatabase.getAndIncrementNextId(), location, 0);
+					staging.put(location, new StagedGeneration(info.createGeneration(), entry.getValue()));
+					// keep the order of the contents
+					result.put(location, null);
+				}
+			}
+			stageGenerations(staging.values());
+
+			Map<String, ModuleRevisionBuilder> builders = new LinkedHashMap<>(staging.size());
+			Map<String, Generation> generations = new HashMap<>(staging.size());
+			for (Map.Entry<String, StagedGeneration> entry : staging.entrySet()) {
+				Generation generation = entry.getValue().generation;
+				ModuleRevisionBuilder builder = entry.getValue().builder;
+				builder.setId(generation.getBundleInfo().getBundleId());
+				builders.put(entry.getKey(), builder);
+				generations.put(entry.getKey(), generation);
+			}
+			Map<String, Module> modules = moduleContainer.install(origin, builders, generations);
+			installed = true;
+			for (Map.Entry<String, StagedGeneration> entry : staging.entrySet()) {
+				Generation generation = entry.getValue().generation;
+				Module m = modules.get(entry.getKey());
+				if (m.getId() != generation.getBundleInfo().getBundleId()) {
+					// this revision is already installed. delete the generation
+					generation.delete();
+					result.put(entry.getKey(), (Generation) m.getCurrentRevision().getRevisionInfo());
+				} else {
+					result.put(entry.getKey(), generation);
 				}
-				throw (SecurityException) t;
 			}
-			if (t instanceof BundleException) {
-				throw (BundleException) t;
+			return result;
+		} catch (Throwable t) {
+			if (!installed) {
+				for (StagedGeneration staged : staging.values()) {
+					staged.delete(true);
+				}
 			}
-			throw new BundleException("Error occurred installing a bundle.", t); //$NON-NLS-1$
+			throw getInstallException(t);
 		} finally {
-			if (generation != null) {
-				generation.getBundleInfo().unlockGeneration(generation);
+			for (StagedGeneration staged : staging.values()) {
+				staged.generation.getBundleInfo().unlockGeneration(staged.generation);
+			}
+		}
+	}
+
+	private Generation getExistingGeneration(Module origin, Module existingLocation, String bundleLocation) throws BundleException {
+		if (origin != null) {
+			// Check that the existing location is visible from the origin module
+			Bundle bundle = origin.getBundle();
+			BundleContext context = bundle == null ? null : bundle.getBundleContext();
+			if (context != null && context.getBundle(existingLocation.getId()) == null) {
+				Bundle b = existingLocation.getBundle();
+				throw new BundleException(NLS.bind(Msg.ModuleContainer_NameCollisionWithLocation, new Object[] {b.getSymbolicName(), b.getVersion(), bundleLocation}), BundleException.REJECTED_BY_HOOK);
+			}
+		}
+		return (Generation) existingLocation.getCurrentRevision().getRevisionInfo();
+	}
+
+	private static BundleException getInstallException(Throwable t) {
+		if (t instanceof SecurityException) {
+			// TODO hack from ModuleContainer
+			// if the cause is a bundle exception then throw that
+			if (t.getCause() instanceof BundleException) {
+				return (BundleException) t.getCause();
+			}
+			throw (SecurityException) t;
+		}
+		if (t instanceof BundleException) {
+			return (BundleException) t;
+		}
+		return new BundleException("Error occurred installing a bundle.", t); //$NON-NLS-1$
+	}
+
+	/**
+	 * Stages the content and creates the builders of the specified generations
+	 * using the install threads.  The storage hooks of the generations are then
+	 * created and initialized by the calling thread, one generation at a time
+	 * in the iteration order of the staging collection.
+	 */
+	private void stageGenerations(Collection<StagedGeneration> staging) throws BundleException {
+		if (installThreadCnt == 1 || staging.size() <= 1) {
+			for (StagedGeneration staged : staging) {
+				try {
+					staged.call();
+				} catch (Exception e) {
+					throw getInstallException(e);
+				}
+			}
+		} else {
+			try {
+				for (Future<Void> future : getInstallExecutor().invokeAll(staging)) {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						throw getInstallException(e.getCause());
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new BundleException("Interrupted while staging bundle content.", BundleException.STATECHANGE_ERROR, e); //$NON-NLS-1$
+			}
+		}
+		// storage hooks are not required to be thread safe; never call them from the install threads
+		synchronized (storageHooksMonitor) {
+			for (StagedGeneration staged : staging) {
+				setStorageHooks(staged.generation);
+			}
+		}
+	}
+
+	/**
+	 * Installs a new bundle asynchronously using the install threads.  This is
+	 * equivalent to calling {@link #install(Module, String, URLConnection)} except
+	 * that the calling thread does not wait for the content to be staged, the bundle
+	 * file to be opened and verified and the manifest to be parsed.  Once the content
+	 * is staged the bundle file is opened and verified on another install thread while
+	 * the manifest is parsed.  Installing many bundles asynchronously overlaps the work
+	 * of installing each of them.
+	 * <p>
+	 * The storage hooks of the new bundle are created and initialized on one of the
+	 * install threads while holding a lock, so the storage hooks of bundles installed
+	 * asynchronously are never called concurrently.  Module revision builder adaptations
+	 * are called on the install thread as they are for concurrent calls to
+	 * {@link #install(Module, String, URLConnection)}.
+	 * @param origin the module performing the install
+	 * @param bundleLocation the location of the bundle to install
+	 * @param content the content of the bundle to install
+	 * @return a future for the generation of the installed bundle.  If the install fails
+	 * the future is completed with the exception thrown by the install.
+	 * @throws IllegalStateException if the storage is closed
+	 */
+	public Future<Generation> installAsync(final Module origin, final String bundleLocation, final URLConnection content) {
+		// install with the permissions of the caller
+		final AccessControlContext context = System.getSecurityManager() == null ? null : AccessController.getContext();
+		final ExecutorService executor = getInstallExecutor();
+		return executor.submit(new Callable<Generation>() {
+			@Override
+			public Generation call() throws Exception {
+				if (context == null) {
+					return install(origin, bundleLocation, content, executor);
+				}
+				try {
+					return AccessController.doPrivileged(new PrivilegedExceptionAction<Generation>() {
+						@Override
+						public Generation run() throws BundleException {
+							return install(origin, bundleLocation, content, executor);
+						}
+					}, context);
+				} catch (PrivilegedActionException e) {
+					throw e.getException();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Opens the bundle file of the generation using the executor while the
+	 * calling thread creates the builder of the generation.
+	 */
+	private ModuleRevisionBuilder openAndGetBuilder(final Generation generation, ExecutorService executor) throws BundleException {
+		FutureTask<Void> open = new FutureTask<>(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				// Check that we can open the bundle file
+				generation.getBundleFile().open();
+				return null;
+			}
+		});
+		try {
+			executor.execute(open);
+		} catch (RejectedExecutionException e) {
+			// the storage is closing; open the bundle file below
+		}
+		ModuleRevisionBuilder builder;
+		try {
+			builder = getBuilder(generation);
+		} finally {
+			// open the bundle file on this thread if no install thread has started to;
+			// always wait for the open to complete so the generation is not deleted while in use
+			open.run();
+			try {
+				open.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new BundleException("Interrupted while opening the bundle file.", BundleException.STATECHANGE_ERROR, e); //$NON-NLS-1$
+			} catch (ExecutionException e) {
+				throw getInstallException(e.getCause());
+			}
+		}
+		return builder;
+	}
+
+	private ExecutorService getInstallExecutor() {
+		synchronized (installMonitor) {
+			if (installClosed) {
+				throw new IllegalStateException("The storage is closed."); //$NON-NLS-1$
+			}
+			if (installExecutor == null) {
+				// use the number of processors when configured value is <=0
+				int threadCnt = installThreadCnt <= 0 ? Runtime.getRuntime().availableProcessors() : installThreadCnt;
+				final String threadName = "Equinox install thread - " + equinoxContainer.toString(); //$NON-NLS-1$
+				ThreadFactory threadFactory = new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, threadName);
+						t.setDaemon(true);
+						return t;
+					}
+				};
+				// idle timeout; make it short to get rid of threads quickly after use
+				ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCnt, threadCnt, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+				executor.allowCoreThreadTimeOut(true);
+				installExecutor = executor;
+			}
+			return installExecutor;
+		}
+	}
+
+	private int getInstallThreadCount(EquinoxConfiguration configuration) {
+		try {
+			String prop = configuration.getConfiguration(EquinoxConfiguration.PROP_EQUINOX_INSTALL_THREAD_COUNT);
+			if (prop != null)
+				return Integer.parseInt(prop);
+		} catch (NumberFormatException e) {
+			// use the number of processors by default
+		}
+		return -1;
+	}
+
+	/**
+	 * A new generation which has its content staged and its builder created
+	 * by one of the install threads.  The storage hooks of the generation
+	 * are set afterwards by the thread which created the generation.
+	 */
+	private final class StagedGeneration implements Callable<Void> {
+		final Generation generation;
+		private final URLConnection content;
+		private File staged;
+		private boolean isReference;
+		ModuleRevisionBuilder builder;
+
+		StagedGeneration(Generation generation, URLConnection content) {
+			this.generation = generation;
+			this.content = content;
+		}
+
+		@Override
+		public Void call() throws Exception {
+			InputStream in;
+			try {
+				in = content.getInputStream();
+			} catch (Throwable e) {
+				throw new BundleException("Error reading bundle content.", e); //$NON-NLS-1$
+			}
+			isReference = in instanceof ReferenceInputStream;
+			staged = stageContent(in, content.getURL());
+			File contentFile = getContentFile(staged, isReference, generation.getBundleInfo().getBundleId(), generation.getGenerationId());
+			generation.setContent(contentFile, isReference);
+			// Check that we can open the bundle file
+			generation.getBundleFile().open();
+			builder = getBuilder(generation);
+			return null;
+		}
+
+		void delete(boolean deleteInfo) {
+			if (staged != null && !isReference) {
+				try {
+					Storage.this.delete(staged);
+				} catch (IOException e) {
+					// tried our best
+				}
+			}
+			generation.delete();
+			if (deleteInfo) {
+				generation.getBundleInfo().delete();
 			}
 		}
 	}
@@ -902,22 +1391,64 @@ public class Storage {
 				}
 			}
 			newGen.delete();
-			if (t instanceof SecurityException) {
-				// TODO hack from ModuleContainer
-				// if the cause is a bundle exception then throw that
-				if (t.getCause() instanceof BundleException) {
-					throw (BundleException) t.getCause();
+			throw getInstallException(t);
+		} finally {
+			bundleInfo.unlockGeneration(newGen);
+		}
+		return newGen;
+	}
+
+	/**
+	 * Updates each of the specified modules.  This is equivalent to calling
+	 * {@link #update(Module, URLConnection)} for each module except that the
+	 * new content of the modules is staged and their manifests are parsed
+	 * concurrently and the framework is only persisted once after all the
+	 * modules have been updated.  Modules which were updated before an
+	 * error occurs remain updated.
+	 * <p>
+	 * As with {@link #install(Module, Map)} only the content staging, bundle file
+	 * checks and manifest parsing are done on the install threads.
+	 * @param contents the new content of the modules to update
+	 * @return the new generations of the updated modules in the iteration order of the contents
+	 * @throws BundleException if an error occurs updating the modules
+	 */
+	public Map<Module, Generation> update(Map<Module, URLConnection> contents) throws BundleException {
+		if (osgiLocation.isReadOnly()) {
+			throw new BundleException("The framework storage area is read only.", BundleException.INVALID_OPERATION); //$NON-NLS-1$
+		}
+		Map<Module, Generation> result = new LinkedHashMap<>(contents.size());
+		Map<Module, StagedGeneration> staging = new LinkedHashMap<>(contents.size());
+		try {
+			for (Map.Entry<Module, URLConnection> entry : contents.entrySet()) {
+				Generation currentGen = (Generation) entry.getKey().getCurrentRevision().getRevisionInfo();
+				// the generations are created and locked by this thread
+				staging.put(entry.getKey(), new StagedGeneration(currentGen.getBundleInfo().createGeneration(), entry.getValue()));
+			}
+			stageGenerations(staging.values());
+
+			deferSaves();
+			try {
+				for (Map.Entry<Module, StagedGeneration> entry : staging.entrySet()) {
+					StagedGeneration staged = entry.getValue();
+					moduleContainer.update(entry.getKey(), staged.builder, staged.generation);
+					result.put(entry.getKey(), staged.generation);
 				}
-				throw (SecurityException) t;
+			} finally {
+				endDeferSaves();
 			}
-			if (t instanceof BundleException) {
-				throw (BundleException) t;
+			return result;
+		} catch (Throwable t) {
+			for (Map.Entry<Module, StagedGeneration> entry : staging.entrySet()) {
+				if (!result.containsKey(entry.getKey())) {
+					entry.getValue().delete(false);
+				}
 			}
-			throw new BundleException("Error occurred installing a bundle.", t); //$NON-NLS-1$
+			throw getInstallException(t);
 		} finally {
-			bundleInfo.unlockGeneration(newGen);
+			for (StagedGeneration staged : staging.values()) {
+				staged.generation.getBundleInfo().unlockGeneration(staged.generation);
+			}
 		}
-		return newGen;
 	}
 
 	private File getContentFile(final File staged, final boolean isReference, final long bundleID, final long generationID) throws BundleException {
@@ -1114,7 +1645,24 @@ public class Storage {
 				boolean strictPath = Boolean.parseBoolean(equinoxContainer.getConfiguration().getConfiguration(EquinoxConfiguration.PROPERTY_STRICT_BUNDLE_ENTRY_PATH, Boolean.FALSE.toString()));
 				result = new DirBundleFile(content, strictPath);
 			} else {
-				result = new ZipBundleFile(content, generation, mruList, getConfiguration().getDebug());
+				result = null;
+				// on some platforms a mapped file cannot be deleted until the mapping is garbage
+				// collected; delete0 then marks the generation directory with DELETE_FLAG and
+				// compact removes it on a later launch
+				if (mappedBundleFiles) {
+					try {
+						result = new MappedZipBundleFile(content, generation, getConfiguration().getDebug());
+					} catch (IOException e) {
+						// fall back to a ZipBundleFile; this is expected for zip64 or very large files
+						if (getConfiguration().getDebug().DEBUG_BUNDLE_FILE) {
+							Debug.println("Unable to map bundle file: " + content); //$NON-NLS-1$
+							Debug.printStackTrace(e);
+						}
+					}
+				}
+				if (result == null) {
+					result = new ZipBundleFile(content, generation, mruList, getConfiguration().getDebug());
+				}
 			}
 		} catch (IOException e) {
 			throw new RuntimeException("Could not create bundle file.", e); //$NON-NLS-1$
@@ -1214,17 +1762,56 @@ public class Storage {
 	}
 
 	public void save() throws IOException {
+		synchronized (this.saveMonitor) {
+			if (deferSaves > 0) {
+				savePending = true;
+				return;
+			}
+		}
+		save(false);
+	}
+
+	/**
+	 * Defers requests to save until {@link #endDeferSaves()} is called.
+	 */
+	private void deferSaves() {
+		synchronized (this.saveMonitor) {
+			deferSaves++;
+		}
+	}
+
+	/**
+	 * Ends deferring saves.  A save is done if any were requested while deferred.
+	 */
+	private void endDeferSaves() {
+		boolean save;
+		synchronized (this.saveMonitor) {
+			save = --deferSaves == 0 && savePending;
+			if (save) {
+				savePending = false;
+			}
+		}
+		if (save) {
+			try {
+				save(false);
+			} catch (IOException e) {
+				getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.ERROR, "Error saving on update", e); //$NON-NLS-1$
+			}
+		}
+	}
+
+	private void save(final boolean compact) throws IOException {
 		if (isReadOnly()) {
 			return;
 		}
 		if (System.getSecurityManager() == null) {
-			save0();
+			save0(compact);
 		} else {
 			try {
 				AccessController.doPrivileged(new PrivilegedExceptionAction<Void>() {
 					@Override
 					public Void run() throws IOException {
-						save0();
+						save0(compact);
 						return null;
 					}
 				});
@@ -1236,30 +1823,166 @@ public class Storage {
 		}
 	}
 
-	void save0() throws IOException {
-		StorageManager childStorageManager = null;
-		ManagedOutputStream mos = null;
-		DataOutputStream out = null;
-		boolean success = false;
+	void save0(boolean compact) throws IOException {
+		if (cacheAllHeaders) {
+			// read the headers before locking; only headers which were read are saved
+			readRawHeaders(getCurrentGenerations());
+		}
 		moduleDatabase.readLock();
 		try {
 			synchronized (this.saveMonitor) {
-				if (lastSavedTimestamp == moduleDatabase.getTimestamp())
-					return;
-				childStorageManager = getChildStorageManager();
-				mos = childStorageManager.getOutputStream(FRAMEWORK_INFO);
-				out = new DataOutputStream(new BufferedOutputStream(mos));
-				saveGenerations(out);
+				long timestamp = moduleDatabase.getTimestamp();
+				if (lastSavedTimestamp != timestamp || (compact && journal.hasRecords())) {
+					List<Generation> generations = getCurrentGenerations();
+					if (!compact && journal.canAppend()) {
+						saveJournal(generations);
+					} else {
+						saveFrameworkInfo(generations, timestamp);
+					}
+					savedGenerations = getGenerationsById(generations);
+					lastSavedTimestamp = timestamp;
+				}
+			}
+		} finally {
+			moduleDatabase.readUnlock();
+		}
+	}
+
+	private void readRawHeaders(List<Generation> generations) {
+		for (Generation generation : generations) {
+			if (generation.getBundleInfo().getBundleId() == 0) {
+				continue; // the system bundle headers are never cached
+			}
+			try {
+				generation.getRawHeaders();
+			} catch (RuntimeException e) {
+				// the headers of this generation are not saved; they are read from the bundle file when needed
+				if (getConfiguration().getDebug().DEBUG_STORAGE) {
+					Debug.println("Error reading the headers of bundle " + generation.getBundleInfo().getBundleId() + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+					Debug.printStackTrace(e);
+				}
+			}
+		}
+	}
+
+	private void saveJournal(List<Generation> generations) throws IOException {
+		boolean success = false;
+		try {
+			// the generations which changed since the last save are written in full
+			List<Generation> changed = new ArrayList<>();
+			// the others are only written if their storage hook data or next generation id changed
+			List<Generation> dirty = new ArrayList<>();
+			for (Generation generation : generations) {
+				long bundleId = generation.getBundleInfo().getBundleId();
+				if (bundleId == 0) {
+					if (savedGenerations.get(bundleId) != generation) {
+						changed.add(generation);
+					}
+					continue;
+				}
+				long hookDataChecksum = getHookDataChecksum(generation);
+				if (savedGenerations.get(bundleId) != generation) {
+					changed.add(generation);
+				} else if (generation.isDirty(hookDataChecksum)) {
+					dirty.add(generation);
+				} else {
+					continue;
+				}
+				// marked before writing; a failure to write invalidates the journal
+				generation.setSaved(hookDataChecksum);
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			saveGenerations(out, changed);
+			out.writeInt(dirty.size());
+			for (Generation generation : dirty) {
+				out.writeLong(generation.getBundleInfo().getBundleId());
+				out.writeLong(generation.getBundleInfo().getNextGenerationId());
+			}
+			saveStorageHookData(out, dirty);
+			boolean permissionsChanged = permissionData.isDirty();
+			out.writeBoolean(permissionsChanged);
+			if (permissionsChanged) {
 				savePermissionData(out);
-				moduleDatabase.store(out, true);
-				lastSavedTimestamp = moduleDatabase.getTimestamp();
-				success = true;
+			}
+			moduleDatabase.storeChanges(out);
+			out.close();
+			journal.append(bytes.toByteArray());
+			success = true;
+		} finally {
+			if (!success) {
+				// the changes may be lost from the journal; the next save must be in full
+				journal.invalidate();
+			}
+		}
+	}
+
+	/*
+	 * Marks the generations as saved so that only the generations which change
+	 * afterwards are written to the journal.
+	 */
+	private void setSaved(List<Generation> generations) {
+		if (!journal.isEnabled()) {
+			return;
+		}
+		for (Generation generation : generations) {
+			if (generation.getBundleInfo().getBundleId() == 0) {
+				continue; // the system bundle has no storage hook data
+			}
+			long hookDataChecksum;
+			try {
+				hookDataChecksum = getHookDataChecksum(generation);
+			} catch (IOException e) {
+				// the generation is written to the next journal record
+				hookDataChecksum = -1;
+			}
+			generation.setSaved(hookDataChecksum);
+		}
+	}
+
+	/*
+	 * Returns the checksum of the storage hook data of the generation.  Each hook uses its
+	 * own save context so that the data does not depend on the other generations.
+	 */
+	private long getHookDataChecksum(Generation generation) throws IOException {
+		ByteArrayOutputStream tempBytes = new ByteArrayOutputStream();
+		DataOutputStream temp = new DataOutputStream(tempBytes);
+		try {
+			for (StorageHookFactory<?, ?, ?> factory : getConfiguration().getHookRegistry().getStorageHookFactories()) {
+				@SuppressWarnings({"rawtypes", "unchecked"})
+				StorageHook<Object, Object> hook = generation.getStorageHook((Class) factory.getClass());
+				hook.save(factory.createSaveContext(), temp);
 			}
+		} finally {
+			temp.close();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(tempBytes.toByteArray());
+		return crc.getValue();
+	}
+
+	private void saveFrameworkInfo(List<Generation> generations, long timestamp) throws IOException {
+		StorageManager childStorageManager = null;
+		ManagedOutputStream mos = null;
+		DataOutputStream out = null;
+		boolean success = false;
+		try {
+			// marked before writing; a failure to write invalidates the journal
+			setSaved(generations);
+			childStorageManager = getChildStorageManager();
+			mos = childStorageManager.getOutputStream(FRAMEWORK_INFO);
+			out = new DataOutputStream(new BufferedOutputStream(mos));
+			saveGenerations(out, generations);
+			savePermissionData(out);
+			moduleDatabase.store(out, true);
+			success = true;
 		} finally {
 			if (!success) {
 				if (mos != null) {
 					mos.abort();
 				}
+				// the changes are no longer tracked; the next save must be in full
+				journal.invalidate();
 			}
 			if (out != null) {
 				try {
@@ -1271,7 +1994,10 @@ public class Storage {
 			if (childStorageManager != null) {
 				childStorageManager.close();
 			}
-			moduleDatabase.readUnlock();
+			if (success) {
+				// the journal was written against the previous framework info
+				journal.reset(timestamp);
+			}
 		}
 	}
 
@@ -1279,7 +2005,7 @@ public class Storage {
 		permissionData.savePermissionData(out);
 	}
 
-	private void saveGenerations(DataOutputStream out) throws IOException {
+	private List<Generation> getCurrentGenerations() {
 		List<Module> modules = moduleContainer.getModules();
 		List<Generation> generations = new ArrayList<>();
 		for (Module module : modules) {
@@ -1291,6 +2017,18 @@ public class Storage {
 				}
 			}
 		}
+		return generations;
+	}
+
+	private static Map<Long, Generation> getGenerationsById(List<Generation> generations) {
+		Map<Long, Generation> result = new HashMap<>(generations.size());
+		for (Generation generation : generations) {
+			result.put(generation.getBundleInfo().getBundleId(), generation);
+		}
+		return result;
+	}
+
+	private void saveGenerations(DataOutputStream out, List<Generation> generations) throws IOException {
 		out.writeInt(VERSION);
 
 		out.writeUTF(runtimeVersion.toString());
@@ -1335,11 +2073,36 @@ public class Storage {
 			}
 
 			out.writeBoolean(generation.isMRJar());
+
+			// the complete set of headers so the bundle file need not be opened to get them;
+			// never read them here, the bundle file may be invalid
+			Map<String, String> rawHeaders = cacheAllHeaders && bundleInfo.getBundleId() != 0 ? generation.getLoadedRawHeaders() : null;
+			if (rawHeaders != null) {
+				out.writeInt(rawHeaders.size());
+				for (Map.Entry<String, String> rawHeader : rawHeaders.entrySet()) {
+					out.writeUTF(rawHeader.getKey());
+					writeLongString(out, rawHeader.getValue());
+				}
+			} else {
+				out.writeInt(-1);
+			}
 		}
 
 		saveStorageHookData(out, generations);
 	}
 
+	private static void writeLongString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readLongString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
 	private void saveStorageHookData(DataOutputStream out, List<Generation> generations) throws IOException {
 		List<StorageHookFactory<?, ?, ?>> factories = getConfiguration().getHookRegistry().getStorageHookFactories();
 		out.writeInt(factories.size());
@@ -1412,6 +2175,19 @@ public class Storage {
 			}
 			boolean isMRJar = (version >= MR_JAR_VERSION) ? in.readBoolean() : false;
 
+			Map<String, String> rawHeaders = null;
+			int numRawHeaders = (version >= RAW_HEADERS_VERSION) ? in.readInt() : -1;
+			if (numRawHeaders >= 0) {
+				Map<String, String> raw = new CaseInsensitiveDictionaryMap<>(numRawHeaders);
+				for (int j = 0; j < numRawHeaders; j++) {
+					raw.put(ObjectPool.intern(in.readUTF()), readLongString(in));
+				}
+				// the headers of a multi-release jar depend on the runtime version
+				if (!isMRJar || !refreshMRBundles.get()) {
+					rawHeaders = Collections.unmodifiableMap(raw);
+				}
+			}
+
 			File content;
 			if (infoId == 0) {
 				content = getSystemContent();
@@ -1434,7 +2210,7 @@ public class Storage {
 			}
 
 			BundleInfo info = new BundleInfo(this, infoId, infoLocation, nextGenId);
-			Generation generation = info.restoreGeneration(generationId, content, isDirectory, isReference, hasPackageInfo, cachedHeaders, lastModified, isMRJar);
+			Generation generation = info.restoreGeneration(generationId, content, isDirectory, isReference, hasPackageInfo, cachedHeaders, rawHeaders, lastModified, isMRJar);
 			result.put(infoId, generation);
 			generations.add(generation);
 		}
@@ -19,6 +19,8 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import org.eclipse.osgi.framework.eventmgr.EventDispatcher;
@@ -31,23 +33,31 @@ import org.eclipse.osgi.internal.debug.Debug;
  * track of open BundleFiles.  The MRU will use the file limit specified by the property
  * &quot;osgi.bundlefile.limit&quot; by default unless the MRU is constructed with a specific
  * file limit.
+ * <p>
+ * The list uses the CLOCK (second chance) approximation of least recently used.
+ * Each slot has a referenced bit which is set each time the bundle file in the
+ * slot is used.  When a slot is needed the clock hand sweeps the slots, clearing
+ * the referenced bits, until it finds a slot whose bit is already clear.  Slots
+ * are claimed with compare and set so no lock is held while adding, using or
+ * removing bundle files.
  */
 public class MRUBundleFileList implements EventDispatcher<Object, Object, BundleFile> {
 	private static final int MIN = 10;
 	private static final ThreadLocal<BundleFile> closingBundleFile = new ThreadLocal<>();
 
 	// list of open bundle files
-	final private BundleFile[] bundleFileList;
-	// list of open bundle files use stamps
-	final private long[] useStampList;
+	final private AtomicReferenceArray<BundleFile> bundleFileList;
+	// list of open bundle files referenced bits
+	final private AtomicIntegerArray referencedList;
 	// the limit of open files to allow before least used bundle file is closed
 	final private int fileLimit; // value < MIN will disable MRU
+	/* @GuardedBy("this") */
 	private EventManager bundleFileCloserManager = null;
 	final private Map<Object, Object> bundleFileCloser;
-	// the current number of open bundle files
-	private int numOpen = 0;
-	// the current use stamp
-	private long curUseStamp = 0;
+	// the current number of open or reserved slots
+	private final AtomicInteger numOpen = new AtomicInteger();
+	// the current position of the clock hand
+	private final AtomicInteger clockHand = new AtomicInteger();
 	// used to work around bug 275166
 	private boolean firstDispatch = true;
 
@@ -61,12 +71,12 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 		this.fileLimit = fileLimit;
 		this.debug = debug;
 		if (fileLimit >= MIN) {
-			this.bundleFileList = new BundleFile[fileLimit];
-			this.useStampList = new long[fileLimit];
+			this.bundleFileList = new AtomicReferenceArray<>(fileLimit);
+			this.referencedList = new AtomicIntegerArray(fileLimit);
 			this.bundleFileCloser = Collections.<Object, Object> singletonMap(this, this);
 		} else {
 			this.bundleFileList = null;
-			this.useStampList = null;
+			this.referencedList = null;
 			this.bundleFileCloser = null;
 		}
 	}
@@ -81,52 +91,69 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 	public boolean add(BundleFile bundleFile) {
 		if (fileLimit < MIN)
 			return false; // MRU is disabled
-		BundleFile toRemove = null;
-		EventManager manager = null;
-		boolean backpressureNeeded = false;
-		synchronized (this) {
-			if (bundleFile.getMruIndex() >= 0)
-				return false; // do nothing; someone is trying add a bundleFile that is already in an MRU list
-			int index = 0; // default to the first slot
-			if (numOpen < fileLimit) {
-				// numOpen does not exceed the fileLimit
-				// find the first null slot to use in the MRU
-				for (int i = 0; i < fileLimit; i++)
-					if (bundleFileList[i] == null) {
-						index = i;
-						break;
-					}
-			} else {
-				// numOpen has reached the fileLimit
-				// find the least recently used bundleFile and close it 
-				// and use its slot for the new bundleFile to be opened.
-				index = 0;
-				for (int i = 1; i < fileLimit; i++)
-					if (useStampList[i] < useStampList[index])
-						index = i;
-				toRemove = bundleFileList[index];
-				if (toRemove.getMruIndex() != index)
-					throw new IllegalStateException("The BundleFile has the incorrect mru index: " + index + " != " + toRemove.getMruIndex()); //$NON-NLS-1$//$NON-NLS-2$
-				removeInternal(toRemove);
-				backpressureNeeded = isBackPressureNeeded();
+		if (bundleFile.getMruIndex() >= 0)
+			return false; // do nothing; someone is trying add a bundleFile that is already in an MRU list
+		if (numOpen.incrementAndGet() <= fileLimit) {
+			// numOpen does not exceed the fileLimit; a free slot is reserved for us
+			while (true) {
+				int index = nextClockIndex();
+				if (bundleFileList.get(index) == null && claimSlot(index, null, bundleFile)) {
+					return false;
+				}
+			}
+		}
+		// numOpen has reached the fileLimit
+		// find the least recently used bundleFile and close it 
+		// and use its slot for the new bundleFile to be opened.
+		numOpen.decrementAndGet();
+		while (true) {
+			int index = nextClockIndex();
+			BundleFile toRemove = bundleFileList.get(index);
+			if (toRemove == null) {
+				// slot is free or reserved by another add
+				if (numOpen.incrementAndGet() <= fileLimit && claimSlot(index, null, bundleFile)) {
+					return false;
+				}
+				numOpen.decrementAndGet();
+				continue;
+			}
+			if (referencedList.getAndSet(index, 0) != 0) {
+				// give the bundle file a second chance
+				continue;
 			}
-			// found an index to place to bundleFile to be opened
-			bundleFileList[index] = bundleFile;
-			bundleFile.setMruIndex(index);
-			incUseStamp(index);
-			numOpen++;
-			if (toRemove != null) {
-				if (bundleFileCloserManager == null)
-					bundleFileCloserManager = new EventManager("Bundle File Closer"); //$NON-NLS-1$
-				manager = bundleFileCloserManager;
+			if (claimSlot(index, toRemove, bundleFile)) {
+				// no one else can change the index now that toRemove is out of the list
+				if (toRemove.getMruIndex() == index)
+					toRemove.setMruIndex(-1);
+				boolean backpressureNeeded = isBackPressureNeeded();
+				// must not close the toRemove bundle file while holding the lock of another bundle file (bug 161976)
+				// This queues the bundle file for close asynchronously.
+				closeBundleFile(toRemove, getBundleFileCloserManager());
+				return backpressureNeeded;
 			}
+		}
+	}
+
+	private int nextClockIndex() {
+		return (clockHand.getAndIncrement() & Integer.MAX_VALUE) % fileLimit;
+	}
 
+	private boolean claimSlot(int index, BundleFile current, BundleFile bundleFile) {
+		// the index must be set before the bundle file is visible in the list
+		// so that it is never overwritten after another add evicts the bundle file
+		bundleFile.setMruIndex(index);
+		if (bundleFileList.compareAndSet(index, current, bundleFile)) {
+			referencedList.set(index, 1);
+			return true;
 		}
-		// must not close the toRemove bundle file while holding the lock of another bundle file (bug 161976)
-		// This queues the bundle file for close asynchronously.
-		closeBundleFile(toRemove, manager);
+		bundleFile.setMruIndex(-1);
+		return false;
+	}
 
-		return backpressureNeeded;
+	private synchronized EventManager getBundleFileCloserManager() {
+		if (bundleFileCloserManager == null)
+			bundleFileCloserManager = new EventManager("Bundle File Closer"); //$NON-NLS-1$
+		return bundleFileCloserManager;
 	}
 
 	/**
@@ -137,48 +164,25 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 	public boolean remove(BundleFile bundleFile) {
 		if (fileLimit < MIN)
 			return false; // MRU is disabled
-		synchronized (this) {
-			int index = bundleFile.getMruIndex();
-			if ((index >= 0 && index < fileLimit) && bundleFileList[index] == bundleFile) {
-				removeInternal(bundleFile);
-				return true;
-			}
+		int index = bundleFile.getMruIndex();
+		if ((index >= 0 && index < fileLimit) && bundleFileList.compareAndSet(index, bundleFile, null)) {
+			bundleFile.setMruIndex(-1);
+			numOpen.decrementAndGet();
+			return true;
 		}
 		return false;
 	}
 
-	// must be called while synchronizing "this"
-	private void removeInternal(BundleFile bundleFile) {
-		int index = bundleFile.getMruIndex();
-		bundleFile.setMruIndex(-1);
-		bundleFileList[index] = null;
-		useStampList[index] = -1;
-		numOpen--;
-	}
-
 	/**
-	 * Increments the use stamp of a bundle file
-	 * @param bundleFile the bundle file to increment the use stamp for
+	 * Marks a bundle file as recently used
+	 * @param bundleFile the bundle file which is used
 	 */
 	public void use(BundleFile bundleFile) {
 		if (fileLimit < MIN)
 			return; // MRU is disabled
-		synchronized (this) {
-			int index = bundleFile.getMruIndex();
-			if ((index >= 0 && index < fileLimit) && bundleFileList[index] == bundleFile)
-				incUseStamp(index);
-		}
-	}
-
-	// must be called while synchronizing "this"
-	private void incUseStamp(int index) {
-		if (curUseStamp == Long.MAX_VALUE) {
-			// we hit the curUseStamp max better reset all the stamps
-			for (int i = 0; i < fileLimit; i++)
-				useStampList[i] = 0;
-			curUseStamp = 0;
-		}
-		useStampList[index] = ++curUseStamp;
+		int index = bundleFile.getMruIndex();
+		if ((index >= 0 && index < fileLimit) && referencedList.get(index) == 0 && bundleFileList.get(index) == bundleFile)
+			referencedList.set(index, 1);
 	}
 
 	@Override
@@ -261,12 +265,10 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 	/**
 	 * Closes the bundle file closer thread for the MRU list
 	 */
-	public void shutdown() {
-		synchronized (this) {
-			if (bundleFileCloserManager != null)
-				bundleFileCloserManager.close();
-			bundleFileCloserManager = null;
-		}
+	public synchronized void shutdown() {
+		if (bundleFileCloserManager != null)
+			bundleFileCloserManager.close();
+		bundleFileCloserManager = null;
 	}
 
 	/**
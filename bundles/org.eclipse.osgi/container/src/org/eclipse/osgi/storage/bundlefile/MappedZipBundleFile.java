@@ -0,0 +1,619 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.storage.bundlefile;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import org.eclipse.osgi.framework.log.FrameworkLogEntry;
+import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.internal.framework.EquinoxContainer;
+import org.eclipse.osgi.internal.messages.Msg;
+import org.eclipse.osgi.storage.BundleInfo;
+import org.eclipse.osgi.storage.Storage.StorageException;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * A BundleFile that memory maps a zip file and reads the central directory
+ * itself.  Stored entries are read directly from the mapped buffer without
+ * going through a ZipFile; deflated entries are inflated from the mapped buffer.
+ * <p>
+ * The mapping does not hold a file descriptor open, so this bundle file is
+ * not managed by the MRUBundleFileList.  But the mapping is only released once
+ * it is garbage collected and on some platforms the file cannot be deleted or
+ * replaced until then.  Zip64 archives and archives larger than 2GB are not
+ * supported; creating a MappedZipBundleFile for such a file fails with an
+ * IOException and a ZipBundleFile should be used instead.  A truncated or
+ * corrupt archive also fails with an IOException.
+ */
+public class MappedZipBundleFile extends BundleFile {
+	private static final int END_HEADER_SIG = 0x06054b50;
+	private static final int END_HEADER_SIZE = 22;
+	private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int LOCAL_HEADER_SIG = 0x04034b50;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int MAX_COMMENT_SIZE = 0xffff;
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+	private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+	private final BundleInfo.Generation generation;
+	private final Debug debug;
+	/**
+	 * The entries by name
+	 */
+	private final Map<String, MappedEntry> entries;
+	/**
+	 * The index of the entry names
+	 */
+	private final ZipEntryIndex entryIndex;
+	/**
+	 * The mapped content of the zip file or null if closed
+	 */
+	private volatile ByteBuffer content;
+
+	public MappedZipBundleFile(File basefile, BundleInfo.Generation generation, Debug debug) throws IOException {
+		super(basefile);
+		if (!BundleFile.secureAction.exists(basefile))
+			throw new IOException(NLS.bind(Msg.ADAPTER_FILEEXIST_EXCEPTION, basefile));
+		this.generation = generation;
+		this.debug = debug;
+		ByteBuffer mapped = map();
+		List<String> names = new ArrayList<>();
+		try {
+			this.entries = readCentralDirectory(mapped, names);
+		} catch (RuntimeException e) {
+			throw new IOException("Invalid zip file: " + basefile, e); //$NON-NLS-1$
+		}
+		this.entryIndex = ZipEntryIndex.create(names);
+		this.content = mapped;
+	}
+
+	private ByteBuffer map() throws IOException {
+		RandomAccessFile file = new RandomAccessFile(basefile, "r"); //$NON-NLS-1$
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Zip file is too large to map: " + basefile); //$NON-NLS-1$
+			}
+			ByteBuffer result = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			result.order(ByteOrder.LITTLE_ENDIAN);
+			return result;
+		} finally {
+			file.close();
+		}
+	}
+
+	private Map<String, MappedEntry> readCentralDirectory(ByteBuffer mapped, List<String> names) throws IOException {
+		int end = findEndHeader(mapped);
+		int count = getUnsignedShort(mapped, end + 10);
+		long directorySize = getUnsignedInt(mapped, end + 12);
+		long directoryOffset = getUnsignedInt(mapped, end + 16);
+		if (count == 0xffff || directorySize == 0xffffffffL || directoryOffset == 0xffffffffL) {
+			throw new IOException("Unsupported zip file: " + basefile); //$NON-NLS-1$
+		}
+		if (directoryOffset + directorySize > end) {
+			throw new IOException("Invalid zip central directory: " + basefile); //$NON-NLS-1$
+		}
+		Map<String, MappedEntry> result = new HashMap<>(count * 4 / 3 + 1);
+		int pos = (int) directoryOffset;
+		for (int i = 0; i < count; i++) {
+			if (pos + CENTRAL_HEADER_SIZE > end || getInt(mapped, pos) != CENTRAL_HEADER_SIG) {
+				throw new IOException("Invalid zip central directory: " + basefile); //$NON-NLS-1$
+			}
+			int method = getUnsignedShort(mapped, pos + 10);
+			long dosTime = getUnsignedInt(mapped, pos + 12);
+			long compressedSize = getUnsignedInt(mapped, pos + 20);
+			long size = getUnsignedInt(mapped, pos + 24);
+			int nameLength = getUnsignedShort(mapped, pos + 28);
+			int extraLength = getUnsignedShort(mapped, pos + 30);
+			int commentLength = getUnsignedShort(mapped, pos + 32);
+			long localOffset = getUnsignedInt(mapped, pos + 42);
+			if (compressedSize == 0xffffffffL || size == 0xffffffffL || localOffset == 0xffffffffL) {
+				throw new IOException("Unsupported zip file: " + basefile); //$NON-NLS-1$
+			}
+			// the name must be in the central directory and the data must be before it
+			checkBounds(pos + CENTRAL_HEADER_SIZE, nameLength, end);
+			checkBounds(localOffset, LOCAL_HEADER_SIZE + compressedSize, directoryOffset);
+			byte[] nameBytes = new byte[nameLength];
+			ByteBuffer nameBuffer = mapped.duplicate();
+			nameBuffer.position(pos + CENTRAL_HEADER_SIZE);
+			nameBuffer.get(nameBytes);
+			String name = new String(nameBytes, UTF8);
+			if (!result.containsKey(name)) {
+				result.put(name, new MappedEntry(name, method, dosTime, (int) compressedSize, (int) size, (int) localOffset));
+				names.add(name);
+			}
+			pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+		return result;
+	}
+
+	private int findEndHeader(ByteBuffer mapped) throws IOException {
+		int limit = Math.max(0, mapped.limit() - END_HEADER_SIZE - MAX_COMMENT_SIZE);
+		for (int pos = mapped.limit() - END_HEADER_SIZE; pos >= limit; pos--) {
+			if (getInt(mapped, pos) == END_HEADER_SIG) {
+				return pos;
+			}
+		}
+		throw new IOException("Invalid zip file: " + basefile); //$NON-NLS-1$
+	}
+
+	private int getInt(ByteBuffer buffer, int index) throws IOException {
+		checkBounds(index, 4, buffer.limit());
+		return buffer.getInt(index);
+	}
+
+	private int getUnsignedShort(ByteBuffer buffer, int index) throws IOException {
+		checkBounds(index, 2, buffer.limit());
+		return buffer.getShort(index) & 0xffff;
+	}
+
+	private long getUnsignedInt(ByteBuffer buffer, int index) throws IOException {
+		return getInt(buffer, index) & 0xffffffffL;
+	}
+
+	/*
+	 * Checks that length bytes at the index are before the limit; a truncated
+	 * or corrupt zip file must fail with an IOException.
+	 */
+	private void checkBounds(long index, long length, long limit) throws IOException {
+		if (index < 0 || length < 0 || index + length > limit) {
+			throw new IOException("Invalid zip file: " + basefile); //$NON-NLS-1$
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	static long dosToJavaTime(long dosTime) {
+		Date date = new Date((int) (((dosTime >> 25) & 0x7f) + 80), (int) (((dosTime >> 21) & 0x0f) - 1), (int) ((dosTime >> 16) & 0x1f), (int) ((dosTime >> 11) & 0x1f), (int) ((dosTime >> 5) & 0x3f), (int) ((dosTime << 1) & 0x3e));
+		return date.getTime();
+	}
+
+	private ByteBuffer getContent() throws IOException {
+		ByteBuffer current = content;
+		if (current == null) {
+			synchronized (this) {
+				current = content;
+				if (current == null) {
+					current = map();
+					content = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Returns a read only buffer with the raw data of an entry.  For stored
+	 * entries this is the content of the entry.
+	 */
+	ByteBuffer getData(MappedEntry entry) throws IOException {
+		ByteBuffer buffer = getContent().duplicate();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (getInt(buffer, entry.localOffset) != LOCAL_HEADER_SIG) {
+			throw new IOException("Invalid zip entry: " + basefile + "!/" + entry.name); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		int dataOffset = entry.localOffset + LOCAL_HEADER_SIZE + getUnsignedShort(buffer, entry.localOffset + 26) + getUnsignedShort(buffer, entry.localOffset + 28);
+		checkBounds(dataOffset, entry.compressedSize, buffer.limit());
+		buffer.limit(dataOffset + entry.compressedSize);
+		buffer.position(dataOffset);
+		return buffer.slice();
+	}
+
+	InputStream getInputStream(MappedEntry entry) throws IOException {
+		ByteBuffer data = getData(entry);
+		switch (entry.method) {
+			case METHOD_STORED :
+				return new ByteBufferInputStream(data);
+			case METHOD_DEFLATED :
+				final Inflater inflater = new Inflater(true);
+				// the extra byte is needed by the inflater when nowrap is used
+				return new InflaterInputStream(new ByteBufferInputStream(data, true), inflater, Math.max(512, Math.min(entry.compressedSize, BundleEntry.BUF_SIZE))) {
+					private boolean ended = false;
+
+					@Override
+					public void close() throws IOException {
+						super.close();
+						synchronized (this) {
+							if (!ended) {
+								ended = true;
+								inflater.end();
+							}
+						}
+					}
+				};
+			default :
+				throw new IOException("Unsupported compression method " + entry.method + ": " + basefile + "!/" + entry.name); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+	}
+
+	private MappedEntry getMappedEntry(String path) {
+		if (path.length() > 0 && path.charAt(0) == '/')
+			path = path.substring(1);
+		MappedEntry entry = entries.get(path);
+		if (entry == null || (entry.size == 0 && !entry.isDirectory())) {
+			// prefer the directory entry, like ZipFile.getEntry
+			MappedEntry dirEntry = entries.get(path + '/');
+			if (dirEntry != null)
+				entry = dirEntry;
+		}
+		return entry;
+	}
+
+	@Override
+	public BundleEntry getEntry(String path) {
+		MappedEntry entry = getMappedEntry(path);
+		if (entry == null) {
+			if (path.length() == 0 || path.charAt(path.length() - 1) == '/') {
+				// this is a directory request lets see if any entries exist in this directory
+				if (containsDir(path))
+					return new MappedDirBundleEntry(this, path);
+			}
+			return null;
+		}
+		return new MappedZipBundleEntry(entry, this);
+	}
+
+	@Override
+	public boolean containsDir(String dir) {
+		if (dir == null)
+			return false;
+
+		if (dir.length() == 0)
+			return true;
+
+		if (dir.charAt(0) == '/') {
+			if (dir.length() == 1)
+				return true;
+			dir = dir.substring(1);
+		}
+
+		if (dir.length() > 0 && dir.charAt(dir.length() - 1) != '/')
+			dir = dir + '/';
+
+		return entryIndex.containsPrefix(dir);
+	}
+
+	@Override
+	public Enumeration<String> getEntryPaths(String path, boolean recurse) {
+		if (path == null)
+			throw new NullPointerException();
+
+		// Strip any leading '/' off of path.
+		if (path.length() > 0 && path.charAt(0) == '/')
+			path = path.substring(1);
+		// Append a '/', if not already there, to path if not an empty string.
+		if (path.length() > 0 && path.charAt(path.length() - 1) != '/')
+			path = new StringBuilder(path).append("/").toString(); //$NON-NLS-1$
+
+		LinkedHashSet<String> result = new LinkedHashSet<>();
+		for (String entryPath : entryIndex.getNamesWithPrefix(path)) {
+			if (path.length() < entryPath.length()) {
+				getEntryPaths(path, entryPath.substring(path.length()), recurse, result);
+			}
+		}
+		return result.size() == 0 ? null : Collections.enumeration(result);
+	}
+
+	private void getEntryPaths(String path, String entry, boolean recurse, LinkedHashSet<String> result) {
+		if (entry.length() == 0)
+			return;
+		int slash = entry.indexOf('/');
+		if (slash == -1)
+			result.add(path + entry);
+		else {
+			path = path + entry.substring(0, slash + 1);
+			result.add(path);
+			if (recurse)
+				getEntryPaths(path, entry.substring(slash + 1), true, result);
+		}
+	}
+
+	/**
+	 * Extracts a directory and all sub content to disk
+	 * @param dirName the directory name to extract
+	 * @return the File used to extract the content to.  A value
+	 * of <code>null</code> is returned if the directory to extract does
+	 * not exist or if content extraction is not supported.
+	 */
+	File extractDirectory(String dirName) {
+		for (String entryPath : entryIndex.getNamesWithPrefix(dirName)) {
+			if (!entryPath.endsWith("/")) //$NON-NLS-1$
+				getFile(entryPath, false);
+		}
+		return getExtractFile(dirName);
+	}
+
+	private File getExtractFile(String entryName) {
+		if (generation == null)
+			return null;
+		return generation.getExtractFile(".cp", entryName); //$NON-NLS-1$
+	}
+
+	@Override
+	public File getFile(String path, boolean nativeCode) {
+		MappedEntry entry = getMappedEntry(path);
+		if (entry == null)
+			return null;
+		try {
+			File nested = getExtractFile(entry.name);
+			if (nested != null) {
+				if (nested.exists()) {
+					/* the entry is already cached */
+					if (debug.DEBUG_BUNDLE_FILE)
+						Debug.println("File already present: " + nested.getPath()); //$NON-NLS-1$
+					if (nested.isDirectory())
+						// must ensure the complete directory is extracted (bug 182585)
+						extractDirectory(entry.name);
+				} else {
+					if (entry.isDirectory()) {
+						nested.mkdirs();
+						if (!nested.isDirectory()) {
+							if (debug.DEBUG_BUNDLE_FILE)
+								Debug.println("Unable to create directory: " + nested.getPath()); //$NON-NLS-1$
+							throw new IOException(NLS.bind(Msg.ADAPTOR_DIRECTORY_CREATE_EXCEPTION, nested.getAbsolutePath()));
+						}
+						extractDirectory(entry.name);
+					} else {
+						generation.storeContent(nested, getInputStream(entry), nativeCode);
+					}
+				}
+				return nested;
+			}
+		} catch (IOException | StorageException e) {
+			if (debug.DEBUG_BUNDLE_FILE)
+				Debug.printStackTrace(e);
+			generation.getBundleInfo().getStorage().getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.ERROR, "Unable to extract content: " + generation.getRevision() + ": " + path, e); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return null;
+	}
+
+	@Override
+	public void open() throws IOException {
+		getContent();
+	}
+
+	@Override
+	public void close() throws IOException {
+		// the mapping is released once the buffer is garbage collected
+		content = null;
+	}
+
+	static final class MappedEntry {
+		final String name;
+		final int method;
+		final long dosTime;
+		final int compressedSize;
+		final int size;
+		final int localOffset;
+
+		MappedEntry(String name, int method, long dosTime, int compressedSize, int size, int localOffset) {
+			this.name = name;
+			this.method = method;
+			this.dosTime = dosTime;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localOffset = localOffset;
+		}
+
+		boolean isDirectory() {
+			return name.endsWith("/"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * A BundleEntry for an entry of a MappedZipBundleFile.
+	 */
+	public static class MappedZipBundleEntry extends BundleEntry {
+		private final MappedEntry entry;
+		private final MappedZipBundleFile bundleFile;
+
+		MappedZipBundleEntry(MappedEntry entry, MappedZipBundleFile bundleFile) {
+			this.entry = entry;
+			this.bundleFile = bundleFile;
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			return bundleFile.getInputStream(entry);
+		}
+
+		@Override
+		public byte[] getBytes() throws IOException {
+			if (entry.method != METHOD_STORED) {
+				return super.getBytes();
+			}
+			// copy straight out of the mapped buffer
+			ByteBuffer data = bundleFile.getData(entry);
+			byte[] result = new byte[data.remaining()];
+			data.get(result);
+			return result;
+		}
+
+		@Override
+		public long getSize() {
+			return entry.size;
+		}
+
+		@Override
+		public String getName() {
+			return entry.name;
+		}
+
+		@Override
+		public long getTime() {
+			return dosToJavaTime(entry.dosTime);
+		}
+
+		@SuppressWarnings("deprecation")
+		@Override
+		public URL getLocalURL() {
+			try {
+				return new URL("jar:" + bundleFile.basefile.toURL() + "!/" + entry.name); //$NON-NLS-1$//$NON-NLS-2$
+			} catch (MalformedURLException e) {
+				//This can not happen.
+				return null;
+			}
+		}
+
+		@SuppressWarnings("deprecation")
+		@Override
+		public URL getFileURL() {
+			try {
+				File file = bundleFile.getFile(entry.name, false);
+				if (file != null)
+					return file.toURL();
+			} catch (MalformedURLException e) {
+				//This can not happen.
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Represents a directory of a MappedZipBundleFile which has no entry of
+	 * its own in the zip file.
+	 */
+	static class MappedDirBundleEntry extends BundleEntry {
+		private final MappedZipBundleFile bundleFile;
+		private final String name;
+
+		MappedDirBundleEntry(MappedZipBundleFile bundleFile, String name) {
+			this.name = (name.length() > 0 && name.charAt(0) == '/') ? name.substring(1) : name;
+			this.bundleFile = bundleFile;
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+
+		@Override
+		public long getSize() {
+			return 0;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public long getTime() {
+			return 0;
+		}
+
+		@SuppressWarnings("deprecation")
+		@Override
+		public URL getLocalURL() {
+			try {
+				return new URL("jar:" + bundleFile.basefile.toURL() + "!/" + name); //$NON-NLS-1$ //$NON-NLS-2$
+			} catch (MalformedURLException e) {
+				//This can not happen, unless the jar protocol is not supported.
+				return null;
+			}
+		}
+
+		@SuppressWarnings("deprecation")
+		@Override
+		public URL getFileURL() {
+			try {
+				return bundleFile.extractDirectory(name).toURL();
+			} catch (MalformedURLException e) {
+				// this cannot happen.
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * An InputStream over a ByteBuffer.
+	 */
+	static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+		private boolean padding;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this(buffer, false);
+		}
+
+		ByteBufferInputStream(ByteBuffer buffer, boolean padding) {
+			this.buffer = buffer;
+			this.padding = padding;
+		}
+
+		@Override
+		public int read() {
+			if (!buffer.hasRemaining()) {
+				if (padding) {
+					padding = false;
+					return 0;
+				}
+				return -1;
+			}
+			return buffer.get() & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				if (padding) {
+					padding = false;
+					b[off] = 0;
+					return 1;
+				}
+				return -1;
+			}
+			int count = Math.min(len, buffer.remaining());
+			buffer.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public long skip(long n) {
+			int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -61,6 +61,11 @@ public class ZipBundleFile extends BundleFile {
 	 * The closed flag
 	 */
 	private volatile boolean closed = true;
+	/**
+	 * The index of the zip file entry names; lazily created and kept
+	 * when the zip file is closed.
+	 */
+	private volatile ZipEntryIndex entryIndex;
 
 	private int referenceCount = 0;
 
@@ -83,6 +88,8 @@ public class ZipBundleFile extends BundleFile {
 			return getZipFile(true) != null;
 		} catch (IOException e) {
 			if (generation != null) {
+				// entries not found because the zip file cannot be opened must not be remembered as missing
+				generation.getBundleInfo().getStorage().getConfiguration().getHookRegistry().getContainer().classLoaderContentChanged();
 				ModuleRevision r = generation.getRevision();
 				if (r != null) {
 					ContainerEvent eventType = ContainerEvent.ERROR;
@@ -147,6 +154,31 @@ public class ZipBundleFile extends BundleFile {
 		}
 	}
 
+	/**
+	 * Returns the index of the entry names for this bundle file.  The zip file
+	 * is only opened if the index has not been created yet.
+	 * @return the entry index or null if the zip file could not be opened
+	 */
+	private ZipEntryIndex getEntryIndex() {
+		ZipEntryIndex index = entryIndex;
+		if (index != null) {
+			return index;
+		}
+		if (!lockOpen()) {
+			return null;
+		}
+		try {
+			index = entryIndex;
+			if (index == null) {
+				index = ZipEntryIndex.create(zipFile);
+				entryIndex = index;
+			}
+			return index;
+		} finally {
+			openLock.unlock();
+		}
+	}
+
 	/**
 	* Returns a ZipEntry for the bundle file. Must be called while holding the open lock.
 	* This method does not ensure that the ZipFile is opened. Callers may need to call getZipfile() prior to calling this 
@@ -249,43 +281,44 @@ public class ZipBundleFile extends BundleFile {
 
 	@Override
 	public boolean containsDir(String dir) {
-		if (!lockOpen()) {
+		ZipEntryIndex index = getEntryIndex();
+		if (index == null) {
 			return false;
 		}
-		try {
-			if (dir == null)
-				return false;
+		if (dir == null)
+			return false;
 
-			if (dir.length() == 0)
-				return true;
+		if (dir.length() == 0)
+			return true;
 
-			if (dir.charAt(0) == '/') {
-				if (dir.length() == 1)
-					return true;
-				dir = dir.substring(1);
-			}
+		if (dir.charAt(0) == '/') {
+			if (dir.length() == 1)
+				return true;
+			dir = dir.substring(1);
+		}
 
-			if (dir.length() > 0 && dir.charAt(dir.length() - 1) != '/')
-				dir = dir + '/';
+		if (dir.length() > 0 && dir.charAt(dir.length() - 1) != '/')
+			dir = dir + '/';
 
-			Enumeration<? extends ZipEntry> entries = zipFile.entries();
-			ZipEntry zipEntry;
-			String entryPath;
-			while (entries.hasMoreElements()) {
-				zipEntry = entries.nextElement();
-				entryPath = zipEntry.getName();
-				if (entryPath.startsWith(dir)) {
-					return true;
-				}
-			}
-		} finally {
-			openLock.unlock();
-		}
-		return false;
+		return index.containsPrefix(dir);
 	}
 
 	@Override
 	public BundleEntry getEntry(String path) {
+		ZipEntryIndex index = getEntryIndex();
+		if (index == null) {
+			return null;
+		}
+		String name = path.length() > 0 && path.charAt(0) == '/' ? path.substring(1) : path;
+		if (!index.contains(name) && !index.contains(name + '/')) {
+			// avoid opening the zip file for entries which do not exist
+			if (path.length() == 0 || path.charAt(path.length() - 1) == '/') {
+				// this is a directory request lets see if any entries exist in this directory
+				if (containsDir(path))
+					return new DirZipBundleEntry(this, path);
+			}
+			return null;
+		}
 		if (!lockOpen()) {
 			return null;
 		}
@@ -308,41 +341,31 @@ public class ZipBundleFile extends BundleFile {
 
 	@Override
 	public Enumeration<String> getEntryPaths(String path, boolean recurse) {
-		if (!lockOpen()) {
+		ZipEntryIndex index = getEntryIndex();
+		if (index == null) {
 			return null;
 		}
-		try {
-			if (path == null)
-				throw new NullPointerException();
-
-			// Strip any leading '/' off of path.
-			if (path.length() > 0 && path.charAt(0) == '/')
-				path = path.substring(1);
-			// Append a '/', if not already there, to path if not an empty string.
-			if (path.length() > 0 && path.charAt(path.length() - 1) != '/')
-				path = new StringBuilder(path).append("/").toString(); //$NON-NLS-1$
-
-			LinkedHashSet<String> result = new LinkedHashSet<>();
-			// Get all zip file entries and add the ones of interest.
-			Enumeration<? extends ZipEntry> entries = zipFile.entries();
-			while (entries.hasMoreElements()) {
-				ZipEntry zipEntry = entries.nextElement();
-				String entryPath = zipEntry.getName();
-				// Is the entry of possible interest? Note that 
-				// string.startsWith("") == true.
-				if (entryPath.startsWith(path)) {
-					// If we get here, we know that the entry is either (1) equal to
-					// path, (2) a file under path, or (3) a subdirectory of path.
-					if (path.length() < entryPath.length()) {
-						// If we get here, we know that entry is not equal to path.
-						getEntryPaths(path, entryPath.substring(path.length()), recurse, result);
-					}
-				}
+		if (path == null)
+			throw new NullPointerException();
+
+		// Strip any leading '/' off of path.
+		if (path.length() > 0 && path.charAt(0) == '/')
+			path = path.substring(1);
+		// Append a '/', if not already there, to path if not an empty string.
+		if (path.length() > 0 && path.charAt(path.length() - 1) != '/')
+			path = new StringBuilder(path).append("/").toString(); //$NON-NLS-1$
+
+		LinkedHashSet<String> result = new LinkedHashSet<>();
+		// Get the zip file entries under the path in zip file order.
+		for (String entryPath : index.getNamesWithPrefix(path)) {
+			// If we get here, we know that the entry is either (1) equal to
+			// path, (2) a file under path, or (3) a subdirectory of path.
+			if (path.length() < entryPath.length()) {
+				// If we get here, we know that entry is not equal to path.
+				getEntryPaths(path, entryPath.substring(path.length()), recurse, result);
 			}
-			return result.size() == 0 ? null : Collections.enumeration(result);
-		} finally {
-			openLock.unlock();
 		}
+		return result.size() == 0 ? null : Collections.enumeration(result);
 	}
 
 	private void getEntryPaths(String path, String entry, boolean recurse, LinkedHashSet<String> entries) {
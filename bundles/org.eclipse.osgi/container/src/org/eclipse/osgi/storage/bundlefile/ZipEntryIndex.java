@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2019 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.storage.bundlefile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An immutable index of the entry names of a zip file.
+ * <p>
+ * The names are kept in the order they appear in the zip file along with a
+ * table of their positions sorted by name.  Existence and prefix queries use
+ * a binary search of the sorted table and do not need the zip file to be open.
+ * Names returned for a prefix are in the order they appear in the zip file.
+ */
+final class ZipEntryIndex {
+	private final String[] names;
+	private final int[] sorted;
+
+	private ZipEntryIndex(String[] names, int[] sorted) {
+		this.names = names;
+		this.sorted = sorted;
+	}
+
+	/**
+	 * Creates an index of the entries of the specified open zip file.
+	 * @param zipFile the zip file
+	 * @return the index of the zip file entries
+	 */
+	static ZipEntryIndex create(ZipFile zipFile) {
+		List<String> entryNames = new ArrayList<>(zipFile.size());
+		Enumeration<? extends ZipEntry> entries = zipFile.entries();
+		while (entries.hasMoreElements()) {
+			entryNames.add(entries.nextElement().getName());
+		}
+		return create(entryNames);
+	}
+
+	/**
+	 * Creates an index of the specified entry names.
+	 * @param entryNames the entry names in the order they appear in the zip file
+	 * @return the index of the entry names
+	 */
+	static ZipEntryIndex create(List<String> entryNames) {
+		final String[] names = entryNames.toArray(new String[entryNames.size()]);
+		Integer[] positions = new Integer[names.length];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = i;
+		}
+		Arrays.sort(positions, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer p1, Integer p2) {
+				return names[p1].compareTo(names[p2]);
+			}
+		});
+		int[] sorted = new int[positions.length];
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = positions[i];
+		}
+		return new ZipEntryIndex(names, sorted);
+	}
+
+	/**
+	 * Returns true if the zip file contains an entry with the specified name.
+	 * @param name the entry name
+	 * @return true if the entry exists
+	 */
+	boolean contains(String name) {
+		int i = lowerBound(name);
+		return i < sorted.length && names[sorted[i]].equals(name);
+	}
+
+	/**
+	 * Returns true if the zip file contains an entry which starts with the specified prefix.
+	 * @param prefix the entry name prefix
+	 * @return true if an entry starts with the prefix
+	 */
+	boolean containsPrefix(String prefix) {
+		int i = lowerBound(prefix);
+		return i < sorted.length && names[sorted[i]].startsWith(prefix);
+	}
+
+	/**
+	 * Returns the names of the entries which start with the specified prefix
+	 * in the order they appear in the zip file.
+	 * @param prefix the entry name prefix
+	 * @return the names of the entries which start with the prefix
+	 */
+	List<String> getNamesWithPrefix(String prefix) {
+		int start = lowerBound(prefix);
+		int end = start;
+		while (end < sorted.length && names[sorted[end]].startsWith(prefix)) {
+			end++;
+		}
+		if (start == end) {
+			return Collections.emptyList();
+		}
+		int[] positions = Arrays.copyOfRange(sorted, start, end);
+		Arrays.sort(positions);
+		List<String> result = new ArrayList<>(positions.length);
+		for (int position : positions) {
+			result.add(names[position]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the index into the sorted table of the first name which is
+	 * greater than or equal to the specified name.
+	 */
+	private int lowerBound(String name) {
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (names[sorted[mid]].compareTo(name) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.felix.resolver.ResolverImpl.Packages;
+import org.apache.felix.resolver.ResolverImpl.WireCandidate;
+import org.apache.felix.resolver.util.OpenHashMap;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+import org.osgi.resource.Wiring;
+import org.osgi.service.resolver.ResolveContext;
+
+/**
+ * Holds the package spaces calculated for wired resources so that later
+ * resolve operations can reuse them instead of calculating them again.
+ * A package space is only reused while the resource has the same required
+ * wires and capabilities as when it was calculated.  The package space of a
+ * resource also includes the packages of the resources it is wired to, so
+ * the resource must be {@link #invalidate(Resource) invalidated} when the
+ * capabilities of its wiring change.
+ * <p>
+ * The cached package spaces are snapshots which are never changed.  Each
+ * resolve operation gets its own copy of the package maps.
+ */
+public class PackageSpaceCache
+{
+    private final ConcurrentMap<Resource, CachedPackages> m_packages = new ConcurrentHashMap<Resource, CachedPackages>();
+
+    /**
+     * Removes the package spaces of the resources which are no longer wired.
+     * @param wired the wired resources
+     */
+    public void retainAll(Set<? extends Resource> wired)
+    {
+        m_packages.keySet().retainAll(wired);
+    }
+
+    /**
+     * Removes the package space of a resource along with the package spaces
+     * of all resources which are wired to it, directly or indirectly.
+     * @param resource the resource
+     */
+    public void invalidate(Resource resource)
+    {
+        Set<Resource> invalid = new HashSet<Resource>();
+        invalid.add(resource);
+        m_packages.remove(resource);
+        boolean removed;
+        do
+        {
+            removed = false;
+            for (Iterator<Map.Entry<Resource, CachedPackages>> entries = m_packages.entrySet().iterator(); entries.hasNext();)
+            {
+                Map.Entry<Resource, CachedPackages> entry = entries.next();
+                if (entry.getValue().isWiredTo(invalid))
+                {
+                    invalid.add(entry.getKey());
+                    entries.remove();
+                    removed = true;
+                }
+            }
+        }
+        while (removed);
+    }
+
+    /**
+     * The view of the cache for one resolve session.  Package spaces which were
+     * validated against the wirings of the session are not validated again.
+     */
+    final class Session
+    {
+        private final ResolveContext m_resolveContext;
+        private final ConcurrentMap<Resource, CachedPackages> m_valid = new ConcurrentHashMap<Resource, CachedPackages>();
+
+        Session(ResolveContext resolveContext)
+        {
+            m_resolveContext = resolveContext;
+        }
+
+        /**
+         * Returns the cached package space of a wired resource, or null if
+         * there is none which is valid for the current wiring of the resource.
+         */
+        CachedPackages get(Resource resource)
+        {
+            CachedPackages cached = m_valid.get(resource);
+            if (cached == null)
+            {
+                Wiring wiring = m_resolveContext.getWirings().get(resource);
+                if (wiring == null)
+                {
+                    return null;
+                }
+                cached = m_packages.get(resource);
+                if (cached == null || !cached.isValid(wiring))
+                {
+                    return null;
+                }
+                m_valid.put(resource, cached);
+            }
+            return cached;
+        }
+
+        /**
+         * Caches a snapshot of the package space calculated for a resource if it is wired.
+         */
+        void put(Resource resource, List<WireCandidate> wireCandidates, Packages packages)
+        {
+            Wiring wiring = m_resolveContext.getWirings().get(resource);
+            // uses constraints are only calculated for resolving resources
+            if (wiring == null || !packages.m_usedPkgs.isEmpty())
+            {
+                return;
+            }
+            CachedPackages cached = new CachedPackages(resource, wiring, wireCandidates, packages);
+            m_valid.put(resource, cached);
+            m_packages.put(resource, cached);
+        }
+    }
+
+    static final class CachedPackages
+    {
+        private final List<Wire> m_wires;
+        private final List<Capability> m_capabilities;
+        private final Resource m_resource;
+        private final Packages m_packages;
+        final List<WireCandidate> m_wireCandidates;
+
+        CachedPackages(Resource resource, Wiring wiring, List<WireCandidate> wireCandidates, Packages packages)
+        {
+            m_wires = wiring.getRequiredResourceWires(null);
+            m_capabilities = wiring.getResourceCapabilities(null);
+            m_resource = resource;
+            m_wireCandidates = Collections.unmodifiableList(new ArrayList<WireCandidate>(wireCandidates));
+            m_packages = new Packages(resource);
+            m_packages.m_exportedPkgs.putAll(packages.m_exportedPkgs);
+            m_packages.m_substitePkgs.putAll(packages.m_substitePkgs);
+            copyUnmodifiable(packages.m_importedPkgs, m_packages.m_importedPkgs);
+            copyUnmodifiable(packages.m_requiredPkgs, m_packages.m_requiredPkgs);
+            for (Map.Entry<Capability, Set<Capability>> source : packages.m_sources.fast())
+            {
+                m_packages.m_sources.put(source.getKey(), Collections.unmodifiableSet(new HashSet<Capability>(source.getValue())));
+            }
+        }
+
+        /**
+         * Returns a copy of the package space for a resolve operation to use.
+         */
+        Packages copyPackages()
+        {
+            Packages copy = new Packages(m_resource);
+            copy.m_exportedPkgs.putAll(m_packages.m_exportedPkgs);
+            copy.m_substitePkgs.putAll(m_packages.m_substitePkgs);
+            copy.m_importedPkgs.putAll(m_packages.m_importedPkgs);
+            copy.m_requiredPkgs.putAll(m_packages.m_requiredPkgs);
+            copy.m_sources.putAll(m_packages.m_sources);
+            return copy;
+        }
+
+        boolean isValid(Wiring wiring)
+        {
+            return m_wires.equals(wiring.getRequiredResourceWires(null))
+                && m_capabilities.equals(wiring.getResourceCapabilities(null));
+        }
+
+        boolean isWiredTo(Set<Resource> providers)
+        {
+            for (Wire wire : m_wires)
+            {
+                if (providers.contains(wire.getProvider()))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static <T> void copyUnmodifiable(OpenHashMap<String, List<T>> from, OpenHashMap<String, List<T>> to)
+        {
+            for (Map.Entry<String, List<T>> entry : from.fast())
+            {
+                to.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<T>(entry.getValue())));
+            }
+        }
+    }
+}
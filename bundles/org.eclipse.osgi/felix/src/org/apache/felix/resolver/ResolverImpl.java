@@ -46,6 +46,8 @@ public class ResolverImpl implements Resolver
 
     private final Executor m_executor;
 
+    private final PackageSpaceCache m_packageSpaceCache;
+
     enum PermutationType {
         USES,
         IMPORT,
@@ -90,12 +92,18 @@ public class ResolverImpl implements Resolver
         private final Set<Requirement> m_mutated = new HashSet<Requirement>();
         private final Set<Requirement> m_sub_mutated = new HashSet<Requirement>();
         private final ConcurrentMap<String, List<String>> m_usesCache = new ConcurrentHashMap<String, List<String>>();
+        private final PackageSpaceCache.Session m_packageSpaces;
         private ResolutionError m_currentError;
         volatile private CancellationException m_isCancelled = null;
 
         static ResolveSession createSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
         {
-            ResolveSession session = new ResolveSession(resolveContext, executor, dynamicHost, dynamicReq, dynamicCandidates);
+            return createSession(resolveContext, executor, dynamicHost, dynamicReq, dynamicCandidates, null);
+        }
+
+        static ResolveSession createSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates, PackageSpaceCache packageSpaceCache)
+        {
+            ResolveSession session = new ResolveSession(resolveContext, executor, dynamicHost, dynamicReq, dynamicCandidates, packageSpaceCache);
             // call onCancel first
             session.getContext().onCancel(session);
             // now gather the mandatory and optional resources
@@ -103,10 +111,12 @@ public class ResolverImpl implements Resolver
             return session;
         }
 
-        private ResolveSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
+        private ResolveSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates, PackageSpaceCache packageSpaceCache)
         {
             m_resolveContext = resolveContext;
             m_executor = executor;
+            // the package space of a dynamically importing host is calculated again
+            m_packageSpaces = dynamicHost == null && packageSpaceCache != null ? packageSpaceCache.new Session(resolveContext) : null;
             m_dynamicHost = dynamicHost;
             m_dynamicReq = dynamicReq;
             m_dynamicCandidates = dynamicCandidates;
@@ -269,6 +279,11 @@ public class ResolverImpl implements Resolver
             return m_executor;
         }
 
+        PackageSpaceCache.Session getPackageSpaces()
+        {
+            return m_packageSpaces;
+        }
+
         ResolutionError getCurrentError() {
             return m_currentError;
         }
@@ -359,13 +374,28 @@ public class ResolverImpl implements Resolver
         this.m_logger = logger;
         this.m_parallelism = parallelism;
         this.m_executor = null;
+        this.m_packageSpaceCache = null;
     }
 
     public ResolverImpl(Logger logger, Executor executor)
+    {
+        this(logger, executor, null);
+    }
+
+    /**
+     * Creates a resolver which reuses the package spaces of wired resources
+     * held by the specified cache and adds the package spaces it calculates
+     * for wired resources to the cache.
+     * @param logger the logger
+     * @param executor the executor, or null to resolve on the calling thread
+     * @param packageSpaceCache the package space cache, or null
+     */
+    public ResolverImpl(Logger logger, Executor executor, PackageSpaceCache packageSpaceCache)
     {
         this.m_logger = logger;
         this.m_parallelism = -1;
         this.m_executor = executor;
+        this.m_packageSpaceCache = packageSpaceCache;
     }
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc) throws ResolutionException
@@ -417,7 +447,7 @@ public class ResolverImpl implements Resolver
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc, Executor executor) throws ResolutionException
     {
-        ResolveSession session = ResolveSession.createSession(rc, executor, null, null, null);
+        ResolveSession session = ResolveSession.createSession(rc, executor, null, null, null, m_packageSpaceCache);
         return doResolve(session);
     }
 
@@ -1128,6 +1158,9 @@ public class ResolverImpl implements Resolver
 
         // Parallel compute wire candidates
         final Map<Resource, List<WireCandidate>> allWireCandidates = new ConcurrentHashMap<Resource, List<WireCandidate>>();
+        // The package spaces of wired resources which do not need to be calculated again
+        final PackageSpaceCache.Session packageSpaces = session.getPackageSpaces();
+        final Map<Resource, Packages> wiredPackages = new ConcurrentHashMap<Resource, Packages>();
         {
             final ConcurrentMap<Resource, Runnable> tasks = new ConcurrentHashMap<Resource, Runnable>(allCandidates.getNbResources());
             class Computer implements Runnable
@@ -1139,7 +1172,17 @@ public class ResolverImpl implements Resolver
                 }
                 public void run()
                 {
-                    List<WireCandidate> wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    List<WireCandidate> wireCandidates;
+                    PackageSpaceCache.CachedPackages cached = packageSpaces == null ? null : packageSpaces.get(resource);
+                    if (cached != null)
+                    {
+                        wireCandidates = cached.m_wireCandidates;
+                        wiredPackages.put(resource, cached.copyPackages());
+                    }
+                    else
+                    {
+                        wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    }
                     allWireCandidates.put(resource, wireCandidates);
                     for (WireCandidate w : wireCandidates)
                     {
@@ -1166,6 +1209,12 @@ public class ResolverImpl implements Resolver
         final OpenHashMap<Resource, Packages> allPackages = new OpenHashMap<Resource, Packages>(allCandidates.getNbResources());
         for (final Resource resource : allWireCandidates.keySet())
         {
+            Packages cached = wiredPackages.get(resource);
+            if (cached != null)
+            {
+                allPackages.put(resource, cached);
+                continue;
+            }
             final Packages packages = new Packages(resource);
             allPackages.put(resource, packages);
             executor.execute(new Runnable()
@@ -1182,6 +1231,10 @@ public class ResolverImpl implements Resolver
         // Parallel compute package lists
         for (final Resource resource : allWireCandidates.keySet())
         {
+            if (wiredPackages.containsKey(resource))
+            {
+                continue;
+            }
             executor.execute(new Runnable()
             {
                 public void run()
@@ -1200,7 +1253,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (!packages.m_requiredPkgs.isEmpty())
+            if (!packages.m_requiredPkgs.isEmpty() && !wiredPackages.containsKey(resource))
             {
                 getPackageSourcesInternal(session, allPackages, resource, packages);
             }
@@ -1211,7 +1264,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (packages.m_sources.isEmpty())
+            if (packages.m_sources.isEmpty() && !wiredPackages.containsKey(resource))
             {
                 executor.execute(new Runnable()
                 {
@@ -1227,6 +1280,11 @@ public class ResolverImpl implements Resolver
         // Parallel compute uses
         for (final Resource resource : allWireCandidates.keySet())
         {
+            if (wiredPackages.containsKey(resource))
+            {
+                // uses are only computed for resolving resources
+                continue;
+            }
             executor.execute(new Runnable()
             {
                 public void run()
@@ -1237,6 +1295,18 @@ public class ResolverImpl implements Resolver
         }
         executor.await();
 
+        // Cache the package spaces calculated for wired resources
+        if (packageSpaces != null)
+        {
+            for (Map.Entry<Resource, List<WireCandidate>> entry : allWireCandidates.entrySet())
+            {
+                if (!wiredPackages.containsKey(entry.getKey()))
+                {
+                    packageSpaces.put(entry.getKey(), entry.getValue(), allPackages.get(entry.getKey()));
+                }
+            }
+        }
+
         return allPackages;
     }
 
@@ -2079,7 +2149,7 @@ public class ResolverImpl implements Resolver
         }
     }
 
-    private static final class WireCandidate
+    static final class WireCandidate
     {
         public final Requirement requirement;
         public final Capability capability;